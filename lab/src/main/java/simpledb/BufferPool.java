@@ -1,10 +1,31 @@
 package simpledb;
 
+import simpledb.bufferpool.BackgroundFlusher;
+import simpledb.bufferpool.BufferAccessStrategy;
+import simpledb.bufferpool.FrameArena;
+import simpledb.bufferpool.PageFrame;
+import simpledb.bufferpool.ReadAheadEngine;
+import simpledb.bufferpool.ReplacementPolicy;
+import simpledb.bufferpool.ReplacementPolicyEnum;
+import simpledb.dbfile.DBFile;
 import simpledb.dbpage.DBPage;
 import simpledb.dbpage.PageId;
+import simpledb.dbrecord.Record;
 import simpledb.exception.DBException;
+import simpledb.iterator.DbFileIterator;
+import simpledb.metrics.DBMetrics;
+import simpledb.metrics.LatencyHistogram;
 
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author xiongyx
@@ -12,41 +33,823 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class BufferPool {
 
-    private static final int DEFAULT_PAGE_SIZE = 1024;
+    /**
+     * 丢弃页面时等待其它线程释放pin的最长时间
+     * */
+    private static final long DISCARD_WAIT_MILLIS = 10000;
 
-    private final ConcurrentHashMap<PageId, DBPage> pageCacheMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<PageId, PageFrame> pageCacheMap = new ConcurrentHashMap<>();
+
+    /**
+     * 已占用(包括正在加载中)的页帧数，加载新页面前先预留，保证缓冲池中的页面数不超过上限
+     * */
+    private final AtomicInteger frameNum = new AtomicInteger();
+
+    private final ReplacementPolicy replacementPolicy;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * 未命中时从磁盘加载页面的耗时
+     * */
+    private final LatencyHistogram missLatency = new LatencyHistogram();
+
+    /**
+     * 新建文件时使用的页大小(已存在的文件以文件头中记录的页大小为准)
+     * */
+    private final int pageSize;
 
     private int maxPageSize;
 
+    private BackgroundFlusher backgroundFlusher;
+
+    /**
+     * 异步预读，为null时不进行预读
+     * */
+    private volatile ReadAheadEngine readAheadEngine;
+
+    /**
+     * 预读窗口，扫描时提前加载游标之后的页数
+     * */
+    private volatile int readAheadWindow;
+
+    /**
+     * 堆外页帧池，为null时页面对象常驻堆内存
+     * */
+    private final FrameArena frameArena;
+
+    /**
+     * 是否常驻内存，常驻内存的缓冲池中的页面不会被淘汰
+     * */
+    private final boolean resident;
+
     public BufferPool(int maxPageSize) {
+        this(maxPageSize, ReplacementPolicyEnum.LRU);
+    }
+
+    public BufferPool(int maxPageSize, ReplacementPolicyEnum replacementPolicyEnum) {
+        this(maxPageSize, replacementPolicyEnum.create());
+    }
+
+    public BufferPool(int maxPageSize, ReplacementPolicy replacementPolicy) {
+        this(DBConfig.DEFAULT_PAGE_SIZE, maxPageSize, replacementPolicy);
+    }
+
+    public BufferPool(int pageSize, int maxPageSize, ReplacementPolicy replacementPolicy) {
+        this(pageSize, maxPageSize, replacementPolicy, false);
+    }
+
+    /**
+     * @param offHeap 是否将页面数据保存在堆外页帧中(只有被pin住的页面才会反序列化为页面对象)
+     * */
+    public BufferPool(int pageSize, int maxPageSize, ReplacementPolicy replacementPolicy, boolean offHeap) {
+        this(pageSize, maxPageSize, replacementPolicy, offHeap, false);
+    }
+
+    /**
+     * @param resident 是否常驻内存，为true时页面加载后不会被淘汰，缓冲池满了之后无法再加载新的页面
+     * */
+    public BufferPool(int pageSize, int maxPageSize, ReplacementPolicy replacementPolicy, boolean offHeap, boolean resident) {
+        DBConfig.checkPageSize(pageSize);
+        this.pageSize = pageSize;
         this.maxPageSize = maxPageSize;
+        this.replacementPolicy = replacementPolicy;
+        this.frameArena = offHeap ? new FrameArena(pageSize, maxPageSize) : null;
+        this.resident = resident;
     }
 
     public int getPageSize(){
-        return DEFAULT_PAGE_SIZE;
+        return pageSize;
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    public boolean isOffHeap() {
+        return frameArena != null;
+    }
+
+    public boolean isResident() {
+        return resident;
     }
 
+    /**
+     * 获取一个页，返回的页会被pin住，使用完毕后必须调用unpinPage释放
+     * 多个线程并发的获取同一个未命中的页时，只有一个线程会从磁盘读取，其它线程等待读取完成
+     * */
     public DBPage getPage(PageId pageId){
-        DBPage cachePage = pageCacheMap.get(pageId);
-        if (cachePage != null) {
-            return cachePage;
-        }else{
-            if (pageCacheMap.size() < this.maxPageSize) {
-                DBPage page = Database.getCatalog()
-                                .getTableById(pageId.getTableId())
-                                .getDbFile()
-                                .readPage(pageId);
-                // 加入缓存
-                pageCacheMap.put(pageId, page);
-                return page;
+        return getPage(pageId, null);
+    }
+
+    /**
+     * 按照指定的访问策略获取一个页
+     * @param strategy 为null时使用普通的访问方式；否则未命中的页面只在策略私有的环形缓冲区中循环复用页帧
+     * */
+    public DBPage getPage(PageId pageId, BufferAccessStrategy strategy){
+        while (true) {
+            PageFrame cacheFrame = pageCacheMap.get(pageId);
+            if (cacheFrame != null) {
+                DBPage page = pinFrame(pageId, cacheFrame);
+                if (page != null) {
+                    hitCount.increment();
+                    DBMetrics.getTableStats(pageId.getTableId()).recordHit();
+                    // 命中路径上不竞争置换策略的锁
+                    replacementPolicy.recordHit(pageId);
+                    return page;
+                }
+                // 页帧恰好被并发的淘汰了(或者加载失败)，等待其从页表中移除后重试
+                Thread.yield();
+                continue;
+            }
+
+            // 未命中，先预留一个页帧，再将加载中的页帧放入页表，保证同一个页面只有一个线程进行加载
+            reserveFrame(strategy);
+            PageFrame loadingFrame = PageFrame.newLoadingFrame();
+            if (pageCacheMap.putIfAbsent(pageId, loadingFrame) != null) {
+                // 其它线程抢先开始加载，等待其加载完成
+                frameNum.decrementAndGet();
+                continue;
+            }
+
+            missCount.increment();
+            DBMetrics.getTableStats(pageId.getTableId()).recordMiss();
+            long loadStartNanos = System.nanoTime();
+            DBPage page = loadFrame(pageId, loadingFrame);
+            missLatency.record(System.nanoTime() - loadStartNanos);
+            replacementPolicy.recordAccess(pageId);
+            if (strategy != null) {
+                strategy.addPageId(pageId);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * 释放一次getPage对页的引用，引用计数归零后页面才允许被淘汰
+     * 被pin住的页帧在pin全部释放之前不会被淘汰或者丢弃出页表，按照页号找到的一定是之前pin住的页帧
+     * */
+    public void unpinPage(PageId pageId) {
+        PageFrame frame = pageCacheMap.get(pageId);
+        if (frame == null) {
+            return;
+        }
+        synchronized (frame) {
+            if (!frame.unpin()) {
+                throw new DBException("page is not pinned pageId=" + pageId);
+            }
+            if (frame.isOffHeap() && !frame.isPinned() && !frame.isEvicted()) {
+                // 堆外页帧不再被引用，只保留页帧中的二进制数据(脏页先将最新的数据写回页帧)
+                DBPage page = frame.getPage();
+                if (page != null && frame.isDirty()) {
+                    writeToArena(frame, page);
+                }
+                frame.setPage(null);
+            }
+        }
+    }
+
+    /**
+     * 插入一条记录，被修改的页由表文件在释放pin之前标记为脏页
+     * */
+    public void insertTuple(String tableId, Record newRecord) throws IOException {
+        BufferPool tableBufferPool = Database.getBufferPool(tableId);
+        if (tableBufferPool != this) {
+            // 表绑定了其它的缓冲池
+            tableBufferPool.insertTuple(tableId, newRecord);
+            return;
+        }
+        Database.getCatalog().getTableById(tableId).getDbFile().insertTuple(newRecord);
+    }
+
+    /**
+     * 删除一条记录，被修改的页由表文件在释放pin之前标记为脏页
+     * */
+    public void deleteTuple(Record recordNeedDelete) throws IOException {
+        PageId pageId = recordNeedDelete.getRecordId().getPageId();
+        BufferPool tableBufferPool = Database.getBufferPool(pageId.getTableId());
+        if (tableBufferPool != this) {
+            tableBufferPool.deleteTuple(recordNeedDelete);
+            return;
+        }
+        getDbFile(pageId).deleteTuple(recordNeedDelete);
+    }
+
+    /**
+     * 将页面标记为脏页，被淘汰或刷盘时写回磁盘
+     * 需要在释放getPage的pin之前调用(或者页面是新创建的、还不在缓冲池中)，
+     * 释放pin之后页面可能已经被淘汰并重新加载，旧的页面实例不能再覆盖缓冲池中的页面
+     * */
+    public void markDirty(DBPage page) {
+        PageId pageId = page.getPageId();
+        while (true) {
+            PageFrame frame = pageCacheMap.get(pageId);
+            if (frame != null) {
+                if (markFrameDirty(frame, page)) {
+                    return;
+                }
+                Thread.yield();
+                continue;
+            }
+
+            // 页面不在缓冲池中(新分配的页，或者修改期间已经被淘汰)，以修改过的实例为准放入缓冲池
+            reserveFrame();
+            if (frameArena == null) {
+                frame = new PageFrame(page);
             } else {
-                // todo 使用淘汰算法置换页面
-                throw new DBException("BufferPool is full");
+                frame = newFrame(pageId, serialize(page), page);
+                if (frame.isOffHeap()) {
+                    // 没有被pin住的堆外页帧不持有页面对象
+                    frame.setPage(null);
+                }
+            }
+            frame.setDirty(true);
+            if (pageCacheMap.putIfAbsent(pageId, frame) == null) {
+                replacementPolicy.recordAccess(pageId);
+                return;
+            }
+            releaseArenaFrame(frame);
+            frameNum.decrementAndGet();
+        }
+    }
+
+    /**
+     * 将指定的页写回磁盘(非脏页直接忽略)
+     * */
+    public void flushPage(PageId pageId) {
+        PageFrame frame = pageCacheMap.get(pageId);
+        if (frame != null) {
+            flushFrame(pageId, frame);
+        }
+    }
+
+    /**
+     * 将指定表的所有脏页写回磁盘
+     * */
+    public void flushPages(String tableId) {
+        List<Map.Entry<PageId, PageFrame>> tableDirtyFrameList = new ArrayList<>();
+        for (Map.Entry<PageId, PageFrame> entry : getDirtyFrameList()) {
+            if (entry.getKey().getTableId().equals(tableId)) {
+                tableDirtyFrameList.add(entry);
+            }
+        }
+        flushTableFrames(tableId, tableDirtyFrameList);
+    }
+
+    /**
+     * 将所有的脏页写回磁盘
+     * */
+    public void flushAllPages() {
+        flushDirtyPages(0);
+    }
+
+    /**
+     * 按照表、页号的顺序写回脏页
+     * @param maxPageNum 最多写回的页数，<=0表示不限制
+     * @return 实际写回的页数
+     * */
+    public int flushDirtyPages(int maxPageNum) {
+        List<Map.Entry<PageId, PageFrame>> dirtyFrameList = getDirtyFrameList();
+        if (maxPageNum > 0 && dirtyFrameList.size() > maxPageNum) {
+            dirtyFrameList = dirtyFrameList.subList(0, maxPageNum);
+        }
+
+        // 脏页已经按照表排序，同一张表的脏页批量写回
+        int flushNum = 0;
+        int tableStart = 0;
+        while (tableStart < dirtyFrameList.size()) {
+            String tableId = dirtyFrameList.get(tableStart).getKey().getTableId();
+            int tableEnd = tableStart + 1;
+            while (tableEnd < dirtyFrameList.size() && dirtyFrameList.get(tableEnd).getKey().getTableId().equals(tableId)) {
+                tableEnd++;
+            }
+            flushNum += flushTableFrames(tableId, dirtyFrameList.subList(tableStart, tableEnd));
+            tableStart = tableEnd;
+        }
+        return flushNum;
+    }
+
+    public int getDirtyPageNum() {
+        return getDirtyFrameList().size();
+    }
+
+    /**
+     * 启动后台刷脏线程
+     * @param intervalMillis 刷盘间隔
+     * @param maxPagesPerRound 每一轮最多写回的页数，<=0表示不限制
+     * */
+    public synchronized void startBackgroundFlusher(long intervalMillis, int maxPagesPerRound) {
+        if (backgroundFlusher != null && backgroundFlusher.isRunning()) {
+            throw new DBException("background flusher is already running");
+        }
+        backgroundFlusher = new BackgroundFlusher(this, intervalMillis, maxPagesPerRound);
+        backgroundFlusher.start();
+    }
+
+    /**
+     * 停止后台刷脏线程，剩余的脏页会全部写回磁盘
+     * 停止后仍然保留刷脏线程，直到下一次启动，失败的统计可以继续查看
+     * */
+    public void stopBackgroundFlusher() {
+        BackgroundFlusher flusher;
+        synchronized (this) {
+            flusher = this.backgroundFlusher;
+        }
+        if (flusher != null) {
+            flusher.stop();
+        }
+    }
+
+    /**
+     * 最近一次启动的后台刷脏线程刷盘失败的轮数
+     * */
+    public synchronized long getBackgroundFlushFailureNum() {
+        return backgroundFlusher == null ? 0 : backgroundFlusher.getFailureNum();
+    }
+
+    /**
+     * 最近一次启动的后台刷脏线程最近一次刷盘失败的异常
+     * @return null 没有失败过
+     * */
+    public synchronized RuntimeException getBackgroundFlushLastFailure() {
+        return backgroundFlusher == null ? null : backgroundFlusher.getLastFailure();
+    }
+
+    /**
+     * 启动异步预读
+     * @param window 预读窗口，扫描时提前加载游标之后的页数
+     * @param ioThreadNum 后台I/O线程数
+     * */
+    public synchronized void startReadAhead(int window, int ioThreadNum) {
+        if (window <= 0 || ioThreadNum <= 0) {
+            throw new DBException("illegal read ahead window=" + window + " ioThreadNum=" + ioThreadNum);
+        }
+        if (readAheadEngine != null) {
+            throw new DBException("read ahead is already running");
+        }
+        readAheadWindow = window;
+        readAheadEngine = new ReadAheadEngine(this, ioThreadNum);
+    }
+
+    public void stopReadAhead() {
+        ReadAheadEngine engine;
+        synchronized (this) {
+            engine = this.readAheadEngine;
+            this.readAheadEngine = null;
+            this.readAheadWindow = 0;
+        }
+        if (engine != null) {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * @return null 没有开启预读
+     * */
+    public ReadAheadEngine getReadAheadEngine() {
+        return readAheadEngine;
+    }
+
+    public int getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
+    /**
+     * 页面是否已经在缓冲池中(包括正在加载中)
+     * */
+    public boolean isCached(PageId pageId) {
+        return pageCacheMap.containsKey(pageId);
+    }
+
+    /**
+     * 将表的所有页面预先加载到缓冲池中(表需要绑定到当前缓冲池)，一般用于常驻内存的缓冲池
+     * */
+    public void preloadTable(String tableId) {
+        if (Database.getBufferPool(tableId) != this) {
+            throw new DBException("table is not bound to this bufferPool tableId=" + tableId);
+        }
+        DbFileIterator<Record> iterator = getDbFile(tableId).getIterator();
+        iterator.open();
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
             }
+        } finally {
+            iterator.close();
         }
     }
 
-    public synchronized void discardPage(PageId pageId) {
-        pageCacheMap.remove(pageId);
+    /**
+     * 丢弃缓冲池中的页面(不写回磁盘)
+     * 页面被其它线程pin住时，先禁止新的pin，在缓冲池的锁外等待已有的pin全部释放之后再移出页表：
+     * 移出之前获取这个页面的线程会等待，之后释放pin时也不会落到重新加载的页帧上
+     * 调用方需要先释放自己对这个页面的pin，超时后仍然被pin住时放弃丢弃并抛出异常
+     * */
+    public void discardPage(PageId pageId) {
+        PageFrame frame;
+        synchronized (this) {
+            frame = pageCacheMap.get(pageId);
+            if (frame == null) {
+                return;
+            }
+            frame.awaitLoaded();
+            if (pageCacheMap.get(pageId) != frame || frame.isEvicted()) {
+                // 加载失败，已经被移出页表；或者正在被淘汰(丢弃)，由淘汰的线程移出页表
+                return;
+            }
+            // 与淘汰相同，先禁止pin并从置换策略中移除，再移出页表
+            frame.discard();
+            replacementPolicy.remove(pageId);
+        }
+        if (!frame.awaitUnpinned(DISCARD_WAIT_MILLIS)) {
+            frame.cancelEvict();
+            replacementPolicy.recordAccess(pageId);
+            throw new DBException("page is still pinned, can't discard pageId=" + pageId);
+        }
+        pageCacheMap.remove(pageId, frame);
+        releaseArenaFrame(frame);
+        frameNum.decrementAndGet();
+    }
+
+    /**
+     * 丢弃缓冲池中指定表的所有页面(不写回磁盘)，关闭表文件之前先写回脏页再调用
+     * */
+    public void discardPages(String tableId) {
+        for (PageId pageId : new ArrayList<>(pageCacheMap.keySet())) {
+            if (pageId.getTableId().equals(tableId)) {
+                discardPage(pageId);
+            }
+        }
+    }
+
+    /**
+     * 当前缓冲池中的页面数
+     * */
+    public int getCachedPageNum() {
+        return frameNum.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public double getHitRatio() {
+        long hit = hitCount.sum();
+        long total = hit + missCount.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public LatencyHistogram getMissLatency() {
+        return missLatency;
+    }
+
+    /**
+     * 预留一个页帧，缓冲池已满时先淘汰一个页面
+     * */
+    private void reserveFrame() {
+        while (true) {
+            int currentFrameNum = frameNum.get();
+            if (currentFrameNum < this.maxPageSize) {
+                if (frameNum.compareAndSet(currentFrameNum, currentFrameNum + 1)) {
+                    return;
+                }
+                continue;
+            }
+            if (resident) {
+                throw new DBException("resident BufferPool is full maxPageSize=" + this.maxPageSize);
+            }
+            Map.Entry<PageId, PageFrame> victim;
+            synchronized (this) {
+                if (frameNum.get() < this.maxPageSize) {
+                    continue;
+                }
+                // 缓冲池已满，使用淘汰算法选出被置换的页面
+                victim = detachVictim();
+            }
+            // 脏页在锁外写回，写盘期间其它线程仍然可以淘汰别的页面
+            removeFrame(victim.getKey(), victim.getValue());
+            frameNum.decrementAndGet();
+        }
+    }
+
+    /**
+     * 按照访问策略预留一个页帧，环形缓冲区已满时优先淘汰其中最早加载的页面并直接复用其页帧
+     * */
+    private void reserveFrame(BufferAccessStrategy strategy) {
+        if (strategy != null && !resident) {
+            PageId reusablePageId = strategy.pollReusablePageId();
+            if (reusablePageId != null) {
+                PageFrame reusableFrame;
+                synchronized (this) {
+                    reusableFrame = pageCacheMap.get(reusablePageId);
+                    // 仍然被pin住的页面(例如被其它线程使用中)不能复用，退化为普通的方式申请页帧
+                    if (reusableFrame != null && !detachFrame(reusablePageId, reusableFrame)) {
+                        reusableFrame = null;
+                    }
+                }
+                if (reusableFrame != null) {
+                    removeFrame(reusablePageId, reusableFrame);
+                    // 页帧的占用直接转移给新页面，不需要归还
+                    return;
+                }
+            }
+        }
+        reserveFrame();
+    }
+
+    /**
+     * 从磁盘加载页面到加载中的页帧中(调用方持有该页帧的pin)
+     * */
+    private DBPage loadFrame(PageId pageId, PageFrame loadingFrame) {
+        int arenaFrameNo = -1;
+        try {
+            DBFile dbFile = getDbFile(pageId);
+            if (frameArena == null) {
+                DBPage page = dbFile.readPage(pageId);
+                loadingFrame.completeLoad(page, -1, 0);
+                return page;
+            }
+
+            byte[] pageData = dbFile.readPageData(pageId);
+            if (pageData.length <= frameArena.getFrameSize()) {
+                arenaFrameNo = frameArena.allocate();
+            }
+            if (arenaFrameNo >= 0) {
+                frameArena.write(arenaFrameNo, pageData);
+            }
+            DBPage page = dbFile.parsePage(pageId, pageData);
+            loadingFrame.completeLoad(page, arenaFrameNo, pageData.length);
+            return page;
+        } catch (RuntimeException e) {
+            // 加载失败，移除加载中的页帧，等待的线程会重新尝试加载
+            pageCacheMap.remove(pageId, loadingFrame);
+            loadingFrame.failLoad();
+            if (arenaFrameNo >= 0) {
+                frameArena.release(arenaFrameNo);
+            }
+            frameNum.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 选出一个被淘汰的页面并将其页帧标记为已淘汰，调用方需要持有缓冲池的锁
+     * @return 被淘汰的页面及其页帧，需要由调用方在锁外通过removeFrame写回并移出页表
+     * */
+    private Map.Entry<PageId, PageFrame> detachVictim() {
+        while (true) {
+            // 被pin住的页不允许淘汰
+            PageId victimPageId = replacementPolicy.pickVictim(pageId -> {
+                PageFrame frame = pageCacheMap.get(pageId);
+                return frame != null && !frame.isPinned();
+            });
+            if (victimPageId == null) {
+                throw new DBException("BufferPool is full, all pages are pinned");
+            }
+
+            PageFrame victimFrame = pageCacheMap.get(victimPageId);
+            if (victimFrame == null || !detachFrame(victimPageId, victimFrame)) {
+                // 选出之后被其它线程pin住了(或者正在被写回)，重新选择
+                Thread.yield();
+                continue;
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(victimPageId, victimFrame);
+        }
+    }
+
+    /**
+     * 将页帧标记为已淘汰并从置换策略中移除，调用方需要持有缓冲池的锁
+     * 标记之后页帧不会再被pin住或者修改，但仍然留在页表中，直到removeFrame写回完成
+     * @return false 页帧被其它线程pin住了或者正在被写回，无法淘汰
+     * */
+    private boolean detachFrame(PageId pageId, PageFrame frame) {
+        if (!frame.tryEvict()) {
+            // 正在被写回时也不在持有缓冲池的锁时等待写盘
+            return false;
+        }
+        // 先从置换策略中移除再移出页表：移出页表之后其它线程才能重新加载这个页面，
+        // 重新加载时记录的访问不会被这里的移除覆盖(否则新的页帧永远不会被选中淘汰)
+        replacementPolicy.remove(pageId);
+        return true;
+    }
+
+    /**
+     * 将已经标记淘汰的页帧写回磁盘并移出页表，不需要持有缓冲池的锁
+     * 写回完成之前页帧仍然在页表中，其它线程获取这个页面时会等待其移出页表后再重新加载，不会读到旧数据
+     * */
+    private void removeFrame(PageId pageId, PageFrame frame) {
+        try {
+            flushFrame(pageId, frame);
+        } catch (RuntimeException e) {
+            // 写回失败，撤销淘汰，页帧仍然作为脏页留在缓冲池中
+            frame.cancelEvict();
+            replacementPolicy.recordAccess(pageId);
+            throw e;
+        }
+        pageCacheMap.remove(pageId, frame);
+        releaseArenaFrame(frame);
+        evictionCount.increment();
+    }
+
+    /**
+     * 脏页写回磁盘
+     * 只在复制页面数据时持有页帧的锁，写盘期间其它线程仍然可以pin、读取和修改这个页面；
+     * 页帧被标记为正在写回，同一个页帧的写回依次进行，不会出现旧数据覆盖新数据
+     * @return 是否发生了写入
+     * */
+    private boolean flushFrame(PageId pageId, PageFrame frame) {
+        byte[] pageData;
+        synchronized (frame) {
+            frame.awaitWritten();
+            if (!frame.isDirty()) {
+                return false;
+            }
+            pageData = getFrameData(frame);
+            // 先清除脏标记，写盘期间页面再次被修改时会重新被标记
+            frame.setDirty(false);
+            frame.setWriting(true);
+        }
+        try {
+            getDbFile(pageId).writePageData(pageId, pageData);
+        } catch (RuntimeException e) {
+            frame.setDirty(true);
+            throw e;
+        } finally {
+            frame.setWriting(false);
+        }
+        return true;
+    }
+
+    /**
+     * 将同一张表的多个脏页批量写回磁盘，文件中相邻的页面合并为一次写入
+     * 写回期间页帧被标记为正在写回，不会被淘汰
+     * @return 实际写回的页数
+     * */
+    private int flushTableFrames(String tableId, List<Map.Entry<PageId, PageFrame>> frameEntryList) {
+        Map<PageId, byte[]> pageDataMap = new LinkedHashMap<>();
+        List<PageFrame> writingFrameList = new ArrayList<>();
+        try {
+            for (Map.Entry<PageId, PageFrame> entry : frameEntryList) {
+                PageFrame frame = entry.getValue();
+                synchronized (frame) {
+                    if (!frame.isDirty() || frame.isEvicted() || frame.isWriting()) {
+                        continue;
+                    }
+                    byte[] pageData = getFrameData(frame);
+                    frame.setDirty(false);
+                    frame.setWriting(true);
+                    writingFrameList.add(frame);
+                    pageDataMap.put(entry.getKey(), pageData);
+                }
+            }
+            if (pageDataMap.isEmpty()) {
+                return 0;
+            }
+
+            try {
+                getDbFile(tableId).writePagesData(pageDataMap);
+            } catch (RuntimeException e) {
+                for (PageFrame frame : writingFrameList) {
+                    frame.setDirty(true);
+                }
+                throw e;
+            }
+            return pageDataMap.size();
+        } finally {
+            for (PageFrame frame : writingFrameList) {
+                frame.setWriting(false);
+            }
+        }
+    }
+
+    /**
+     * 页帧中页面的最新数据，调用方需要持有页帧的锁
+     * */
+    private byte[] getFrameData(PageFrame frame) {
+        DBPage page = frame.getPage();
+        if (page == null) {
+            return frameArena.read(frame.getArenaFrameNo(), frame.getDataLength());
+        }
+        if (frame.isOffHeap()) {
+            // 直接序列化到页帧中，保持页帧数据与写回磁盘的数据一致
+            writeToArena(frame, page);
+            return frameArena.read(frame.getArenaFrameNo(), frame.getDataLength());
+        }
+        return serialize(page);
+    }
+
+    /**
+     * pin住页帧并返回页面对象，堆外页帧按需从页帧数据中解析出页面对象
+     * @return null 页帧已经被淘汰
+     * */
+    private DBPage pinFrame(PageId pageId, PageFrame frame) {
+        synchronized (frame) {
+            if (!frame.tryPin()) {
+                return null;
+            }
+            DBPage page = frame.getPage();
+            if (page == null) {
+                try {
+                    byte[] pageData = frameArena.read(frame.getArenaFrameNo(), frame.getDataLength());
+                    page = getDbFile(pageId).parsePage(pageId, pageData);
+                } catch (RuntimeException e) {
+                    frame.unpin();
+                    throw e;
+                }
+                frame.setPage(page);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * 创建页帧，优先将页面数据放入堆外页帧(页面大于页帧或者页帧耗尽时退化为堆内页帧)
+     * */
+    private PageFrame newFrame(PageId pageId, byte[] pageData, DBPage page) {
+        if (pageData.length <= frameArena.getFrameSize()) {
+            int arenaFrameNo = frameArena.allocate();
+            if (arenaFrameNo >= 0) {
+                frameArena.write(arenaFrameNo, pageData);
+                return new PageFrame(page, arenaFrameNo, pageData.length);
+            }
+        }
+        return new PageFrame(page != null ? page : getDbFile(pageId).parsePage(pageId, pageData));
+    }
+
+    /**
+     * 将页面实例标记为脏页
+     * @return false 页帧已经被淘汰
+     * */
+    private boolean markFrameDirty(PageFrame frame, DBPage page) {
+        synchronized (frame) {
+            frame.awaitLoaded();
+            if (frame.isEvicted()) {
+                return false;
+            }
+            if (frame.getPage() != page) {
+                // 页帧中是另一个页面实例(释放pin之后被淘汰并重新加载过，或者堆外页帧已经释放了页面对象)，
+                // 传入的实例是旧的，覆盖页帧会丢失其它线程的修改
+                throw new DBException("page instance is not the one in BufferPool pageId=" + page.getPageId());
+            }
+            frame.setDirty(true);
+            return true;
+        }
+    }
+
+    /**
+     * 将页面直接序列化到页帧中(同一个页的大小不变，已经放入页帧的页面一定放得下)
+     * */
+    private void writeToArena(PageFrame frame, DBPage page) {
+        frame.setDataLength(page.serialize(frameArena.frameView(frame.getArenaFrameNo())));
+    }
+
+    private void releaseArenaFrame(PageFrame frame) {
+        if (frame.isOffHeap()) {
+            frameArena.release(frame.getArenaFrameNo());
+        }
+    }
+
+    private static byte[] serialize(DBPage page) {
+        try {
+            return page.serialize();
+        } catch (IOException e) {
+            throw new DBException("serialize page error pageId=" + page.getPageId(), e);
+        }
+    }
+
+    /**
+     * 当前所有的脏页，按照表、页号排序，尽量让同一个文件的写入是顺序的
+     * */
+    private List<Map.Entry<PageId, PageFrame>> getDirtyFrameList() {
+        List<Map.Entry<PageId, PageFrame>> dirtyFrameList = new ArrayList<>();
+        for (Map.Entry<PageId, PageFrame> entry : pageCacheMap.entrySet()) {
+            if (entry.getValue().isDirty()) {
+                dirtyFrameList.add(entry);
+            }
+        }
+        dirtyFrameList.sort(Comparator
+                .comparing((Map.Entry<PageId, PageFrame> entry) -> entry.getKey().getTableId())
+                .thenComparingInt(entry -> entry.getKey().getPageNo()));
+        return dirtyFrameList;
+    }
+
+    private DBFile getDbFile(PageId pageId) {
+        return getDbFile(pageId.getTableId());
+    }
+
+    private DBFile getDbFile(String tableId) {
+        return Database.getCatalog()
+                .getTableById(tableId)
+                .getDbFile();
     }
 }
@@ -20,7 +20,18 @@ public class Catalog {
     }
 
     public void addTable(String tableId, TableDesc tableDesc, DBFile dbFile){
-        tableMap.put(tableId,new TableInfo(tableDesc,dbFile,tableId));
+        addTable(tableId, tableDesc, dbFile, null);
+    }
+
+    /**
+     * @param bufferPoolName 表所使用的缓冲池，为null时使用默认缓冲池
+     * */
+    public void addTable(String tableId, TableDesc tableDesc, DBFile dbFile, String bufferPoolName){
+        if (bufferPoolName != null) {
+            // 缓冲池必须已经存在
+            Database.getBufferPoolByName(bufferPoolName);
+        }
+        tableMap.put(tableId,new TableInfo(tableDesc,dbFile,tableId,bufferPoolName));
     }
 
     public TableInfo getTableById(String tableId){
@@ -33,15 +44,29 @@ public class Catalog {
     }
 
 
+    /**
+     * @return null 表不存在或者表使用默认缓冲池
+     * */
+    public String getBufferPoolName(String tableId){
+        TableInfo tableInfo = tableMap.get(tableId);
+        return tableInfo == null ? null : tableInfo.getBufferPoolName();
+    }
+
     public class TableInfo{
         private TableDesc tableDesc;
         private DBFile dbFile;
         private String tableId;
+        private String bufferPoolName;
 
         public TableInfo(TableDesc tableDesc, DBFile dbFile, String tableId) {
+            this(tableDesc, dbFile, tableId, null);
+        }
+
+        public TableInfo(TableDesc tableDesc, DBFile dbFile, String tableId, String bufferPoolName) {
             this.tableDesc = tableDesc;
             this.dbFile = dbFile;
             this.tableId = tableId;
+            this.bufferPoolName = bufferPoolName;
         }
 
         public TableDesc getTableDesc() {
@@ -55,5 +80,9 @@ public class Catalog {
         public String getTableId() {
             return tableId;
         }
+
+        public String getBufferPoolName() {
+            return bufferPoolName;
+        }
     }
 }
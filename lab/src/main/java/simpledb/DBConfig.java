@@ -0,0 +1,232 @@
+package simpledb;
+
+import simpledb.bufferpool.ReplacementPolicyEnum;
+import simpledb.dbfile.SyncPolicyEnum;
+import simpledb.exception.DBException;
+
+/**
+ * 数据库配置
+ */
+public class DBConfig {
+
+    /**
+     * 默认页大小与老版本(没有文件头)的数据文件保持一致
+     * */
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+    public static final int MIN_PAGE_SIZE = 1024;
+    public static final int MAX_PAGE_SIZE = 32 * 1024;
+
+    public static final int DEFAULT_PAGE_CAPACITY = 500;
+
+    public static final int DEFAULT_SCAN_RING_SIZE = 16;
+
+    public static final int DEFAULT_READ_AHEAD_THREAD_NUM = 2;
+
+    public static final int DEFAULT_EXTENT_SIZE = 1024 * 1024;
+    public static final int MAX_EXTENT_SIZE = 64 * 1024 * 1024;
+
+    public static final long DEFAULT_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+    public static final int DEFAULT_SYNC_PAGE_NUM = 64;
+
+    /**
+     * 页大小(字节)，必须是1KB~32KB之间的2的幂次(1/2/4/8/16/32 KB)
+     * 只影响新创建的文件，已存在的文件以其文件头中记录的页大小为准
+     * */
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * 缓冲池最多容纳的页数
+     * */
+    private int pageCapacity = DEFAULT_PAGE_CAPACITY;
+
+    private ReplacementPolicyEnum replacementPolicyEnum = ReplacementPolicyEnum.LRU;
+
+    /**
+     * 是否将缓冲池中的页面数据保存在堆外内存中
+     * */
+    private boolean offHeap;
+
+    /**
+     * 大表顺序扫描使用的环形缓冲区页数，<=0表示不使用环形缓冲区
+     * 表的页数超过缓冲池容量的1/4时才会使用
+     * */
+    private int scanRingSize = DEFAULT_SCAN_RING_SIZE;
+
+    /**
+     * 顺序扫描时异步预读的页数，<=0表示不预读
+     * */
+    private int readAheadWindow;
+
+    /**
+     * 预读使用的后台I/O线程数
+     * */
+    private int readAheadThreadNum = DEFAULT_READ_AHEAD_THREAD_NUM;
+
+    /**
+     * 新打开的数据文件是否通过mmap读取页面(适合读多写少的表)，也可以按文件单独设置
+     * */
+    private boolean mmapRead;
+
+    /**
+     * 数据文件每次增长的字节数(按页大小向下取整，至少一页)，0表示每次只增长一页
+     * 只影响之后打开的文件
+     * */
+    private int extentSize = DEFAULT_EXTENT_SIZE;
+
+    /**
+     * 数据文件每个段文件的字节数，必须是不小于最大页大小的2的幂次(保证页面不会跨越两个段)
+     * 只影响新创建的文件，已经分段的文件以第0段的长度为准
+     * */
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    /**
+     * 数据文件写入后的刷盘策略，默认每次写入都刷盘
+     * */
+    private SyncPolicyEnum syncPolicyEnum = SyncPolicyEnum.ALWAYS;
+
+    /**
+     * GROUP策略下两次刷盘之间的最大间隔(毫秒)
+     * */
+    private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+
+    /**
+     * GROUP策略下累计写入多少页之后立即刷盘，<=0表示只按时间间隔刷盘
+     * */
+    private int syncPageNum = DEFAULT_SYNC_PAGE_NUM;
+
+    public DBConfig() {
+    }
+
+    public DBConfig(int pageSize, int pageCapacity) {
+        setPageSize(pageSize);
+        setPageCapacity(pageCapacity);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        checkPageSize(pageSize);
+        this.pageSize = pageSize;
+    }
+
+    public int getPageCapacity() {
+        return pageCapacity;
+    }
+
+    public void setPageCapacity(int pageCapacity) {
+        if (pageCapacity <= 0) {
+            throw new DBException("pageCapacity must be positive pageCapacity=" + pageCapacity);
+        }
+        this.pageCapacity = pageCapacity;
+    }
+
+    public ReplacementPolicyEnum getReplacementPolicyEnum() {
+        return replacementPolicyEnum;
+    }
+
+    public void setReplacementPolicyEnum(ReplacementPolicyEnum replacementPolicyEnum) {
+        this.replacementPolicyEnum = replacementPolicyEnum;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public int getScanRingSize() {
+        return scanRingSize;
+    }
+
+    public void setScanRingSize(int scanRingSize) {
+        this.scanRingSize = scanRingSize;
+    }
+
+    public int getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
+    public void setReadAheadWindow(int readAheadWindow) {
+        this.readAheadWindow = readAheadWindow;
+    }
+
+    public int getReadAheadThreadNum() {
+        return readAheadThreadNum;
+    }
+
+    public void setReadAheadThreadNum(int readAheadThreadNum) {
+        if (readAheadThreadNum <= 0) {
+            throw new DBException("readAheadThreadNum must be positive readAheadThreadNum=" + readAheadThreadNum);
+        }
+        this.readAheadThreadNum = readAheadThreadNum;
+    }
+
+    public boolean isMmapRead() {
+        return mmapRead;
+    }
+
+    public void setMmapRead(boolean mmapRead) {
+        this.mmapRead = mmapRead;
+    }
+
+    public int getExtentSize() {
+        return extentSize;
+    }
+
+    public void setExtentSize(int extentSize) {
+        if (extentSize < 0 || extentSize > MAX_EXTENT_SIZE) {
+            throw new DBException("extentSize must be in [0, " + MAX_EXTENT_SIZE + "] extentSize=" + extentSize);
+        }
+        this.extentSize = extentSize;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        if (segmentSize < MAX_PAGE_SIZE || Long.bitCount(segmentSize) != 1) {
+            throw new DBException("segmentSize must be a power of 2 and not less than " + MAX_PAGE_SIZE + " segmentSize=" + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    public SyncPolicyEnum getSyncPolicyEnum() {
+        return syncPolicyEnum;
+    }
+
+    public void setSyncPolicyEnum(SyncPolicyEnum syncPolicyEnum) {
+        this.syncPolicyEnum = syncPolicyEnum;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis <= 0) {
+            throw new DBException("syncIntervalMillis must be positive syncIntervalMillis=" + syncIntervalMillis);
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public int getSyncPageNum() {
+        return syncPageNum;
+    }
+
+    public void setSyncPageNum(int syncPageNum) {
+        this.syncPageNum = syncPageNum;
+    }
+
+    public static void checkPageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new DBException("un support pageSize=" + pageSize);
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package simpledb;
 
-import simpledb.dbpage.PageId;
+import simpledb.bufferpool.ReplacementPolicyEnum;
+import simpledb.dbfile.SyncWriter;
+import simpledb.exception.DBException;
+import simpledb.metrics.DBMetrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author xiongyx
@@ -8,21 +14,123 @@ import simpledb.dbpage.PageId;
  */
 public class Database {
 
-    private static final BufferPool bufferPool;
+    /**
+     * 默认缓冲池的名称，没有绑定缓冲池的表都使用默认缓冲池
+     * */
+    public static final String DEFAULT_BUFFER_POOL_NAME = "default";
+
+    private static volatile BufferPool bufferPool;
+    private static volatile DBConfig config;
+    private static volatile SyncWriter syncWriter;
     private static final Catalog CATALOG;
-    private static final int DEFAULT_PAGE_CAPACITY = 500;
+
+    /**
+     * 除默认缓冲池之外的具名缓冲池，每个缓冲池有独立的容量与淘汰算法，互相之间不会挤占页帧
+     * */
+    private static final Map<String, BufferPool> NAMED_BUFFER_POOL_MAP = new ConcurrentHashMap<>();
 
     static{
-        bufferPool = new BufferPool(DEFAULT_PAGE_CAPACITY);
         CATALOG = new Catalog();
+        reset(new DBConfig());
+    }
+
+    /**
+     * 按照新的配置重建默认缓冲池(旧缓冲池中的脏页会先写回磁盘)和共享写入器(待刷盘的文件会先刷盘)，具名缓冲池不受影响
+     * */
+    public static synchronized void reset(DBConfig newConfig){
+        BufferPool oldBufferPool = bufferPool;
+        if (oldBufferPool != null) {
+            oldBufferPool.stopReadAhead();
+            oldBufferPool.stopBackgroundFlusher();
+            oldBufferPool.flushAllPages();
+        }
+        SyncWriter newSyncWriter = new SyncWriter(newConfig.getSyncPolicyEnum(),
+                newConfig.getSyncIntervalMillis(), newConfig.getSyncPageNum());
+        SyncWriter oldSyncWriter = syncWriter;
+        // 先切换再停止，停止期间的写入登记到新的写入器中
+        syncWriter = newSyncWriter;
+        if (oldSyncWriter != null) {
+            oldSyncWriter.stop();
+        }
+        newSyncWriter.start();
+
+        config = newConfig;
+        bufferPool = new BufferPool(newConfig.getPageSize(), newConfig.getPageCapacity(),
+                newConfig.getReplacementPolicyEnum().create(), newConfig.isOffHeap());
+        if (newConfig.getReadAheadWindow() > 0) {
+            bufferPool.startReadAhead(newConfig.getReadAheadWindow(), newConfig.getReadAheadThreadNum());
+        }
+        DBMetrics.registerBufferPool(DEFAULT_BUFFER_POOL_NAME, bufferPool);
+    }
+
+    public static DBConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 所有数据文件共享的写入器，按照配置的刷盘策略合并刷盘
+     * */
+    public static SyncWriter getSyncWriter() {
+        return syncWriter;
     }
 
     public static Catalog getCatalog(){
         return CATALOG;
     }
 
+    /**
+     * 默认缓冲池
+     * */
     public static BufferPool getBufferPool() {
         return bufferPool;
     }
 
+    /**
+     * 表所绑定的缓冲池
+     * */
+    public static BufferPool getBufferPool(String tableId) {
+        String bufferPoolName = CATALOG.getBufferPoolName(tableId);
+        return bufferPoolName == null ? bufferPool : getBufferPoolByName(bufferPoolName);
+    }
+
+    public static BufferPool getBufferPoolByName(String bufferPoolName) {
+        if (DEFAULT_BUFFER_POOL_NAME.equals(bufferPoolName)) {
+            return bufferPool;
+        }
+        BufferPool namedBufferPool = NAMED_BUFFER_POOL_MAP.get(bufferPoolName);
+        if (namedBufferPool == null) {
+            throw new DBException("not find bufferPool: name=" + bufferPoolName);
+        }
+        return namedBufferPool;
+    }
+
+    /**
+     * 创建一个具名缓冲池，页大小与是否使用堆外内存和默认缓冲池保持一致
+     * @param resident 是否常驻内存：页面加载后不会被淘汰，容量需要足够容纳绑定的表的所有页面
+     * */
+    public static synchronized BufferPool createBufferPool(String bufferPoolName, int pageCapacity,
+                                                           ReplacementPolicyEnum replacementPolicyEnum, boolean resident) {
+        if (DEFAULT_BUFFER_POOL_NAME.equals(bufferPoolName) || NAMED_BUFFER_POOL_MAP.containsKey(bufferPoolName)) {
+            throw new DBException("bufferPool already exists: name=" + bufferPoolName);
+        }
+        BufferPool namedBufferPool = new BufferPool(config.getPageSize(), pageCapacity,
+                replacementPolicyEnum.create(), config.isOffHeap(), resident);
+        NAMED_BUFFER_POOL_MAP.put(bufferPoolName, namedBufferPool);
+        DBMetrics.registerBufferPool(bufferPoolName, namedBufferPool);
+        return namedBufferPool;
+    }
+
+    /**
+     * 删除具名缓冲池(其中的脏页会先写回磁盘)，绑定到该缓冲池的表需要重新绑定后才能访问
+     * */
+    public static synchronized void dropBufferPool(String bufferPoolName) {
+        BufferPool namedBufferPool = NAMED_BUFFER_POOL_MAP.remove(bufferPoolName);
+        if (namedBufferPool != null) {
+            DBMetrics.unregisterBufferPool(bufferPoolName);
+            namedBufferPool.stopReadAhead();
+            namedBufferPool.stopBackgroundFlusher();
+            namedBufferPool.flushAllPages();
+        }
+    }
+
 }
@@ -0,0 +1,63 @@
+package simpledb.bufferpool;
+
+import simpledb.dbpage.PageId;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 页面命中记录的缓冲区
+ * 缓冲池命中时置换策略只把页面放入缓冲区(不加锁)，之后在持有策略自己的锁时批量应用，命中路径不再竞争策略的锁
+ * 某个条带积累到DRAIN_THRESHOLD条记录时，由放入的线程负责加锁应用，加锁的开销被一批命中分摊
+ *
+ * 按线程分成多个条带(stripe)，减少多个线程并发放入同一个队列的竞争；
+ * 不同条带之间的记录不保证先后顺序，批量应用后的访问顺序是近似的
+ */
+class AccessBuffer {
+
+    /**
+     * 单个条带积累多少条记录之后应用
+     * */
+    static final int DRAIN_THRESHOLD = 64;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    AccessBuffer() {
+        int stripeNum = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 2 - 1);
+        this.stripes = new Stripe[stripeNum];
+        for (int i = 0; i < stripeNum; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = stripeNum - 1;
+    }
+
+    /**
+     * 放入一条命中记录
+     * @return true 所在的条带已经积累了足够多的记录，调用方需要加锁调用drainTo
+     * */
+    boolean offer(PageId pageId) {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        stripe.queue.offer(pageId);
+        return stripe.size.incrementAndGet() >= DRAIN_THRESHOLD;
+    }
+
+    /**
+     * 取出所有的命中记录依次应用，调用方需要持有置换策略的锁
+     * */
+    void drainTo(Consumer<PageId> consumer) {
+        for (Stripe stripe : stripes) {
+            PageId pageId;
+            while ((pageId = stripe.queue.poll()) != null) {
+                stripe.size.decrementAndGet();
+                consumer.accept(pageId);
+            }
+        }
+    }
+
+    private static class Stripe {
+        private final ConcurrentLinkedQueue<PageId> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+    }
+}
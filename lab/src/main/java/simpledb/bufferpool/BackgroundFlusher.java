@@ -0,0 +1,104 @@
+package simpledb.bufferpool;
+
+import simpledb.BufferPool;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 后台刷脏线程
+ * 按固定间隔将缓冲池中的脏页批量写回磁盘，同一个页在两次刷盘之间被修改多次也只会写一次
+ * 某一轮刷盘失败时脏标记保留到下一轮重试，失败的次数和最近一次的异常通过缓冲池的监控指标查看
+ */
+public class BackgroundFlusher {
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 两次刷盘之间的间隔(毫秒)
+     * */
+    private final long intervalMillis;
+
+    /**
+     * 每一轮最多写回的页数，<=0表示不限制
+     * */
+    private final int maxPagesPerRound;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * 刷盘失败的轮数
+     * */
+    private final AtomicLong failureNum = new AtomicLong();
+
+    /**
+     * 最近一次刷盘失败的异常
+     * */
+    private final AtomicReference<RuntimeException> lastFailure = new AtomicReference<>();
+
+    public BackgroundFlusher(BufferPool bufferPool, long intervalMillis, int maxPagesPerRound) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("intervalMillis must be positive intervalMillis=" + intervalMillis);
+        }
+        this.bufferPool = bufferPool;
+        this.intervalMillis = intervalMillis;
+        this.maxPagesPerRound = maxPagesPerRound;
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "buffer-pool-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushOnce, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台线程，并将剩余的脏页全部刷盘
+     * */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(intervalMillis * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        bufferPool.flushAllPages();
+    }
+
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    public long getFailureNum() {
+        return failureNum.get();
+    }
+
+    /**
+     * @return null 没有失败过
+     * */
+    public RuntimeException getLastFailure() {
+        return lastFailure.get();
+    }
+
+    private void flushOnce() {
+        try {
+            bufferPool.flushDirtyPages(maxPagesPerRound);
+        } catch (RuntimeException e) {
+            // 后台线程不能因为一次刷盘失败而退出，脏标记保留到下一轮重试
+            lastFailure.set(e);
+            failureNum.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb.bufferpool;
+
+import simpledb.dbpage.PageId;
+import simpledb.exception.DBException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 环形缓冲区访问策略
+ * 大表顺序扫描时，未命中的页面只在一个很小的私有环形缓冲区中循环复用，
+ * 而不是不断的挤占整个缓冲池，避免一次全表扫描把点查所依赖的热点页面(例如B+树的内部节点)全部淘汰掉
+ *
+ * 一个访问策略只能被一个扫描使用(扫描线程与为其预读的后台线程共享)
+ */
+public class BufferAccessStrategy {
+
+    /**
+     * 环形缓冲区最多占用的页帧数
+     * */
+    private final int ringSize;
+
+    /**
+     * 通过当前策略加载的页面，按照加载的先后顺序排列
+     * */
+    private final Deque<PageId> ringPageIds;
+
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize <= 0) {
+            throw new DBException("ringSize must be positive ringSize=" + ringSize);
+        }
+        this.ringSize = ringSize;
+        this.ringPageIds = new ArrayDeque<>(ringSize);
+    }
+
+    /**
+     * 环形缓冲区已满时，返回并移除最早加载的页面，由缓冲池尝试将其淘汰后复用其页帧
+     * @return null 环形缓冲区未满，正常的从缓冲池中申请页帧
+     * */
+    public synchronized PageId pollReusablePageId() {
+        if (ringPageIds.size() < ringSize) {
+            return null;
+        }
+        return ringPageIds.pollFirst();
+    }
+
+    /**
+     * 记录通过当前策略加载的页面
+     * */
+    public synchronized void addPageId(PageId pageId) {
+        ringPageIds.addLast(pageId);
+    }
+
+    public int getRingSize() {
+        return ringSize;
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.bufferpool;
+
+import simpledb.dbpage.PageId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK 时钟置换(二次机会)
+ * 命中时只设置页面的引用位，不需要加锁
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * 环形的插槽，被移除的插槽置为null并在之后复用
+     * */
+    private final List<ClockNode> slotList = new ArrayList<>();
+    /**
+     * 命中时不加锁的读取，修改仍然在策略的锁内进行
+     * */
+    private final Map<PageId, ClockNode> nodeMap = new ConcurrentHashMap<>();
+    private final Deque<Integer> freeSlotIndexQueue = new ArrayDeque<>();
+
+    /**
+     * 时钟指针
+     * */
+    private int hand;
+
+    @Override
+    public synchronized void recordAccess(PageId pageId) {
+        ClockNode node = nodeMap.get(pageId);
+        if (node != null) {
+            node.referenced = true;
+            return;
+        }
+
+        node = new ClockNode(pageId);
+        if (freeSlotIndexQueue.isEmpty()) {
+            node.slotIndex = slotList.size();
+            slotList.add(node);
+        } else {
+            node.slotIndex = freeSlotIndexQueue.poll();
+            slotList.set(node.slotIndex, node);
+        }
+        nodeMap.put(pageId, node);
+    }
+
+    @Override
+    public void recordHit(PageId pageId) {
+        ClockNode node = nodeMap.get(pageId);
+        if (node != null) {
+            node.referenced = true;
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pageId) {
+        ClockNode node = nodeMap.remove(pageId);
+        if (node != null) {
+            slotList.set(node.slotIndex, null);
+            freeSlotIndexQueue.offer(node.slotIndex);
+        }
+    }
+
+    @Override
+    public synchronized PageId pickVictim(Predicate<PageId> evictable) {
+        int slotNum = slotList.size();
+        // 最多转两圈：第一圈清除引用位，第二圈通常能找到引用位为false的页面(如果存在可淘汰的页面)
+        for (int i = 0; i < slotNum * 2; i++) {
+            ClockNode node = slotList.get(hand);
+            hand = (hand + 1) % slotNum;
+
+            if (node == null || !evictable.test(node.pageId)) {
+                continue;
+            }
+            if (node.referenced) {
+                // 给予第二次机会
+                node.referenced = false;
+            } else {
+                return node.pageId;
+            }
+        }
+
+        // 两圈内引用位一直被并发的命中重新设置，最后一圈忽略引用位，只在确实没有可淘汰的页面时返回null
+        for (int i = 0; i < slotNum; i++) {
+            ClockNode node = slotList.get(hand);
+            hand = (hand + 1) % slotNum;
+
+            if (node != null && evictable.test(node.pageId)) {
+                node.referenced = false;
+                return node.pageId;
+            }
+        }
+        return null;
+    }
+
+    private static class ClockNode {
+        private final PageId pageId;
+        private int slotIndex;
+        private volatile boolean referenced;
+
+        ClockNode(PageId pageId) {
+            this.pageId = pageId;
+            this.referenced = true;
+        }
+    }
+}
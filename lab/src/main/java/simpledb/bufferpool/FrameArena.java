@@ -0,0 +1,116 @@
+package simpledb.bufferpool;
+
+import simpledb.exception.DBException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 堆外页帧池
+ * 预先申请大块的直接内存(DirectByteBuffer)并切分为固定大小的页帧，缓冲池中页面的二进制数据保存在页帧中，
+ * 避免大量的页面对象常驻堆内存，使得GC开销不随缓冲池大小增长
+ */
+public class FrameArena {
+
+    /**
+     * 单个直接内存块的最大字节数(ByteBuffer的容量上限为Integer.MAX_VALUE)
+     * */
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int frameNum;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+
+    /**
+     * 空闲的页帧号
+     * */
+    private final Deque<Integer> freeFrameNos;
+
+    public FrameArena(int frameSize, int frameNum) {
+        if (frameSize <= 0 || frameNum <= 0) {
+            throw new DBException("illegal arena frameSize=" + frameSize + " frameNum=" + frameNum);
+        }
+        this.frameSize = frameSize;
+        this.frameNum = frameNum;
+        this.framesPerChunk = MAX_CHUNK_BYTES / frameSize;
+
+        int chunkNum = (frameNum + framesPerChunk - 1) / framesPerChunk;
+        this.chunks = new ByteBuffer[chunkNum];
+        for (int i = 0; i < chunkNum; i++) {
+            int chunkFrameNum = Math.min(framesPerChunk, frameNum - i * framesPerChunk);
+            this.chunks[i] = ByteBuffer.allocateDirect(chunkFrameNum * frameSize);
+        }
+
+        this.freeFrameNos = new ArrayDeque<>(frameNum);
+        for (int i = 0; i < frameNum; i++) {
+            this.freeFrameNos.addLast(i);
+        }
+    }
+
+    /**
+     * 申请一个页帧
+     * @return 页帧号，-1表示没有空闲的页帧
+     * */
+    public synchronized int allocate() {
+        Integer frameNo = freeFrameNos.pollFirst();
+        return frameNo == null ? -1 : frameNo;
+    }
+
+    public synchronized void release(int frameNo) {
+        checkFrameNo(frameNo);
+        freeFrameNos.addFirst(frameNo);
+    }
+
+    /**
+     * 将页面数据写入页帧
+     * */
+    public void write(int frameNo, byte[] data) {
+        if (data.length > frameSize) {
+            throw new DBException("page data larger than arena frame dataLength=" + data.length);
+        }
+        ByteBuffer view = frameView(frameNo);
+        view.put(data);
+    }
+
+    /**
+     * 从页帧中读取出页面数据
+     * */
+    public byte[] read(int frameNo, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer view = frameView(frameNo);
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * 页帧对应的视图(与其它页帧互不影响)
+     * */
+    public ByteBuffer frameView(int frameNo) {
+        checkFrameNo(frameNo);
+        ByteBuffer view = chunks[frameNo / framesPerChunk].duplicate();
+        int offset = (frameNo % framesPerChunk) * frameSize;
+        view.limit(offset + frameSize);
+        view.position(offset);
+        return view.slice();
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getFrameNum() {
+        return frameNum;
+    }
+
+    public synchronized int getFreeFrameNum() {
+        return freeFrameNos.size();
+    }
+
+    private void checkFrameNo(int frameNo) {
+        if (frameNo < 0 || frameNo >= frameNum) {
+            throw new DBException("illegal arena frameNo=" + frameNo);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.bufferpool;
+
+import simpledb.dbpage.PageId;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K 淘汰倒数第K次访问距今最久的页面
+ * 访问次数不足K次的页面，其backward k-distance视为无穷大，优先被淘汰(之间按照最早一次访问的先后排序)
+ * 命中先放入AccessBuffer，在持有锁时批量记录访问时间戳
+ */
+public class LRUKReplacementPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+
+    /**
+     * 每个页面最近K次的访问时间戳(逻辑时钟)，队头为最早的一次
+     * */
+    private final Map<PageId, Deque<Long>> accessHistoryMap = new HashMap<>();
+
+    private long currentTimestamp;
+
+    private final AccessBuffer hitBuffer = new AccessBuffer();
+
+    public LRUKReplacementPolicy() {
+        this(DEFAULT_K);
+    }
+
+    public LRUKReplacementPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive k=" + k);
+        }
+        this.k = k;
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pageId) {
+        drainHits();
+        addTimestamp(accessHistoryMap.computeIfAbsent(pageId, key -> new ArrayDeque<>(k)));
+    }
+
+    @Override
+    public void recordHit(PageId pageId) {
+        if (hitBuffer.offer(pageId)) {
+            synchronized (this) {
+                drainHits();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pageId) {
+        drainHits();
+        accessHistoryMap.remove(pageId);
+    }
+
+    @Override
+    public synchronized PageId pickVictim(Predicate<PageId> evictable) {
+        drainHits();
+        PageId victim = null;
+        boolean victimInfinite = false;
+        long victimTimestamp = Long.MAX_VALUE;
+
+        for (Map.Entry<PageId, Deque<Long>> entry : accessHistoryMap.entrySet()) {
+            if (!evictable.test(entry.getKey())) {
+                continue;
+            }
+
+            Deque<Long> history = entry.getValue();
+            boolean infinite = history.size() < k;
+            // 访问次数足够时，队头恰好是倒数第K次访问的时间戳；不足K次时，队头是最早的一次访问
+            long timestamp = history.peekFirst();
+
+            if (victim == null
+                    || (infinite && !victimInfinite)
+                    || (infinite == victimInfinite && timestamp < victimTimestamp)) {
+                victim = entry.getKey();
+                victimInfinite = infinite;
+                victimTimestamp = timestamp;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * 应用缓冲的命中记录，调用方持有锁；已经被移除的页面忽略
+     * */
+    private void drainHits() {
+        hitBuffer.drainTo(pageId -> {
+            Deque<Long> history = accessHistoryMap.get(pageId);
+            if (history != null) {
+                addTimestamp(history);
+            }
+        });
+    }
+
+    private void addTimestamp(Deque<Long> history) {
+        if (history.size() == k) {
+            history.pollFirst();
+        }
+        history.offerLast(currentTimestamp++);
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb.bufferpool;
+
+import simpledb.dbpage.PageId;
+
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * LRU 最近最少使用
+ * 命中先放入AccessBuffer，在持有锁时批量调整访问顺序
+ */
+public class LRUReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * accessOrder=true，迭代顺序即为从最久未访问到最近访问
+     * */
+    private final LinkedHashMap<PageId, Boolean> accessOrderMap = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AccessBuffer hitBuffer = new AccessBuffer();
+
+    @Override
+    public synchronized void recordAccess(PageId pageId) {
+        drainHits();
+        accessOrderMap.put(pageId, Boolean.TRUE);
+    }
+
+    @Override
+    public void recordHit(PageId pageId) {
+        if (hitBuffer.offer(pageId)) {
+            synchronized (this) {
+                drainHits();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pageId) {
+        drainHits();
+        accessOrderMap.remove(pageId);
+    }
+
+    @Override
+    public synchronized PageId pickVictim(Predicate<PageId> evictable) {
+        drainHits();
+        for (PageId pageId : accessOrderMap.keySet()) {
+            if (evictable.test(pageId)) {
+                return pageId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 应用缓冲的命中记录，调用方持有锁；get会把页面移到访问顺序的末尾，已经被移除的页面不会被重新加入
+     * */
+    private void drainHits() {
+        hitBuffer.drainTo(accessOrderMap::get);
+    }
+}
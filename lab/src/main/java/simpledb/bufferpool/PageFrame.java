@@ -0,0 +1,261 @@
+package simpledb.bufferpool;
+
+import simpledb.dbpage.DBPage;
+import simpledb.exception.DBException;
+
+/**
+ * 缓冲池中的一个页帧
+ */
+public class PageFrame {
+
+    /**
+     * 页面对象，堆外页帧在没有被pin住时为null(只保留页帧中的二进制数据)
+     * */
+    private DBPage page;
+
+    /**
+     * 页面数据所在的堆外页帧号，-1表示页面对象常驻堆内存
+     * */
+    private int arenaFrameNo;
+
+    /**
+     * 堆外页帧中页面数据的长度
+     * */
+    private int dataLength;
+
+    /**
+     * 是否正在从磁盘加载，加载期间其它线程获取该页面时等待加载完成(同一个页面只会被读取一次)
+     * */
+    private boolean loading;
+
+    /**
+     * 是否被修改过(淘汰前需要先写回磁盘)
+     * */
+    private volatile boolean dirty;
+
+    /**
+     * 引用计数，大于0时不允许被淘汰
+     * */
+    private int pinCount;
+
+    /**
+     * 是否已经被淘汰出缓冲池，被淘汰后不允许再pin
+     * */
+    private boolean evicted;
+
+    /**
+     * 是否正在被批量写回磁盘，写回完成之前不允许淘汰(否则重新加载时可能读到旧数据)
+     * */
+    private boolean writing;
+
+    public PageFrame(DBPage page) {
+        this.page = page;
+        this.arenaFrameNo = -1;
+    }
+
+    public PageFrame(DBPage page, int arenaFrameNo, int dataLength) {
+        this.page = page;
+        this.arenaFrameNo = arenaFrameNo;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * 创建一个正在加载中的页帧，页帧被加载线程pin住
+     * */
+    public static PageFrame newLoadingFrame() {
+        PageFrame frame = new PageFrame(null);
+        frame.loading = true;
+        frame.pinCount = 1;
+        return frame;
+    }
+
+    /**
+     * 加载完成，唤醒等待的线程
+     * */
+    public synchronized void completeLoad(DBPage page, int arenaFrameNo, int dataLength) {
+        this.page = page;
+        this.arenaFrameNo = arenaFrameNo;
+        this.dataLength = dataLength;
+        this.loading = false;
+        notifyAll();
+    }
+
+    /**
+     * 加载失败，页帧作废，等待的线程需要重新加载
+     * */
+    public synchronized void failLoad() {
+        this.loading = false;
+        this.evicted = true;
+        this.pinCount = 0;
+        notifyAll();
+    }
+
+    /**
+     * 等待页帧加载完成
+     * */
+    public synchronized void awaitLoaded() {
+        boolean interrupted = false;
+        while (loading) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized DBPage getPage() {
+        return page;
+    }
+
+    public synchronized void setPage(DBPage page) {
+        this.page = page;
+    }
+
+    public synchronized boolean isOffHeap() {
+        return arenaFrameNo >= 0;
+    }
+
+    public synchronized int getArenaFrameNo() {
+        return arenaFrameNo;
+    }
+
+    public synchronized int getDataLength() {
+        return dataLength;
+    }
+
+    public synchronized void setDataLength(int dataLength) {
+        this.dataLength = dataLength;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * 页帧正在加载时会等待加载完成
+     * @return false 页帧已经被淘汰，需要重新加载
+     * */
+    public synchronized boolean tryPin() {
+        awaitLoaded();
+        if (evicted) {
+            return false;
+        }
+        pinCount++;
+        return true;
+    }
+
+    /**
+     * @return false 页帧并没有被pin
+     * */
+    public synchronized boolean unpin() {
+        if (pinCount == 0) {
+            return false;
+        }
+        pinCount--;
+        if (pinCount == 0) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * 等待所有的pin被释放，调用方已经禁止了新的pin
+     * @return false 超时后仍然被pin住
+     * */
+    public synchronized boolean awaitUnpinned(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean interrupted = false;
+        while (pinCount > 0) {
+            long remainMillis = deadline - System.currentTimeMillis();
+            if (remainMillis <= 0) {
+                break;
+            }
+            try {
+                wait(remainMillis);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return pinCount == 0;
+    }
+
+    /**
+     * 尝试将页帧标记为已淘汰
+     * @return false 页帧仍然被引用或者正在写回，不能淘汰
+     * */
+    public synchronized boolean tryEvict() {
+        if (pinCount > 0 || writing) {
+            return false;
+        }
+        if (loading) {
+            throw new DBException("can't evict a loading frame");
+        }
+        evicted = true;
+        return true;
+    }
+
+    /**
+     * 淘汰时写回磁盘失败(或者丢弃时一直被pin住)，撤销淘汰的标记
+     * */
+    public synchronized void cancelEvict() {
+        evicted = false;
+    }
+
+    /**
+     * 页面被丢弃，无论是否被引用都不允许再pin
+     * */
+    public synchronized void discard() {
+        evicted = true;
+    }
+
+    public synchronized boolean isWriting() {
+        return writing;
+    }
+
+    public synchronized void setWriting(boolean writing) {
+        this.writing = writing;
+        if (!writing) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 等待正在进行的写回完成，保证同一个页帧同时只有一个线程在写回(后写入的一定是更新的数据)
+     * */
+    public synchronized void awaitWritten() {
+        boolean interrupted = false;
+        while (writing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getPinCount() {
+        return pinCount;
+    }
+
+    public synchronized boolean isPinned() {
+        return pinCount > 0;
+    }
+
+    public synchronized boolean isEvicted() {
+        return evicted;
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb.bufferpool;
+
+import simpledb.BufferPool;
+import simpledb.dbpage.DBPage;
+import simpledb.dbpage.PageId;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 异步预读
+ * 由后台的I/O线程池提前将扫描游标之后的页面加载进缓冲池，扫描线程访问到这些页面时直接命中
+ * 预读是尽力而为的：队列已满、缓冲池已满或者读取失败时直接放弃，不影响扫描本身
+ */
+public class ReadAheadEngine {
+
+    private static final int MAX_QUEUED_TASK_NUM = 1024;
+
+    private final BufferPool bufferPool;
+
+    private final ThreadPoolExecutor ioExecutor;
+
+    /**
+     * 已经提交但还没有完成的预读页面，避免重复提交
+     * */
+    private final Set<PageId> inFlightPageIds = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong prefetchPageCount = new AtomicLong();
+
+    public ReadAheadEngine(BufferPool bufferPool, int ioThreadNum) {
+        this.bufferPool = bufferPool;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.ioExecutor = new ThreadPoolExecutor(ioThreadNum, ioThreadNum, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_TASK_NUM), runnable -> {
+                    Thread thread = new Thread(runnable, "buffer-pool-read-ahead-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * 异步预读一个页面
+     * @param strategy 扫描所使用的访问策略，可以为null
+     * */
+    public void prefetch(PageId pageId, BufferAccessStrategy strategy) {
+        if (bufferPool.isCached(pageId) || !inFlightPageIds.add(pageId)) {
+            return;
+        }
+        submit(pageId, () -> {
+            try {
+                loadPage(pageId, strategy);
+            } finally {
+                inFlightPageIds.remove(pageId);
+            }
+        });
+    }
+
+    /**
+     * 异步的沿着页面链表(例如B+树叶子页的右兄弟指针)预读
+     * 下一个页面的页号只有在当前页面加载后才能知道，因此整条链在同一个后台任务中按顺序加载
+     * @param firstPageId 链表中第一个需要预读的页面
+     * @param depth 最多预读的页数
+     * @param nextPageIdFunction 根据当前页面得到下一个页面的页号，返回null表示链表结束
+     * */
+    public void prefetchChain(PageId firstPageId, int depth, Function<DBPage, PageId> nextPageIdFunction) {
+        if (firstPageId == null || depth <= 0 || !inFlightPageIds.add(firstPageId)) {
+            return;
+        }
+        submit(firstPageId, () -> {
+            try {
+                PageId pageId = firstPageId;
+                for (int i = 0; i < depth && pageId != null; i++) {
+                    pageId = loadPage(pageId, null, nextPageIdFunction);
+                }
+            } finally {
+                inFlightPageIds.remove(firstPageId);
+            }
+        });
+    }
+
+    public long getPrefetchPageCount() {
+        return prefetchPageCount.get();
+    }
+
+    public void shutdown() {
+        ioExecutor.shutdownNow();
+    }
+
+    private void submit(PageId pageId, Runnable task) {
+        try {
+            ioExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 预读队列已满(或者已关闭)，放弃本次预读
+            inFlightPageIds.remove(pageId);
+        }
+    }
+
+    private void loadPage(PageId pageId, BufferAccessStrategy strategy) {
+        if (bufferPool.isCached(pageId)) {
+            return;
+        }
+        try {
+            bufferPool.getPage(pageId, strategy);
+            bufferPool.unpinPage(pageId);
+            prefetchPageCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            // 预读失败不影响扫描，扫描线程访问该页面时会重新同步读取
+        }
+    }
+
+    /**
+     * @return 下一个页面的页号
+     * */
+    private PageId loadPage(PageId pageId, BufferAccessStrategy strategy, Function<DBPage, PageId> nextPageIdFunction) {
+        try {
+            boolean cached = bufferPool.isCached(pageId);
+            DBPage page = bufferPool.getPage(pageId, strategy);
+            try {
+                if (!cached) {
+                    prefetchPageCount.incrementAndGet();
+                }
+                return nextPageIdFunction.apply(page);
+            } finally {
+                bufferPool.unpinPage(pageId);
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
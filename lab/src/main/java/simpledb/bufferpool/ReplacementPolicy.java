@@ -0,0 +1,37 @@
+package simpledb.bufferpool;
+
+import simpledb.dbpage.PageId;
+
+import java.util.function.Predicate;
+
+/**
+ * 缓冲池页面置换策略
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * 页面被访问(命中或者刚从磁盘加载)
+     * */
+    void recordAccess(PageId pageId);
+
+    /**
+     * 已经在缓冲池中的页面被命中，在getPage的命中路径上调用，默认与recordAccess相同
+     * 实现可以不加锁的记录(例如只设置引用位，或者先放入缓冲区)，只要在下一次pickVictim之前生效即可；
+     * 页面已经被移除时忽略
+     * */
+    default void recordHit(PageId pageId) {
+        recordAccess(pageId);
+    }
+
+    /**
+     * 页面被移出缓冲池
+     * */
+    void remove(PageId pageId);
+
+    /**
+     * 选出一个需要被淘汰的页面
+     * @param evictable 判断页面当前是否允许被淘汰
+     * @return 被淘汰的页面，不存在可淘汰的页面时返回null
+     * */
+    PageId pickVictim(Predicate<PageId> evictable);
+}
@@ -0,0 +1,35 @@
+package simpledb.bufferpool;
+
+public enum ReplacementPolicyEnum {
+    LRU("最近最少使用"){
+        @Override
+        public ReplacementPolicy create() {
+            return new LRUReplacementPolicy();
+        }
+    },
+    CLOCK("时钟置换"){
+        @Override
+        public ReplacementPolicy create() {
+            return new ClockReplacementPolicy();
+        }
+    },
+    LRU_K("LRU-K"){
+        @Override
+        public ReplacementPolicy create() {
+            return new LRUKReplacementPolicy();
+        }
+    },
+    ;
+
+    private final String message;
+
+    ReplacementPolicyEnum(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public abstract ReplacementPolicy create();
+}
@@ -0,0 +1,253 @@
+package simpledb.dbfile;
+
+import simpledb.Database;
+import simpledb.dbpage.DBPage;
+import simpledb.dbpage.btree.BTreeEntry;
+import simpledb.dbpage.btree.BTreeInternalPage;
+import simpledb.dbpage.btree.BTreeLeafPage;
+import simpledb.dbpage.btree.BTreePageCategoryEnum;
+import simpledb.dbpage.btree.BTreePageId;
+import simpledb.dbpage.btree.BTreeRootPtrPage;
+import simpledb.dbrecord.Record;
+import simpledb.exception.DBException;
+import simpledb.matadata.fields.Field;
+import simpledb.metrics.DBMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * 自底向上批量构建B+树
+ * 1. 输入先按照索引字段进行外部排序(记录数超过内存上限时溢出到临时文件)
+ * 2. 排序后记录总数已知，按照填充因子计算出每一层的页数，记录均匀的分配到各页中(不会出现末尾的页过于稀疏)，
+ *    每一页的页号和双亲页号都可以提前算出，因此每个页面只需要构造、写出一次
+ * 3. 叶子页按照顺序连续分配页号并设置左右兄弟指针，再逐层向上构建内部页，最后更新根指针
+ *
+ * 页面不经过BufferPool，攒够一批后顺序写出；只能在空树上构建
+ */
+class BTreeBulkBuilder {
+
+    /**
+     * 每一批写出的数据量
+     * */
+    private static final int BATCH_BYTES = 4 * 1024 * 1024;
+
+    private final BTreeFile bTreeFile;
+    private final String tableId;
+    private final int keyFieldIndex;
+    private final int pageSize;
+
+    /**
+     * 页号 -> 整页数据
+     * */
+    private final TreeMap<Integer, byte[]> batch = new TreeMap<>();
+
+    BTreeBulkBuilder(BTreeFile bTreeFile) {
+        this.bTreeFile = bTreeFile;
+        this.tableId = bTreeFile.getTableId();
+        this.keyFieldIndex = bTreeFile.getKeyFieldIndex();
+        this.pageSize = bTreeFile.getPageSize();
+    }
+
+    /**
+     * @param fillFactor 每一页填充的比例(0, 1]，为后续的插入预留空间
+     * @param maxRecordNumInMemory 排序时内存中最多缓存的记录数
+     * */
+    BulkLoadResult build(Iterator<Record> recordIterator, double fillFactor, int maxRecordNumInMemory) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new DBException("fillFactor must be in (0, 1] fillFactor=" + fillFactor);
+        }
+        long startNanos = System.nanoTime();
+
+        // 先把缓冲池中这张表的修改写回，保证从文件中读到的根指针是最新的
+        Database.getBufferPool(tableId).flushPages(tableId);
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableId);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bTreeFile.readPage(rootPtrId);
+        if (rootPtr.getRootId() != null) {
+            throw new DBException("bulk build requires an empty BTreeFile tableId=" + tableId);
+        }
+
+        try (RecordExternalSorter sorter = new RecordExternalSorter(bTreeFile.getTableDesc(), keyFieldIndex, maxRecordNumInMemory)) {
+            while (recordIterator.hasNext()) {
+                sorter.add(recordIterator.next());
+            }
+            long recordNum = sorter.getRecordNum();
+            if (recordNum == 0) {
+                return new BulkLoadResult(0, 0, System.nanoTime() - startNanos);
+            }
+
+            // 已有的页(空树时可能存在一个未使用的空页)不再使用，新页从文件末尾开始分配
+            int firstPgNo = bTreeFile.numPages() + 1;
+            BTreeLeafPage emptyLeafPage = new BTreeLeafPage(bTreeFile.getTableDesc(),
+                    new BTreePageId(tableId, firstPgNo, BTreePageCategoryEnum.LEAF.getValue()), new byte[pageSize], keyFieldIndex, bTreeFile.getSlotFormat());
+            BTreeInternalPage emptyInternalPage = new BTreeInternalPage(bTreeFile.getTableDesc(),
+                    new BTreePageId(tableId, firstPgNo, BTreePageCategoryEnum.INTERNAL.getValue()), new byte[pageSize], keyFieldIndex, bTreeFile.getSlotFormat());
+            int leafCapacity = Math.max(1, (int) (emptyLeafPage.getMaxSlotNum() * fillFactor));
+            // 内部页至少容纳3个孩子，保证均匀分配后每个内部页都至少有2个孩子(1个entry)
+            int internalCapacity = Math.max(3, (int) (emptyInternalPage.getMaxSlotNum() * fillFactor));
+
+            // 计算每一层的页数，levelPageNums[0]为叶子层，最后一层只有一个根节点
+            List<Integer> levelPageNumList = new ArrayList<>();
+            levelPageNumList.add((int) ceilDiv(recordNum, leafCapacity));
+            while (levelPageNumList.get(levelPageNumList.size() - 1) > 1) {
+                levelPageNumList.add((int) ceilDiv(levelPageNumList.get(levelPageNumList.size() - 1), internalCapacity));
+            }
+            // 每一层的起始页号，叶子层在最前面，逐层向上
+            int[] levelFirstPgNos = new int[levelPageNumList.size()];
+            levelFirstPgNos[0] = firstPgNo;
+            for (int level = 1; level < levelFirstPgNos.length; level++) {
+                levelFirstPgNos[level] = levelFirstPgNos[level - 1] + levelPageNumList.get(level - 1);
+            }
+
+            // 所有的页由构建过程直接写入，一次性扩大逻辑页数
+            int rootLevel = levelPageNumList.size() - 1;
+            bTreeFile.getExtentAllocator().ensurePageNum(levelFirstPgNos[rootLevel]);
+
+            List<Field> childFirstKeyList = buildLeafLevel(sorter.sortedIterator(), recordNum, levelPageNumList, levelFirstPgNos);
+            for (int level = 1; level < levelPageNumList.size(); level++) {
+                childFirstKeyList = buildInternalLevel(childFirstKeyList, level, levelPageNumList, levelFirstPgNos);
+            }
+            writeBatch();
+            bTreeFile.forcePages();
+
+            // 所有页都落盘之后再切换根指针
+            rootPtr.setRootId(new BTreePageId(tableId, levelFirstPgNos[rootLevel],
+                    rootLevel == 0 ? BTreePageCategoryEnum.LEAF.getValue() : BTreePageCategoryEnum.INTERNAL.getValue()));
+            try {
+                bTreeFile.writePage(rootPtr);
+            } finally {
+                Database.getBufferPool(tableId).discardPage(rootPtrId);
+            }
+            bTreeFile.forcePages();
+
+            int pageNum = levelFirstPgNos[rootLevel] + 1 - firstPgNo;
+            return new BulkLoadResult(recordNum, pageNum, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 构建叶子层
+     * @return 每个叶子页中最小的key
+     * */
+    private List<Field> buildLeafLevel(Iterator<Record> sortedIterator, long recordNum,
+                                       List<Integer> levelPageNumList, int[] levelFirstPgNos) {
+        int leafNum = levelPageNumList.get(0);
+        List<Field> firstKeyList = new ArrayList<>(leafNum);
+        for (int index = 0; index < leafNum; index++) {
+            int pgNo = levelFirstPgNos[0] + index;
+            BTreeLeafPage leafPage = new BTreeLeafPage(bTreeFile.getTableDesc(), leafPageId(pgNo), new byte[pageSize], keyFieldIndex, bTreeFile.getSlotFormat());
+            leafPage.setParentId(parentId(0, index, levelPageNumList, levelFirstPgNos));
+            leafPage.setLeftSiblingId(index == 0 ? null : leafPageId(pgNo - 1));
+            leafPage.setRightSiblingId(index == leafNum - 1 ? null : leafPageId(pgNo + 1));
+
+            long count = shareOf(recordNum, leafNum, index);
+            for (long i = 0; i < count; i++) {
+                Record record = sortedIterator.next();
+                if (i == 0) {
+                    firstKeyList.add(record.getField(keyFieldIndex));
+                }
+                // 记录是有序的，总是追加在页内的最后
+                leafPage.insertRecord(record);
+            }
+            addPage(pgNo, leafPage);
+        }
+        return firstKeyList;
+    }
+
+    /**
+     * 构建一层内部页，相邻两个孩子之间的key为右边孩子子树中最小的key
+     * @return 当前层每个页的子树中最小的key
+     * */
+    private List<Field> buildInternalLevel(List<Field> childFirstKeyList, int level,
+                                           List<Integer> levelPageNumList, int[] levelFirstPgNos) {
+        int childNum = childFirstKeyList.size();
+        int pageNum = levelPageNumList.get(level);
+        int childCategory = level == 1 ? BTreePageCategoryEnum.LEAF.getValue() : BTreePageCategoryEnum.INTERNAL.getValue();
+
+        List<Field> firstKeyList = new ArrayList<>(pageNum);
+        int childIndex = 0;
+        for (int index = 0; index < pageNum; index++) {
+            int pgNo = levelFirstPgNos[level] + index;
+            BTreeInternalPage internalPage = new BTreeInternalPage(bTreeFile.getTableDesc(),
+                    new BTreePageId(tableId, pgNo, BTreePageCategoryEnum.INTERNAL.getValue()), new byte[pageSize], keyFieldIndex, bTreeFile.getSlotFormat());
+            internalPage.setParentId(parentId(level, index, levelPageNumList, levelFirstPgNos));
+
+            int count = (int) shareOf(childNum, pageNum, index);
+            firstKeyList.add(childFirstKeyList.get(childIndex));
+            for (int i = 1; i < count; i++) {
+                int rightChildIndex = childIndex + i;
+                BTreePageId leftChild = new BTreePageId(tableId, levelFirstPgNos[level - 1] + rightChildIndex - 1, childCategory);
+                BTreePageId rightChild = new BTreePageId(tableId, levelFirstPgNos[level - 1] + rightChildIndex, childCategory);
+                internalPage.insertEntry(new BTreeEntry(childFirstKeyList.get(rightChildIndex), leftChild, rightChild));
+            }
+            childIndex += count;
+            addPage(pgNo, internalPage);
+        }
+        return firstKeyList;
+    }
+
+    /**
+     * 第level层第index个页的双亲页
+     * */
+    private BTreePageId parentId(int level, int index, List<Integer> levelPageNumList, int[] levelFirstPgNos) {
+        if (level == levelPageNumList.size() - 1) {
+            return BTreeRootPtrPage.getId(tableId);
+        }
+        int parentIndex = ownerOf(levelPageNumList.get(level), levelPageNumList.get(level + 1), index);
+        return new BTreePageId(tableId, levelFirstPgNos[level + 1] + parentIndex, BTreePageCategoryEnum.INTERNAL.getValue());
+    }
+
+    private BTreePageId leafPageId(int pgNo) {
+        return new BTreePageId(tableId, pgNo, BTreePageCategoryEnum.LEAF.getValue());
+    }
+
+    private void addPage(int pgNo, DBPage page) {
+        try {
+            batch.put(pgNo, page.serialize());
+        } catch (IOException e) {
+            throw new DBException("serialize BTree page error pageId=" + page.getPageId(), e);
+        }
+        if ((long) batch.size() * pageSize >= BATCH_BYTES) {
+            writeBatch();
+        }
+    }
+
+    private void writeBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long writeBytes = bTreeFile.writePagesDirectly(batch);
+        DBMetrics.getTableStats(tableId)
+                .recordBatchWrite(batch.size(), writeBytes, System.nanoTime() - startNanos);
+        batch.clear();
+    }
+
+    /**
+     * total个元素均匀的分配到partNum个部分中，第index部分分到的个数(前total%partNum个部分多分一个)
+     * */
+    private static long shareOf(long total, long partNum, long index) {
+        long base = total / partNum;
+        return index < total % partNum ? base + 1 : base;
+    }
+
+    /**
+     * total个元素均匀的分配到partNum个部分中，第elementIndex个元素所属的部分
+     * */
+    private static int ownerOf(long total, long partNum, long elementIndex) {
+        long base = total / partNum;
+        long extra = total % partNum;
+        long bigPartElementNum = extra * (base + 1);
+        if (elementIndex < bigPartElementNum) {
+            return (int) (elementIndex / (base + 1));
+        }
+        return (int) (extra + (elementIndex - bigPartElementNum) / base);
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return (x + y - 1) / y;
+    }
+}
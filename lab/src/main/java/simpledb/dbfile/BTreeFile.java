@@ -1,14 +1,19 @@
 package simpledb.dbfile;
 
+import simpledb.BufferPool;
 import simpledb.Database;
+import simpledb.bufferpool.ReadAheadEngine;
 import simpledb.dbpage.DBPage;
 import simpledb.dbpage.PageCommonUtil;
 import simpledb.dbpage.PageId;
+import simpledb.dbpage.SlotFormatEnum;
 import simpledb.dbpage.btree.*;
+import simpledb.dbpage.normal.HeapPageFormatEnum;
 import simpledb.dbrecord.Record;
 import simpledb.exception.DBException;
 import simpledb.iterator.DbFileIterator;
 import simpledb.iterator.enums.OperatorEnum;
+import simpledb.metrics.DBMetrics;
 import simpledb.matadata.fields.Field;
 import simpledb.matadata.table.TableDesc;
 
@@ -21,16 +26,65 @@ import java.util.*;
  */
 public class BTreeFile implements DBFile{
 
+    /**
+     * 批量构建时默认的页填充比例，为后续的插入预留一部分空间
+     * */
+    public static final double DEFAULT_BULK_BUILD_FILL_FACTOR = 0.9;
+
+    /**
+     * 批量构建排序时内存中默认最多缓存的记录数
+     * */
+    public static final int DEFAULT_BULK_BUILD_SORT_RECORD_NUM = 100000;
+
     private final File f;
     private final TableDesc tableDesc;
     private final String tableId ;
     private final int keyFieldIndex;
+    private DBFileHeader fileHeader;
+    private final PageFileChannel fileChannel;
+    private final ExtentAllocator extentAllocator;
+
+    /**
+     * 数据页压缩存储时非根指针页的读写都经过它(根指针页保存在文件头中，不压缩)，不压缩时为null
+     * */
+    private final CompressedPageStore compressedPageStore;
+
+    /**
+     * 当前线程在一次insertTuple/deleteTuple中从BufferPool获取(pin住)的页
+     * */
+    private final ThreadLocal<List<BTreePageId>> pinnedPageIdList = ThreadLocal.withInitial(ArrayList::new);
 
     public BTreeFile(File f, TableDesc tableDesc, String tableId, int keyFieldIndex) {
+        this(f, tableDesc, tableId, keyFieldIndex, PageCompressionEnum.NONE);
+    }
+
+    /**
+     * @param pageCompressionEnum 新文件的数据页压缩方式，已存在的文件以文件头中记录的为准
+     * */
+    public BTreeFile(File f, TableDesc tableDesc, String tableId, int keyFieldIndex, PageCompressionEnum pageCompressionEnum) {
         this.f = f;
         this.tableDesc = tableDesc;
         this.tableId = tableId;
         this.keyFieldIndex = keyFieldIndex;
+        // 先完成(或者回滚)上一次中断的插槽位图格式升级
+        SlotFormatMigrator.recover(f);
+        boolean newFile = !f.exists() || f.length() == 0;
+        // 新文件使用当前配置的页大小，已存在的文件以文件头中记录的为准
+        this.fileHeader = DBFileHeader.readOrCreate(f, Database.getBufferPool().getPageSize(),
+                HeapPageFormatEnum.FIXED, pageCompressionEnum);
+        if (SlotFormatMigrator.needMigrate(fileHeader)) {
+            // 老版本的插槽位图格式，打开时升级为按位存储
+            this.fileHeader = SlotFormatMigrator.migrateBTreeFile(f, fileHeader, tableDesc, keyFieldIndex, Database.getConfig().getSegmentSize());
+        }
+        this.fileChannel = new PageFileChannel(f, Database.getConfig().getSegmentSize());
+        this.fileChannel.setMmapRead(Database.getConfig().isMmapRead());
+        // 分配器中的页下标从0开始，对应页号1
+        this.extentAllocator = new ExtentAllocator(fileChannel, fileHeader, getPageOffset(1), Database.getConfig().getExtentSize());
+        // 页偏移映射直接以页号为下标
+        this.compressedPageStore = fileHeader.isCompressed()
+                ? new CompressedPageStore(fileChannel, fileHeader.getDataOffset(), getPageSize(),
+                        new File(f.getPath() + CompressedPageStore.FILE_SUFFIX), newFile)
+                : null;
     }
 
     public File getF() {
@@ -45,6 +99,35 @@ public class BTreeFile implements DBFile{
         return keyFieldIndex;
     }
 
+    public DBFileHeader getFileHeader() {
+        return fileHeader;
+    }
+
+    public int getPageSize() {
+        return fileHeader.getPageSize();
+    }
+
+    /**
+     * 页内插槽位图的格式
+     * */
+    public SlotFormatEnum getSlotFormat() {
+        return fileHeader.getSlotFormat();
+    }
+
+    /**
+     * 数据页的压缩方式
+     * */
+    public PageCompressionEnum getPageCompression() {
+        return fileHeader.getPageCompression();
+    }
+
+    /**
+     * 数据页压缩存储时的页面存储，不压缩时为null
+     * */
+    public CompressedPageStore getCompressedPageStore() {
+        return compressedPageStore;
+    }
+
     @Override
     public TableDesc getTableDesc() {
         return this.tableDesc;
@@ -57,133 +140,251 @@ public class BTreeFile implements DBFile{
 
     @Override
     public DBPage readPage(PageId pageId) {
+        return parsePage(pageId, readPageData(pageId));
+    }
+
+    @Override
+    public void writePage(DBPage dbPage) {
+        try {
+            writePageData(dbPage.getPageId(), dbPage.serialize());
+        } catch (IOException e) {
+            throw new DBException("write BTreeFile page error",e);
+        }
+    }
+
+    @Override
+    public byte[] readPageData(PageId pageId) {
+        long startNanos = System.nanoTime();
         BTreePageId id = (BTreePageId) pageId;
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.getPageCategory() == BTreePageCategoryEnum.ROOT_PTR.getValue()) {
-                // 根节点指针页
-                byte[] pageBuf = new byte[BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE];
+        byte[] pageBuf = readPageDataFromFile(id);
+        int readLength = pageBuf.length;
+        if (compressedPageStore != null && id.getPageCategory() != BTreePageCategoryEnum.ROOT_PTR.getValue()) {
+            readLength = compressedPageStore.getStoredLength(id.getPageNo());
+        }
+        DBMetrics.getTableStats(pageId.getTableId()).recordRead(readLength, System.nanoTime() - startNanos);
+        return pageBuf;
+    }
 
-                // 从文件的头部开始读(偏移为0)
-                int retVal = bis.read(pageBuf, 0, BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE);
-                if (retVal == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retVal < BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE + " bytes from BTreeFile");
-                }
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                // 非根节点指针页
-
-                byte[] pageBuf = new byte[Database.getBufferPool().getPageSize()];
-                // 跳过第一页的根指针页，再偏移pageNo-1页(-1是因为根指针页是第0页，计算后面的非根节点指针页偏移时需要排除)
-                int needSkip = BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE + (id.getPageNo() - 1) * Database.getBufferPool().getPageSize();
-                long realSkip = bis.skip(needSkip);
-                if (realSkip != needSkip) {
-                    throw new DBException("Unable to seek to correct place in BTreeFile");
-                }
-                // 读取出对应页的数据
-                int retVal = bis.read(pageBuf, 0, Database.getBufferPool().getPageSize());
+    private byte[] readPageDataFromFile(BTreePageId id) {
+        if (id.getPageCategory() == BTreePageCategoryEnum.ROOT_PTR.getValue()) {
+            // 根指针页保存在文件头中(老版本的文件位于文件起始处)
+            byte[] pageBuf = new byte[BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE];
+            fileChannel.readFully(getRootPtrOffset(), pageBuf, pageBuf.length);
+            return pageBuf;
+        }
 
-                if (retVal == -1) {
-                    throw new DBException("Read past end of table");
-                }
-                if (retVal < Database.getBufferPool().getPageSize()) {
-                    throw new DBException("Unable to read "
-                            + Database.getBufferPool().getPageSize() + " bytes from BTreeFile");
-                }
+        if (compressedPageStore != null) {
+            // 通过页偏移映射定位，只读取压缩后的长度
+            return compressedPageStore.readPage(id.getPageNo());
+        }
+        // 非根节点指针页，按照页号定位后一次读取整页
+        byte[] pageBuf = new byte[getPageSize()];
+        fileChannel.readFully(getPageOffset(id.getPageNo()), pageBuf, pageBuf.length);
+        return pageBuf;
+    }
+
+    @Override
+    public void writePageData(PageId pageId, byte[] data) {
+        long startNanos = System.nanoTime();
+        int writeLength = writePageDataToFile((BTreePageId) pageId, data);
+        DBMetrics.getTableStats(pageId.getTableId()).recordWrite(writeLength, System.nanoTime() - startNanos);
+    }
 
-                // 按照参数指定的页面类型，进行解析、反序列化
-                if(id.getPageCategory() == BTreePageCategoryEnum.INTERNAL.getValue()) {
-                    // 内部节点
-                    return new BTreeInternalPage(this.tableDesc,id, pageBuf, this.keyFieldIndex);
-                } else if(id.getPageCategory() == BTreePageCategoryEnum.LEAF.getValue()) {
-                    // 叶子节点
-                    return new BTreeLeafPage(this.tableDesc,id, pageBuf, this.keyFieldIndex);
-                } else if(id.getPageCategory() == BTreePageCategoryEnum.HEADER.getValue()) {
-                    // header页
-                    return new BTreeHeaderPage(id, pageBuf);
-                } else {
-                    throw new DBException("un matched pageCategoryType=" + id.getPageCategory());
+    @Override
+    public void writePagesData(Map<PageId, byte[]> pageDataMap) {
+        if (pageDataMap.isEmpty()) {
+            return;
+        }
+        TreeMap<Long, byte[]> offsetDataMap = new TreeMap<>();
+        TreeMap<Integer, byte[]> pgNoDataMap = new TreeMap<>();
+        long totalBytes = 0;
+        for (Map.Entry<PageId, byte[]> entry : pageDataMap.entrySet()) {
+            BTreePageId id = (BTreePageId) entry.getKey();
+            byte[] data = entry.getValue();
+            if (id.getPageCategory() == BTreePageCategoryEnum.ROOT_PTR.getValue()) {
+                offsetDataMap.put(getRootPtrOffset(), data);
+                totalBytes += data.length;
+            } else {
+                if (data.length != getPageSize()) {
+                    throw new DBException("page size not match file pageSize=" + getPageSize() + " pageId=" + id);
                 }
+                pgNoDataMap.put(id.getPageNo(), data);
+                extentAllocator.ensurePageNum(id.getPageNo());
             }
-        } catch (IOException e) {
-            throw new DBException("read BTreeFile page error",e);
         }
-    }
 
-    @Override
-    public void writePage(DBPage dbPage) {
-        BTreePageId id = (BTreePageId) dbPage.getPageId();
+        long startNanos = System.nanoTime();
+        if (compressedPageStore != null) {
+            // 先写入数据页，根指针页最后写入
+            totalBytes += compressedPageStore.writePages(pgNoDataMap, true);
+        } else {
+            offsetDataMap.putAll(toOffsetDataMap(pgNoDataMap));
+            totalBytes += (long) pgNoDataMap.size() * getPageSize();
+        }
+        if (!offsetDataMap.isEmpty()) {
+            Database.getSyncWriter().writeBatch(fileChannel, offsetDataMap);
+        }
+        DBMetrics.getTableStats(this.tableId).recordBatchWrite(pageDataMap.size(), totalBytes, System.nanoTime() - startNanos);
+    }
 
-        byte[] data;
-        try {
-            data = dbPage.serialize();
-            RandomAccessFile rf = new RandomAccessFile(f, "rw");
-            if(id.getPageCategory() == BTreePageCategoryEnum.ROOT_PTR.getValue()) {
-                // 根节点指针页位于文件起始处，直接写入即可
-                rf.write(data);
-                rf.close();
+    /**
+     * @return 写入磁盘的字节数
+     * */
+    private int writePageDataToFile(BTreePageId id, byte[] data) {
+        if(id.getPageCategory() == BTreePageCategoryEnum.ROOT_PTR.getValue()) {
+            // 根节点指针页保存在文件头中
+            Database.getSyncWriter().write(fileChannel, getRootPtrOffset(), data);
+            return data.length;
+        }
+        else {
+            if (data.length != getPageSize()) {
+                throw new DBException("page size not match file pageSize=" + getPageSize() + " pageId=" + id);
             }
-            else {
-                // 非根节点指针页需要skip对应的偏移量再写入
-                int needSkip = BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE + (dbPage.getPageId().getPageNo() - 1) * Database.getBufferPool().getPageSize();
-                rf.seek(needSkip);
-                rf.write(data);
-                rf.close();
+            extentAllocator.ensurePageNum(id.getPageNo());
+            if (compressedPageStore != null) {
+                return compressedPageStore.writePage(id.getPageNo(), data);
             }
-        } catch (IOException e) {
-            throw new DBException("write BTreeFile page error",e);
+            Database.getSyncWriter().write(fileChannel, getPageOffset(id.getPageNo()), data);
+            return data.length;
         }
     }
 
-    @Override
-    public List<DBPage> insertTuple(Record newRecord) throws IOException {
-        HashMap<PageId, DBPage> dirtyPages = new HashMap<>();
+    /**
+     * 批量构建时绕过SyncWriter直接写入非根指针页，由调用方在构建结束时调用forcePages统一刷盘
+     * @param pgNoDataMap 页号 -> 整页数据
+     * @return 写入磁盘的字节数
+     * */
+    long writePagesDirectly(TreeMap<Integer, byte[]> pgNoDataMap) {
+        if (pgNoDataMap.isEmpty()) {
+            return 0;
+        }
+        if (compressedPageStore != null) {
+            return compressedPageStore.writePages(pgNoDataMap, false);
+        }
+        fileChannel.writeBatch(toOffsetDataMap(pgNoDataMap));
+        return (long) pgNoDataMap.size() * getPageSize();
+    }
 
-        BTreeRootPtrPage rootPtr = getRootPtrPage(dirtyPages);
-        BTreePageId rootPtrId = rootPtr.getRootId();
+    void forcePages() {
+        if (compressedPageStore != null) {
+            compressedPageStore.force();
+        } else {
+            fileChannel.force(true);
+        }
+    }
 
-        if(rootPtrId == null) {
-            // 根节点指针页当前还不存在，构建一个BTreeRootPtrPage
-            rootPtr = (BTreeRootPtrPage) getPage(dirtyPages,BTreeRootPtrPage.getId(this.tableId));
-            // 此时，必定只存在一个叶子页，且其页号是处于当前最末尾的
-            int leafPageNum = numPages();
-            rootPtrId = new BTreePageId(this.tableId, leafPageNum, BTreePageCategoryEnum.LEAF.getValue());
-            rootPtr.setRootId(rootPtrId);
+    private TreeMap<Long, byte[]> toOffsetDataMap(TreeMap<Integer, byte[]> pgNoDataMap) {
+        TreeMap<Long, byte[]> offsetDataMap = new TreeMap<>();
+        for (Map.Entry<Integer, byte[]> entry : pgNoDataMap.entrySet()) {
+            offsetDataMap.put(getPageOffset(entry.getKey()), entry.getValue());
         }
+        return offsetDataMap;
+    }
 
-        Field targetField = newRecord.getField(this.keyFieldIndex);
-        // 查询需要插入的目标叶子页
-        BTreeLeafPage targetLeafPage = findLeafPage(dirtyPages,rootPtrId,targetField);
-        if(targetLeafPage.getNotEmptySlotsNum() == targetLeafPage.getMaxSlotNum()) {
-            // 叶子页空间不足，进行拆分
-            targetLeafPage = splitLeafPage(dirtyPages,targetLeafPage,targetField);
+    /**
+     * 是否通过mmap读取页面
+     * */
+    public void setMmapRead(boolean mmapRead) {
+        fileChannel.setMmapRead(mmapRead);
+    }
+
+    public boolean isMmapRead() {
+        return fileChannel.isMmapRead();
+    }
+
+    @Override
+    public void close() {
+        // 先写回缓冲池中的脏页并丢弃表的页面，之后不会再有写入落到关闭的文件上
+        BufferPool bufferPool = Database.getBufferPool(tableId);
+        bufferPool.flushPages(tableId);
+        bufferPool.discardPages(tableId);
+        extentAllocator.flush();
+        Database.getSyncWriter().sync(fileChannel);
+        if (compressedPageStore != null) {
+            // 先刷盘镜像再刷盘页偏移映射
+            compressedPageStore.close();
         }
-        targetLeafPage.insertRecord(newRecord);
+        fileChannel.close();
+    }
 
-        return new ArrayList<>(dirtyPages.values());
+    @Override
+    public DBPage parsePage(PageId pageId, byte[] pageBuf) {
+        BTreePageId id = (BTreePageId) pageId;
+        // 按照参数指定的页面类型，进行解析、反序列化
+        if (id.getPageCategory() == BTreePageCategoryEnum.ROOT_PTR.getValue()) {
+            // 根节点指针页
+            return new BTreeRootPtrPage(id, pageBuf);
+        } else if(id.getPageCategory() == BTreePageCategoryEnum.INTERNAL.getValue()) {
+            // 内部节点
+            return new BTreeInternalPage(this.tableDesc,id, pageBuf, this.keyFieldIndex, getSlotFormat());
+        } else if(id.getPageCategory() == BTreePageCategoryEnum.LEAF.getValue()) {
+            // 叶子节点
+            return new BTreeLeafPage(this.tableDesc,id, pageBuf, this.keyFieldIndex, getSlotFormat());
+        } else if(id.getPageCategory() == BTreePageCategoryEnum.HEADER.getValue()) {
+            // header页
+            return new BTreeHeaderPage(id, pageBuf, getSlotFormat());
+        } else {
+            throw new DBException("un matched pageCategoryType=" + id.getPageCategory());
+        }
     }
 
     @Override
-    public List<DBPage> deleteTuple(Record recordNeedDelete) throws IOException {
+    public List<DBPage> insertTuple(Record newRecord) throws IOException {
         HashMap<PageId, DBPage> dirtyPages = new HashMap<>();
+        try {
+            BTreeRootPtrPage rootPtr = getRootPtrPage(dirtyPages);
+            BTreePageId rootPtrId = rootPtr.getRootId();
+
+            if(rootPtrId == null) {
+                // 根节点指针页当前还不存在，构建一个BTreeRootPtrPage
+                rootPtr = (BTreeRootPtrPage) getPage(dirtyPages,BTreeRootPtrPage.getId(this.tableId));
+                // 此时，必定只存在一个叶子页，且其页号是处于当前最末尾的
+                int leafPageNum = numPages();
+                rootPtrId = new BTreePageId(this.tableId, leafPageNum, BTreePageCategoryEnum.LEAF.getValue());
+                rootPtr.setRootId(rootPtrId);
+                dirtyPages.put(rootPtr.getPageId(), rootPtr);
+            }
 
-        PageId targetPageId = recordNeedDelete.getRecordId().getPageId();
-        BTreePageId pageId = new BTreePageId(this.tableId, targetPageId.getPageNo(), BTreePageCategoryEnum.LEAF.getValue());
-        // 找到目标叶子页，删除记录
-        BTreeLeafPage targetLeafPage = (BTreeLeafPage) getPage(dirtyPages,pageId);
-        targetLeafPage.deleteRecord(recordNeedDelete);
+            Field targetField = newRecord.getField(this.keyFieldIndex);
+            // 查询需要插入的目标叶子页
+            BTreeLeafPage targetLeafPage = findLeafPage(dirtyPages,rootPtrId,targetField);
+            if(targetLeafPage.getNotEmptySlotsNum() == targetLeafPage.getMaxSlotNum()) {
+                // 叶子页空间不足，进行拆分
+                targetLeafPage = splitLeafPage(dirtyPages,targetLeafPage,targetField);
+            }
+            targetLeafPage.insertRecord(newRecord);
+            dirtyPages.put(targetLeafPage.getPageId(), targetLeafPage);
 
-        int lowThreshold = PageCommonUtil.lowThreshold(targetLeafPage);
-        if(targetLeafPage.getNotEmptySlotsNum() < lowThreshold){
-            // 当被删除数据的页中数据小于阈值时（小于最大容纳数据量的一半）
-            // 需要视情况合并相邻的兄弟页节点，或是从负载较高的兄弟页中挪动一部分到当前负载不足的页（总之就是保证空间、时间效率的平衡）
-            handleMinOccupancyPage(dirtyPages,targetLeafPage);
+            return markDirtyPages(dirtyPages);
+        } finally {
+            // 释放本次操作中所有被pin住的页
+            unpinPages();
         }
+    }
 
-        return new ArrayList<>(dirtyPages.values());
+    @Override
+    public List<DBPage> deleteTuple(Record recordNeedDelete) throws IOException {
+        HashMap<PageId, DBPage> dirtyPages = new HashMap<>();
+        try {
+            PageId targetPageId = recordNeedDelete.getRecordId().getPageId();
+            BTreePageId pageId = new BTreePageId(this.tableId, targetPageId.getPageNo(), BTreePageCategoryEnum.LEAF.getValue());
+            // 找到目标叶子页，删除记录
+            BTreeLeafPage targetLeafPage = (BTreeLeafPage) getPage(dirtyPages,pageId);
+            targetLeafPage.deleteRecord(recordNeedDelete);
+            dirtyPages.put(targetLeafPage.getPageId(), targetLeafPage);
+
+            int lowThreshold = PageCommonUtil.lowThreshold(targetLeafPage);
+            if(targetLeafPage.getNotEmptySlotsNum() < lowThreshold){
+                // 当被删除数据的页中数据小于阈值时（小于最大容纳数据量的一半）
+                // 需要视情况合并相邻的兄弟页节点，或是从负载较高的兄弟页中挪动一部分到当前负载不足的页（总之就是保证空间、时间效率的平衡）
+                handleMinOccupancyPage(dirtyPages,targetLeafPage);
+            }
+
+            return markDirtyPages(dirtyPages);
+        } finally {
+            // 释放本次操作中所有被pin住的页
+            unpinPages();
+        }
     }
 
 
@@ -191,13 +392,86 @@ public class BTreeFile implements DBFile{
      * Returns the number of pages in this BTreeFile.
      */
     public int numPages() {
-        // we only ever write full pages
-        return (int) ((f.length() - BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE)/ Database.getBufferPool().getPageSize());
+        // 逻辑页数，预分配的区中还没有分出的页不计算在内
+        return extentAllocator.getPageNum();
+    }
+
+    public ExtentAllocator getExtentAllocator() {
+        return extentAllocator;
+    }
+
+    /**
+     * 根指针页在文件中的偏移量
+     * */
+    private long getRootPtrOffset() {
+        return fileHeader.isLegacy() ? 0 : DBFileHeader.HEADER_FIELD_SIZE;
+    }
+
+    /**
+     * 非根指针页在文件中的偏移量(页号从1开始，第0页是根指针页)
+     * */
+    long getPageOffset(int pageNo) {
+        if (fileHeader.isLegacy()) {
+            // 老版本的文件：跳过9字节的根指针页，再偏移pageNo-1页
+            return BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE + (long) (pageNo - 1) * getPageSize();
+        }
+        // 文件头独占第0页，页号即为偏移的页数
+        return (long) pageNo * getPageSize();
     }
 
     @Override
     public DbFileIterator<Record> getIterator() {
-        return null;
+        return new BTreeFileIterator();
+    }
+
+    /**
+     * 从任意顺序的输入自底向上批量构建B+树，只能在空树上调用，构建期间不能有其它线程修改这棵树
+     * */
+    public BulkLoadResult bulkBuild(Iterator<Record> recordIterator) {
+        return bulkBuild(recordIterator, DEFAULT_BULK_BUILD_FILL_FACTOR, DEFAULT_BULK_BUILD_SORT_RECORD_NUM);
+    }
+
+    /**
+     * @param fillFactor 每一页填充的比例(0, 1]
+     * @param maxRecordNumInMemory 排序时内存中最多缓存的记录数，超出的部分溢出到临时文件
+     * */
+    public BulkLoadResult bulkBuild(Iterator<Record> recordIterator, double fillFactor, int maxRecordNumInMemory) {
+        return new BTreeBulkBuilder(this).build(recordIterator, fillFactor, maxRecordNumInMemory);
+    }
+
+    /**
+     * 按照索引字段等值查找记录
+     * */
+    public List<Record> findRecords(Field key) throws IOException {
+        HashMap<PageId, DBPage> dirtyPages = new HashMap<>();
+        try {
+            BTreePageId rootPtrId = getRootPtrPage(dirtyPages).getRootId();
+            if (rootPtrId == null) {
+                return Collections.emptyList();
+            }
+
+            List<Record> result = new ArrayList<>();
+            BTreeLeafPage leafPage = findLeafPage(dirtyPages, rootPtrId, key);
+            while (leafPage != null) {
+                Iterator<Record> iterator = leafPage.iterator();
+                while (iterator.hasNext()) {
+                    Record record = iterator.next();
+                    Field recordKey = record.getField(this.keyFieldIndex);
+                    if (recordKey.compare(OperatorEnum.GREATER_THAN, key)) {
+                        return result;
+                    }
+                    if (recordKey.compare(OperatorEnum.EQUALS, key)) {
+                        result.add(record);
+                    }
+                }
+                // 相同的key可能跨越多个叶子页，继续查找右兄弟
+                BTreePageId rightSiblingId = leafPage.getRightSiblingId();
+                leafPage = rightSiblingId == null ? null : (BTreeLeafPage) getPage(dirtyPages, rightSiblingId);
+            }
+            return result;
+        } finally {
+            unpinPages();
+        }
     }
 
 
@@ -423,6 +697,9 @@ public class BTreeFile implements DBFile{
             }else{
                 // leftSiblingPage左兄弟页的空插槽数高于阈值，从左兄弟页迁移一些数据到targetBTreeLeafPage，分摊数据
                  stealFromLeafPage(targetBTreeLeafPage, leftSiblingPage, parent, leftEntry, false);
+                 dirtyPages.put(leftSiblingPage.getPageId(), leftSiblingPage);
+                 dirtyPages.put(targetBTreeLeafPage.getPageId(), targetBTreeLeafPage);
+                 dirtyPages.put(parent.getPageId(), parent);
             }
 
         } else if(rightSiblingId != null){
@@ -434,6 +711,9 @@ public class BTreeFile implements DBFile{
             }else{
                 // rightSiblingPage右兄弟页的空插槽数高于阈值，从右兄弟页迁移一些数据到targetBTreeLeafPage，分摊数据
                  stealFromLeafPage(targetBTreeLeafPage, rightSiblingPage, parent, rightEntry, true);
+                 dirtyPages.put(rightSiblingPage.getPageId(), rightSiblingPage);
+                 dirtyPages.put(targetBTreeLeafPage.getPageId(), targetBTreeLeafPage);
+                 dirtyPages.put(parent.getPageId(), parent);
             }
         }
     }
@@ -654,13 +934,11 @@ public class BTreeFile implements DBFile{
         );
         leftPage.insertEntry(parentEntryCopy);
 
-        // 先收集需要搬运的rightPage中的entry
-        BTreeEntry[] rightPageEntry = new BTreeEntry[rightPage.getNotEmptySlotsNum()];
+        // 先收集需要搬运的rightPage中的entry(内部节点页的第0个插槽只有孩子没有key，entry数比非空插槽数少1)
+        List<BTreeEntry> rightPageEntry = new ArrayList<>();
         Iterator<BTreeEntry> it = rightPage.iterator();
-        int moveCount = 0;
         while (it.hasNext()) {
-            rightPageEntry[moveCount] = it.next();
-            moveCount++;
+            rightPageEntry.add(it.next());
         }
 
         for (BTreeEntry entryItem : rightPageEntry) {
@@ -690,6 +968,7 @@ public class BTreeFile implements DBFile{
             // 如果child对应的页和参数pid不一致，将其parentId设置为pid
             p = (BTreePage) getPage(dirtyPages,child);
             p.setParentId(parentId);
+            dirtyPages.put(p.getPageId(), p);
         }
     }
 
@@ -700,6 +979,7 @@ public class BTreeFile implements DBFile{
                                    BTreePage leftPage, BTreeInternalPage parent, BTreeEntry parentEntry) throws IOException {
         // 首先将parentEntry删除掉
         parent.deleteKeyAndRightChild(parentEntry);
+        dirtyPages.put(parent.getPageId(), parent);
 
         int lowThreshold = PageCommonUtil.lowThreshold(parent);
         if(parent.getNotEmptySlotsNum() == 0){
@@ -714,6 +994,8 @@ public class BTreeFile implements DBFile{
             // 由于leftPage的双亲页被删除，此时应该只存在leftPage这一个页了，因此leftPage成为整颗B+树的根节点页
             leftPage.setParentId(rootPtrId);
             rootPtr.setRootId(leftPage.getBTreePageId());
+            dirtyPages.put(leftPage.getPageId(), leftPage);
+            dirtyPages.put(rootPtr.getPageId(), rootPtr);
 
             // 释放已经不存在任何记录的parent页
             setEmptyPage(dirtyPages, parent.getPageId().getPageNo());
@@ -737,6 +1019,8 @@ public class BTreeFile implements DBFile{
             // 更新根节点指针，令根节点指针指向新创建出的Internal内部页
             BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(dirtyPages,BTreeRootPtrPage.getId(this.tableId));
             rootPtr.setRootId((BTreePageId) newParent.getPageId());
+            dirtyPages.put(rootPtr.getPageId(), rootPtr);
+            dirtyPages.put(newParent.getPageId(), newParent);
 
             return newParent;
         }else{
@@ -759,18 +1043,16 @@ public class BTreeFile implements DBFile{
         BTreePageId newPageId = new BTreePageId(this.tableId, emptyPageNo, pageCategoryEnum.getValue());
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-
-        int needSkip = BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE + (emptyPageNo-1) * Database.getBufferPool().getPageSize();
-        rf.seek(needSkip);
-        rf.write(PageCommonUtil.createEmptyPageData());
-        rf.close();
+        if (compressedPageStore != null) {
+            // 重置为从未写入的状态，读取时即为全0的空页
+            compressedPageStore.clearPage(emptyPageNo);
+        } else {
+            fileChannel.write(getPageOffset(emptyPageNo), PageCommonUtil.createEmptyPageData(getPageSize()));
+        }
 
         // make sure the page is not in the buffer pool	or in the local cache
-        Database.getBufferPool().discardPage(newPageId);
-        // 新的页面，将其从dirtyPages排除掉
-        DBPage dbPage = dirtyPages.remove(newPageId);
-        System.out.println("getEmptyPage: remove new dbPage=" + dbPage);
+        // 页号之前可能以其它的页面类型被缓存，需要全部丢弃
+        discardPageNo(dirtyPages, emptyPageNo);
 
         return getPage(dirtyPages,newPageId);
     }
@@ -786,7 +1068,7 @@ public class BTreeFile implements DBFile{
             // 尝试找到一个存在空插槽的header页，用于定位一个的空页
             // try to find a header page with an empty slot
 
-            while(headerPage != null && headerPage.getFirstEmptySlotIndex() != -1){
+            while(headerPage != null && headerPage.getFirstEmptySlotIndex() == -1){
                 // 当headerPage不存在空插槽时，跳转到当前header页关联的下一个header页中
                 headerId = headerPage.getNextPageId();
 
@@ -806,25 +1088,21 @@ public class BTreeFile implements DBFile{
                 int emptySlot = headerPage.getFirstEmptySlotIndex();
                 // getEmptyPageNo用于获取一个空页使用，因此在这里提前设置为已使用
                 headerPage.markSlotUsed(emptySlot);
+                dirtyPages.put(headerPage.getPageId(), headerPage);
                 // 因为headerPage中的每一个插槽对应一个页
                 // 最终找到的空页号emptyPageNo由顺序遍历的header页数*每一页的最大插槽数 + 当前header页内偏移量计算而来
                 return headerPageCount * headerPage.getMaxSlotNum() + emptySlot;
             }
         }
 
-        // 当前并不存在可用的空页
-        synchronized(this) {
-            // 在当前BTreeFile的末尾追加和创建一个新的页
-            BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
-            byte[] emptyData = PageCommonUtil.createEmptyPageData();
-            bw.write(emptyData);
-            bw.close();
-            // 末尾追加了一个新的空页后，返回当前文件的最后一页的页号
-            return numPages();
-        }
+        // 当前并不存在可用的空页，从预分配的区中分出一个新页(页号从1开始)
+        return extentAllocator.allocate() + 1;
     }
 
     private void setEmptyPage(HashMap<PageId, DBPage> dirtyPages, int emptyPageNo) throws IOException {
+        // 被释放的页不能再被写回，否则可能覆盖掉之后重新分配出去的页
+        discardPageNo(dirtyPages, emptyPageNo);
+
         BTreeRootPtrPage rootPtr = getRootPtrPage(dirtyPages);
         BTreePageId headerId = rootPtr.getHeaderId();
 
@@ -836,13 +1114,15 @@ public class BTreeFile implements DBFile{
             headerId = headerPage.getPageId();
             headerPage.init();
             rootPtr.setHeaderId(headerId);
+            dirtyPages.put(headerId, headerPage);
+            dirtyPages.put(rootPtr.getPageId(), rootPtr);
         }
 
         BTreePageId prevId = null;
         int headerPageCount = 0;
 
         // 从目前已有的header页集合中找到emptyPageNo对应的header页
-        while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getHeaderSize() < emptyPageNo) {
+        while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getHeaderSize(getPageSize(), getSlotFormat()) < emptyPageNo) {
             BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(dirtyPages, headerId);
             prevId = headerId;
             headerId = headerPage.getNextPageId();
@@ -850,7 +1130,7 @@ public class BTreeFile implements DBFile{
         }
 
         // 通过上面的迭代，依然没有找到emptyPageNo对应的header文件
-        while((headerPageCount + 1) * BTreeHeaderPage.getHeaderSize() < emptyPageNo) {
+        while((headerPageCount + 1) * BTreeHeaderPage.getHeaderSize(getPageSize(), getSlotFormat()) < emptyPageNo) {
             BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(dirtyPages, prevId);
             // 进行循环，一直创建空的header文件，直到最新的header页能包含emptyPageNo
             BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(dirtyPages, BTreePageCategoryEnum.HEADER);
@@ -858,6 +1138,8 @@ public class BTreeFile implements DBFile{
             headerPage.init();
             headerPage.setPrevPageId(prevId);
             prevPage.setNextPageId(headerId);
+            dirtyPages.put(headerId, headerPage);
+            dirtyPages.put(prevId, prevPage);
 
             headerPageCount++;
             prevId = headerId;
@@ -865,23 +1147,40 @@ public class BTreeFile implements DBFile{
 
         // 执行到这里，已经可以保证headerPage已经能够包含emptyPageNo了
         BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(dirtyPages, headerId);
-        int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getHeaderSize();
+        int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getHeaderSize(getPageSize(), getSlotFormat());
         // 计算出对应的header页内偏移，将其标记为未使用
         headerPage.markSlotNotUsed(emptySlot);
+        dirtyPages.put(headerId, headerPage);
+    }
+
+    /**
+     * 丢弃页号在每一种页面类型下缓存的页面(包括缓冲池和dirtyPages)
+     * 页号被释放后可能以另一种页面类型重新分配，而BTreePageId是区分页面类型的，只丢弃一种类型会遗留旧的脏页
+     * */
+    private void discardPageNo(HashMap<PageId, DBPage> dirtyPages, int pageNo) {
+        BufferPool bufferPool = Database.getBufferPool(tableId);
+        List<BTreePageId> pinnedPageIds = pinnedPageIdList.get();
+        for (BTreePageCategoryEnum pageCategoryEnum : BTreePageCategoryEnum.values()) {
+            if (pageCategoryEnum == BTreePageCategoryEnum.ROOT_PTR) {
+                // 根指针页保存在文件头中，不占用页号
+                continue;
+            }
+            BTreePageId pageId = new BTreePageId(this.tableId, pageNo, pageCategoryEnum.getValue());
+            // 先释放本次操作对这个页的pin，discardPage会等待所有的pin被释放
+            while (pinnedPageIds.remove(pageId)) {
+                bufferPool.unpinPage(pageId);
+            }
+            bufferPool.discardPage(pageId);
+            dirtyPages.remove(pageId);
+        }
     }
 
     private BTreeRootPtrPage getRootPtrPage(HashMap<PageId, DBPage> dirtyPages) throws IOException {
         synchronized(this) {
             // 如果文件整个都是空的，放并发的构造初始化的空BTreeRootPtrPage和一个空BTreeLeafPage
-            if(f.length() == 0) {
-                // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
-                byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-
-                byte[] emptyLeafData = PageCommonUtil.createEmptyPageData();
-                bw.write(emptyLeafData);
-                bw.close();
+            if(numPages() == 0) {
+                // create the root page (空的根指针页已经随文件头一起创建)
+                extentAllocator.allocate();
             }
         }
 
@@ -895,10 +1194,142 @@ public class BTreeFile implements DBFile{
             return dirtyPages.get(pid);
         }
 
-        // 从bufferPool中查找
-        return Database.getBufferPool().getPage(pid);
+        // 从bufferPool中查找，拆分/合并期间页面不能被淘汰，操作结束后统一释放
+        DBPage page = Database.getBufferPool(tableId).getPage(pid);
+        pinnedPageIdList.get().add(pid);
+        return page;
+    }
+
+    /**
+     * 将本次操作修改过的页标记为脏页(必须在释放pin之前，否则修改可能随着页面被淘汰而丢失)
+     * */
+    private List<DBPage> markDirtyPages(HashMap<PageId, DBPage> dirtyPages) {
+        BufferPool bufferPool = Database.getBufferPool(tableId);
+        for (DBPage dirtyPage : dirtyPages.values()) {
+            bufferPool.markDirty(dirtyPage);
+        }
+        return new ArrayList<>(dirtyPages.values());
+    }
+
+    private void unpinPages() {
+        BufferPool bufferPool = Database.getBufferPool(tableId);
+        List<BTreePageId> pinnedPageIds = pinnedPageIdList.get();
+        for (BTreePageId pinnedPageId : pinnedPageIds) {
+            bufferPool.unpinPage(pinnedPageId);
+        }
+        pinnedPageIds.clear();
     }
 
+    // =============================== DBFile迭代器 ====================================
+
+    /**
+     * 从最左边的叶子页开始，沿着右兄弟指针按照索引字段的顺序遍历所有记录
+     * */
+    private class BTreeFileIterator implements DbFileIterator<Record> {
+
+        private BTreeLeafPage currentLeafPage;
+        private Iterator<Record> pageIterator;
+        /**
+         * 已经提交预读、还没有被游标访问到的叶子页数
+         * */
+        private int readAheadLeafNum;
+
+        @Override
+        public void open() {
+            HashMap<PageId, DBPage> dirtyPages = new HashMap<>();
+            BTreePageId leafPageId = null;
+            try {
+                BTreePageId rootId = getRootPtrPage(dirtyPages).getRootId();
+                if (rootId != null) {
+                    leafPageId = findLeafPage(dirtyPages, rootId, null).getPageId();
+                }
+            } catch (IOException e) {
+                throw new DBException("open btree iterator error", e);
+            } finally {
+                unpinPages();
+            }
+
+            readAheadLeafNum = 0;
+            if (leafPageId != null) {
+                moveToLeafPage(leafPageId);
+            }
+        }
+
+        @Override
+        public void close() {
+            releaseLeafPage();
+            pageIterator = null;
+        }
+
+        @Override
+        public void reset() {
+            close();
+            open();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pageIterator == null) {
+                return false;
+            }
+
+            while (!pageIterator.hasNext()) {
+                BTreePageId rightSiblingId = currentLeafPage.getRightSiblingId();
+                if (rightSiblingId == null) {
+                    return false;
+                }
+                moveToLeafPage(rightSiblingId);
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (hasNext()) {
+                return pageIterator.next();
+            } else {
+                throw new NoSuchElementException("no more record");
+            }
+        }
+
+        /**
+         * 游标移动到新的叶子页，之前的叶子页不再需要
+         * */
+        private void moveToLeafPage(BTreePageId leafPageId) {
+            releaseLeafPage();
+
+            currentLeafPage = (BTreeLeafPage) Database.getBufferPool(tableId).getPage(leafPageId);
+            pageIterator = currentLeafPage.iterator();
+            readAhead();
+        }
+
+        /**
+         * 沿着右兄弟指针异步预读之后的叶子页
+         * 已预读的叶子页消耗过半时再提交下一批，预读任务遇到已经在缓冲池中的页面会直接跳过
+         * */
+        private void readAhead() {
+            BufferPool bufferPool = Database.getBufferPool(tableId);
+            ReadAheadEngine readAheadEngine = bufferPool.getReadAheadEngine();
+            if (readAheadEngine == null) {
+                return;
+            }
+            int window = bufferPool.getReadAheadWindow();
+            readAheadLeafNum--;
+            if (readAheadLeafNum > window / 2) {
+                return;
+            }
+            readAheadEngine.prefetchChain(currentLeafPage.getRightSiblingId(), window,
+                    page -> ((BTreeLeafPage) page).getRightSiblingId());
+            readAheadLeafNum = window;
+        }
+
+        private void releaseLeafPage() {
+            if (currentLeafPage != null) {
+                Database.getBufferPool(tableId).unpinPage(currentLeafPage.getPageId());
+                currentLeafPage = null;
+            }
+        }
+    }
 
 
 }
@@ -0,0 +1,52 @@
+package simpledb.dbfile;
+
+/**
+ * 一次批量导入的结果
+ */
+public class BulkLoadResult {
+
+    private final long rowNum;
+    private final int pageNum;
+    private final long elapsedNanos;
+
+    public BulkLoadResult(long rowNum, int pageNum, long elapsedNanos) {
+        this.rowNum = rowNum;
+        this.pageNum = pageNum;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * 新追加的页数
+     * */
+    public int getPageNum() {
+        return pageNum;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 每秒导入的行数
+     * */
+    public double getRowsPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return rowNum * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadResult{" +
+                "rowNum=" + rowNum +
+                ", pageNum=" + pageNum +
+                ", elapsedMillis=" + elapsedNanos / 1_000_000 +
+                ", rowsPerSecond=" + String.format("%.0f", getRowsPerSecond()) +
+                '}';
+    }
+}
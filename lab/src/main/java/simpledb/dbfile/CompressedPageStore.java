@@ -0,0 +1,530 @@
+package simpledb.dbfile;
+
+import simpledb.Database;
+import simpledb.exception.DBException;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 压缩数据页的存储
+ *
+ * 每一页单独压缩(见LZPageCodec)，压缩后的页镜像大小不固定，在数据文件的数据区中按单元(UNIT_SIZE字节)分配空间，
+ * 页号 -> (起始单元, 镜像长度)的页偏移映射保存在与数据文件同名、后缀为.pmap的独立文件中，每页占用8字节：
+ * startUnit(4字节) | storedLength(4字节)
+ * storedLength为0表示这一页还没有写入过(读取时返回全0的空页)；等于页大小表示压缩后没有变小，按原样存储
+ *
+ * 写入时新镜像总是写入新分配的空间(不原地覆盖，映射中的长度与镜像始终一致)，之后只切换内存中的映射；
+ * 修改过的映射在刷盘时才写入映射文件：先刷盘镜像，再写入并刷盘映射，磁盘上的映射不会先于它指向的镜像落盘。
+ * 镜像和映射作为一个整体登记到SyncWriter，由SyncWriter按照刷盘策略调用force()，映射文件不会被单独刷盘
+ * 原来的空间要等新的映射刷盘之后才能复用，保证磁盘上的映射始终指向一份完整的镜像：映射刷盘之前崩溃时，映射仍然指向旧的镜像。
+ * 替换下来的空间先放入待释放队列，映射刷盘之后才归还给空闲空间；待释放的空间过多时(OS策略下很少刷盘)主动刷盘一次
+ * 空闲的空间只保存在内存中，打开文件时根据映射中已使用的空间重建
+ *
+ * 读取在读锁下进行；写入时压缩、镜像的写入以及刷盘都不持有读写锁，
+ * 只在分配空间、切换内存中的映射和取出待写入的映射时短暂持有写锁，刷盘期间读取不会被阻塞
+ *
+ * 扫描时每一页只读取压缩后的长度，减少读取的数据量；批量写入时相邻的镜像首尾相接，可以合并为一次写入
+ */
+public class CompressedPageStore implements SyncTarget {
+
+    public static final String FILE_SUFFIX = ".pmap";
+
+    /**
+     * 数据区的分配单元
+     * */
+    public static final int UNIT_SIZE = 128;
+
+    private static final int MAP_ENTRY_SIZE = 8;
+
+    /**
+     * 待释放的单元数超过这个值时主动刷盘，避免数据区无限增长
+     * */
+    private static final int MAX_PENDING_RELEASE_UNIT_NUM = 8192;
+
+    private final PageFileChannel dataChannel;
+
+    /**
+     * 第0个单元在数据文件中的偏移量
+     * */
+    private final long dataStart;
+    private final int pageSize;
+    private final PageFileChannel mapChannel;
+
+    /**
+     * 下标为页号
+     * */
+    private int[] startUnits;
+    private int[] storedLengths;
+
+    /**
+     * 空闲的空间：起始单元 -> 单元数，相邻的空闲空间会被合并
+     * */
+    private final TreeMap<Integer, Integer> freeExtentMap = new TreeMap<>();
+
+    /**
+     * 内存中的映射已经切换、还没有写入映射文件的页号
+     * */
+    private final TreeSet<Integer> dirtyMapPgNoSet = new TreeSet<>();
+
+    /**
+     * 切换序号，每切换一次内存中的映射加1
+     * */
+    private long swapSeq;
+
+    /**
+     * 已经随着映射文件落盘的切换序号
+     * */
+    private long forcedSwapSeq;
+
+    /**
+     * 等待映射刷盘之后才能释放的空间，按照切换的顺序排列
+     * */
+    private final ArrayDeque<PendingExtent> pendingReleaseQueue = new ArrayDeque<>();
+    private int pendingReleaseUnitNum;
+
+    /**
+     * 数据区中已经使用过的单元数(之后的空间都是空闲的)
+     * */
+    private int endUnit;
+
+    /**
+     * 所有页镜像的总长度
+     * */
+    private long storedBytes;
+
+    /**
+     * 压缩使用的哈希表和缓冲区不能被多个线程共享，使用时持有codec的监视器
+     * */
+    private final LZPageCodec codec = new LZPageCodec();
+    private final byte[] compressBuffer;
+
+    /**
+     * 保护内存中的映射和空闲空间，只在读取镜像、分配空间和切换映射时持有
+     * */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 刷盘时持有，保证映射文件按照刷盘的顺序写入
+     * */
+    private final Object forceLock = new Object();
+
+    /**
+     * @param dataStart 数据区在数据文件中的起始偏移量
+     * @param reset 数据文件是新创建的，忽略残留的映射文件
+     * */
+    public CompressedPageStore(PageFileChannel dataChannel, long dataStart, int pageSize, File mapFile, boolean reset) {
+        this.dataChannel = dataChannel;
+        this.dataStart = dataStart;
+        this.pageSize = pageSize;
+        this.compressBuffer = new byte[LZPageCodec.maxCompressedLength(pageSize)];
+        this.mapChannel = new PageFileChannel(mapFile);
+        if (reset) {
+            mapChannel.truncate(0);
+        }
+
+        int pageNum = (int) (mapChannel.size() / MAP_ENTRY_SIZE);
+        this.startUnits = new int[Math.max(pageNum, 16)];
+        this.storedLengths = new int[startUnits.length];
+        if (pageNum > 0) {
+            byte[] mapData = new byte[pageNum * MAP_ENTRY_SIZE];
+            mapChannel.readFully(0, mapData, mapData.length);
+            ByteBuffer buffer = ByteBuffer.wrap(mapData);
+            for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+                startUnits[pgNo] = buffer.getInt(pgNo * MAP_ENTRY_SIZE);
+                storedLengths[pgNo] = buffer.getInt(pgNo * MAP_ENTRY_SIZE + 4);
+            }
+        }
+        rebuildFreeExtents(pageNum);
+    }
+
+    /**
+     * 读取一页，返回解压后的整页数据
+     * */
+    public byte[] readPage(int pgNo) {
+        byte[] pageData = new byte[pageSize];
+        byte[] image;
+        int storedLength;
+        lock.readLock().lock();
+        try {
+            storedLength = getStoredLengthInternal(pgNo);
+            if (storedLength == 0) {
+                return pageData;
+            }
+            // 未压缩的镜像直接读入结果
+            image = storedLength == pageSize ? pageData : new byte[storedLength];
+            dataChannel.readFully(unitOffset(startUnits[pgNo]), image, storedLength);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (image != pageData) {
+            LZPageCodec.decompress(image, 0, storedLength, pageData, pageSize);
+        }
+        return pageData;
+    }
+
+    /**
+     * 页镜像在磁盘上的长度，0表示还没有写入过
+     * */
+    public int getStoredLength(int pgNo) {
+        lock.readLock().lock();
+        try {
+            return getStoredLengthInternal(pgNo);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入一页，按照数据库的刷盘策略决定是否同步刷盘
+     * @return 页镜像在磁盘上的长度
+     * */
+    public int writePage(int pgNo, byte[] pageData) {
+        TreeMap<Integer, byte[]> pgNoDataMap = new TreeMap<>();
+        pgNoDataMap.put(pgNo, pageData);
+        return (int) writePages(pgNoDataMap, true);
+    }
+
+    /**
+     * 批量写入多页，先写入所有的页镜像，再切换内存中的页偏移映射(映射在刷盘时写入映射文件)
+     * 读写锁只在分配空间和切换内存中的映射时短暂持有，页镜像的写入不阻塞读取：
+     * 新镜像写入的是新分配的空间，映射切换之前读取方看不到这些空间
+     * @param syncWrite true 登记到SyncWriter按照刷盘策略刷盘；false 由调用方自己调用force()刷盘(批量导入)
+     * @return 写入的页镜像的总长度
+     * */
+    public long writePages(TreeMap<Integer, byte[]> pgNoDataMap, boolean syncWrite) {
+        if (pgNoDataMap.isEmpty()) {
+            return 0;
+        }
+        // 页号 -> 补齐到单元边界的镜像，以及镜像的实际长度
+        TreeMap<Integer, byte[]> pgNoImageMap = new TreeMap<>();
+        Map<Integer, Integer> pgNoLengthMap = new HashMap<>();
+        long totalStoredLength = 0;
+        synchronized (codec) {
+            for (Map.Entry<Integer, byte[]> entry : pgNoDataMap.entrySet()) {
+                byte[] pageData = entry.getValue();
+                if (pageData.length != pageSize) {
+                    throw new DBException("page size not match pageSize=" + pageSize + " pgNo=" + entry.getKey());
+                }
+                int compressedLength = codec.compress(pageData, 0, pageSize, compressBuffer);
+                // 压缩后没有变小的页按原样存储
+                boolean raw = compressedLength >= pageSize;
+                int storedLength = raw ? pageSize : compressedLength;
+                // 镜像补齐到单元的边界，相邻的镜像可以合并为一次写入
+                byte[] image = new byte[unitNum(storedLength) * UNIT_SIZE];
+                System.arraycopy(raw ? pageData : compressBuffer, 0, image, 0, storedLength);
+                pgNoImageMap.put(entry.getKey(), image);
+                pgNoLengthMap.put(entry.getKey(), storedLength);
+                totalStoredLength += storedLength;
+            }
+        }
+
+        // 新镜像总是写入新分配的空间(不原地覆盖)
+        Map<Integer, Integer> pgNoStartMap = new HashMap<>();
+        lock.writeLock().lock();
+        try {
+            drainPendingRelease();
+            for (Map.Entry<Integer, byte[]> entry : pgNoImageMap.entrySet()) {
+                pgNoStartMap.put(entry.getKey(), allocate(entry.getValue().length / UNIT_SIZE));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        TreeMap<Long, byte[]> imageMap = new TreeMap<>();
+        for (Map.Entry<Integer, byte[]> entry : pgNoImageMap.entrySet()) {
+            imageMap.put(unitOffset(pgNoStartMap.get(entry.getKey())), entry.getValue());
+        }
+        try {
+            dataChannel.writeBatch(imageMap);
+        } catch (RuntimeException e) {
+            // 镜像没有写成功，映射仍然指向原来的镜像，归还新分配的空间
+            lock.writeLock().lock();
+            try {
+                for (Map.Entry<Integer, byte[]> entry : pgNoImageMap.entrySet()) {
+                    release(pgNoStartMap.get(entry.getKey()), entry.getValue().length / UNIT_SIZE);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int pgNo : pgNoImageMap.keySet()) {
+                swapEntry(pgNo, pgNoStartMap.get(pgNo), pgNoLengthMap.get(pgNo));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (syncWrite) {
+            Database.getSyncWriter().afterWrite(this, pgNoImageMap.size());
+        }
+        forceIfTooManyPending();
+        return totalStoredLength;
+    }
+
+    /**
+     * 将一页重置为从未写入的状态(读取时返回全0的空页)，并释放其占用的空间
+     * */
+    public void clearPage(int pgNo) {
+        lock.writeLock().lock();
+        try {
+            if (getStoredLengthInternal(pgNo) == 0) {
+                return;
+            }
+            swapEntry(pgNo, 0, 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Database.getSyncWriter().afterWrite(this, 1);
+        forceIfTooManyPending();
+    }
+
+    /**
+     * 切换内存中的映射，原来的空间放入待释放队列，调用方持有写锁
+     * (切换之后读取方不会再读原来的空间，但磁盘上的映射刷盘之前仍然指向它，不能立即被复用)
+     * */
+    private void swapEntry(int pgNo, int start, int storedLength) {
+        ensureCapacity(pgNo + 1);
+        int oldStart = startUnits[pgNo];
+        int oldLength = storedLengths[pgNo];
+        startUnits[pgNo] = start;
+        storedLengths[pgNo] = storedLength;
+        storedBytes += storedLength - oldLength;
+        swapSeq++;
+        dirtyMapPgNoSet.add(pgNo);
+        if (oldLength > 0) {
+            pendingReleaseQueue.add(new PendingExtent(swapSeq, oldStart, unitNum(oldLength)));
+            pendingReleaseUnitNum += unitNum(oldLength);
+        }
+    }
+
+    /**
+     * 切换已经随着映射文件落盘的待释放空间归还给空闲空间，调用方持有写锁
+     * */
+    private void drainPendingRelease() {
+        while (!pendingReleaseQueue.isEmpty() && pendingReleaseQueue.peek().swapSeq <= forcedSwapSeq) {
+            PendingExtent pendingExtent = pendingReleaseQueue.poll();
+            pendingReleaseUnitNum -= pendingExtent.unitNum;
+            release(pendingExtent.start, pendingExtent.unitNum);
+        }
+    }
+
+    /**
+     * 待释放的空间过多时主动刷盘
+     * */
+    private void forceIfTooManyPending() {
+        lock.readLock().lock();
+        try {
+            if (pendingReleaseUnitNum <= MAX_PENDING_RELEASE_UNIT_NUM) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        force();
+    }
+
+    /**
+     * 所有页镜像的总长度
+     * */
+    public long getStoredBytes() {
+        lock.readLock().lock();
+        try {
+            return storedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 数据区已经使用过的长度(包括空闲的空间)
+     * */
+    public long getDataLength() {
+        lock.readLock().lock();
+        try {
+            return (long) endUnit * UNIT_SIZE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 先刷盘页镜像，再将修改过的页偏移映射写入映射文件并刷盘(映射不会先于它指向的镜像落盘)，
+     * 之后映射替换下来的空间可以复用
+     * */
+    @Override
+    public void force() {
+        synchronized (forceLock) {
+            // 取出的映射指向的镜像在切换之前都已经写入，会被下面镜像的刷盘覆盖
+            long seq;
+            TreeMap<Long, byte[]> mapEntryMap = new TreeMap<>();
+            lock.writeLock().lock();
+            try {
+                seq = swapSeq;
+                for (int pgNo : dirtyMapPgNoSet) {
+                    mapEntryMap.put((long) pgNo * MAP_ENTRY_SIZE,
+                            ByteBuffer.allocate(MAP_ENTRY_SIZE).putInt(startUnits[pgNo]).putInt(storedLengths[pgNo]).array());
+                }
+                dirtyMapPgNoSet.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            try {
+                dataChannel.force(true);
+                if (!mapEntryMap.isEmpty()) {
+                    mapChannel.writeBatch(mapEntryMap);
+                }
+                mapChannel.force(true);
+            } catch (RuntimeException e) {
+                // 没有落盘的映射留给下一次刷盘写入
+                lock.writeLock().lock();
+                try {
+                    for (long position : mapEntryMap.keySet()) {
+                        dirtyMapPgNoSet.add((int) (position / MAP_ENTRY_SIZE));
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                forcedSwapSeq = seq;
+                drainPendingRelease();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 刷盘镜像和映射之后关闭映射文件，数据文件由调用方关闭
+     * */
+    public void close() {
+        // 移出SyncWriter的待刷盘集合，关闭之后不会再被刷盘
+        Database.getSyncWriter().sync(this);
+        force();
+        mapChannel.close();
+    }
+
+    /**
+     * 根据映射中已使用的空间重建空闲空间
+     * */
+    private void rebuildFreeExtents(int pageNum) {
+        TreeMap<Integer, Integer> usedExtentMap = new TreeMap<>();
+        for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+            if (storedLengths[pgNo] <= 0 || storedLengths[pgNo] > pageSize) {
+                if (storedLengths[pgNo] != 0) {
+                    throw new DBException("corrupted page map pgNo=" + pgNo + " storedLength=" + storedLengths[pgNo]);
+                }
+                continue;
+            }
+            usedExtentMap.put(startUnits[pgNo], unitNum(storedLengths[pgNo]));
+            storedBytes += storedLengths[pgNo];
+        }
+
+        int position = 0;
+        for (Map.Entry<Integer, Integer> entry : usedExtentMap.entrySet()) {
+            if (entry.getKey() < position) {
+                throw new DBException("corrupted page map, overlapped extent startUnit=" + entry.getKey());
+            }
+            if (entry.getKey() > position) {
+                freeExtentMap.put(position, entry.getKey() - position);
+            }
+            position = entry.getKey() + entry.getValue();
+        }
+        this.endUnit = position;
+    }
+
+    /**
+     * 首次适配：从空闲空间中分配，没有足够大的空闲空间时从数据区的末尾分配
+     * */
+    private int allocate(int unitNum) {
+        for (Map.Entry<Integer, Integer> entry : freeExtentMap.entrySet()) {
+            int start = entry.getKey();
+            int freeUnitNum = entry.getValue();
+            if (freeUnitNum >= unitNum) {
+                // 先取出键值再删除：TreeMap删除有两个子节点的节点时会把后继的键值复制到这个entry中
+                freeExtentMap.remove(start);
+                if (freeUnitNum > unitNum) {
+                    freeExtentMap.put(start + unitNum, freeUnitNum - unitNum);
+                }
+                return start;
+            }
+        }
+        int start = endUnit;
+        endUnit += unitNum;
+        return start;
+    }
+
+    /**
+     * 释放一段空间，与前后相邻的空闲空间合并；位于数据区末尾时直接缩小已使用的范围
+     * */
+    private void release(int start, int unitNum) {
+        if (unitNum <= 0) {
+            return;
+        }
+        Map.Entry<Integer, Integer> prev = freeExtentMap.floorEntry(start);
+        if (prev != null && prev.getKey() + prev.getValue() == start) {
+            freeExtentMap.remove(prev.getKey());
+            start = prev.getKey();
+            unitNum += prev.getValue();
+        }
+        Integer next = freeExtentMap.get(start + unitNum);
+        if (next != null) {
+            freeExtentMap.remove(start + unitNum);
+            unitNum += next;
+        }
+        if (start + unitNum == endUnit) {
+            endUnit = start;
+        } else {
+            freeExtentMap.put(start, unitNum);
+        }
+    }
+
+    private int getStoredLengthInternal(int pgNo) {
+        return pgNo < storedLengths.length ? storedLengths[pgNo] : 0;
+    }
+
+    private void ensureCapacity(int pageNum) {
+        if (pageNum <= startUnits.length) {
+            return;
+        }
+        int newLength = startUnits.length;
+        while (newLength < pageNum) {
+            newLength *= 2;
+        }
+        startUnits = Arrays.copyOf(startUnits, newLength);
+        storedLengths = Arrays.copyOf(storedLengths, newLength);
+    }
+
+    private long unitOffset(int unit) {
+        return dataStart + (long) unit * UNIT_SIZE;
+    }
+
+    private static int unitNum(int length) {
+        return (length + UNIT_SIZE - 1) / UNIT_SIZE;
+    }
+
+    private static class PendingExtent {
+        /**
+         * 替换下这段空间的切换序号
+         * */
+        private final long swapSeq;
+        private final int start;
+        private final int unitNum;
+
+        private PendingExtent(long swapSeq, int start, int unitNum) {
+            this.swapSeq = swapSeq;
+            this.start = start;
+            this.unitNum = unitNum;
+        }
+    }
+}
@@ -3,13 +3,17 @@ package simpledb.dbfile;
 import simpledb.dbpage.DBPage;
 import simpledb.dbpage.PageId;
 import simpledb.dbrecord.Record;
+import simpledb.exception.DBException;
 import simpledb.iterator.DbFileIterator;
+import simpledb.iterator.enums.ScanModeEnum;
 import simpledb.matadata.table.TableDesc;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author xiongyx
@@ -22,8 +26,57 @@ public interface DBFile {
     DBPage readPage(PageId pageId);
     void writePage(DBPage dbPage);
 
+    /**
+     * 读取页面的二进制数据
+     * */
+    byte[] readPageData(PageId pageId);
+
+    /**
+     * 将页面的二进制数据写入文件
+     * */
+    void writePageData(PageId pageId, byte[] pageData);
+
+    /**
+     * 批量写入页面的二进制数据
+     * 按照文件偏移量排序后合并相邻的页面，每一段连续的页面只发起一次写入
+     * */
+    void writePagesData(Map<PageId, byte[]> pageDataMap);
+
+    /**
+     * 批量写入页面
+     * */
+    default void writePages(List<DBPage> pages) {
+        Map<PageId, byte[]> pageDataMap = new LinkedHashMap<>();
+        for (DBPage page : pages) {
+            try {
+                pageDataMap.put(page.getPageId(), page.serialize());
+            } catch (IOException e) {
+                throw new DBException("serialize page error pageId=" + page.getPageId(), e);
+            }
+        }
+        writePagesData(pageDataMap);
+    }
+
+    /**
+     * 将二进制数据解析为页面
+     * */
+    DBPage parsePage(PageId pageId, byte[] pageData);
+
     List<DBPage> insertTuple(Record newRecord) throws IOException;
     List<DBPage> deleteTuple(Record recordNeedDelete) throws IOException;
 
     DbFileIterator<Record> getIterator();
+
+    /**
+     * 以指定的方式处理扫描期间新增的页面
+     * 默认忽略参数：不支持快照的文件(例如沿着兄弟指针遍历的B+树)总是能看到扫描期间新增的页
+     * */
+    default DbFileIterator<Record> getIterator(ScanModeEnum scanModeEnum) {
+        return getIterator();
+    }
+
+    /**
+     * 关闭文件，释放持有的文件句柄
+     * */
+    void close();
 }
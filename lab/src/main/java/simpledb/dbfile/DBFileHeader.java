@@ -0,0 +1,220 @@
+package simpledb.dbfile;
+
+import simpledb.dbpage.PageCommonUtil;
+import simpledb.dbpage.SlotFormatEnum;
+import simpledb.dbpage.normal.HeapPageFormatEnum;
+import simpledb.exception.DBException;
+
+import java.io.*;
+
+/**
+ * 数据文件头
+ *
+ * 文件头独占文件的第一页(保证后续的数据页按页大小对齐)，布局为：
+ * magic(4字节) | version(4字节) | pageSize(4字节) | pageNum(8字节，版本2开始) | heapPageFormat(4字节) | pageCompression(4字节) | ... 剩余空间用0填充
+ * 老版本的文件没有文件头，页大小固定为1024，数据页从文件起始位置开始存放
+ *
+ * 版本3开始页内的插槽位图按位存储(每个插槽1bit)，之前的版本每个插槽占用1字节
+ * heapPageFormat为堆文件数据页的格式(见HeapPageFormatEnum)，之前的文件中这个位置为0，即定长记录的格式
+ * pageCompression为数据页的压缩方式(见PageCompressionEnum)，之前的文件中这个位置为0，即不压缩
+ *
+ * pageNum为文件逻辑上的页数，文件按区(extent)预先分配后，物理长度可能大于逻辑页数对应的长度
+ */
+public class DBFileHeader {
+
+    /**
+     * "SDBF"
+     * */
+    public static final int MAGIC = 0x53444246;
+
+    public static final int CURRENT_VERSION = 3;
+
+    /**
+     * 版本2的文件头记录了逻辑页数，页内的插槽位图每个插槽占用1字节
+     * */
+    public static final int PAGE_NUM_VERSION = 2;
+
+    /**
+     * 版本1的文件头没有记录逻辑页数，逻辑页数即为文件的物理长度对应的页数
+     * */
+    public static final int NO_PAGE_NUM_VERSION = 1;
+
+    /**
+     * 老版本(没有文件头)的文件
+     * */
+    public static final int LEGACY_VERSION = 0;
+
+    public static final int LEGACY_PAGE_SIZE = 1024;
+
+    /**
+     * 文件头中已使用的字节数，之后的空间预留给具体的文件类型使用(例如B+树的根指针页)
+     * */
+    public static final int HEADER_FIELD_SIZE = 64;
+
+    public static final int VERSION_OFFSET = 4;
+    public static final int PAGE_NUM_OFFSET = 12;
+    public static final int HEAP_PAGE_FORMAT_OFFSET = 20;
+    public static final int PAGE_COMPRESSION_OFFSET = 24;
+
+    /**
+     * 文件头中没有记录逻辑页数
+     * */
+    public static final long UNKNOWN_PAGE_NUM = -1;
+
+    private final int version;
+    private final int pageSize;
+    private final long pageNum;
+    private final HeapPageFormatEnum heapPageFormatEnum;
+    private final PageCompressionEnum pageCompressionEnum;
+
+    public DBFileHeader(int version, int pageSize) {
+        this(version, pageSize, version >= PAGE_NUM_VERSION ? 0 : UNKNOWN_PAGE_NUM);
+    }
+
+    public DBFileHeader(int version, int pageSize, long pageNum) {
+        this(version, pageSize, pageNum, HeapPageFormatEnum.FIXED);
+    }
+
+    public DBFileHeader(int version, int pageSize, long pageNum, HeapPageFormatEnum heapPageFormatEnum) {
+        this(version, pageSize, pageNum, heapPageFormatEnum, PageCompressionEnum.NONE);
+    }
+
+    public DBFileHeader(int version, int pageSize, long pageNum, HeapPageFormatEnum heapPageFormatEnum,
+                        PageCompressionEnum pageCompressionEnum) {
+        this.version = version;
+        this.pageSize = pageSize;
+        this.pageNum = pageNum;
+        this.heapPageFormatEnum = heapPageFormatEnum;
+        this.pageCompressionEnum = pageCompressionEnum;
+    }
+
+    /**
+     * 读取文件头，文件不存在或者为空时以指定的页大小创建一个新的文件头并写入文件
+     * */
+    public static DBFileHeader readOrCreate(File file, int newFilePageSize) {
+        return readOrCreate(file, newFilePageSize, HeapPageFormatEnum.FIXED);
+    }
+
+    /**
+     * 读取文件头，文件不存在或者为空时以指定的页大小和堆文件数据页格式创建一个新的文件头并写入文件
+     * */
+    public static DBFileHeader readOrCreate(File file, int newFilePageSize, HeapPageFormatEnum newFileHeapPageFormatEnum) {
+        return readOrCreate(file, newFilePageSize, newFileHeapPageFormatEnum, PageCompressionEnum.NONE);
+    }
+
+    /**
+     * 读取文件头，文件不存在或者为空时以指定的页大小、堆文件数据页格式和数据页压缩方式创建一个新的文件头并写入文件
+     * */
+    public static DBFileHeader readOrCreate(File file, int newFilePageSize, HeapPageFormatEnum newFileHeapPageFormatEnum,
+                                            PageCompressionEnum newFilePageCompressionEnum) {
+        if (!file.exists() || file.length() == 0) {
+            DBFileHeader header = new DBFileHeader(CURRENT_VERSION, newFilePageSize, 0, newFileHeapPageFormatEnum,
+                    newFilePageCompressionEnum);
+            header.writeTo(file);
+            return header;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            if (file.length() < HEADER_FIELD_SIZE || dis.readInt() != MAGIC) {
+                // 没有文件头，老版本的文件
+                return new DBFileHeader(LEGACY_VERSION, LEGACY_PAGE_SIZE);
+            }
+            int version = dis.readInt();
+            int pageSize = dis.readInt();
+            if (version > CURRENT_VERSION) {
+                throw new DBException("un support file version=" + version + " file=" + file);
+            }
+            long pageNum = version >= PAGE_NUM_VERSION ? dis.readLong() : UNKNOWN_PAGE_NUM;
+            HeapPageFormatEnum heapPageFormatEnum = version >= PAGE_NUM_VERSION
+                    ? HeapPageFormatEnum.getByCode(dis.readInt()) : HeapPageFormatEnum.FIXED;
+            PageCompressionEnum pageCompressionEnum = version >= PAGE_NUM_VERSION
+                    ? PageCompressionEnum.getByCode(dis.readInt()) : PageCompressionEnum.NONE;
+            return new DBFileHeader(version, pageSize, pageNum, heapPageFormatEnum, pageCompressionEnum);
+        } catch (IOException e) {
+            throw new DBException("read file header error file=" + file, e);
+        }
+    }
+
+    /**
+     * 将文件头写入文件的第一页
+     * */
+    public void writeTo(File file) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.write(serialize());
+        } catch (IOException e) {
+            throw new DBException("write file header error file=" + file, e);
+        }
+    }
+
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(this.pageSize);
+        DataOutputStream dos = new DataOutputStream(byteArrayOutputStream);
+
+        dos.writeInt(MAGIC);
+        dos.writeInt(this.version);
+        dos.writeInt(this.pageSize);
+        dos.writeLong(Math.max(this.pageNum, 0));
+        dos.writeInt(this.heapPageFormatEnum.getCode());
+        dos.writeInt(this.pageCompressionEnum.getCode());
+        // 文件头独占一页，剩余空间用0填充
+        dos.write(PageCommonUtil.createEmptyPageData(this.pageSize - dos.size()));
+        dos.flush();
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    public boolean isLegacy() {
+        return version == LEGACY_VERSION;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * 打开文件时文件头中记录的逻辑页数，之后的变化由ExtentAllocator维护
+     * @return UNKNOWN_PAGE_NUM 文件头中没有记录(老版本的文件)
+     * */
+    public long getPageNum() {
+        return pageNum;
+    }
+
+    /**
+     * 堆文件数据页的格式
+     * */
+    public HeapPageFormatEnum getHeapPageFormat() {
+        return heapPageFormatEnum;
+    }
+
+    /**
+     * 数据页的压缩方式
+     * */
+    public PageCompressionEnum getPageCompression() {
+        return pageCompressionEnum;
+    }
+
+    /**
+     * 是否压缩存储数据页
+     * */
+    public boolean isCompressed() {
+        return pageCompressionEnum != PageCompressionEnum.NONE;
+    }
+
+    /**
+     * 页内插槽位图的格式(老版本的文件每个插槽占用1字节)
+     * */
+    public SlotFormatEnum getSlotFormat() {
+        return version >= CURRENT_VERSION ? SlotFormatEnum.BIT_PACKED : SlotFormatEnum.BYTE_PER_SLOT;
+    }
+
+    /**
+     * 数据页的起始偏移量(老版本的文件没有文件头)
+     * */
+    public long getDataOffset() {
+        return isLegacy() ? 0 : pageSize;
+    }
+}
@@ -1,20 +1,27 @@
 package simpledb.dbfile;
 
+import simpledb.BufferPool;
 import simpledb.Database;
-import simpledb.dbpage.PageCommonUtil;
+import simpledb.bufferpool.BufferAccessStrategy;
+import simpledb.bufferpool.ReadAheadEngine;
 import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.DBSlottedHeapPage;
+import simpledb.dbpage.normal.HeapPage;
+import simpledb.dbpage.normal.HeapPageFormatEnum;
 import simpledb.dbpage.DBPage;
 import simpledb.dbpage.normal.HeapPageId;
 import simpledb.dbpage.PageId;
+import simpledb.dbpage.SlotFormatEnum;
 import simpledb.dbrecord.Record;
 import simpledb.exception.DBException;
 import simpledb.iterator.DbFileIterator;
+import simpledb.iterator.enums.ScanModeEnum;
+import simpledb.metrics.DBMetrics;
 import simpledb.matadata.table.TableDesc;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.util.*;
 
 /**
@@ -25,10 +32,56 @@ public class DBHeapFile implements DBFile{
 
     private final TableDesc tableDesc;
     private final File dbFile;
+    private DBFileHeader fileHeader;
+    private final PageFileChannel fileChannel;
+    private final FreeSpaceMap freeSpaceMap;
+    private final ExtentAllocator extentAllocator;
+
+    /**
+     * 数据页压缩存储时页面的读写都经过它，不压缩时为null
+     * */
+    private final CompressedPageStore compressedPageStore;
 
     public DBHeapFile(TableDesc tableDesc, File dbFile) {
+        this(tableDesc, dbFile, HeapPageFormatEnum.FIXED);
+    }
+
+    /**
+     * @param heapPageFormatEnum 新文件的数据页格式，已存在的文件以文件头中记录的为准
+     * */
+    public DBHeapFile(TableDesc tableDesc, File dbFile, HeapPageFormatEnum heapPageFormatEnum) {
+        this(tableDesc, dbFile, heapPageFormatEnum, PageCompressionEnum.NONE);
+    }
+
+    /**
+     * @param heapPageFormatEnum 新文件的数据页格式，已存在的文件以文件头中记录的为准
+     * @param pageCompressionEnum 新文件的数据页压缩方式，已存在的文件以文件头中记录的为准
+     * */
+    public DBHeapFile(TableDesc tableDesc, File dbFile, HeapPageFormatEnum heapPageFormatEnum, PageCompressionEnum pageCompressionEnum) {
         this.tableDesc = tableDesc;
         this.dbFile = dbFile;
+        // 先完成(或者回滚)上一次中断的插槽位图格式升级
+        boolean migrated = SlotFormatMigrator.recover(dbFile);
+        boolean newFile = !dbFile.exists() || dbFile.length() == 0;
+        // 新文件使用当前配置的页大小，已存在的文件以文件头中记录的为准
+        this.fileHeader = DBFileHeader.readOrCreate(dbFile, Database.getBufferPool().getPageSize(), heapPageFormatEnum, pageCompressionEnum);
+        if (SlotFormatMigrator.needMigrate(fileHeader)) {
+            migrated = true;
+            // 老版本的插槽位图格式，打开时升级为按位存储
+            this.fileHeader = SlotFormatMigrator.migrateHeapFile(dbFile, fileHeader, tableDesc, Database.getConfig().getSegmentSize());
+        }
+        this.fileChannel = new PageFileChannel(dbFile, Database.getConfig().getSegmentSize());
+        this.fileChannel.setMmapRead(Database.getConfig().isMmapRead());
+        this.extentAllocator = new ExtentAllocator(fileChannel, fileHeader, fileHeader.getDataOffset(), Database.getConfig().getExtentSize());
+        this.compressedPageStore = fileHeader.isCompressed()
+                ? new CompressedPageStore(fileChannel, fileHeader.getDataOffset(), getPageSize(),
+                        new File(dbFile.getPath() + CompressedPageStore.FILE_SUFFIX), newFile)
+                : null;
+        // 升级后每页的插槽数发生了变化，空闲空间映射需要重建
+        this.freeSpaceMap = new FreeSpaceMap(new File(dbFile.getPath() + FreeSpaceMap.FILE_SUFFIX), getPageSize(), newFile || migrated);
+        if (freeSpaceMap.needRebuild()) {
+            rebuildFreeSpaceMap();
+        }
     }
 
     @Override
@@ -41,73 +94,267 @@ public class DBHeapFile implements DBFile{
         return dbFile;
     }
 
+    public DBFileHeader getFileHeader() {
+        return fileHeader;
+    }
+
+    public int getPageSize() {
+        return fileHeader.getPageSize();
+    }
+
+    /**
+     * 页内插槽位图的格式
+     * */
+    public SlotFormatEnum getSlotFormat() {
+        return fileHeader.getSlotFormat();
+    }
+
+    /**
+     * 数据页的格式
+     * */
+    public HeapPageFormatEnum getHeapPageFormat() {
+        return fileHeader.getHeapPageFormat();
+    }
+
+    /**
+     * 数据页的压缩方式
+     * */
+    public PageCompressionEnum getPageCompression() {
+        return fileHeader.getPageCompression();
+    }
+
+    /**
+     * 数据页压缩存储时的页面存储，不压缩时为null
+     * */
+    public CompressedPageStore getCompressedPageStore() {
+        return compressedPageStore;
+    }
+
     /**
      * 读取一个页
      */
     @Override
     public DBPage readPage(PageId pageId) {
-        String tableId = pageId.getTableId();
-        int pgNo = pageId.getPageNo();
-        final int pageSize = Database.getBufferPool().getPageSize();
-        byte[] rawPgData = new byte[pageSize];
-
-        try (FileInputStream in = new FileInputStream(dbFile)) {
-            // 按照页号和页大小跳过对应的内容
-            in.skip((long) pgNo * pageSize);
-            // 将二进制数据读取出来
-            in.read(rawPgData);
-            // 将二进制数据转换为DBHeapPage
-            return new DBHeapPage(this.tableDesc, new HeapPageId(tableId, pgNo), rawPgData);
-        } catch (IOException e) {
-            throw new DBException("HeapFile readPage error");
-        }
+        return parsePage(pageId, readPageData(pageId));
     }
 
     /**
-     * 读取一个页
+     * 写入一个页
      */
     @Override
     public void writePage(DBPage dbPage) {
-        PageId pageId = dbPage.getPageId();
-        int pgNo = pageId.getPageNo();
-
-        final int pageSize = Database.getBufferPool().getPageSize();
+        updateFreeSpace(dbPage);
         try {
-            byte[] pgData = dbPage.serialize();
-            RandomAccessFile randomAccessFile = new RandomAccessFile(this.dbFile, "rws");
-            // 找到对应的位置
-            randomAccessFile.skipBytes(pgNo * pageSize);
-            // 写入整页的数据
-            randomAccessFile.write(pgData);
+            writePageData(dbPage.getPageId(), dbPage.serialize());
         } catch (IOException e) {
-            throw new DBException("HeapFile writePage error pageId=" + pageId);
+            throw new DBException("HeapFile writePage error pageId=" + dbPage.getPageId(), e);
         }
     }
 
+    @Override
+    public byte[] readPageData(PageId pageId) {
+        int pgNo = pageId.getPageNo();
+        long startNanos = System.nanoTime();
+        if (compressedPageStore != null) {
+            // 通过页偏移映射定位，只读取压缩后的长度
+            byte[] pgData = compressedPageStore.readPage(pgNo);
+            DBMetrics.getTableStats(pageId.getTableId())
+                    .recordRead(compressedPageStore.getStoredLength(pgNo), System.nanoTime() - startNanos);
+            return pgData;
+        }
+        byte[] rawPgData = new byte[getPageSize()];
+        // 按照页号和页大小定位，一次pread读取整页(超出文件末尾的部分保持为0)
+        fileChannel.read(getPageOffset(pgNo), rawPgData, rawPgData.length);
+        DBMetrics.getTableStats(pageId.getTableId()).recordRead(rawPgData.length, System.nanoTime() - startNanos);
+        return rawPgData;
+    }
+
+    @Override
+    public void writePageData(PageId pageId, byte[] pgData) {
+        int pgNo = pageId.getPageNo();
+        if (pgData.length != getPageSize()) {
+            throw new DBException("page size not match file pageSize=" + getPageSize() + " pageId=" + pageId);
+        }
+
+        extentAllocator.ensurePageNum(pgNo + 1);
+        long startNanos = System.nanoTime();
+        int writeLength = pgData.length;
+        if (compressedPageStore != null) {
+            writeLength = compressedPageStore.writePage(pgNo, pgData);
+        } else {
+            // 在对应的位置写入整页的数据，按照数据库的刷盘策略决定是否同步刷盘
+            Database.getSyncWriter().write(fileChannel, getPageOffset(pgNo), pgData);
+        }
+        DBMetrics.getTableStats(pageId.getTableId()).recordWrite(writeLength, System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void writePagesData(Map<PageId, byte[]> pageDataMap) {
+        if (pageDataMap.isEmpty()) {
+            return;
+        }
+        TreeMap<Integer, byte[]> pgNoDataMap = new TreeMap<>();
+        for (Map.Entry<PageId, byte[]> entry : pageDataMap.entrySet()) {
+            if (entry.getValue().length != getPageSize()) {
+                throw new DBException("page size not match file pageSize=" + getPageSize() + " pageId=" + entry.getKey());
+            }
+            pgNoDataMap.put(entry.getKey().getPageNo(), entry.getValue());
+        }
+        extentAllocator.ensurePageNum(pgNoDataMap.lastKey() + 1);
+
+        long startNanos = System.nanoTime();
+        long totalBytes;
+        if (compressedPageStore != null) {
+            totalBytes = compressedPageStore.writePages(pgNoDataMap, true);
+        } else {
+            // 整批数据最多只刷盘一次
+            TreeMap<Long, byte[]> offsetDataMap = toOffsetDataMap(pgNoDataMap);
+            Database.getSyncWriter().writeBatch(fileChannel, offsetDataMap);
+            totalBytes = (long) offsetDataMap.size() * getPageSize();
+        }
+        DBMetrics.getTableStats(this.tableDesc.getTableId())
+                .recordBatchWrite(pageDataMap.size(), totalBytes, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 批量导入时绕过SyncWriter直接写入整页，由调用方在导入结束时调用forcePages统一刷盘
+     * @return 写入磁盘的字节数
+     * */
+    long writePagesDirectly(TreeMap<Integer, byte[]> pgNoDataMap) {
+        if (pgNoDataMap.isEmpty()) {
+            return 0;
+        }
+        extentAllocator.ensurePageNum(pgNoDataMap.lastKey() + 1);
+        if (compressedPageStore != null) {
+            return compressedPageStore.writePages(pgNoDataMap, false);
+        }
+        fileChannel.writeBatch(toOffsetDataMap(pgNoDataMap));
+        return (long) pgNoDataMap.size() * getPageSize();
+    }
+
+    void forcePages() {
+        if (compressedPageStore != null) {
+            compressedPageStore.force();
+        } else {
+            fileChannel.force(true);
+        }
+    }
+
+    private TreeMap<Long, byte[]> toOffsetDataMap(TreeMap<Integer, byte[]> pgNoDataMap) {
+        TreeMap<Long, byte[]> offsetDataMap = new TreeMap<>();
+        for (Map.Entry<Integer, byte[]> entry : pgNoDataMap.entrySet()) {
+            offsetDataMap.put(getPageOffset(entry.getKey()), entry.getValue());
+        }
+        return offsetDataMap;
+    }
+
+    /**
+     * 是否通过mmap读取页面
+     * */
+    public void setMmapRead(boolean mmapRead) {
+        fileChannel.setMmapRead(mmapRead);
+    }
+
+    public boolean isMmapRead() {
+        return fileChannel.isMmapRead();
+    }
+
+    @Override
+    public void close() {
+        // 先写回缓冲池中的脏页并丢弃表的页面，之后不会再有写入落到关闭的文件上
+        BufferPool bufferPool = Database.getBufferPool(this.tableDesc.getTableId());
+        bufferPool.flushPages(this.tableDesc.getTableId());
+        bufferPool.discardPages(this.tableDesc.getTableId());
+        extentAllocator.flush();
+        Database.getSyncWriter().sync(fileChannel);
+        if (compressedPageStore != null) {
+            // 先刷盘镜像再刷盘页偏移映射
+            compressedPageStore.close();
+        }
+        // 脏页写回、数据页刷盘之后再关闭空闲空间映射(写入正常关闭的标记)
+        freeSpaceMap.close();
+        fileChannel.close();
+    }
+
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * 映射文件不可信时读取所有的数据页(不经过缓冲池)，按照实际的空闲插槽数重建空闲空间映射
+     * */
+    private void rebuildFreeSpaceMap() {
+        // 没有正常关闭时逻辑页数是文件头中记录的区边界上的上界，末尾没有记录的页不计入逻辑页数
+        int pageNum = getCurrentPageNum();
+        while (pageNum > 0 && readPage(new HeapPageId(this.tableDesc.getTableId(), pageNum - 1)).getNotEmptySlotsNum() == 0) {
+            pageNum--;
+        }
+        extentAllocator.shrinkPageNum(pageNum);
+        for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+            updateFreeSpace(readPage(new HeapPageId(this.tableDesc.getTableId(), pgNo)));
+        }
+        freeSpaceMap.flush();
+    }
+
+    /**
+     * 页面的空闲插槽数变化后更新空闲空间映射
+     * */
+    private void updateFreeSpace(DBPage page) {
+        freeSpaceMap.update(page.getPageId().getPageNo(), page.getMaxSlotNum() - page.getNotEmptySlotsNum());
+    }
+
+    @Override
+    public DBPage parsePage(PageId pageId, byte[] pageData) {
+        HeapPageId heapPageId = new HeapPageId(pageId.getTableId(), pageId.getPageNo());
+        if (getHeapPageFormat() == HeapPageFormatEnum.SLOTTED) {
+            return new DBSlottedHeapPage(this.tableDesc, heapPageId, pageData);
+        }
+        // 将二进制数据转换为DBHeapPage
+        return new DBHeapPage(this.tableDesc, heapPageId, pageData, getSlotFormat());
+    }
+
+    /**
+     * 插入一条记录，返回前会将修改过的页标记为脏页，并释放对页的pin
+     * */
     @Override
     public List<DBPage> insertTuple(Record newRecord) {
+        BufferPool bufferPool = Database.getBufferPool(this.tableDesc.getTableId());
         int numPages = getCurrentPageNum();
 
-        // 先从已存在的页中尝试着找到一个空闲插槽
-        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+        // 通过空闲空间映射定位一个有空闲插槽的页，映射记录与实际不一致时以实际的页为准修正后继续查找
+        int pgNo;
+        while ((pgNo = freeSpaceMap.findPage(numPages)) >= 0) {
             HeapPageId heapPageId = new HeapPageId(this.tableDesc.getTableId(), pgNo);
             // 找到目标页
-            DBHeapPage targetPage = (DBHeapPage) Database.getBufferPool().getPage(heapPageId);
-
-            // 存在空插槽
-            if (targetPage.getMaxSlotNum() > targetPage.getNotEmptySlotsNum()) {
-                // insert will update tuple when inserted
-                targetPage.insertRecord(newRecord);
-
-                return Collections.singletonList(targetPage);
+            HeapPage targetPage = (HeapPage) bufferPool.getPage(heapPageId);
+            try {
+                // 存在空插槽
+                if (targetPage.canInsert(newRecord)) {
+                    // insert will update tuple when inserted
+                    targetPage.insertRecord(newRecord);
+                    bufferPool.markDirty(targetPage);
+                    updateFreeSpace(targetPage);
+
+                    return Collections.singletonList(targetPage);
+                }
+                // 放不下这条记录(变长记录的页中记录的空闲插槽数只是估算)，本次查找不再考虑这个页
+                freeSpaceMap.update(pgNo, 0);
+            } finally {
+                bufferPool.unpinPage(heapPageId);
             }
         }
 
-        // 已经遍历了所有已存在的页，但没有找到空闲的插槽可用，必须创建一个新的页来承载插入的Record
-        HeapPageId heapPageId = new HeapPageId(this.tableDesc.getTableId(), numPages);
-        DBHeapPage newPage = new DBHeapPage(this.tableDesc,heapPageId, PageCommonUtil.createEmptyPageData());
-        newPage.insertRecord(newRecord);
-        writePage(newPage);
+        // 所有已存在的页都没有空闲的插槽可用，必须创建一个新的页来承载插入的Record
+        // 从预分配的区中分出一个空页(内容全为0)，再通过BufferPool读取并插入(新页作为脏页由BufferPool负责写回)
+        HeapPageId heapPageId = new HeapPageId(this.tableDesc.getTableId(), extentAllocator.allocate());
+        HeapPage newPage = (HeapPage) bufferPool.getPage(heapPageId);
+        try {
+            newPage.insertRecord(newRecord);
+            bufferPool.markDirty(newPage);
+            updateFreeSpace(newPage);
+        } finally {
+            bufferPool.unpinPage(heapPageId);
+        }
 
         return Collections.singletonList(newPage);
     }
@@ -120,25 +367,93 @@ public class DBHeapFile implements DBFile{
 
         PageId pageId = recordNeedDelete.getRecordId().getPageId();
         // 找到对应的页
-        DBHeapPage targetHeapPage = (DBHeapPage) Database.getBufferPool().getPage(pageId);
-        targetHeapPage.deleteRecord(recordNeedDelete);
+        BufferPool bufferPool = Database.getBufferPool(this.tableDesc.getTableId());
+        HeapPage targetHeapPage = (HeapPage) bufferPool.getPage(pageId);
+        try {
+            targetHeapPage.deleteRecord(recordNeedDelete);
+            bufferPool.markDirty(targetHeapPage);
+            updateFreeSpace(targetHeapPage);
+        } finally {
+            bufferPool.unpinPage(pageId);
+        }
 
         return Collections.singletonList(targetHeapPage);
     }
 
+    /**
+     * 批量导入记录，绕过BufferPool直接将整页追加到文件末尾，导入期间不能有其它线程修改这张表
+     * @return 导入的行数、页数以及每秒导入的行数
+     * */
+    public BulkLoadResult bulkLoad(Iterator<Record> recordIterator) {
+        return new HeapFileBulkLoader(this, freeSpaceMap).load(recordIterator);
+    }
+
+    /**
+     * 批量导入CSV格式的数据，每行一条记录，字段按照表结构的顺序以逗号分隔
+     * */
+    public BulkLoadResult bulkLoadCsv(Reader reader) {
+        return new HeapFileBulkLoader(this, freeSpaceMap).loadCsv(reader);
+    }
+
     /**
      * 获得文件的迭代器
      * */
     @Override
     public DbFileIterator<Record> getIterator(){
-        return new HeapFileIterator(this.tableDesc.getTableId());
+        return getIterator(ScanModeEnum.SNAPSHOT);
+    }
+
+    @Override
+    public DbFileIterator<Record> getIterator(ScanModeEnum scanModeEnum) {
+        return new HeapFileIterator(this.tableDesc.getTableId(), scanModeEnum, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只扫描一个段文件中的页(快照语义)，不同的段可以交给不同的线程并行扫描
+     * */
+    public DbFileIterator<Record> getSegmentIterator(int segmentNo) {
+        if (segmentNo < 0 || segmentNo >= getSegmentNum()) {
+            throw new DBException("segmentNo out of range segmentNo=" + segmentNo + " segmentNum=" + getSegmentNum());
+        }
+        return new HeapFileIterator(this.tableDesc.getTableId(), ScanModeEnum.SNAPSHOT,
+                getSegmentFirstPageNo(segmentNo), getSegmentFirstPageNo(segmentNo + 1));
+    }
+
+    /**
+     * 当前的逻辑页数占用了多少个段
+     * */
+    public int getSegmentNum() {
+        long dataEnd = getPageOffset(getCurrentPageNum());
+        return (int) ((dataEnd - 1) / fileChannel.getSegmentSize() + 1);
     }
 
     /**
-     * 当前文件存在多少页
+     * 第segmentNo个段中的第一个页号(段的大小是页大小的整数倍，页面不会跨越两个段)
+     * */
+    private int getSegmentFirstPageNo(int segmentNo) {
+        if (segmentNo == 0) {
+            return 0;
+        }
+        long segmentSize = fileChannel.getSegmentSize();
+        if (segmentNo > (Long.MAX_VALUE - getPageSize()) / segmentSize) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (segmentNo * segmentSize - fileHeader.getDataOffset()) / getPageSize());
+    }
+
+    /**
+     * 当前文件存在多少页(内存中维护的逻辑页数，不需要访问文件系统)
      */
-    private int getCurrentPageNum() {
-        return (int) dbFile.length() / Database.getBufferPool().getPageSize();
+    public int getCurrentPageNum() {
+        return extentAllocator.getPageNum();
+    }
+
+    public ExtentAllocator getExtentAllocator() {
+        return extentAllocator;
+    }
+
+    long getPageOffset(int pgNo) {
+        return fileHeader.getDataOffset() + (long) pgNo * getPageSize();
     }
 
     // =============================== DBFile迭代器 ====================================
@@ -147,26 +462,54 @@ public class DBHeapFile implements DBFile{
 
         private Integer pgCursor;
         private Iterator<Record> pageIterator;
+        /**
+         * 当前被pin住的页，游标移动到下一页或者迭代器关闭时释放
+         * */
+        private PageId pinnedPageId;
         private final String tableId;
-        private final int numPages;
-
-        public HeapFileIterator(String tableId) {
+        private final ScanModeEnum scanModeEnum;
+        /**
+         * 扫描的页号范围[startPgNo, endPgNo)
+         * */
+        private final int startPgNo;
+        private final int endPgNo;
+        /**
+         * 扫描的页号上界(不包含)，open时确定；FOLLOW_GROWTH模式下扫描到末尾时会重新读取
+         * */
+        private int numPages;
+        /**
+         * 大表扫描使用的环形缓冲区，避免扫描把缓冲池中的热点页面挤出去
+         * */
+        private BufferAccessStrategy accessStrategy;
+        /**
+         * 已经提交预读的页号上界(不包含)
+         * */
+        private int readAheadPgNo;
+
+        public HeapFileIterator(String tableId, ScanModeEnum scanModeEnum, int startPgNo, int endPgNo) {
             this.pgCursor = null;
             this.pageIterator = null;
             this.tableId = tableId;
-            this.numPages = getCurrentPageNum();
+            this.scanModeEnum = scanModeEnum;
+            this.startPgNo = startPgNo;
+            this.endPgNo = endPgNo;
         }
 
         @Override
         public void open() {
-            pgCursor = 0;
-            pageIterator = getNewPageIterator(pgCursor);
+            numPages = Math.min(getCurrentPageNum(), endPgNo);
+            pgCursor = startPgNo;
+            accessStrategy = createAccessStrategy();
+            readAheadPgNo = startPgNo + 1;
+            pageIterator = startPgNo > 0 && pgCursor >= numPages ? Collections.emptyIterator() : getNewPageIterator(pgCursor);
         }
 
         @Override
         public void close() {
+            releasePinnedPage();
             pgCursor = null;
             pageIterator = null;
+            accessStrategy = null;
         }
 
         @Override
@@ -181,16 +524,29 @@ public class DBHeapFile implements DBFile{
                 return false;
             }
 
-            while (pgCursor < numPages - 1) {
-                if(pageIterator.hasNext()){
+            while (true) {
+                while (pgCursor < numPages - 1) {
+                    if(pageIterator.hasNext()){
+                        return true;
+                    }else{
+                        pgCursor += 1;
+                        pageIterator = getNewPageIterator(pgCursor);
+                    }
+                }
+                if (pageIterator.hasNext()) {
                     return true;
-                }else{
-                    pgCursor += 1;
-                    pageIterator = getNewPageIterator(pgCursor);
                 }
-            }
 
-            return pageIterator.hasNext();
+                // 已经扫描到了最后一页，跟随增长模式下检查扫描期间是否追加了新页
+                if (scanModeEnum != ScanModeEnum.FOLLOW_GROWTH) {
+                    return false;
+                }
+                int currentPageNum = Math.min(getCurrentPageNum(), endPgNo);
+                if (currentPageNum <= numPages) {
+                    return false;
+                }
+                numPages = currentPageNum;
+            }
         }
 
         @Override
@@ -203,10 +559,57 @@ public class DBHeapFile implements DBFile{
         }
 
         private Iterator<Record> getNewPageIterator(int pgNo) {
+            // 游标移动到了新的页，之前的页不再需要
+            releasePinnedPage();
+            readAhead(pgNo);
+
             PageId pid = new HeapPageId(tableId, pgNo);
-            return Database
-                    .getBufferPool()
-                    .getPage(pid).iterator();
+            Iterator<Record> iterator = Database
+                    .getBufferPool(tableId)
+                    .getPage(pid, accessStrategy).iterator();
+            pinnedPageId = pid;
+            return iterator;
+        }
+
+        /**
+         * 表的页数超过缓冲池容量的1/4时，使用环形缓冲区进行扫描
+         * */
+        private BufferAccessStrategy createAccessStrategy() {
+            int scanRingSize = Database.getConfig().getScanRingSize();
+            BufferPool bufferPool = Database.getBufferPool(tableId);
+            // 常驻内存的缓冲池不淘汰页面，不使用环形缓冲区
+            if (scanRingSize <= 0 || bufferPool.isResident() || numPages - startPgNo <= bufferPool.getMaxPageSize() / 4) {
+                return null;
+            }
+            return new BufferAccessStrategy(scanRingSize);
+        }
+
+        /**
+         * 异步预读游标之后窗口内的页面
+         * 使用环形缓冲区时，窗口不超过环形缓冲区的一半，避免预读的页面在被访问之前就被环形缓冲区复用掉
+         * */
+        private void readAhead(int pgNo) {
+            BufferPool bufferPool = Database.getBufferPool(tableId);
+            ReadAheadEngine readAheadEngine = bufferPool.getReadAheadEngine();
+            if (readAheadEngine == null) {
+                return;
+            }
+            int window = bufferPool.getReadAheadWindow();
+            if (accessStrategy != null) {
+                window = Math.max(1, Math.min(window, accessStrategy.getRingSize() / 2));
+            }
+            int endPgNo = Math.min(numPages, pgNo + 1 + window);
+            for (int readAheadNo = Math.max(readAheadPgNo, pgNo + 1); readAheadNo < endPgNo; readAheadNo++) {
+                readAheadEngine.prefetch(new HeapPageId(tableId, readAheadNo), accessStrategy);
+            }
+            readAheadPgNo = Math.max(readAheadPgNo, endPgNo);
+        }
+
+        private void releasePinnedPage() {
+            if (pinnedPageId != null) {
+                Database.getBufferPool(tableId).unpinPage(pinnedPageId);
+                pinnedPageId = null;
+            }
         }
     }
 
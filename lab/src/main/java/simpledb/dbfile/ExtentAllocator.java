@@ -0,0 +1,202 @@
+package simpledb.dbfile;
+
+import simpledb.Database;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 数据文件的页分配器
+ * 文件按区(extent)成块增长：需要新页而文件的物理长度不够时，一次在文件末尾写入一整个区的空页(全0)，
+ * 之后的新页直接从已经预分配的区中分出，不再每一页都改变文件长度(减少文件系统元数据的更新和磁盘碎片)
+ *
+ * 逻辑页数与文件的物理长度分开维护，记录在文件头中(老版本没有文件头的文件不预分配，逻辑页数即为物理长度对应的页数)
+ * 预分配的页内容全为0，与新创建的空页一致
+ *
+ * 文件头中的页数不是每分配一页都更新：运行期间记录的是向上取整到区边界的上界，只在逻辑页数越过这个边界时(即每扩展一个区)写入一次，
+ * 关闭文件时再写入精确的逻辑页数。文件头的写入都经过SyncWriter，与数据页按照同一个刷盘策略刷盘。
+ * 没有正常关闭时，重新打开后逻辑页数为记录的上界，多出来的都是全0的空页(不超过物理长度)
+ *
+ * 压缩存储的文件(见CompressedPageStore)中页面的位置由页偏移映射决定，数据区不按页对齐，只维护逻辑页数，不做物理上的预分配
+ */
+public class ExtentAllocator {
+
+    /**
+     * 每次写入的空页数据块的最大长度
+     * */
+    private static final int ZERO_BLOCK_SIZE = 1024 * 1024;
+
+    private static final byte[] ZERO_BLOCK = new byte[ZERO_BLOCK_SIZE];
+
+    private final PageFileChannel fileChannel;
+    private final DBFileHeader fileHeader;
+
+    /**
+     * 第0个数据页在文件中的偏移量
+     * */
+    private final long firstPageOffset;
+    private final int pageSize;
+
+    /**
+     * 每个区的页数
+     * */
+    private final int extentPageNum;
+
+    /**
+     * 逻辑页数
+     * */
+    private volatile int pageNum;
+
+    /**
+     * 文件头中记录的页数，不小于逻辑页数
+     * */
+    private int persistedPageNum;
+
+    /**
+     * 文件的物理长度
+     * */
+    private long physicalLength;
+
+    /**
+     * 是否在文件末尾预分配空页(压缩存储的文件不预分配)
+     * */
+    private final boolean preallocate;
+
+    /**
+     * @param firstPageOffset 第0个数据页在文件中的偏移量
+     * @param extentSize 每个区的字节数，0表示不预分配
+     * */
+    public ExtentAllocator(PageFileChannel fileChannel, DBFileHeader fileHeader, long firstPageOffset, int extentSize) {
+        this.fileChannel = fileChannel;
+        this.fileHeader = fileHeader;
+        this.firstPageOffset = firstPageOffset;
+        this.pageSize = fileHeader.getPageSize();
+        this.physicalLength = fileChannel.size();
+        this.preallocate = !fileHeader.isCompressed();
+
+        int physicalPageNum = (int) (Math.max(physicalLength - firstPageOffset, 0) / pageSize);
+        if (fileHeader.isLegacy()) {
+            this.extentPageNum = 1;
+            this.pageNum = physicalPageNum;
+        } else {
+            this.extentPageNum = Math.max(1, extentSize / pageSize);
+            if (fileHeader.getPageNum() == DBFileHeader.UNKNOWN_PAGE_NUM) {
+                // 版本1的文件：以物理长度为准，并升级文件头使其记录逻辑页数
+                this.pageNum = physicalPageNum;
+                writeInt(DBFileHeader.VERSION_OFFSET, DBFileHeader.PAGE_NUM_VERSION);
+                writePageNum(physicalPageNum);
+            } else if (preallocate) {
+                // 没有正常关闭时记录的是区边界上的上界，不会超过预分配之后的物理长度
+                this.pageNum = (int) Math.min(fileHeader.getPageNum(), physicalPageNum);
+            } else {
+                this.pageNum = (int) fileHeader.getPageNum();
+            }
+        }
+        this.persistedPageNum = pageNum;
+    }
+
+    /**
+     * 逻辑页数
+     * */
+    public int getPageNum() {
+        return pageNum;
+    }
+
+    public int getExtentPageNum() {
+        return extentPageNum;
+    }
+
+    /**
+     * 分配一个新页，新页的内容全为0
+     * @return 新页的下标(从0开始)
+     * */
+    public synchronized int allocate() {
+        int pageIndex = pageNum;
+        long pageEnd = pageOffset(pageIndex + 1);
+        grow(pageEnd, physicalLength);
+        pageNum = pageIndex + 1;
+        persistUpperBound();
+        return pageIndex;
+    }
+
+    /**
+     * 调用方将要直接写入下标小于newPageNum的页(例如写回脏页、批量导入)，逻辑页数至少扩大到newPageNum
+     * 调用方自己写入的范围不需要预先填充0，只预分配其后直到区边界的部分
+     * */
+    public synchronized void ensurePageNum(int newPageNum) {
+        if (newPageNum <= pageNum) {
+            return;
+        }
+        long requiredLength = pageOffset(newPageNum);
+        grow(requiredLength, requiredLength);
+        pageNum = newPageNum;
+        persistUpperBound();
+    }
+
+    /**
+     * 打开文件时根据数据页确定了实际的逻辑页数(不超过文件头中记录的上界)
+     * */
+    public synchronized void shrinkPageNum(int newPageNum) {
+        if (newPageNum < pageNum) {
+            pageNum = newPageNum;
+        }
+    }
+
+    /**
+     * 将精确的逻辑页数写入文件头，关闭文件之前(数据页刷盘之前)调用
+     * */
+    public synchronized void flush() {
+        if (fileHeader.isLegacy() || persistedPageNum == pageNum) {
+            return;
+        }
+        persistedPageNum = pageNum;
+        writePageNum(pageNum);
+    }
+
+    /**
+     * 物理长度不足requiredLength时，按区的大小向上取整扩展文件
+     * @param zeroFrom 从这个位置开始写入0(之前的部分由调用方写入)
+     * */
+    private void grow(long requiredLength, long zeroFrom) {
+        if (!preallocate || requiredLength <= physicalLength) {
+            return;
+        }
+        long dataLength = requiredLength - firstPageOffset;
+        long extentLength = (long) extentPageNum * pageSize;
+        long newLength = firstPageOffset + (dataLength + extentLength - 1) / extentLength * extentLength;
+
+        long position = Math.max(physicalLength, zeroFrom);
+        while (position < newLength) {
+            int length = (int) Math.min(ZERO_BLOCK_SIZE, newLength - position);
+            fileChannel.write(position, zeroBlock(length));
+            position += length;
+        }
+        physicalLength = Math.max(newLength, fileChannel.size());
+    }
+
+    private long pageOffset(int pageIndex) {
+        return firstPageOffset + (long) pageIndex * pageSize;
+    }
+
+    /**
+     * 逻辑页数越过文件头中记录的上界时，将上界更新为逻辑页数所在区的末尾
+     * */
+    private void persistUpperBound() {
+        if (fileHeader.isLegacy() || pageNum <= persistedPageNum) {
+            return;
+        }
+        persistedPageNum = (pageNum + extentPageNum - 1) / extentPageNum * extentPageNum;
+        writePageNum(persistedPageNum);
+    }
+
+    private void writePageNum(int value) {
+        Database.getSyncWriter().write(fileChannel, DBFileHeader.PAGE_NUM_OFFSET, ByteBuffer.allocate(8).putLong(value).array());
+    }
+
+    private void writeInt(long position, int value) {
+        fileChannel.write(position, ByteBuffer.allocate(4).putInt(value).array());
+    }
+
+    private static byte[] zeroBlock(int length) {
+        return length == ZERO_BLOCK_SIZE ? ZERO_BLOCK : new byte[length];
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb.dbfile;
+
+import simpledb.exception.DBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeMap;
+
+/**
+ * 堆文件的空闲空间映射(free space map)
+ * 每个数据页用一个字节记录其空闲插槽数(超过254的按254记录)，保存在与数据文件同名、后缀为.fsm的独立文件中，
+ * 按数据文件的页大小分页，只有被修改过的映射页才会写回。写回只发生在关闭、重建或者批量导入结束时，写入数据页时不写回映射
+ *
+ * 插入时不再从第0页开始逐页查找空闲插槽，而是通过位图直接定位一个有空闲插槽的页，
+ * 并优先复用上一次插入的页，连续插入的开销与表的大小无关
+ *
+ * 映射只是一个提示：记录的空闲插槽数多于实际时(例如删除记录后数据页还没有写回)，插入时会以实际的页面为准修正；
+ * 但少于实际的记录(例如插入后映射已经写回、数据页还没有写回时进程异常退出)不会被修正，这样的页不会再被选中。
+ * 因此只有上一次正常关闭(关闭时写入.clean标记文件)的映射文件才会被信任，打开时删除标记；
+ * 没有标记时丢弃映射文件，由数据文件读取所有的数据页按实际的空闲插槽数重建(见needRebuild)
+ */
+public class FreeSpaceMap {
+
+    public static final String FILE_SUFFIX = ".fsm";
+
+    /**
+     * 正常关闭的标记文件的后缀(追加在映射文件名之后)
+     * */
+    public static final String CLEAN_FILE_SUFFIX = ".clean";
+
+    /**
+     * 未知的空闲插槽数(映射文件没有覆盖到的页)，作为候选页对待
+     * */
+    private static final int UNKNOWN = 0xFF;
+
+    private static final int MAX_RECORD_FREE_SLOT_NUM = 0xFE;
+
+    private final PageFileChannel fileChannel;
+
+    private final File cleanFile;
+
+    /**
+     * 映射文件不可信(或者被重置)，需要根据数据页重建
+     * */
+    private final boolean needRebuild;
+
+    /**
+     * 映射页的大小
+     * */
+    private final int mapPageSize;
+
+    /**
+     * 下标为数据页号
+     * */
+    private byte[] freeSlotNums;
+
+    /**
+     * 已经记录的数据页数
+     * */
+    private int pageNum;
+
+    /**
+     * 可能存在空闲插槽的数据页
+     * */
+    private final BitSet candidatePages = new BitSet();
+
+    /**
+     * 被修改过、需要写回的映射页
+     * */
+    private final BitSet dirtyMapPages = new BitSet();
+
+    /**
+     * 从上一次找到的页开始查找
+     * */
+    private int searchHint;
+
+    /**
+     * @param reset 数据文件是新创建的(或者刚升级过格式)，忽略残留的映射文件
+     * */
+    public FreeSpaceMap(File mapFile, int mapPageSize, boolean reset) {
+        this.fileChannel = new PageFileChannel(mapFile);
+        this.mapPageSize = mapPageSize;
+        this.cleanFile = new File(mapFile.getPath() + CLEAN_FILE_SUFFIX);
+        // 打开后映射随时可能被修改，先删除标记，之后异常退出时不会再信任映射文件
+        boolean cleanClosed = cleanFile.exists();
+        if (cleanClosed && !cleanFile.delete()) {
+            throw new DBException("delete file error file=" + cleanFile);
+        }
+        this.needRebuild = reset || !cleanClosed;
+        if (needRebuild) {
+            fileChannel.truncate(0);
+        }
+
+        int mapFileLength = (int) fileChannel.size();
+        this.freeSlotNums = new byte[Math.max(mapFileLength, mapPageSize)];
+        if (mapFileLength > 0) {
+            fileChannel.readFully(0, freeSlotNums, mapFileLength);
+        }
+        this.pageNum = mapFileLength;
+        for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+            if (freeSlotNums[pgNo] != 0) {
+                candidatePages.set(pgNo);
+            }
+        }
+    }
+
+    /**
+     * 查找一个可能有空闲插槽的数据页
+     * @param dataPageNum 数据文件当前的页数，映射中没有记录的页作为候选页
+     * @return -1 所有的页都已经满了
+     * */
+    public synchronized int findPage(int dataPageNum) {
+        ensurePageNum(dataPageNum);
+
+        int pgNo = candidatePages.nextSetBit(searchHint);
+        if (pgNo < 0 || pgNo >= dataPageNum) {
+            pgNo = candidatePages.nextSetBit(0);
+        }
+        if (pgNo < 0 || pgNo >= dataPageNum) {
+            return -1;
+        }
+        searchHint = pgNo;
+        return pgNo;
+    }
+
+    /**
+     * 记录数据页当前的空闲插槽数
+     * */
+    public synchronized void update(int pgNo, int freeSlotNum) {
+        ensurePageNum(pgNo + 1);
+
+        int value = Math.min(freeSlotNum, MAX_RECORD_FREE_SLOT_NUM);
+        if ((freeSlotNums[pgNo] & 0xFF) == value) {
+            return;
+        }
+        freeSlotNums[pgNo] = (byte) value;
+        candidatePages.set(pgNo, value != 0);
+        dirtyMapPages.set(pgNo / mapPageSize);
+        if (value != 0 && pgNo < searchHint) {
+            // 删除记录后前面的页有了空闲插槽，优先填充前面的页
+            searchHint = pgNo;
+        }
+    }
+
+    /**
+     * @return 数据页记录的空闲插槽数，-1表示未知
+     * */
+    public synchronized int getFreeSlotNum(int pgNo) {
+        if (pgNo >= pageNum || (freeSlotNums[pgNo] & 0xFF) == UNKNOWN) {
+            return -1;
+        }
+        return freeSlotNums[pgNo] & 0xFF;
+    }
+
+    /**
+     * 映射文件没有被使用(新文件、上一次没有正常关闭或者被重置)，需要调用方按照所有数据页实际的空闲插槽数调用update重建
+     * (在重建之前所有的页都作为候选页，不会漏掉空闲插槽)
+     * */
+    public boolean needRebuild() {
+        return needRebuild;
+    }
+
+    /**
+     * 将修改过的映射页写回文件
+     * */
+    public synchronized void flush() {
+        if (dirtyMapPages.isEmpty()) {
+            return;
+        }
+        TreeMap<Long, byte[]> offsetDataMap = new TreeMap<>();
+        for (int mapPgNo = dirtyMapPages.nextSetBit(0); mapPgNo >= 0; mapPgNo = dirtyMapPages.nextSetBit(mapPgNo + 1)) {
+            int from = mapPgNo * mapPageSize;
+            // 最后一个映射页只写出已经记录的部分，映射文件的长度即为已经记录的数据页数
+            int to = Math.min(from + mapPageSize, pageNum);
+            offsetDataMap.put((long) from, Arrays.copyOfRange(freeSlotNums, from, to));
+        }
+        fileChannel.writeBatch(offsetDataMap);
+        dirtyMapPages.clear();
+    }
+
+    /**
+     * 写回映射并写入正常关闭的标记，调用前数据页需要已经写回并刷盘
+     * */
+    public void close() {
+        flush();
+        fileChannel.force(true);
+        try {
+            if (!cleanFile.createNewFile() && !cleanFile.exists()) {
+                throw new DBException("create file error file=" + cleanFile);
+            }
+        } catch (IOException e) {
+            throw new DBException("create file error file=" + cleanFile, e);
+        }
+        fileChannel.close();
+    }
+
+    private void ensurePageNum(int newPageNum) {
+        if (newPageNum <= pageNum) {
+            return;
+        }
+        if (newPageNum > freeSlotNums.length) {
+            int newLength = freeSlotNums.length;
+            while (newLength < newPageNum) {
+                newLength *= 2;
+            }
+            freeSlotNums = Arrays.copyOf(freeSlotNums, newLength);
+        }
+        Arrays.fill(freeSlotNums, pageNum, newPageNum, (byte) UNKNOWN);
+        candidatePages.set(pageNum, newPageNum);
+        for (int mapPgNo = pageNum / mapPageSize; mapPgNo <= (newPageNum - 1) / mapPageSize; mapPgNo++) {
+            dirtyMapPages.set(mapPgNo);
+        }
+        pageNum = newPageNum;
+    }
+}
@@ -0,0 +1,319 @@
+package simpledb.dbfile;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.dbpage.SlotFormatEnum;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.DBSlottedHeapPage;
+import simpledb.dbpage.normal.HeapPageFormatEnum;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.exception.DBException;
+import simpledb.matadata.fields.Field;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+import simpledb.metrics.DBMetrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * 堆文件的批量导入
+ * 不经过BufferPool和空闲插槽查找，直接按照DBHeapPage的磁盘格式(插槽位图 + 定长记录，位图格式与文件一致)把记录填入页缓冲区，
+ * 攒够一批页之后在文件末尾一次顺序写出(连续的页合并为一次gathering write)，全部写完后只同步刷盘一次
+ *
+ * slotted格式的表逐条插入到页面对象中，页放不下时序列化并开始下一页
+ *
+ * 导入的数据总是追加在文件末尾的新页中，不会填充已有页的空闲插槽；
+ * 导入期间不能有其它线程修改同一张表
+ */
+class HeapFileBulkLoader {
+
+    /**
+     * 每一批写出的数据量
+     * */
+    private static final int BATCH_BYTES = 4 * 1024 * 1024;
+
+    private final DBHeapFile heapFile;
+    private final FreeSpaceMap freeSpaceMap;
+    private final TableDesc tableDesc;
+    private final int pageSize;
+    private final int recordSize;
+    private final int maxSlotNum;
+    private final SlotFormatEnum slotFormatEnum;
+
+    /**
+     * 页内插槽位图的字节数，记录从这之后开始存放
+     * */
+    private final int headerLength;
+
+    HeapFileBulkLoader(DBHeapFile heapFile, FreeSpaceMap freeSpaceMap) {
+        this.heapFile = heapFile;
+        this.freeSpaceMap = freeSpaceMap;
+        this.tableDesc = heapFile.getTableDesc();
+        this.pageSize = heapFile.getPageSize();
+        this.recordSize = tableDesc.getSize();
+        this.slotFormatEnum = heapFile.getSlotFormat();
+        this.maxSlotNum = DBHeapPage.getMaxSlotNum(pageSize, recordSize, slotFormatEnum);
+        this.headerLength = slotFormatEnum.headerLength(maxSlotNum);
+    }
+
+    BulkLoadResult load(Iterator<Record> recordIterator) {
+        if (heapFile.getHeapPageFormat() == HeapPageFormatEnum.SLOTTED) {
+            return loadSlotted(recordIterator);
+        }
+        long startNanos = System.nanoTime();
+        int firstPgNo = heapFile.getCurrentPageNum();
+
+        // 页缓冲区在批与批之间复用
+        int batchPageNum = Math.max(1, BATCH_BYTES / pageSize);
+        List<ByteBuffer> pageBuffers = new ArrayList<>(batchPageNum);
+        TreeMap<Integer, byte[]> batch = new TreeMap<>();
+
+        int pgNo = firstPgNo;
+        ByteBuffer page = null;
+        int slotIndex = 0;
+        long rowNum = 0;
+        while (recordIterator.hasNext()) {
+            Record record = recordIterator.next();
+            if (page == null) {
+                int bufferIndex = batch.size();
+                if (bufferIndex == pageBuffers.size()) {
+                    pageBuffers.add(ByteBuffer.wrap(new byte[pageSize]));
+                }
+                page = pageBuffers.get(bufferIndex);
+                slotIndex = 0;
+            }
+
+            writeRecord(record, page, slotIndex);
+            slotIndex++;
+            rowNum++;
+
+            if (slotIndex == maxSlotNum) {
+                batch.put(pgNo, page.array());
+                pgNo++;
+                page = null;
+                if (batch.size() == batchPageNum) {
+                    writeBatch(batch);
+                }
+            }
+        }
+
+        int lastPageFreeSlotNum = 0;
+        if (page != null) {
+            // 最后一页没有填满，未使用的插槽需要清零(缓冲区可能是复用的)
+            clearSlotHeader(page.array(), slotIndex);
+            Arrays.fill(page.array(), headerLength + slotIndex * recordSize, headerLength + maxSlotNum * recordSize, (byte) 0);
+            batch.put(pgNo, page.array());
+            pgNo++;
+            lastPageFreeSlotNum = maxSlotNum - slotIndex;
+        }
+        writeBatch(batch);
+        heapFile.forcePages();
+        discardCachedPages(firstPgNo, pgNo);
+
+        for (int loadedPgNo = firstPgNo; loadedPgNo < pgNo; loadedPgNo++) {
+            freeSpaceMap.update(loadedPgNo, loadedPgNo == pgNo - 1 ? lastPageFreeSlotNum : 0);
+        }
+        freeSpaceMap.flush();
+
+        return new BulkLoadResult(rowNum, pgNo - firstPgNo, System.nanoTime() - startNanos);
+    }
+
+    private BulkLoadResult loadSlotted(Iterator<Record> recordIterator) {
+        long startNanos = System.nanoTime();
+        int firstPgNo = heapFile.getCurrentPageNum();
+
+        int batchPageNum = Math.max(1, BATCH_BYTES / pageSize);
+        TreeMap<Integer, byte[]> batch = new TreeMap<>();
+        byte[] emptyPageData = new byte[pageSize];
+        List<Integer> freeSlotNumList = new ArrayList<>();
+
+        int pgNo = firstPgNo;
+        DBSlottedHeapPage page = null;
+        long rowNum = 0;
+        while (recordIterator.hasNext()) {
+            Record record = recordIterator.next();
+            checkRecord(record);
+            if (page != null && !page.canInsert(record)) {
+                batch.put(pgNo, page.serialize());
+                freeSlotNumList.add(page.getMaxSlotNum() - page.getNotEmptySlotsNum());
+                pgNo++;
+                page = null;
+                if (batch.size() == batchPageNum) {
+                    writeBatch(batch);
+                }
+            }
+            if (page == null) {
+                page = new DBSlottedHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), pgNo), emptyPageData);
+            }
+            page.insertRecord(record);
+            rowNum++;
+        }
+        if (page != null) {
+            batch.put(pgNo, page.serialize());
+            freeSlotNumList.add(page.getMaxSlotNum() - page.getNotEmptySlotsNum());
+            pgNo++;
+        }
+        writeBatch(batch);
+        heapFile.forcePages();
+        discardCachedPages(firstPgNo, pgNo);
+
+        for (int i = 0; i < freeSlotNumList.size(); i++) {
+            freeSpaceMap.update(firstPgNo + i, freeSlotNumList.get(i));
+        }
+        freeSpaceMap.flush();
+
+        return new BulkLoadResult(rowNum, pgNo - firstPgNo, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 导入CSV格式的数据，每行一条记录，字段按照表结构的顺序以逗号分隔，空行被忽略
+     * */
+    BulkLoadResult loadCsv(Reader reader) {
+        return load(new CsvRecordIterator(new BufferedReader(reader)));
+    }
+
+    private void writeRecord(Record record, ByteBuffer page, int slotIndex) {
+        checkRecord(record);
+
+        // 按照绝对位置直接写入页缓冲区，不需要为每条记录创建临时的字节数组
+        int recordOffset = headerLength + slotIndex * recordSize;
+        if (record.serialize(page, recordOffset) != recordOffset + recordSize) {
+            throw new DBException("record size not match table desc tableId=" + tableDesc.getTableId() + " record=" + record);
+        }
+        markSlotUsed(page.array(), slotIndex);
+    }
+
+    private void checkRecord(Record record) {
+        List<Field> fieldList = record.getFieldList();
+        if (fieldList == null || fieldList.size() != tableDesc.getColumnNum()) {
+            throw new DBException("record not match table desc tableId=" + tableDesc.getTableId() + " record=" + record);
+        }
+    }
+
+    private void markSlotUsed(byte[] page, int slotIndex) {
+        if (slotFormatEnum == SlotFormatEnum.BIT_PACKED) {
+            page[slotIndex >>> 3] |= (byte) (1 << (slotIndex & 7));
+        } else {
+            page[slotIndex] = 1;
+        }
+    }
+
+    /**
+     * 清除fromSlotIndex及之后插槽的位图
+     * */
+    private void clearSlotHeader(byte[] page, int fromSlotIndex) {
+        if (slotFormatEnum == SlotFormatEnum.BIT_PACKED) {
+            int byteIndex = fromSlotIndex >>> 3;
+            if ((fromSlotIndex & 7) != 0) {
+                page[byteIndex] &= (byte) ((1 << (fromSlotIndex & 7)) - 1);
+                byteIndex++;
+            }
+            Arrays.fill(page, byteIndex, headerLength, (byte) 0);
+        } else {
+            Arrays.fill(page, fromSlotIndex, maxSlotNum, (byte) 0);
+        }
+    }
+
+    /**
+     * 导入的页绕过了缓冲池直接写入文件，缓冲池中这些页号上之前缓存的页(例如扫描空表时读入的空页)已经过期，需要丢弃
+     * */
+    private void discardCachedPages(int fromPgNo, int toPgNo) {
+        BufferPool bufferPool = Database.getBufferPool(tableDesc.getTableId());
+        for (int pgNo = fromPgNo; pgNo < toPgNo; pgNo++) {
+            bufferPool.discardPage(new HeapPageId(tableDesc.getTableId(), pgNo));
+        }
+    }
+
+    /**
+     * @param batch 页号 -> 整页数据
+     * */
+    private void writeBatch(TreeMap<Integer, byte[]> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long writeBytes = heapFile.writePagesDirectly(batch);
+        DBMetrics.getTableStats(tableDesc.getTableId())
+                .recordBatchWrite(batch.size(), writeBytes, System.nanoTime() - startNanos);
+        batch.clear();
+    }
+
+    private class CsvRecordIterator implements Iterator<Record> {
+        private final BufferedReader reader;
+        private String nextLine;
+        private long lineNo;
+
+        CsvRecordIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextLine == null) {
+                try {
+                    nextLine = reader.readLine();
+                } catch (IOException e) {
+                    throw new DBException("read csv error lineNo=" + lineNo, e);
+                }
+                if (nextLine == null) {
+                    return false;
+                }
+                lineNo++;
+                if (nextLine.trim().isEmpty()) {
+                    nextLine = null;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("no more line");
+            }
+            String line = nextLine;
+            nextLine = null;
+
+            String[] values = line.split(",", -1);
+            List<ColumnTypeEnum> columnTypeEnumList = tableDesc.getColumnTypeEnumList();
+            if (values.length != columnTypeEnumList.size()) {
+                throw new DBException("csv column num not match lineNo=" + lineNo + " line=" + line);
+            }
+            List<Field> fieldList = new ArrayList<>(values.length);
+            for (int i = 0; i < values.length; i++) {
+                fieldList.add(parseField(columnTypeEnumList.get(i), values[i], line));
+            }
+            Record record = new Record(tableDesc);
+            record.setFieldList(fieldList);
+            return record;
+        }
+
+        private Field parseField(ColumnTypeEnum columnTypeEnum, String value, String line) {
+            switch (columnTypeEnum) {
+                case INT_TYPE:
+                    try {
+                        return new IntField(Integer.parseInt(value.trim()));
+                    } catch (NumberFormatException e) {
+                        throw new DBException("csv int value error lineNo=" + lineNo + " line=" + line, e);
+                    }
+                case STRING_TYPE:
+                    // 与StringField序列化时一样，超长的部分被截断
+                    return new StringField(value.length() > StringField.MAX_LENGTH ? value.substring(0, StringField.MAX_LENGTH) : value);
+                default:
+                    throw new DBException("un support field type");
+            }
+        }
+    }
+}
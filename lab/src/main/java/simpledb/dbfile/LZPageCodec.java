@@ -0,0 +1,204 @@
+package simpledb.dbfile;
+
+import simpledb.exception.DBException;
+
+import java.util.Arrays;
+
+/**
+ * 纯java实现的LZ77系列页面压缩算法(格式与LZ4的块格式类似，但不保证与LZ4兼容)
+ *
+ * 压缩数据由若干个序列组成，每个序列为：
+ * token(1字节：高4位为字面量长度，低4位为匹配长度-4) | 字面量长度的扩展字节 | 字面量 | 匹配偏移量(2字节，小端) | 匹配长度的扩展字节
+ * 长度字段为15时后面跟随扩展字节，每个扩展字节累加到长度上，直到遇到一个小于255的字节为止
+ * 最后一个序列只有字面量，解压时读完字面量恰好到达输入末尾即结束
+ *
+ * 压缩时用哈希表记录每个4字节序列最近一次出现的位置，只做贪心匹配，追求速度而不是压缩率；
+ * 定长STRING字段的0填充、重复的字段值都能被压缩成很短的匹配
+ *
+ * 压缩使用的哈希表属于实例，同一个实例不能被多个线程同时用于压缩；解压是无状态的
+ */
+public class LZPageCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 0x0F;
+
+    /**
+     * 连续多少次没有找到匹配之后加大查找的步长(不可压缩的数据快速跳过)
+     * */
+    private static final int SKIP_TRIGGER = 6;
+
+    /**
+     * 4字节序列的哈希值 -> 最近一次出现的位置
+     * */
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    /**
+     * 长度为srcLength的数据压缩后最多占用的字节数(不可压缩的数据会略微变大)
+     * */
+    public static int maxCompressedLength(int srcLength) {
+        return srcLength + srcLength / 255 + 16;
+    }
+
+    /**
+     * 压缩src[srcOffset, srcOffset + srcLength)，写入dst的起始位置
+     * @param dst 长度至少为maxCompressedLength(srcLength)
+     * @return 压缩后的字节数
+     * */
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst) {
+        if (dst.length < maxCompressedLength(srcLength)) {
+            throw new DBException("compress buffer too small length=" + dst.length);
+        }
+        Arrays.fill(hashTable, -1);
+
+        int srcEnd = srcOffset + srcLength;
+        // 最后一个能读取完整4字节的位置
+        int matchLimit = srcEnd - MIN_MATCH;
+        int ip = srcOffset;
+        int anchor = srcOffset;
+        int op = 0;
+        int missNum = 0;
+
+        while (ip <= matchLimit) {
+            int sequence = readInt(src, ip);
+            int hash = hash(sequence);
+            int ref = hashTable[hash];
+            hashTable[hash] = ip;
+
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip += 1 + (missNum++ >>> SKIP_TRIGGER);
+                continue;
+            }
+            missNum = 0;
+
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < srcEnd && src[ref + matchLength] == src[ip + matchLength]) {
+                matchLength++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        // 剩余的数据作为最后一个只有字面量的序列
+        return writeLastLiterals(src, anchor, srcEnd - anchor, dst, op);
+    }
+
+    /**
+     * 将src[srcOffset, srcOffset + srcLength)解压到dst的起始位置，解压后的长度必须恰好为dstLength
+     * */
+    public static void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstLength) {
+        int srcEnd = srcOffset + srcLength;
+        int ip = srcOffset;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 0xFF);
+                }
+                if (ip + literalLength > srcEnd || op + literalLength > dstLength) {
+                    throw corrupted(srcLength, dstLength);
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == srcEnd) {
+                    break;
+                }
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 0xFF);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + matchLength > dstLength) {
+                    throw corrupted(srcLength, dstLength);
+                }
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // 匹配与自身重叠(例如连续的0)，逐字节复制
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw corrupted(srcLength, dstLength);
+        }
+        if (op != dstLength) {
+            throw corrupted(srcLength, dstLength);
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+                                     byte[] dst, int op) {
+        int tokenPos = op++;
+        int matchCode = matchLength - MIN_MATCH;
+        int token = (Math.min(literalLength, RUN_MASK) << 4) | Math.min(matchCode, RUN_MASK);
+        dst[tokenPos] = (byte) token;
+
+        op = writeLength(literalLength, dst, op);
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        op += literalLength;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        return writeLength(matchCode, dst, op);
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literalLength, byte[] dst, int op) {
+        dst[op++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+        op = writeLength(literalLength, dst, op);
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    /**
+     * 长度不小于15时写入扩展字节
+     * */
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length < RUN_MASK) {
+            return op;
+        }
+        int remain = length - RUN_MASK;
+        while (remain >= 0xFF) {
+            dst[op++] = (byte) 0xFF;
+            remain -= 0xFF;
+        }
+        dst[op++] = (byte) remain;
+        return op;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16)
+                | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+    private static DBException corrupted(int srcLength, int dstLength) {
+        return new DBException("corrupted compressed page srcLength=" + srcLength + " dstLength=" + dstLength);
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb.dbfile;
+
+import simpledb.exception.DBException;
+
+/**
+ * 数据页的压缩方式，每张表(每个数据文件)在创建时选定，记录在文件头中
+ */
+public enum PageCompressionEnum {
+
+    /**
+     * 不压缩，页号 * 页大小即为页在文件中的位置
+     * */
+    NONE(0, "不压缩"),
+
+    /**
+     * 每一页单独用LZ算法压缩(见LZPageCodec)，压缩后的页大小不固定，通过页偏移映射定位(见CompressedPageStore)
+     * */
+    LZ(1, "LZ压缩"),
+    ;
+
+    PageCompressionEnum(int code, String message) {
+        this.code = code;
+        this.message = message;
+    }
+
+    /**
+     * 写入文件头中的编号
+     * */
+    private final int code;
+    private final String message;
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public static PageCompressionEnum getByCode(int code) {
+        for (PageCompressionEnum pageCompressionEnum : values()) {
+            if (pageCompressionEnum.code == code) {
+                return pageCompressionEnum;
+            }
+        }
+        throw new DBException("un support page compression code=" + code);
+    }
+}
@@ -0,0 +1,547 @@
+package simpledb.dbfile;
+
+import simpledb.exception.DBException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 数据文件的页面读写通道
+ * 每个数据文件在整个生命周期内只打开一个FileChannel，读写都使用带位置参数的read/write(pread/pwrite)，
+ * 不依赖也不修改通道的position，因此多个线程可以并发的读写同一个文件，而不需要每次都重新打开文件
+ *
+ * 可选的mmap读模式：按块将文件只读映射到内存，读取页面时直接从映射区拷贝，不需要系统调用，
+ * 操作系统的页缓存相当于缓冲池之外的第二级缓存。写入仍然走FileChannel(共享映射可以看到写入的数据)
+ *
+ * 分段存储：逻辑上连续的64位地址空间按segmentSize切分到多个段文件中，第0段就是file本身，第k段为"file.k"，
+ * 除最后一段外每一段的长度都恰好为segmentSize。单个文件不会无限增长，各个段也可以被不同的线程并行读取
+ */
+public class PageFileChannel implements Closeable, SyncTarget {
+
+    /**
+     * 每个线程复用的直接内存缓冲区，避免每次读写都申请临时的缓冲区
+     * */
+    private static final ThreadLocal<ByteBuffer> IO_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(0));
+
+    /**
+     * 每个映射块的大小，是所有合法页大小的整数倍
+     * */
+    private static final long MMAP_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * 不分段
+     * */
+    public static final long NO_SEGMENT = Long.MAX_VALUE;
+
+    private final File file;
+
+    /**
+     * 每个段的字节数
+     * */
+    private final long segmentSize;
+
+    /**
+     * 每个映射块的实际大小，不超过段的大小，保证映射块不会跨越两个段
+     * */
+    private final long mmapChunkSize;
+
+    /**
+     * 已经打开的段，下标为段号
+     * */
+    private volatile FileChannel[] segmentChannels;
+
+    /**
+     * 上次刷盘之后写入过数据的段
+     * */
+    private final Set<Integer> dirtySegmentSet = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 串行化刷盘，刷盘返回时之前的写入一定已经落盘(不会因为脏段被并发的刷盘先清除了标记而提前返回)
+     * */
+    private final Object forceLock = new Object();
+
+    /**
+     * 是否通过mmap读取
+     * */
+    private volatile boolean mmapRead;
+
+    /**
+     * 已经映射的块，下标为块号；文件增长后最后一个块会被重新映射
+     * */
+    private volatile MappedByteBuffer[] mappedChunks = new MappedByteBuffer[0];
+
+    public PageFileChannel(File file) {
+        this(file, NO_SEGMENT);
+    }
+
+    /**
+     * @param segmentSize 每个段的字节数，新文件和只有一段的文件使用；
+     *                    已经分段的文件以第0段的长度为准，只有一段但已经超过segmentSize的老文件继续作为单个文件增长
+     * */
+    public PageFileChannel(File file, long segmentSize) {
+        if (segmentSize <= 0) {
+            throw new DBException("segmentSize must be positive segmentSize=" + segmentSize);
+        }
+        this.file = file;
+
+        List<FileChannel> channelList = new ArrayList<>();
+        channelList.add(openChannel(file));
+        for (int segmentNo = 1; segmentFile(segmentNo).exists(); segmentNo++) {
+            channelList.add(openChannel(segmentFile(segmentNo)));
+        }
+        this.segmentChannels = channelList.toArray(new FileChannel[0]);
+
+        long firstSegmentLength = channelSize(segmentChannels[0], file);
+        if (segmentChannels.length > 1) {
+            this.segmentSize = firstSegmentLength;
+        } else if (firstSegmentLength > segmentSize) {
+            this.segmentSize = NO_SEGMENT;
+        } else {
+            this.segmentSize = segmentSize;
+        }
+        this.mmapChunkSize = Math.min(MMAP_CHUNK_SIZE, this.segmentSize);
+    }
+
+    /**
+     * 第segmentNo个段对应的文件
+     * */
+    public File segmentFile(int segmentNo) {
+        return segmentNo == 0 ? file : new File(file.getPath() + "." + segmentNo);
+    }
+
+    /**
+     * 从指定的位置读取数据，读到文件末尾时提前结束
+     * @return 实际读取的字节数
+     * */
+    public int read(long position, byte[] dst, int length) {
+        if (mmapRead && readMapped(position, dst, length)) {
+            return length;
+        }
+
+        ByteBuffer buffer = ioBuffer(length);
+        try {
+            int readLength = 0;
+            while (readLength < length) {
+                long currentPosition = position + readLength;
+                int segmentNo = segmentNo(currentPosition);
+                FileChannel[] channels = segmentChannels;
+                if (segmentNo >= channels.length) {
+                    break;
+                }
+                // 每次最多读到当前段的末尾
+                buffer.limit(readLength + (int) Math.min(length - readLength, segmentRemaining(currentPosition)));
+                int n = channels[segmentNo].read(buffer, offsetInSegment(currentPosition));
+                if (n < 0) {
+                    break;
+                }
+                readLength += n;
+            }
+            buffer.flip();
+            buffer.get(dst, 0, readLength);
+            return readLength;
+        } catch (IOException e) {
+            throw new DBException("read file error file=" + file + " position=" + position, e);
+        }
+    }
+
+    /**
+     * 读取完整的length个字节，文件长度不足时抛出异常
+     * */
+    public void readFully(long position, byte[] dst, int length) {
+        int readLength = read(position, dst, length);
+        if (readLength < length) {
+            throw new DBException("unable to read " + length + " bytes from file=" + file
+                    + " position=" + position + " readLength=" + readLength);
+        }
+    }
+
+    /**
+     * 将数据写入指定的位置
+     * */
+    public void write(long position, byte[] src) {
+        ByteBuffer buffer = ioBuffer(src.length);
+        buffer.put(src);
+        buffer.flip();
+        try {
+            int writeLength = 0;
+            while (writeLength < src.length) {
+                long currentPosition = position + writeLength;
+                int segmentNo = segmentNo(currentPosition);
+                FileChannel channel = segmentForWrite(segmentNo);
+                // 每次最多写到当前段的末尾
+                buffer.limit(writeLength + (int) Math.min(src.length - writeLength, segmentRemaining(currentPosition)));
+                writeLength += channel.write(buffer, offsetInSegment(currentPosition));
+                dirtySegmentSet.add(segmentNo);
+            }
+        } catch (IOException e) {
+            throw new DBException("write file error file=" + file + " position=" + position, e);
+        }
+    }
+
+    /**
+     * 批量写入，按照位置排序后合并首尾相接的数据，每一段连续的数据只使用一次gathering write
+     * 连续的数据在段的边界处断开，跨越段边界的单个数据块单独写入
+     * @param positionDataMap 写入位置 -> 数据
+     * @return 实际发起的写入次数(连续段的个数)
+     * */
+    public int writeBatch(TreeMap<Long, byte[]> positionDataMap) {
+        int runNum = 0;
+        long runPosition = -1;
+        long runEnd = -1;
+        List<byte[]> runDataList = new ArrayList<>();
+        for (Map.Entry<Long, byte[]> entry : positionDataMap.entrySet()) {
+            long position = entry.getKey();
+            if (entry.getValue().length > segmentRemaining(position)) {
+                write(position, entry.getValue());
+                runNum++;
+                continue;
+            }
+            if (position != runEnd || segmentNo(position) != segmentNo(runPosition)) {
+                if (!runDataList.isEmpty()) {
+                    writeGathering(runPosition, runDataList);
+                    runNum++;
+                    runDataList.clear();
+                }
+                runPosition = entry.getKey();
+                runEnd = runPosition;
+            }
+            runDataList.add(entry.getValue());
+            runEnd += entry.getValue().length;
+        }
+        if (!runDataList.isEmpty()) {
+            writeGathering(runPosition, runDataList);
+            runNum++;
+        }
+        return runNum;
+    }
+
+    /**
+     * 将连续的多段数据从指定的位置开始一次写入，数据不能跨越段的边界
+     * FileChannel没有带位置参数的gathering write，需要先设置通道的position(其它读写都不依赖position)
+     * */
+    private synchronized void writeGathering(long position, List<byte[]> dataList) {
+        if (dataList.size() == 1) {
+            write(position, dataList.get(0));
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[dataList.size()];
+        long totalLength = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(dataList.get(i));
+            totalLength += buffers[i].remaining();
+        }
+        int segmentNo = segmentNo(position);
+        try {
+            FileChannel channel = segmentForWrite(segmentNo);
+            channel.position(offsetInSegment(position));
+            long writeLength = 0;
+            while (writeLength < totalLength) {
+                writeLength += channel.write(buffers);
+            }
+            dirtySegmentSet.add(segmentNo);
+        } catch (IOException e) {
+            throw new DBException("write file error file=" + file + " position=" + position, e);
+        }
+    }
+
+    /**
+     * 在文件末尾追加数据
+     * @return 追加数据的起始位置
+     * */
+    public synchronized long append(byte[] src) {
+        long position = size();
+        write(position, src);
+        return position;
+    }
+
+    /**
+     * 所有段的总长度
+     * */
+    public long size() {
+        FileChannel[] channels = segmentChannels;
+        int lastSegmentNo = channels.length - 1;
+        return lastSegmentNo * segmentSize + channelSize(channels[lastSegmentNo], segmentFile(lastSegmentNo));
+    }
+
+    /**
+     * 将文件截断为指定的长度，不再需要的段文件被删除
+     * */
+    public synchronized void truncate(long size) {
+        FileChannel[] channels = segmentChannels;
+        int keepSegmentNum = size == 0 ? 1 : segmentNo(size - 1) + 1;
+        try {
+            if (keepSegmentNum <= channels.length) {
+                int lastSegmentNo = keepSegmentNum - 1;
+                channels[lastSegmentNo].truncate(size - lastSegmentNo * segmentSize);
+            }
+            for (int segmentNo = channels.length - 1; segmentNo >= keepSegmentNum; segmentNo--) {
+                channels[segmentNo].close();
+                dirtySegmentSet.remove(segmentNo);
+                if (!segmentFile(segmentNo).delete()) {
+                    throw new DBException("delete segment file error file=" + segmentFile(segmentNo));
+                }
+            }
+        } catch (IOException e) {
+            throw new DBException("truncate file error file=" + file, e);
+        }
+        if (keepSegmentNum < channels.length) {
+            segmentChannels = Arrays.copyOf(channels, keepSegmentNum);
+        }
+        // 截断后之前的映射可能超出文件末尾
+        mappedChunks = new MappedByteBuffer[0];
+    }
+
+    /**
+     * 将写入的数据刷到磁盘，只刷新上次刷盘之后写入过的段
+     * @param metaData 是否同时刷新文件元数据(例如文件长度)
+     * */
+    public void force(boolean metaData) {
+        synchronized (forceLock) {
+            FileChannel[] channels = segmentChannels;
+            for (int segmentNo = 0; segmentNo < channels.length; segmentNo++) {
+                // 先清除标记再刷盘，刷盘期间的写入会重新标记，留给下一次刷盘
+                if (!dirtySegmentSet.remove(segmentNo)) {
+                    continue;
+                }
+                try {
+                    channels[segmentNo].force(metaData);
+                } catch (IOException e) {
+                    dirtySegmentSet.add(segmentNo);
+                    throw new DBException("force file error file=" + segmentFile(segmentNo), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 刷盘数据和文件元数据
+     * */
+    @Override
+    public void force() {
+        force(true);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 每个段的字节数，不分段时为NO_SEGMENT
+     * */
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getSegmentNum() {
+        return segmentChannels.length;
+    }
+
+    public boolean isMmapRead() {
+        return mmapRead;
+    }
+
+    public synchronized void setMmapRead(boolean mmapRead) {
+        this.mmapRead = mmapRead;
+        if (!mmapRead) {
+            // 映射区在被GC回收时才会真正解除映射
+            mappedChunks = new MappedByteBuffer[0];
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            mmapRead = false;
+            mappedChunks = new MappedByteBuffer[0];
+        }
+        FileChannel[] channels = segmentChannels;
+        for (int segmentNo = 0; segmentNo < channels.length; segmentNo++) {
+            try {
+                channels[segmentNo].close();
+            } catch (IOException e) {
+                throw new DBException("close file channel error file=" + segmentFile(segmentNo), e);
+            }
+        }
+    }
+
+    /**
+     * 从映射区读取数据
+     * @return false 数据跨越了映射块或者超出了文件末尾，需要退化为pread
+     * */
+    private boolean readMapped(long position, byte[] dst, int length) {
+        int chunkNo = (int) (position / mmapChunkSize);
+        int offsetInChunk = (int) (position % mmapChunkSize);
+        if (offsetInChunk + length > mmapChunkSize) {
+            // 老版本的B+树文件页面没有按页大小对齐，可能跨越两个块(或者两个段)
+            return false;
+        }
+
+        MappedByteBuffer[] chunks = mappedChunks;
+        MappedByteBuffer chunk = chunkNo < chunks.length ? chunks[chunkNo] : null;
+        if (chunk == null || chunk.capacity() < offsetInChunk + length) {
+            chunk = remapChunk(chunkNo, offsetInChunk + length);
+            if (chunk == null) {
+                return false;
+            }
+        }
+
+        ByteBuffer view = chunk.duplicate();
+        view.position(offsetInChunk);
+        view.get(dst, 0, length);
+        return true;
+    }
+
+    /**
+     * 文件增长后重新映射块(只映射文件已有的部分，只读映射不能超出文件末尾)
+     * @return null 文件长度不足
+     * */
+    private synchronized MappedByteBuffer remapChunk(int chunkNo, int requiredLength) {
+        MappedByteBuffer[] chunks = mappedChunks;
+        if (!mmapRead) {
+            return null;
+        }
+        if (chunkNo < chunks.length && chunks[chunkNo] != null && chunks[chunkNo].capacity() >= requiredLength) {
+            return chunks[chunkNo];
+        }
+
+        long chunkStart = chunkNo * mmapChunkSize;
+        int segmentNo = segmentNo(chunkStart);
+        if (segmentNo >= segmentChannels.length) {
+            return null;
+        }
+        FileChannel channel = segmentChannels[segmentNo];
+        long chunkOffset = offsetInSegment(chunkStart);
+        long mapLength = Math.min(mmapChunkSize, channelSize(channel, segmentFile(segmentNo)) - chunkOffset);
+        if (mapLength < requiredLength) {
+            return null;
+        }
+        MappedByteBuffer chunk;
+        try {
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkOffset, mapLength);
+        } catch (IOException e) {
+            throw new DBException("mmap file error file=" + file + " chunkNo=" + chunkNo, e);
+        }
+
+        MappedByteBuffer[] newChunks = new MappedByteBuffer[Math.max(chunks.length, chunkNo + 1)];
+        System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+        newChunks[chunkNo] = chunk;
+        mappedChunks = newChunks;
+        return chunk;
+    }
+
+    private int segmentNo(long position) {
+        return (int) (position / segmentSize);
+    }
+
+    private long offsetInSegment(long position) {
+        return position % segmentSize;
+    }
+
+    /**
+     * 从position到所在段末尾的字节数
+     * */
+    private long segmentRemaining(long position) {
+        return segmentSize - offsetInSegment(position);
+    }
+
+    /**
+     * 获取要写入的段，段不存在时创建
+     * 新建段之前先把前面的段补齐到segmentSize(稀疏文件，不实际写入数据)，保证除最后一段外的长度都是segmentSize；
+     * 补齐的长度先刷盘再创建下一个段文件，新段文件创建后刷新目录，
+     * 崩溃后不会出现后一个段已经存在而前一个段长度不足segmentSize的情况(打开时会按错误的段长度寻址)
+     * */
+    private FileChannel segmentForWrite(int segmentNo) throws IOException {
+        FileChannel[] channels = segmentChannels;
+        if (segmentNo < channels.length) {
+            return channels[segmentNo];
+        }
+        synchronized (this) {
+            channels = segmentChannels;
+            if (segmentNo < channels.length) {
+                return channels[segmentNo];
+            }
+            FileChannel[] newChannels = Arrays.copyOf(channels, segmentNo + 1);
+            for (int newSegmentNo = channels.length - 1; newSegmentNo <= segmentNo; newSegmentNo++) {
+                if (newSegmentNo >= channels.length) {
+                    newChannels[newSegmentNo] = openChannel(segmentFile(newSegmentNo));
+                    syncDirectory(file);
+                }
+                if (newSegmentNo < segmentNo && newChannels[newSegmentNo].size() < segmentSize) {
+                    newChannels[newSegmentNo].write(ByteBuffer.allocate(1), segmentSize - 1);
+                    // 和force一样先清除标记再刷盘，刷盘失败时恢复标记
+                    dirtySegmentSet.remove(newSegmentNo);
+                    try {
+                        newChannels[newSegmentNo].force(true);
+                    } catch (IOException e) {
+                        dirtySegmentSet.add(newSegmentNo);
+                        throw e;
+                    }
+                }
+            }
+            segmentChannels = newChannels;
+            return newChannels[segmentNo];
+        }
+    }
+
+    private static FileChannel openChannel(File file) {
+        try {
+            return FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new DBException("open file channel error file=" + file, e);
+        }
+    }
+
+    /**
+     * 刷新file所在的目录，使新建的段文件在崩溃后仍然存在
+     * 不支持打开目录的平台(例如Windows)直接跳过
+     * */
+    private static void syncDirectory(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        FileChannel dirChannel;
+        try {
+            dirChannel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (FileChannel channel = dirChannel) {
+            channel.force(true);
+        } catch (IOException e) {
+            throw new DBException("force directory error dir=" + dir, e);
+        }
+    }
+
+    private static long channelSize(FileChannel channel, File file) {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new DBException("get file size error file=" + file, e);
+        }
+    }
+
+    /**
+     * 当前线程复用的缓冲区，容量不足时按照2的幂次扩容
+     * */
+    private static ByteBuffer ioBuffer(int length) {
+        ByteBuffer buffer = IO_BUFFER.get();
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(Math.max(length - 1, 1)) << 1);
+            IO_BUFFER.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+}
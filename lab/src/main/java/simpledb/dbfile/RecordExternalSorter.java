@@ -0,0 +1,229 @@
+package simpledb.dbfile;
+
+import simpledb.dbrecord.Record;
+import simpledb.exception.DBException;
+import simpledb.iterator.enums.OperatorEnum;
+import simpledb.matadata.fields.Field;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 按照指定字段对记录进行外部排序
+ * 内存中最多缓存maxRecordNumInMemory条记录，超出后排好序溢出到临时文件(一个有序段)，
+ * 最后对所有的有序段和内存中剩余的记录进行多路归并
+ */
+class RecordExternalSorter implements Closeable {
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final TableDesc tableDesc;
+    private final Comparator<Record> comparator;
+    private final int maxRecordNumInMemory;
+
+    private final List<Record> recordBuffer = new ArrayList<>();
+    private final List<File> runFileList = new ArrayList<>();
+    private final List<Long> runRecordNumList = new ArrayList<>();
+    private final List<DataInputStream> openedInputList = new ArrayList<>();
+    private long recordNum;
+
+    RecordExternalSorter(TableDesc tableDesc, int keyFieldIndex, int maxRecordNumInMemory) {
+        this.tableDesc = tableDesc;
+        this.comparator = (r1, r2) -> compareField(r1.getField(keyFieldIndex), r2.getField(keyFieldIndex));
+        this.maxRecordNumInMemory = Math.max(1, maxRecordNumInMemory);
+    }
+
+    void add(Record record) {
+        recordBuffer.add(record);
+        recordNum++;
+        if (recordBuffer.size() >= maxRecordNumInMemory) {
+            spill();
+        }
+    }
+
+    long getRecordNum() {
+        return recordNum;
+    }
+
+    int getRunNum() {
+        return runFileList.size();
+    }
+
+    /**
+     * 所有记录按照排序字段从小到大的迭代器
+     * */
+    Iterator<Record> sortedIterator() {
+        recordBuffer.sort(comparator);
+        if (runFileList.isEmpty()) {
+            return recordBuffer.iterator();
+        }
+
+        List<Iterator<Record>> sourceList = new ArrayList<>();
+        for (int i = 0; i < runFileList.size(); i++) {
+            sourceList.add(new RunFileIterator(openRun(runFileList.get(i)), runRecordNumList.get(i)));
+        }
+        sourceList.add(recordBuffer.iterator());
+        return new MergeIterator(sourceList);
+    }
+
+    @Override
+    public void close() {
+        for (DataInputStream dis : openedInputList) {
+            try {
+                dis.close();
+            } catch (IOException e) {
+                // 临时文件，关闭失败不影响结果
+            }
+        }
+        openedInputList.clear();
+        for (File runFile : runFileList) {
+            runFile.delete();
+        }
+        runFileList.clear();
+        runRecordNumList.clear();
+        recordBuffer.clear();
+    }
+
+    /**
+     * 将内存中的记录排序后写入一个临时文件
+     * */
+    private void spill() {
+        recordBuffer.sort(comparator);
+        File runFile;
+        try {
+            runFile = File.createTempFile("simpledb-sort-" + tableDesc.getTableId(), ".run");
+        } catch (IOException e) {
+            throw new DBException("create sort run file error", e);
+        }
+        runFile.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(runFile), IO_BUFFER_SIZE))) {
+            for (Record record : recordBuffer) {
+                for (Field field : record.getFieldList()) {
+                    field.serialize(dos);
+                }
+            }
+        } catch (IOException e) {
+            throw new DBException("write sort run file error file=" + runFile, e);
+        }
+        runFileList.add(runFile);
+        runRecordNumList.add((long) recordBuffer.size());
+        recordBuffer.clear();
+    }
+
+    private DataInputStream openRun(File runFile) {
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), IO_BUFFER_SIZE));
+            openedInputList.add(dis);
+            return dis;
+        } catch (IOException e) {
+            throw new DBException("open sort run file error file=" + runFile, e);
+        }
+    }
+
+    private static int compareField(Field f1, Field f2) {
+        if (f1.compare(OperatorEnum.LESS_THAN, f2)) {
+            return -1;
+        }
+        if (f1.compare(OperatorEnum.EQUALS, f2)) {
+            return 0;
+        }
+        return 1;
+    }
+
+    /**
+     * 顺序读取一个有序段
+     * */
+    private class RunFileIterator implements Iterator<Record> {
+        private final DataInputStream dis;
+        private long remainNum;
+
+        RunFileIterator(DataInputStream dis, long recordNum) {
+            this.dis = dis;
+            this.remainNum = recordNum;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remainNum > 0;
+        }
+
+        @Override
+        public Record next() {
+            if (remainNum <= 0) {
+                throw new NoSuchElementException("no more record");
+            }
+            remainNum--;
+            List<Field> fieldList = new ArrayList<>(tableDesc.getColumnNum());
+            for (ColumnTypeEnum columnTypeEnum : tableDesc.getColumnTypeEnumList()) {
+                fieldList.add(columnTypeEnum.parse(dis));
+            }
+            Record record = new Record(tableDesc);
+            record.setFieldList(fieldList);
+            return record;
+        }
+    }
+
+    /**
+     * 多路归并，每次从各个有序来源的当前头部中取出最小的一条
+     * */
+    private class MergeIterator implements Iterator<Record> {
+        private final List<Iterator<Record>> sourceList;
+        private final PriorityQueue<MergeHead> headQueue;
+
+        MergeIterator(List<Iterator<Record>> sourceList) {
+            this.sourceList = sourceList;
+            this.headQueue = new PriorityQueue<>(sourceList.size(), (h1, h2) -> comparator.compare(h1.record, h2.record));
+            for (int i = 0; i < sourceList.size(); i++) {
+                advance(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !headQueue.isEmpty();
+        }
+
+        @Override
+        public Record next() {
+            MergeHead head = headQueue.poll();
+            if (head == null) {
+                throw new NoSuchElementException("no more record");
+            }
+            advance(head.sourceIndex);
+            return head.record;
+        }
+
+        private void advance(int sourceIndex) {
+            Iterator<Record> source = sourceList.get(sourceIndex);
+            if (source.hasNext()) {
+                headQueue.add(new MergeHead(source.next(), sourceIndex));
+            }
+        }
+    }
+
+    private static class MergeHead {
+        private final Record record;
+        private final int sourceIndex;
+
+        MergeHead(Record record, int sourceIndex) {
+            this.record = record;
+            this.sourceIndex = sourceIndex;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package simpledb.dbfile;
+
+import simpledb.dbpage.SlotFormatEnum;
+import simpledb.dbpage.btree.BTreeHeaderPage;
+import simpledb.dbpage.btree.BTreeInternalPage;
+import simpledb.dbpage.btree.BTreeLeafPage;
+import simpledb.dbpage.btree.BTreePageCategoryEnum;
+import simpledb.dbpage.btree.BTreePageId;
+import simpledb.dbpage.btree.BTreeRootPtrPage;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.exception.DBException;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将插槽位图每个插槽占用1字节的老版本文件(版本1、2)升级为按位存储的当前版本
+ *
+ * 升级在打开文件时进行：所有页转换格式后写入临时文件(<file>.migrate，分段与原文件一致)，
+ * 刷盘后再写入临时文件的文件头并再次刷盘，文件头有效即表示临时文件已经完整
+ * 之后从最后一段开始逐段替换原文件，包含文件头的第0段最后替换，在此之前原文件的文件头仍然是老版本
+ * 打开文件时如果存在残留的临时文件：临时文件完整则继续完成替换，否则原文件没有被修改过，直接删除临时文件
+ * 记录所在的插槽下标不变，因此页内的记录id、B+树的页号和指针都不需要修改
+ *
+ * 没有文件头的老版本文件页大小固定，仍然按照每个插槽1字节的格式读写，不进行升级
+ */
+class SlotFormatMigrator {
+
+    static final String TEMP_FILE_SUFFIX = ".migrate";
+
+    private SlotFormatMigrator() {
+    }
+
+    /**
+     * 文件是否需要升级插槽位图的格式
+     * */
+    static boolean needMigrate(DBFileHeader fileHeader) {
+        return !fileHeader.isLegacy() && fileHeader.getSlotFormat() != SlotFormatEnum.BIT_PACKED;
+    }
+
+    /**
+     * 处理上一次升级中断时残留的临时文件，需要在读取文件头之前调用
+     * @return 是否完成了一次中断的升级(文件已经是当前版本，依赖插槽数的数据需要重建)
+     * */
+    static boolean recover(File file) {
+        File tempFile = tempFile(file);
+        if (!tempFile.exists()) {
+            return false;
+        }
+        if (!isTempFileComplete(tempFile)) {
+            // 临时文件还没有写完，原文件没有被修改过
+            deleteSegments(tempFile, 0);
+            return false;
+        }
+        try {
+            replaceFile(file, tempFile);
+        } catch (IOException e) {
+            throw new DBException("recover slot format migration error file=" + file, e);
+        }
+        return true;
+    }
+
+    /**
+     * 升级堆文件，返回升级后的文件头
+     * */
+    static DBFileHeader migrateHeapFile(File file, DBFileHeader fileHeader, TableDesc tableDesc, long segmentSize) {
+        SlotFormatEnum oldSlotFormat = fileHeader.getSlotFormat();
+        int pageSize = fileHeader.getPageSize();
+        File tempFile = tempFile(file);
+        try {
+            try (PageFileChannel oldChannel = new PageFileChannel(file, segmentSize);
+                 PageFileChannel newChannel = openTempChannel(tempFile, oldChannel.getSegmentSize())) {
+                int pageNum = logicalPageNum(fileHeader, oldChannel);
+                byte[] pageData = new byte[pageSize];
+                for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+                    long offset = (long) (pgNo + 1) * pageSize;
+                    oldChannel.readFully(offset, pageData, pageSize);
+                    DBHeapPage oldPage = new DBHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), pgNo), pageData, oldSlotFormat);
+                    newChannel.write(offset, oldPage.convertSlotFormat(SlotFormatEnum.BIT_PACKED).serialize());
+                }
+                completeTempFile(newChannel, new DBFileHeader(DBFileHeader.CURRENT_VERSION, pageSize, pageNum).serialize());
+            }
+            replaceFile(file, tempFile);
+        } catch (IOException e) {
+            throw new DBException("migrate heap file slot format error file=" + file, e);
+        }
+        return DBFileHeader.readOrCreate(file, pageSize);
+    }
+
+    /**
+     * 升级B+树文件，返回升级后的文件头
+     *
+     * 从根节点开始遍历所有可达的内部页(叶子页的类型由父节点中的页id得到，不需要读取)，只记录每一页的类型；
+     * 之后按照页号顺序逐页读取、转换并写入临时文件，内存中不保留页数据
+     * header页按照新的容量重新记录空页(header页的数量只会减少，多出来的header页仍然保留在链表中)，其余不可达的页写为空页
+     * */
+    static DBFileHeader migrateBTreeFile(File file, DBFileHeader fileHeader, TableDesc tableDesc,
+                                         int keyFieldIndex, long segmentSize) {
+        SlotFormatEnum oldSlotFormat = fileHeader.getSlotFormat();
+        int pageSize = fileHeader.getPageSize();
+        String tableId = tableDesc.getTableId();
+        File tempFile = tempFile(file);
+        try {
+            try (PageFileChannel oldChannel = new PageFileChannel(file, segmentSize);
+                 PageFileChannel newChannel = openTempChannel(tempFile, oldChannel.getSegmentSize())) {
+                int pageNum = logicalPageNum(fileHeader, oldChannel);
+                byte[] rootPtrData = new byte[BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE];
+                oldChannel.readFully(DBFileHeader.HEADER_FIELD_SIZE, rootPtrData, rootPtrData.length);
+                BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableId), rootPtrData);
+
+                // 下标为页号，值为页的类型；根指针页不在页号范围内，因此0(ROOT_PTR)表示不可达的页
+                byte[] pageCategories = new byte[pageNum + 1];
+
+                Deque<BTreePageId> pageIdQueue = new ArrayDeque<>();
+                if (rootPtr.getRootId() != null) {
+                    pageIdQueue.add(rootPtr.getRootId());
+                }
+                while (!pageIdQueue.isEmpty()) {
+                    BTreePageId pageId = pageIdQueue.poll();
+                    pageCategories[pageId.getPageNo()] = (byte) pageId.getPageCategory();
+                    if (pageId.getPageCategory() == BTreePageCategoryEnum.INTERNAL.getValue()) {
+                        BTreeInternalPage oldPage = new BTreeInternalPage(tableDesc, pageId,
+                                readPage(oldChannel, pageId.getPageNo(), pageSize), keyFieldIndex, oldSlotFormat);
+                        pageIdQueue.addAll(oldPage.getChildIdList());
+                    }
+                }
+
+                // 读取老的header页链表
+                List<BTreeHeaderPage> oldHeaderPageList = new ArrayList<>();
+                BTreePageId headerId = rootPtr.getHeaderId();
+                while (headerId != null) {
+                    BTreeHeaderPage headerPage = new BTreeHeaderPage(headerId, readPage(oldChannel, headerId.getPageNo(), pageSize), oldSlotFormat);
+                    oldHeaderPageList.add(headerPage);
+                    headerId = headerPage.getNextPageId();
+                }
+                int oldHeaderSize = BTreeHeaderPage.getHeaderSize(pageSize, oldSlotFormat);
+                int newHeaderSize = BTreeHeaderPage.getHeaderSize(pageSize, SlotFormatEnum.BIT_PACKED);
+                List<BTreeHeaderPage> newHeaderPageList = new ArrayList<>();
+                for (BTreeHeaderPage oldHeaderPage : oldHeaderPageList) {
+                    BTreeHeaderPage newHeaderPage = new BTreeHeaderPage(oldHeaderPage.getPageId(), new byte[pageSize], SlotFormatEnum.BIT_PACKED);
+                    newHeaderPage.init();
+                    newHeaderPage.setPrevPageId(oldHeaderPage.getPrevPageId());
+                    newHeaderPage.setNextPageId(oldHeaderPage.getNextPageId());
+                    newHeaderPageList.add(newHeaderPage);
+                }
+                for (int headerIndex = 0; headerIndex < oldHeaderPageList.size(); headerIndex++) {
+                    BTreeHeaderPage oldHeaderPage = oldHeaderPageList.get(headerIndex);
+                    for (int slot = 0; slot < oldHeaderSize; slot++) {
+                        if (!oldHeaderPage.isSlotUsed(slot)) {
+                            int emptyPageNo = headerIndex * oldHeaderSize + slot;
+                            newHeaderPageList.get(emptyPageNo / newHeaderSize).markSlotNotUsed(emptyPageNo % newHeaderSize);
+                        }
+                    }
+                }
+                // header页的数量为总页数除以每个header页记录的页数，数量很少
+                Map<Integer, BTreeHeaderPage> newHeaderPageMap = new HashMap<>();
+                for (BTreeHeaderPage newHeaderPage : newHeaderPageList) {
+                    newHeaderPageMap.put(newHeaderPage.getPageId().getPageNo(), newHeaderPage);
+                }
+
+                byte[] emptyPageData = new byte[pageSize];
+                // B+树的页号从1开始
+                for (int pgNo = 1; pgNo <= pageNum; pgNo++) {
+                    byte[] newPageData;
+                    if (newHeaderPageMap.containsKey(pgNo)) {
+                        newPageData = newHeaderPageMap.get(pgNo).serialize();
+                    } else if (pageCategories[pgNo] == BTreePageCategoryEnum.INTERNAL.getValue()) {
+                        BTreePageId pageId = new BTreePageId(tableId, pgNo, BTreePageCategoryEnum.INTERNAL.getValue());
+                        newPageData = new BTreeInternalPage(tableDesc, pageId, readPage(oldChannel, pgNo, pageSize), keyFieldIndex, oldSlotFormat)
+                                .convertSlotFormat(SlotFormatEnum.BIT_PACKED).serialize();
+                    } else if (pageCategories[pgNo] == BTreePageCategoryEnum.LEAF.getValue()) {
+                        BTreePageId pageId = new BTreePageId(tableId, pgNo, BTreePageCategoryEnum.LEAF.getValue());
+                        newPageData = new BTreeLeafPage(tableDesc, pageId, readPage(oldChannel, pgNo, pageSize), keyFieldIndex, oldSlotFormat)
+                                .convertSlotFormat(SlotFormatEnum.BIT_PACKED).serialize();
+                    } else {
+                        newPageData = emptyPageData;
+                    }
+                    newChannel.write((long) pgNo * pageSize, newPageData);
+                }
+
+                // 根指针页存放在文件头的预留空间中，和文件头一起写入
+                byte[] headerData = new DBFileHeader(DBFileHeader.CURRENT_VERSION, pageSize, pageNum).serialize();
+                System.arraycopy(rootPtrData, 0, headerData, DBFileHeader.HEADER_FIELD_SIZE, rootPtrData.length);
+                completeTempFile(newChannel, headerData);
+            }
+            replaceFile(file, tempFile);
+        } catch (IOException e) {
+            throw new DBException("migrate BTree file slot format error file=" + file, e);
+        }
+        return DBFileHeader.readOrCreate(file, pageSize);
+    }
+
+    /**
+     * 版本1的文件头没有记录逻辑页数，以物理长度为准
+     * */
+    private static int logicalPageNum(DBFileHeader fileHeader, PageFileChannel channel) {
+        if (fileHeader.getPageNum() != DBFileHeader.UNKNOWN_PAGE_NUM) {
+            return (int) fileHeader.getPageNum();
+        }
+        int pageSize = fileHeader.getPageSize();
+        return (int) (Math.max(channel.size() - pageSize, 0) / pageSize);
+    }
+
+    private static byte[] readPage(PageFileChannel channel, int pgNo, int pageSize) {
+        byte[] pageData = new byte[pageSize];
+        channel.readFully((long) pgNo * pageSize, pageData, pageSize);
+        return pageData;
+    }
+
+    private static File tempFile(File file) {
+        return new File(file.getPath() + TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * 打开一个空的临时文件(删除上一次升级中断时残留的)
+     * */
+    private static PageFileChannel openTempChannel(File tempFile, long segmentSize) {
+        deleteSegments(tempFile, 0);
+        return new PageFileChannel(tempFile, segmentSize);
+    }
+
+    /**
+     * 所有页写入并刷盘之后再写入文件头，文件头有效即表示临时文件已经完整
+     * */
+    private static void completeTempFile(PageFileChannel newChannel, byte[] headerData) {
+        newChannel.force(true);
+        newChannel.write(0, headerData);
+        newChannel.force(true);
+    }
+
+    /**
+     * 临时文件是否已经完整(文件头是当前版本)
+     * */
+    private static boolean isTempFileComplete(File tempFile) {
+        return tempFile.length() >= DBFileHeader.HEADER_FIELD_SIZE
+                && DBFileHeader.readOrCreate(tempFile, DBFileHeader.LEGACY_PAGE_SIZE).getVersion() == DBFileHeader.CURRENT_VERSION;
+    }
+
+    /**
+     * 用完整的临时文件替换原文件，中断后可以重复执行
+     *
+     * 从最后一段开始依次替换原文件对应的段(上一次中断前已经替换过的段不再存在)，然后删除原文件中多出来的段，
+     * 最后替换包含文件头的第0段，在此之前原文件的文件头仍然是老版本，临时文件的第0段也一直存在
+     * */
+    private static void replaceFile(File file, File tempFile) throws IOException {
+        DBFileHeader newHeader = DBFileHeader.readOrCreate(tempFile, DBFileHeader.LEGACY_PAGE_SIZE);
+        // 临时文件按页号顺序写满，总长度由逻辑页数决定；分段时第0段的长度就是段的大小
+        long newFileSize = (newHeader.getPageNum() + 1) * newHeader.getPageSize();
+        int newSegmentNum = (int) ((newFileSize - 1) / tempFile.length() + 1);
+        for (int segmentNo = newSegmentNum - 1; segmentNo > 0; segmentNo--) {
+            File tempSegmentFile = segmentFile(tempFile, segmentNo);
+            if (tempSegmentFile.exists()) {
+                moveFile(tempSegmentFile, segmentFile(file, segmentNo));
+            }
+        }
+        deleteSegments(file, newSegmentNum);
+        moveFile(tempFile, file);
+    }
+
+    private static void moveFile(File source, File target) throws IOException {
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 删除从fromSegmentNo开始的所有段，从最后一段开始删除，中断后不会留下不连续的段
+     * */
+    private static void deleteSegments(File file, int fromSegmentNo) {
+        int segmentNum = fromSegmentNo;
+        while (segmentFile(file, segmentNum).exists()) {
+            segmentNum++;
+        }
+        for (int segmentNo = segmentNum - 1; segmentNo >= fromSegmentNo; segmentNo--) {
+            if (!segmentFile(file, segmentNo).delete()) {
+                throw new DBException("delete file error file=" + segmentFile(file, segmentNo));
+            }
+        }
+    }
+
+    private static File segmentFile(File file, int segmentNo) {
+        return segmentNo == 0 ? file : new File(file.getPath() + "." + segmentNo);
+    }
+}
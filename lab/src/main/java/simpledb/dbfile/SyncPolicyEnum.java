@@ -0,0 +1,34 @@
+package simpledb.dbfile;
+
+/**
+ * 数据文件写入后的刷盘策略
+ */
+public enum SyncPolicyEnum {
+
+    /**
+     * 每次写入返回之前都保证数据已经刷到磁盘(并发的写入共享同一次刷盘)
+     * */
+    ALWAYS("每次写入都刷盘"),
+
+    /**
+     * 写入后不立即刷盘，每隔syncIntervalMillis毫秒或者累计写入syncPageNum页之后统一刷盘一次
+     * 宕机时可能丢失最近一个刷盘周期内写入的页
+     * */
+    GROUP("成组刷盘"),
+
+    /**
+     * 不主动刷盘，由操作系统决定何时将页缓存写回磁盘，只在关闭文件或者重置数据库时刷盘
+     * */
+    OS("由操作系统刷盘"),
+    ;
+
+    SyncPolicyEnum(String message) {
+        this.message = message;
+    }
+
+    private final String message;
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,12 @@
+package simpledb.dbfile;
+
+/**
+ * 由SyncWriter统一刷盘的对象：一个数据文件，或者必须按照固定顺序刷盘的一组文件
+ */
+public interface SyncTarget {
+
+    /**
+     * 将已经写入的数据刷到磁盘
+     * */
+    void force();
+}
@@ -0,0 +1,226 @@
+package simpledb.dbfile;
+
+import simpledb.exception.DBException;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 数据库中所有数据文件共享的写入器，按照刷盘策略合并force调用
+ * 写入之后只把文件登记为待刷盘，由刷盘者一次性force所有待刷盘的文件：
+ * ALWAYS策略下多个线程并发写入时，排队等待的线程发现自己的写入已经被前一次刷盘覆盖就直接返回(组提交)；
+ * GROUP策略由后台线程定时刷盘，累计写入的页数达到阈值时由写入线程提前刷盘
+ * 待刷盘的文件之间没有刷盘顺序，文件之间有顺序要求时(例如压缩页的映射必须在镜像之后落盘)作为一个SyncTarget整体登记
+ *
+ * 后台刷盘失败时文件留在待刷盘集合中重试，但一次force失败后内核可能已经丢弃了对应的脏数据，重试成功也不能保证之前的写入已经落盘，
+ * 因此失败会被记录下来，在下一次sync()/stop()时抛给调用方
+ */
+public class SyncWriter {
+
+    private final SyncPolicyEnum syncPolicyEnum;
+
+    /**
+     * GROUP策略下两次刷盘之间的最大间隔(毫秒)
+     * */
+    private final long syncIntervalMillis;
+
+    /**
+     * GROUP策略下累计写入多少页之后立即刷盘
+     * */
+    private final int syncPageNum;
+
+    /**
+     * 上次刷盘之后写入过数据的文件
+     * */
+    private final Set<SyncTarget> pendingChannelSet = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingPageNum = new AtomicInteger();
+
+    /**
+     * 写入序号，每次写入登记待刷盘之后加1
+     * */
+    private final AtomicLong writeSeq = new AtomicLong();
+
+    /**
+     * 已经刷盘的写入序号，序号不超过它的写入都已经落盘
+     * */
+    private long syncedSeq;
+    private final Object syncLock = new Object();
+
+    private final AtomicLong syncNum = new AtomicLong();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * 后台线程刷盘失败还没有抛给调用方的异常
+     * */
+    private final AtomicReference<RuntimeException> backgroundFailure = new AtomicReference<>();
+    private final AtomicLong backgroundFailureNum = new AtomicLong();
+
+    public SyncWriter(SyncPolicyEnum syncPolicyEnum, long syncIntervalMillis, int syncPageNum) {
+        if (syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must be positive syncIntervalMillis=" + syncIntervalMillis);
+        }
+        this.syncPolicyEnum = syncPolicyEnum;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.syncPageNum = syncPageNum;
+    }
+
+    /**
+     * 写入一页(或者一段连续的数据)
+     * */
+    public void write(PageFileChannel fileChannel, long position, byte[] data) {
+        fileChannel.write(position, data);
+        afterWrite(fileChannel, 1);
+    }
+
+    /**
+     * 批量写入多页
+     * */
+    public void writeBatch(PageFileChannel fileChannel, TreeMap<Long, byte[]> positionDataMap) {
+        fileChannel.writeBatch(positionDataMap);
+        afterWrite(fileChannel, positionDataMap.size());
+    }
+
+    /**
+     * 调用方自己写入了数据之后，按照刷盘策略登记或者刷盘
+     * */
+    public void afterWrite(SyncTarget syncTarget, int pageNum) {
+        if (syncPolicyEnum == SyncPolicyEnum.OS) {
+            pendingChannelSet.add(syncTarget);
+            return;
+        }
+
+        // 先登记文件再递增序号：刷盘者读取到的序号覆盖的写入，其文件一定已经在待刷盘集合中
+        pendingChannelSet.add(syncTarget);
+        long seq = writeSeq.incrementAndGet();
+        if (syncPolicyEnum == SyncPolicyEnum.ALWAYS) {
+            syncUpTo(seq);
+        } else if (syncPageNum > 0 && pendingPageNum.addAndGet(pageNum) >= syncPageNum) {
+            sync();
+        }
+    }
+
+    /**
+     * 将所有待刷盘的文件刷盘，之前后台线程刷盘失败过时抛出异常
+     * */
+    public void sync() {
+        syncUpTo(writeSeq.get());
+        throwBackgroundFailure();
+    }
+
+    /**
+     * 单独刷盘一个文件并将其移出待刷盘集合，关闭文件之前调用
+     * */
+    public void sync(SyncTarget syncTarget) {
+        synchronized (syncLock) {
+            if (pendingChannelSet.remove(syncTarget)) {
+                syncTarget.force();
+                syncNum.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (syncPolicyEnum != SyncPolicyEnum.GROUP || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sync-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::syncOnce, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台线程，并将所有待刷盘的文件刷盘，之前后台线程刷盘失败过时抛出异常
+     * */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(syncIntervalMillis * 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        syncUpTo(Long.MAX_VALUE);
+        throwBackgroundFailure();
+    }
+
+    public SyncPolicyEnum getSyncPolicyEnum() {
+        return syncPolicyEnum;
+    }
+
+    /**
+     * 实际发起的force次数
+     * */
+    public long getSyncNum() {
+        return syncNum.get();
+    }
+
+    public int getPendingChannelNum() {
+        return pendingChannelSet.size();
+    }
+
+    /**
+     * 后台线程刷盘失败的次数
+     * */
+    public long getBackgroundFailureNum() {
+        return backgroundFailureNum.get();
+    }
+
+    /**
+     * 后台线程刷盘失败过时抛出异常(只抛出一次)
+     * */
+    private void throwBackgroundFailure() {
+        RuntimeException failure = backgroundFailure.getAndSet(null);
+        if (failure != null) {
+            throw new DBException("background sync failed, writes before it may be lost", failure);
+        }
+    }
+
+    private void syncUpTo(long seq) {
+        synchronized (syncLock) {
+            if (syncedSeq >= seq && seq != Long.MAX_VALUE) {
+                // 排队期间前一个刷盘者已经覆盖了这次写入
+                return;
+            }
+            long targetSeq = writeSeq.get();
+            pendingPageNum.set(0);
+            Iterator<SyncTarget> iterator = pendingChannelSet.iterator();
+            while (iterator.hasNext()) {
+                SyncTarget syncTarget = iterator.next();
+                // 先移出再刷盘，刷盘期间的写入会重新登记
+                iterator.remove();
+                try {
+                    syncTarget.force();
+                } catch (RuntimeException e) {
+                    pendingChannelSet.add(syncTarget);
+                    throw e;
+                }
+                syncNum.incrementAndGet();
+            }
+            syncedSeq = Math.max(syncedSeq, targetSeq);
+        }
+    }
+
+    private void syncOnce() {
+        try {
+            syncUpTo(writeSeq.get());
+        } catch (RuntimeException e) {
+            // 后台线程不能因为一次刷盘失败而退出，失败的文件保留在待刷盘集合中下一轮重试，异常留给下一次sync()/stop()抛出
+            backgroundFailure.set(e);
+            backgroundFailureNum.incrementAndGet();
+        }
+    }
+}
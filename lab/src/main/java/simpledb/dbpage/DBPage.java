@@ -1,6 +1,7 @@
 package simpledb.dbpage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 /**
@@ -10,6 +11,13 @@ import java.util.Iterator;
 public interface DBPage {
 
     byte[] serialize() throws IOException;
+
+    /**
+     * 以绝对位置将页面写入buffer中从0开始的位置(例如缓冲池的页帧)，不经过中间的流和字节数组，也不改变buffer的position
+     * @return 写入的字节数
+     * */
+    int serialize(ByteBuffer buffer);
+
     int getNotEmptySlotsNum();
     int getMaxSlotNum();
     PageId getPageId();
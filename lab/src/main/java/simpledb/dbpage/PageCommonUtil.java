@@ -4,9 +4,8 @@ import simpledb.Database;
 import simpledb.dbpage.btree.BTreePage;
 import simpledb.exception.DBException;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * @author xiongyx
@@ -14,11 +13,10 @@ import java.util.List;
  */
 public class PageCommonUtil {
 
-    public static int getFirstEmptySlotIndex(boolean[] bitMapHeaderArray,boolean mustExist){
-        for(int i=0; i<bitMapHeaderArray.length; i++){
-            if(!bitMapHeaderArray[i]){
-                return i;
-            }
+    public static int getFirstEmptySlotIndex(SlotBitMap slotBitMap,boolean mustExist){
+        int emptySlotIndex = slotBitMap.firstClear();
+        if(emptySlotIndex >= 0){
+            return emptySlotIndex;
         }
 
         if(mustExist){
@@ -28,18 +26,57 @@ public class PageCommonUtil {
         }
     }
 
-    public static int getNotEmptySlotsNum(boolean[] bitMapHeaderArray){
-        int notEmptySlotNum = 0;
-        for (boolean b : bitMapHeaderArray) {
-            if (b) {
-                notEmptySlotNum += 1;
-            }
-        }
-        return notEmptySlotNum;
+    public static int getNotEmptySlotsNum(SlotBitMap slotBitMap){
+        return slotBitMap.cardinality();
     }
 
     public static byte[] createEmptyPageData() {
-        return new byte[Database.getBufferPool().getPageSize()]; //all 0
+        return createEmptyPageData(Database.getBufferPool().getPageSize());
+    }
+
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /**
+     * 将页面序列化到新的字节数组中(页面按照绝对位置直接写入数组，没有中间的流和拷贝)
+     * */
+    public static byte[] serializeToArray(DBPage page, int pageSize) {
+        byte[] data = new byte[pageSize];
+        page.serialize(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * 将src中的数据拷贝到buffer的index处(绝对位置)，不改变buffer的position
+     * */
+    public static void putBytes(ByteBuffer buffer, int index, byte[] src, int srcOffset, int length) {
+        if (buffer.hasArray()) {
+            System.arraycopy(src, srcOffset, buffer.array(), buffer.arrayOffset() + index, length);
+            return;
+        }
+        // jdk8没有按绝对位置批量写入的方法，临时移动position后再恢复
+        int position = buffer.position();
+        buffer.position(index);
+        buffer.put(src, srcOffset, length);
+        buffer.position(position);
+    }
+
+    /**
+     * 将buffer中[from, to)的区间填充为0(buffer可能是复用的页帧，不能假设原本就是0)
+     * */
+    public static void fillZero(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            Arrays.fill(buffer.array(), buffer.arrayOffset() + from, buffer.arrayOffset() + to, (byte) 0);
+            return;
+        }
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            buffer.putLong(i, 0L);
+        }
+        for (; i < to; i++) {
+            buffer.put(i, (byte) 0);
+        }
     }
 
     /**
@@ -49,82 +86,4 @@ public class PageCommonUtil {
         return bTreePage.getMaxSlotNum() - bTreePage.getMaxSlotNum()/2;
     }
 
-//    /**
-//     * 位图数组=>文件中的字节数组
-//     * */
-//    public static Byte[] bitMapToFileByteArray(Boolean[] bitMap){
-//        List<Byte> byteList = new ArrayList<>();
-//
-//        int byteSize = 8;
-//        List<Boolean> byteItem = new ArrayList<>(byteSize);
-//        for(int i=0; i<bitMap.length; i++){
-//            byteItem.add(bitMap[i]);
-//            if((i+1)%8 == 0){
-//                byteList.add(toFileByte(byteItem));
-//                byteItem.clear();
-//            }
-//        }
-//
-//        if(!byteItem.isEmpty()){
-//            byteList.add(toFileByte(byteItem));
-//        }
-//
-//        return byteList.toArray(new Byte[0]);
-//    }
-//
-//    /**
-//     * 文件中的字节数组=>位图数组
-//     * */
-//    public static Boolean[] fileByteArrayToBitMap(Byte[] byteArray, int maxLength){
-//        if(maxLength == 0){
-//            return new Boolean[0];
-//        }
-//
-//        List<Boolean> bitMapList = new ArrayList<>();
-//
-//        for(byte byteItem : byteArray){
-//            bitMapList.addAll(Arrays.asList(getBooleanArray(byteItem)));
-//            if(bitMapList.size() >= maxLength){
-//                break;
-//            }
-//        }
-//
-//        return bitMapList.toArray(new Boolean[0]);
-//    }
-//
-//    /**
-//     * 将一个长度为8的boolean数组（每bit代表一个boolean值）转换为byte
-//     */
-//    public static byte toFileByte(List<Boolean> array) {
-//        if(array == null || array.isEmpty()){
-//            return 0;
-//        }
-//
-//        while (array.size() < 8){
-//            array.add(false);
-//        }
-//
-//        byte b = 0;
-//        for(int i=0;i<=7;i++) {
-//            if(array.get(i)){
-//                int nn=(1<<(7-i));
-//                b += nn;
-//            }
-//        }
-//        return b;
-//    }
-//
-//
-//    /**
-//     * 将byte转换为一个长度为8的boolean数组（每bit代表一个boolean值）
-//     */
-//    private static Boolean[] getBooleanArray(byte b) {
-//        Boolean[] array = new Boolean[8];
-//        for (int i = 7; i >= 0; i--) { //对于byte的每bit进行判定
-//            array[i] = (b & 1) == 1;   //判定byte的最后一位是否为1，若为1，则是true；否则是false
-//            b = (byte) (b >> 1);       //将byte右移一位
-//        }
-//        return array;
-//    }
-
 }
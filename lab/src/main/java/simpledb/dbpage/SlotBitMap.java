@@ -0,0 +1,166 @@
+package simpledb.dbpage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 页内插槽的使用位图，每个插槽占1位，以long[]存储
+ * 统计已使用的插槽数、查找第一个空插槽都按64位的字整体计算(Long.bitCount/numberOfTrailingZeros)，
+ * 不需要逐个插槽遍历
+ *
+ * 磁盘格式：插槽i对应第i/8个字节中的第i%8位(低位在前)
+ */
+public class SlotBitMap {
+
+    private static final int WORD_BITS = 64;
+
+    private final long[] words;
+    private final int slotNum;
+
+    public SlotBitMap(int slotNum) {
+        this.slotNum = slotNum;
+        this.words = new long[(slotNum + WORD_BITS - 1) / WORD_BITS];
+    }
+
+    /**
+     * 位图在磁盘中占用的字节数
+     * */
+    public static int byteLength(int slotNum) {
+        return (slotNum + 7) / 8;
+    }
+
+    public int size() {
+        return slotNum;
+    }
+
+    public boolean get(int slotIndex) {
+        return (words[slotIndex >>> 6] & (1L << slotIndex)) != 0;
+    }
+
+    public void set(int slotIndex, boolean used) {
+        if (used) {
+            set(slotIndex);
+        } else {
+            clear(slotIndex);
+        }
+    }
+
+    public void set(int slotIndex) {
+        checkIndex(slotIndex);
+        words[slotIndex >>> 6] |= 1L << slotIndex;
+    }
+
+    public void clear(int slotIndex) {
+        checkIndex(slotIndex);
+        words[slotIndex >>> 6] &= ~(1L << slotIndex);
+    }
+
+    /**
+     * 将所有插槽标记为已使用
+     * */
+    public void setAll() {
+        Arrays.fill(words, -1L);
+        clearTail();
+    }
+
+    /**
+     * 已使用的插槽数
+     * */
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * 第一个空插槽的下标
+     * @return -1 没有空插槽
+     * */
+    public int firstClear() {
+        for (int i = 0; i < words.length; i++) {
+            long freeBits = ~words[i];
+            if (freeBits != 0) {
+                int slotIndex = i * WORD_BITS + Long.numberOfTrailingZeros(freeBits);
+                return slotIndex < slotNum ? slotIndex : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 从fromIndex开始(包含)的第一个已使用插槽的下标
+     * @return -1 之后没有已使用的插槽
+     * */
+    public int nextSet(int fromIndex) {
+        if (fromIndex >= slotNum) {
+            return -1;
+        }
+        int wordIndex = fromIndex >>> 6;
+        long word = words[wordIndex] & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                return wordIndex * WORD_BITS + Long.numberOfTrailingZeros(word);
+            }
+            if (++wordIndex == words.length) {
+                return -1;
+            }
+            word = words[wordIndex];
+        }
+    }
+
+    /**
+     * 按位压缩的格式读取，每个字节8个插槽
+     * @param offset 位图在buffer中的起始位置(绝对位置，不改变buffer的position)
+     * */
+    public void readBits(ByteBuffer buffer, int offset) {
+        Arrays.fill(words, 0);
+        int byteLength = byteLength(slotNum);
+        for (int i = 0; i < byteLength; i++) {
+            words[i >>> 3] |= (long) (buffer.get(offset + i) & 0xFF) << ((i & 7) * 8);
+        }
+        clearTail();
+    }
+
+    public void writeBits(ByteBuffer buffer, int offset) {
+        int byteLength = byteLength(slotNum);
+        for (int i = 0; i < byteLength; i++) {
+            buffer.put(offset + i, (byte) (words[i >>> 3] >>> ((i & 7) * 8)));
+        }
+    }
+
+    /**
+     * 老版本的格式读取，每个插槽1字节
+     * */
+    public void readBooleans(ByteBuffer buffer, int offset) {
+        Arrays.fill(words, 0);
+        for (int i = 0; i < slotNum; i++) {
+            if (buffer.get(offset + i) != 0) {
+                set(i);
+            }
+        }
+    }
+
+    public void writeBooleans(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < slotNum; i++) {
+            buffer.put(offset + i, (byte) (get(i) ? 1 : 0));
+        }
+    }
+
+    /**
+     * 最后一个字中超出插槽数的位始终为0(磁盘中的填充位不一定是0)
+     * */
+    private void clearTail() {
+        int tailBits = slotNum % WORD_BITS;
+        if (tailBits != 0) {
+            words[words.length - 1] &= (1L << tailBits) - 1;
+        }
+    }
+
+    private void checkIndex(int slotIndex) {
+        if (slotIndex < 0 || slotIndex >= slotNum) {
+            throw new IndexOutOfBoundsException("slotIndex=" + slotIndex + " slotNum=" + slotNum);
+        }
+    }
+}
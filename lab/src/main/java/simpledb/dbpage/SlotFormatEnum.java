@@ -0,0 +1,82 @@
+package simpledb.dbpage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 页内插槽位图的磁盘格式，由数据文件的版本决定(见DBFileHeader)
+ */
+public enum SlotFormatEnum {
+
+    /**
+     * 老版本的格式：每个插槽占1字节(boolean)
+     * */
+    BYTE_PER_SLOT("每个插槽1字节"){
+        @Override
+        public int headerLength(int slotNum) {
+            return slotNum;
+        }
+
+        @Override
+        public void read(SlotBitMap slotBitMap, ByteBuffer buffer, int offset) {
+            slotBitMap.readBooleans(buffer, offset);
+        }
+
+        @Override
+        public void write(SlotBitMap slotBitMap, ByteBuffer buffer, int offset) {
+            slotBitMap.writeBooleans(buffer, offset);
+        }
+    },
+
+    /**
+     * 每个插槽占1位
+     * */
+    BIT_PACKED("每个插槽1位"){
+        @Override
+        public int headerLength(int slotNum) {
+            return SlotBitMap.byteLength(slotNum);
+        }
+
+        @Override
+        public void read(SlotBitMap slotBitMap, ByteBuffer buffer, int offset) {
+            slotBitMap.readBits(buffer, offset);
+        }
+
+        @Override
+        public void write(SlotBitMap slotBitMap, ByteBuffer buffer, int offset) {
+            slotBitMap.writeBits(buffer, offset);
+        }
+    },
+    ;
+
+    SlotFormatEnum(String message) {
+        this.message = message;
+    }
+
+    private final String message;
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 每个插槽在位图中占用的位数
+     * */
+    public int bitsPerSlot() {
+        return this == BIT_PACKED ? 1 : 8;
+    }
+
+    /**
+     * slotNum个插槽的位图在磁盘中占用的字节数
+     * */
+    public abstract int headerLength(int slotNum);
+
+    /**
+     * 从buffer的offset处(绝对位置)读取位图
+     * */
+    public abstract void read(SlotBitMap slotBitMap, ByteBuffer buffer, int offset);
+
+    /**
+     * 将位图写入buffer的offset处(绝对位置)，写入的字节数为headerLength(slotNum)
+     * */
+    public abstract void write(SlotBitMap slotBitMap, ByteBuffer buffer, int offset);
+}
@@ -1,17 +1,14 @@
 package simpledb.dbpage.btree;
 
-import simpledb.Database;
 import simpledb.dbpage.DBPage;
 import simpledb.dbpage.PageCommonUtil;
+import simpledb.dbpage.SlotBitMap;
+import simpledb.dbpage.SlotFormatEnum;
 import simpledb.dbpage.PageId;
 import simpledb.exception.DBException;
-import simpledb.exception.ParseException;
-import simpledb.matadata.fields.IntField;
-import simpledb.matadata.types.ColumnTypeEnum;
 import simpledb.util.CommonUtil;
 
-import java.io.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 /**
@@ -21,66 +18,66 @@ import java.util.Iterator;
 public class BTreeHeaderPage implements DBPage {
 
     private final BTreePageId bTreePageId;
-    private boolean[] bitMapHeaderArray;
+    private SlotBitMap slotBitMap;
     private final int maxSlotNum;
+    private final int pageSize;
+
+    /**
+     * 插槽位图的磁盘格式，由所属文件的版本决定
+     * */
+    private final SlotFormatEnum slotFormatEnum;
 
     private int nextPage; // next header page or 0
     private int prevPage; // previous header page or 0
 
     public BTreeHeaderPage(BTreePageId bTreePageId, byte[] data) {
+        this(bTreePageId, data, SlotFormatEnum.BIT_PACKED);
+    }
+
+    public BTreeHeaderPage(BTreePageId bTreePageId, byte[] data, SlotFormatEnum slotFormatEnum) {
         this.bTreePageId = bTreePageId;
+        this.pageSize = data.length;
+        this.slotFormatEnum = slotFormatEnum;
         this.maxSlotNum = getMaxSlotNum();
-
-        try {
-            deSerialize(data);
-        } catch (IOException e) {
-            throw new ParseException("deSerialize BTreeHeaderPage error", e);
-        }
+        deSerialize(data);
     }
 
-    private void deSerialize(byte[] data) throws IOException{
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+    private void deSerialize(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
 
         // 读取nextPage、prevPage
-        IntField nextF = (IntField) ColumnTypeEnum.INT_TYPE.parse(dis);
-        this.nextPage = nextF.getValue();
-        IntField prevF = (IntField) ColumnTypeEnum.INT_TYPE.parse(dis);
-        this.prevPage = prevF.getValue();
+        this.nextPage = buffer.getInt(0);
+        this.prevPage = buffer.getInt(BTreeConstants.INDEX_SIZE);
 
         // 读取header位图
-        this.bitMapHeaderArray = new boolean[getHeaderSize()];
-        for (int i=0; i<bitMapHeaderArray.length; i++) {
-            bitMapHeaderArray[i] = dis.readBoolean();
-        }
-
-        dis.close();
+        this.slotBitMap = new SlotBitMap(this.maxSlotNum);
+        this.slotFormatEnum.read(this.slotBitMap, buffer, 2 * BTreeConstants.INDEX_SIZE);
     }
 
     @Override
-    public byte[] serialize() throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(Database.getBufferPool().getPageSize());
-        DataOutputStream dos = new DataOutputStream(byteArrayOutputStream);
+    public byte[] serialize() {
+        return PageCommonUtil.serializeToArray(this, this.pageSize);
+    }
 
-        dos.writeInt(nextPage);
-        dos.writeInt(prevPage);
+    @Override
+    public int serialize(ByteBuffer buffer) {
+        buffer.putInt(0, nextPage);
+        buffer.putInt(BTreeConstants.INDEX_SIZE, prevPage);
         // 写入头部位图
-        for (boolean b : this.bitMapHeaderArray) {
-            dos.writeBoolean(b);
-        }
-
-        dos.flush();
-
-        return byteArrayOutputStream.toByteArray();
+        int headerEnd = 2 * BTreeConstants.INDEX_SIZE + this.slotFormatEnum.headerLength(this.maxSlotNum);
+        this.slotFormatEnum.write(this.slotBitMap, buffer, 2 * BTreeConstants.INDEX_SIZE);
+        PageCommonUtil.fillZero(buffer, headerEnd, this.pageSize);
+        return this.pageSize;
     }
 
     @Override
     public int getNotEmptySlotsNum() {
-        return PageCommonUtil.getNotEmptySlotsNum(this.bitMapHeaderArray);
+        return PageCommonUtil.getNotEmptySlotsNum(this.slotBitMap);
     }
 
     @Override
     public int getMaxSlotNum() {
-        return getHeaderSize();
+        return getHeaderSize(this.pageSize, this.slotFormatEnum);
     }
 
     /**
@@ -88,7 +85,7 @@ public class BTreeHeaderPage implements DBPage {
      * @return the index of the first empty slot or -1 if none exists
      */
     public int getFirstEmptySlotIndex() {
-        return PageCommonUtil.getFirstEmptySlotIndex(this.bitMapHeaderArray,false);
+        return PageCommonUtil.getFirstEmptySlotIndex(this.slotBitMap,false);
     }
 
     @Override
@@ -129,11 +126,11 @@ public class BTreeHeaderPage implements DBPage {
     }
 
     public void markSlotUsed(int index){
-        this.bitMapHeaderArray[index] = true;
+        this.slotBitMap.set(index);
     }
 
     public void markSlotNotUsed(int index){
-        this.bitMapHeaderArray[index] = false;
+        this.slotBitMap.clear(index);
     }
 
     /**
@@ -179,12 +176,26 @@ public class BTreeHeaderPage implements DBPage {
      */
     public void init() {
         // 整个header的bit位全部用1填充
-        Arrays.fill(this.bitMapHeaderArray, true);
+        this.slotBitMap.setAll();
+    }
+
+    /**
+     * 插槽i是否已使用(对应的页正在被使用)
+     */
+    public boolean isSlotUsed(int index) {
+        return this.slotBitMap.get(index);
+    }
+
+    public SlotFormatEnum getSlotFormatEnum() {
+        return slotFormatEnum;
     }
 
-    public static int getHeaderSize(){
-        int headerSpaceByte = Database.getBufferPool().getPageSize() - BTreeConstants.INDEX_SIZE * 2;
+    /**
+     * 一个header页能记录的页数
+     */
+    public static int getHeaderSize(int pageSize, SlotFormatEnum slotFormatEnum){
+        int headerSpaceByte = pageSize - BTreeConstants.INDEX_SIZE * 2;
 
-        return headerSpaceByte;
+        return headerSpaceByte * 8 / slotFormatEnum.bitsPerSlot();
     }
 }
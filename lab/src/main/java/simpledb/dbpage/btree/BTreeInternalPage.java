@@ -1,19 +1,17 @@
 package simpledb.dbpage.btree;
 
-import simpledb.Database;
 import simpledb.dbpage.PageCommonUtil;
+import simpledb.dbpage.SlotBitMap;
+import simpledb.dbpage.SlotFormatEnum;
 import simpledb.dbrecord.RecordId;
 import simpledb.exception.DBException;
-import simpledb.exception.ParseException;
 import simpledb.iterator.enums.OperatorEnum;
 import simpledb.matadata.fields.Field;
-import simpledb.matadata.fields.IntField;
 import simpledb.matadata.table.TableDesc;
-import simpledb.matadata.table.TableDescItem;
 import simpledb.matadata.types.ColumnTypeEnum;
 import simpledb.util.CommonUtil;
 
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -24,43 +22,43 @@ public class BTreeInternalPage extends BTreePage {
 
     private final int keyFieldIndex;
 
-    private boolean[] bitMapHeaderArray;
+    /**
+     * 插槽位图的磁盘格式，由所属文件的版本决定
+     */
+    private final SlotFormatEnum slotFormatEnum;
+    private SlotBitMap slotBitMap;
     private Field[] keys;
     private Integer[] children;
     private final int maxSlotNum;
     private int childCategory; // either leaf or internal
 
     public BTreeInternalPage(TableDesc tableDesc,BTreePageId pageId, byte[] data, int keyFieldIndex) {
-        super(tableDesc,pageId);
+        this(tableDesc, pageId, data, keyFieldIndex, SlotFormatEnum.BIT_PACKED);
+    }
+
+    public BTreeInternalPage(TableDesc tableDesc,BTreePageId pageId, byte[] data, int keyFieldIndex, SlotFormatEnum slotFormatEnum) {
+        super(tableDesc,pageId,data.length);
         this.keyFieldIndex = keyFieldIndex;
+        this.slotFormatEnum = slotFormatEnum;
         this.maxSlotNum = getMaxSlotNum();
-
-        try {
-            deSerialize(data);
-        } catch (IOException e) {
-            throw new ParseException("deSerialize BTreeLeafPage error", e);
-        }
+        deSerialize(data);
     }
 
     /**
      * 反序列化 磁盘二进制数据->内存结构化数据
      */
-    private void deSerialize(byte[] data) throws IOException {
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+    private void deSerialize(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
 
-        // 从文件中读取出最开始的int数据，是为双亲节点指针
-        IntField parentF = (IntField) ColumnTypeEnum.INT_TYPE.parse(dis);
-        this.parent = parentF.getValue();
+        // 最开始的int数据，是为双亲节点指针
+        this.parent = buffer.getInt(0);
 
         // read the child page category
-        this.childCategory = dis.readByte();
+        this.childCategory = buffer.get(BTreeConstants.INDEX_SIZE);
 
         // 解析所存储的位图header
-        this.bitMapHeaderArray = new boolean[this.getMaxSlotNum()];
-        for (int i = 0; i < bitMapHeaderArray.length; i++) {
-            // 读取出后续的header位图
-            bitMapHeaderArray[i] = dis.readBoolean();
-        }
+        this.slotBitMap = new SlotBitMap(this.maxSlotNum);
+        this.slotFormatEnum.read(this.slotBitMap, buffer, BTreeConstants.INDEX_SIZE + 1);
 
         // 解析所存储的keys
         this.keys = new Field[this.maxSlotNum];
@@ -68,66 +66,80 @@ public class BTreeInternalPage extends BTreePage {
         // 逻辑视图（交错）：          物理视图（平行,k比c大1）
         //  k1 k2 k3                ** k1 k2 k3
         // c1 c2 c3 c4              c1 c2 c3 c4
+        ColumnTypeEnum keyType = getKeyType();
+        int keyStart = getKeyStart();
         keys[0] = null;
         for(int i=1; i<keys.length; i++){
-            keys[i] = readNextKey(dis,i);
+            // 位图显示记录不存在的key直接跳过
+            keys[i] = this.slotBitMap.get(i) ? keyType.parse(buffer, keyStart + (i - 1) * keyType.getLength()) : null;
         }
 
         // 解析所存储的children
+        int childStart = getChildStart();
         this.children = new Integer[this.maxSlotNum];
         for (int i=0; i<children.length; i++) {
-            children[i] = readNextChild(dis, i);
+            children[i] = this.slotBitMap.get(i) ? buffer.getInt(childStart + i * BTreeConstants.INDEX_SIZE) : null;
         }
     }
 
     @Override
-    public byte[] serialize() throws IOException {
-        int len = Database.getBufferPool().getPageSize();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(byteArrayOutputStream);
+    public byte[] serialize() {
+        return PageCommonUtil.serializeToArray(this, this.pageSize);
+    }
 
-        dos.writeInt(parent);
-        dos.writeByte((byte) childCategory);
+    @Override
+    public int serialize(ByteBuffer buffer) {
+        buffer.putInt(0, parent);
+        buffer.put(BTreeConstants.INDEX_SIZE, (byte) childCategory);
 
         // 写入头部位图
-        for (boolean b : this.bitMapHeaderArray) {
-            dos.writeBoolean(b);
-        }
+        this.slotFormatEnum.write(this.slotBitMap, buffer, BTreeConstants.INDEX_SIZE + 1);
 
-        // 写入keys(和初始化时一致，keys[0]为null不存储在磁盘中)
+        // 写入keys(和初始化时一致，keys[0]为null不存储在磁盘中)，空的插槽用0填充一个KeyField大小的空间
+        int keyLength = getKeyType().getLength();
+        int keyOffset = getKeyStart();
         for (int i=1; i<keys.length; i++) {
-            writeNextKey(dos,i);
+            if (this.slotBitMap.get(i)) {
+                this.keys[i].serialize(buffer, keyOffset);
+            } else {
+                PageCommonUtil.fillZero(buffer, keyOffset, keyOffset + keyLength);
+            }
+            keyOffset += keyLength;
         }
 
-        // 写入children
+        // 写入children，空的插槽用0填充一个child索引大小的空间
+        int childOffset = getChildStart();
         for (int i=0; i<children.length; i++) {
-            writeNextChild(dos,i);
+            buffer.putInt(childOffset, this.slotBitMap.get(i) ? children[i] : 0);
+            childOffset += BTreeConstants.INDEX_SIZE;
         }
 
         // 如果实际不足一页，用0填充页内剩余的空间(实际数据无法和页大小恰好对齐)
-        int parentPointSpace = BTreeConstants.INDEX_SIZE;
-        int childCategoryToByteSpace = 1;
-        int bitMapHeaderArraySpace = (this.bitMapHeaderArray.length);
-        int keysSpace = this.tableDesc.getColumn(this.keyFieldIndex).getColumnTypeEnum().getLength() * (keys.length - 1);
-        int childrenSpace = BTreeConstants.INDEX_SIZE * children.length;
+        PageCommonUtil.fillZero(buffer, childOffset, this.pageSize);
+        return this.pageSize;
+    }
 
-        int needPaddingLength = Database.getBufferPool().getPageSize() -
-                (parentPointSpace + childCategoryToByteSpace + bitMapHeaderArraySpace + keysSpace + childrenSpace);
-        if (needPaddingLength > 0) {
-            byte[] zeroes = new byte[needPaddingLength];
-            // 后续空余的空间，用0补齐
-            dos.write(zeroes, 0, needPaddingLength);
-        }
+    private ColumnTypeEnum getKeyType() {
+        return this.tableDesc.getColumn(this.keyFieldIndex).getColumnTypeEnum();
+    }
 
-        // 强制刷新
-        dos.flush();
+    /**
+     * keys在页内的起始位置：双亲节点指针 + 子节点类型 + 头部位图
+     * */
+    private int getKeyStart() {
+        return BTreeConstants.INDEX_SIZE + 1 + this.slotFormatEnum.headerLength(this.maxSlotNum);
+    }
 
-        return byteArrayOutputStream.toByteArray();
+    /**
+     * children在页内的起始位置，紧跟在keys之后
+     * */
+    private int getChildStart() {
+        return getKeyStart() + getKeyType().getLength() * (this.maxSlotNum - 1);
     }
 
     @Override
     public int getNotEmptySlotsNum() {
-        return PageCommonUtil.getNotEmptySlotsNum(this.bitMapHeaderArray);
+        return PageCommonUtil.getNotEmptySlotsNum(this.slotBitMap);
     }
 
     @Override
@@ -137,13 +149,13 @@ public class BTreeInternalPage extends BTreePage {
 
     private int getMaxEntryNum(){
         int keySize = this.tableDesc.getColumn(this.keyFieldIndex).getColumnTypeEnum().getLength();
-        // 每一个key所占用的bit位+索引位所占用的bit位+1位header位所占用的bit位
-        int bitsPerEntryIncludingHeader = keySize * 8 + BTreeConstants.INDEX_SIZE * 8 + 8;
+        // 每一个key所占用的bit位+索引位所占用的bit位+header位图中所占用的bit位
+        int bitsPerEntryIncludingHeader = keySize * 8 + BTreeConstants.INDEX_SIZE * 8 + this.slotFormatEnum.bitsPerSlot();
         // extraBits are: one parent pointer, 1 byte for child page category,
         // one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
         int extraBits = 2 * BTreeConstants.INDEX_SIZE * 8 + 8 + 1;
         // 每一个页所能容纳的最大entry数
-        return (Database.getBufferPool().getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+        return (this.pageSize*8 - extraBits) / bitsPerEntryIncludingHeader;
     }
 
     @Override
@@ -151,6 +163,39 @@ public class BTreeInternalPage extends BTreePage {
         return this.pageId;
     }
 
+    public SlotFormatEnum getSlotFormatEnum() {
+        return slotFormatEnum;
+    }
+
+    /**
+     * 以另一种插槽格式保存同样的key和children，所在的插槽下标不变(用于文件格式的升级)
+     */
+    public BTreeInternalPage convertSlotFormat(SlotFormatEnum newSlotFormatEnum) {
+        BTreeInternalPage newPage = new BTreeInternalPage(this.tableDesc, this.pageId, new byte[this.pageSize], this.keyFieldIndex, newSlotFormatEnum);
+        if (newPage.maxSlotNum < this.maxSlotNum && this.slotBitMap.nextSet(newPage.maxSlotNum) >= 0) {
+            throw new DBException("slot num not enough for new slot format pageId=" + this.pageId);
+        }
+        newPage.parent = this.parent;
+        newPage.childCategory = this.childCategory;
+        for (int i = slotBitMap.nextSet(0); i >= 0; i = slotBitMap.nextSet(i + 1)) {
+            newPage.slotBitMap.set(i);
+            newPage.keys[i] = this.keys[i];
+            newPage.children[i] = this.children[i];
+        }
+        return newPage;
+    }
+
+    /**
+     * 所有孩子页的id(包括第0个插槽中最左边的孩子)
+     */
+    public List<BTreePageId> getChildIdList() {
+        List<BTreePageId> childIdList = new ArrayList<>();
+        for (int i = slotBitMap.nextSet(0); i >= 0; i = slotBitMap.nextSet(i + 1)) {
+            childIdList.add(getChildId(i));
+        }
+        return childIdList;
+    }
+
     public void insertEntry(BTreeEntry e){
         // 校验start
         if (!e.getKey().getType().equals(this.tableDesc.getColumn(this.keyFieldIndex).getColumnTypeEnum())) {
@@ -175,13 +220,13 @@ public class BTreeInternalPage extends BTreePage {
             children[0] = e.getLeftChild().getPageNo();
             children[1] = e.getRightChild().getPageNo();
             keys[1] = e.getKey();
-            this.bitMapHeaderArray[0] = true;
-            this.bitMapHeaderArray[1] = true;
+            this.slotBitMap.set(0);
+            this.slotBitMap.set(1);
             e.setRecordId(new RecordId(this.pageId, 1));
             return;
         }
 
-        int firstEmptySlotIndex = PageCommonUtil.getFirstEmptySlotIndex(this.bitMapHeaderArray,true);
+        int firstEmptySlotIndex = PageCommonUtil.getFirstEmptySlotIndex(this.slotBitMap,true);
         int mostRightLessThanTargetIndex = findMostRightIndexLessThanTarget(e);
 
         // shift entries back or forward to fill empty slot and make room for new entry
@@ -201,7 +246,7 @@ public class BTreeInternalPage extends BTreePage {
         }
 
         // insert new entry into the correct spot in sorted order
-        this.bitMapHeaderArray[goodSlot] = true;
+        this.slotBitMap.set(goodSlot);
         keys[goodSlot] = e.getKey();
         children[goodSlot] = e.getRightChild().getPageNo();
         e.setRecordId(new RecordId(this.pageId, goodSlot));
@@ -213,9 +258,9 @@ public class BTreeInternalPage extends BTreePage {
      * from插槽中的数据迁移进to插槽中（修改keys、children和位图header）
      */
     private void moveEntry(int from, int to) {
-        if(!this.bitMapHeaderArray[to] && this.bitMapHeaderArray[from]) {
-            this.bitMapHeaderArray[to] = true;
-            this.bitMapHeaderArray[from] = false;
+        if(!this.slotBitMap.get(to) && this.slotBitMap.get(from)) {
+            this.slotBitMap.set(to);
+            this.slotBitMap.clear(from);
 
             keys[to] = keys[from];
             keys[from] = null;
@@ -233,7 +278,7 @@ public class BTreeInternalPage extends BTreePage {
         // find the child pointer matching the left or right child in this entry
         int lessOrEqKey = -1;
         for (int i=0; i<this.maxSlotNum; i++) {
-            if(this.bitMapHeaderArray[i]) {
+            if(this.slotBitMap.get(i)) {
                 if(children[i] == target.getLeftChild().getPageNo() || children[i] == target.getRightChild().getPageNo()) {
                     if(i > 0 && keys[i].compare(OperatorEnum.GREATER_THAN, target.getKey())) {
                         throw new DBException("attempt to insert invalid entry with left child " +
@@ -285,13 +330,13 @@ public class BTreeInternalPage extends BTreePage {
         if((recordId.getPageId().getPageNo() != this.pageId.getPageNo()) || (!recordId.getPageId().getTableId().equals(this.pageId.getTableId()))) {
             throw new DBException("tried to update entry on invalid page or table");
         }
-        if (!this.bitMapHeaderArray[recordId.getPageInnerNo()]){
+        if (!this.slotBitMap.get(recordId.getPageInnerNo())){
             throw new DBException("tried to update null entry.");
         }
 
         int pageInnerNo = recordId.getPageInnerNo();
         for(int i = pageInnerNo + 1; i < this.maxSlotNum; i++) {
-            if(this.bitMapHeaderArray[i]) {
+            if(this.slotBitMap.get(i)) {
                 // 校验靠右边的第一个非空的key是否不比更新的key要小
                 if(keys[i].compare(OperatorEnum.LESS_THAN, e.getKey())) {
                     throw new DBException("attempt to update entry with invalid key " + e.getKey() +
@@ -303,7 +348,7 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
         for(int i = pageInnerNo - 1; i >= 0; i--) {
-            if(this.bitMapHeaderArray[i]) {
+            if(this.slotBitMap.get(i)) {
                 // 校验靠左边的第一个非空的key是否不比更新的key要大
                 if(i > 0 && keys[i].compare(OperatorEnum.GREATER_THAN, e.getKey())) {
                     throw new DBException("attempt to update entry with invalid key " + e.getKey() +
@@ -340,7 +385,7 @@ public class BTreeInternalPage extends BTreePage {
         if((recordId.getPageId().getPageNo() != this.pageId.getPageNo()) || (!recordId.getPageId().getTableId().equals(this.pageId.getTableId()))) {
             throw new DBException("tried to delete entry on invalid page or table");
         }
-        if (!this.bitMapHeaderArray[recordId.getPageInnerNo()]){
+        if (!this.slotBitMap.get(recordId.getPageInnerNo())){
             throw new DBException("tried to delete null entry.");
         }
         // 校验end
@@ -348,15 +393,15 @@ public class BTreeInternalPage extends BTreePage {
         e.setRecordId(null);
         int pageInnerNo = recordId.getPageInnerNo();
         if(deleteRightChild){
-            this.bitMapHeaderArray[pageInnerNo] = false;
+            this.slotBitMap.clear(pageInnerNo);
             this.keys[pageInnerNo] = null;
             this.children[pageInnerNo] = null;
         }else {
             // 如果需要删除的是左孩子，将BTreeEntry的右孩子迁移到左边（覆盖掉最靠右的非空插槽）
             for(int i = pageInnerNo - 1; i >= 0; i--){
-                if(this.bitMapHeaderArray[pageInnerNo]){
+                if(this.slotBitMap.get(i)){
                     children[i] = children[pageInnerNo];
-                    this.bitMapHeaderArray[pageInnerNo] = false;
+                    this.slotBitMap.clear(pageInnerNo);
                     this.children[pageInnerNo] = null;
                     this.keys[pageInnerNo] = null;
                     // 只需要修改一位即可，操作完直接返回
@@ -401,7 +446,7 @@ public class BTreeInternalPage extends BTreePage {
 
     private int prevChildIndex(int index){
         for(int i=index; i>=0; i--){
-            if(children[index] != null){
+            if(this.slotBitMap.get(i)){
                 return i;
             }
         }
@@ -433,83 +478,13 @@ public class BTreeInternalPage extends BTreePage {
             throw new NoSuchElementException();
         }
 
-        if(!this.bitMapHeaderArray[i]) {
+        if(!this.slotBitMap.get(i)) {
             return null;
         }else{
             return new BTreePageId(this.pageId.getTableId(), children[i], childCategory);
         }
     }
 
-    /**
-     * 读取一个key项
-     * */
-    private Field readNextKey(DataInputStream dis, int slotIndex){
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 位图显示记录不存在，文件指针直接跳过一个KeyField的长度
-            TableDescItem tableDescItem = this.tableDesc.getColumn(this.keyFieldIndex);
-            for (int i = 0; i < tableDescItem.getColumnTypeEnum().getLength(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty btree record");
-                }
-            }
-            return null;
-        } else {
-            // 位图显示记录存在
-            TableDescItem keyItem = this.tableDesc.getColumn(this.keyFieldIndex);
-            return keyItem.getColumnTypeEnum().parse(dis);
-        }
-    }
-    /**
-     * 写入一个key项
-     * */
-    private void writeNextKey(DataOutputStream dos, int slotIndex) throws IOException {
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 空的插槽，用0填充一个KeyField大小的空间
-            TableDescItem tableDescItem = this.tableDesc.getColumn(this.keyFieldIndex);
-            for (int j = 0; j < tableDescItem.getColumnTypeEnum().getLength(); j++) {
-                dos.writeByte(0);
-            }
-        } else {
-            this.keys[slotIndex].serialize(dos);
-        }
-    }
-
-    /**
-     * 读取一个child项
-     * */
-    private Integer readNextChild(DataInputStream dis, int slotIndex){
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 位图显示记录不存在，文件指针直接跳过一个child索引的长度
-            for (int i = 0; i < BTreeConstants.INDEX_SIZE; i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty btree record");
-                }
-            }
-            return null;
-        } else {
-            // 位图显示记录存在
-            IntField intField = (IntField) ColumnTypeEnum.INT_TYPE.parse(dis);
-            return intField.getValue();
-        }
-    }
-    /**
-     * 写入一个child项
-     * */
-    private void writeNextChild(DataOutputStream dos, int slotIndex) throws IOException {
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 空的插槽，用0填充一个child索引大小的空间
-            for (int j = 0; j < BTreeConstants.INDEX_SIZE; j++) {
-                dos.writeByte(0);
-            }
-        } else {
-            dos.writeInt(children[slotIndex]);
-        }
-    }
-
     /**
      * 内部迭代器
      * */
@@ -521,7 +496,7 @@ public class BTreeInternalPage extends BTreePage {
         public BTreeInternalPageItr(boolean needReverse) {
             ArrayList<Field> noEmptyKeyList = new ArrayList<>();
             for (int i = 1; i < BTreeInternalPage.this.maxSlotNum; i++) {
-                if (BTreeInternalPage.this.bitMapHeaderArray[i]) {
+                if (BTreeInternalPage.this.slotBitMap.get(i)) {
                     // 过滤掉为空的插槽
                     noEmptyKeyList.add(BTreeInternalPage.this.keys[i]);
                 }
@@ -535,7 +510,7 @@ public class BTreeInternalPage extends BTreePage {
             List<Tuple> noEmptyLeftChildrenList = new ArrayList<>();
             List<Tuple> noEmptyRightChildrenList = new ArrayList<>();
             for (int i = 1; i < BTreeInternalPage.this.maxSlotNum; i++) {
-                if (BTreeInternalPage.this.bitMapHeaderArray[i]) {
+                if (BTreeInternalPage.this.slotBitMap.get(i)) {
                     // 过滤掉为空的插槽
                     noEmptyLeftChildrenList.add(new Tuple(BTreeInternalPage.this.prevChild(i-1),i));
                     noEmptyRightChildrenList.add(new Tuple(BTreeInternalPage.this.children[i],i));
@@ -1,23 +1,21 @@
 package simpledb.dbpage.btree;
 
-import simpledb.Database;
 import simpledb.dbpage.DBPage;
 import simpledb.dbpage.PageCommonUtil;
+import simpledb.dbpage.SlotBitMap;
+import simpledb.dbpage.SlotFormatEnum;
 import simpledb.dbpage.PageId;
 import simpledb.dbrecord.Record;
 import simpledb.dbrecord.RecordId;
+import simpledb.dbrecord.RecordView;
 import simpledb.exception.DBException;
-import simpledb.exception.ParseException;
 import simpledb.iterator.enums.OperatorEnum;
 import simpledb.matadata.fields.Field;
-import simpledb.matadata.fields.IntField;
 import simpledb.matadata.table.TableDesc;
-import simpledb.matadata.types.ColumnTypeEnum;
 import simpledb.util.CommonUtil;
 
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * @author xiongyx
@@ -29,13 +27,23 @@ public class BTreeLeafPage extends BTreePage {
 
     private final int keyFieldIndex;
 
+    /**
+     * 插槽位图的磁盘格式，由所属文件的版本决定
+     */
+    private final SlotFormatEnum slotFormatEnum;
+
     /**
      * 头部位图
      */
-    private boolean[] bitMapHeaderArray;
+    private SlotBitMap slotBitMap;
+
+    /**
+     * 页面的原始二进制数据，解析后不再修改
+     */
+    private byte[] pageData;
 
     /**
-     * 所保存的数组列表
+     * 所保存的数组列表(已经访问过或者新插入的记录，为null的已使用插槽在第一次访问时才从pageData中创建记录视图)
      */
     private Record[] recordArray;
 
@@ -55,90 +63,68 @@ public class BTreeLeafPage extends BTreePage {
     private int rightSibling;
 
     public BTreeLeafPage(TableDesc tableDesc, BTreePageId pageId, byte[] data, int keyFieldIndex) {
-        super(tableDesc,pageId);
+        this(tableDesc, pageId, data, keyFieldIndex, SlotFormatEnum.BIT_PACKED);
+    }
+
+    public BTreeLeafPage(TableDesc tableDesc, BTreePageId pageId, byte[] data, int keyFieldIndex, SlotFormatEnum slotFormatEnum) {
+        super(tableDesc,pageId,data.length);
         this.keyFieldIndex = keyFieldIndex;
+        this.slotFormatEnum = slotFormatEnum;
         this.maxSlotNum = this.getMaxSlotNum();
-
-        try {
-            deSerialize(data);
-        } catch (IOException e) {
-            throw new ParseException("deSerialize BTreeLeafPage error", e);
-        }
+        deSerialize(data);
     }
 
     /**
      * 反序列化 磁盘二进制数据->内存结构化数据
      */
-    private void deSerialize(byte[] data) throws IOException {
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        {
-            // 从文件中读取出最开始的int数据，是为双亲节点指针
-            IntField parentF = (IntField) ColumnTypeEnum.INT_TYPE.parse(dis);
-            this.parent = parentF.getValue();
-        }
-        {
-            // 从文件中读取出第二个int数据，是为左兄弟页指针
-            IntField leftSiblingF = (IntField) ColumnTypeEnum.INT_TYPE.parse(dis);
-            this.leftSibling = leftSiblingF.getValue();
-        }
-        {
-            // 从文件中读取出第三个int数据，是为右兄弟页指针
-            IntField rightSiblingF = (IntField) ColumnTypeEnum.INT_TYPE.parse(dis);
-            this.rightSibling = rightSiblingF.getValue();
-        }
+    private void deSerialize(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
 
-        this.bitMapHeaderArray = new boolean[this.getMaxSlotNum()];
-        for (int i = 0; i < bitMapHeaderArray.length; i++) {
-            // 读取出后续的header位图
-            bitMapHeaderArray[i] = dis.readBoolean();
-        }
+        // 最开始的三个int数据，依次为双亲节点指针、左兄弟页指针、右兄弟页指针
+        this.parent = buffer.getInt(0);
+        this.leftSibling = buffer.getInt(BTreeConstants.INDEX_SIZE);
+        this.rightSibling = buffer.getInt(2 * BTreeConstants.INDEX_SIZE);
 
-        // 解析所存储的业务数据
-        recordArray = new Record[this.getMaxSlotNum()];
-        for (int i = 0; i < recordArray.length; i++) {
-            // 读取并解析出tuple数据，加入tuples中
-            recordArray[i] = readNextRecord(dis, i);
-        }
+        // 读取出后续的header位图
+        this.slotBitMap = new SlotBitMap(this.maxSlotNum);
+        this.slotFormatEnum.read(this.slotBitMap, buffer, 3 * BTreeConstants.INDEX_SIZE);
 
-        dis.close();
+        // 业务数据不在这里解析，访问时才按需从页面数据中解码(见RecordView)
+        this.pageData = data;
+        recordArray = new Record[this.maxSlotNum];
     }
 
     @Override
-    public byte[] serialize() throws IOException {
-        int len = Database.getBufferPool().getPageSize();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(byteArrayOutputStream);
+    public byte[] serialize() {
+        return PageCommonUtil.serializeToArray(this, this.pageSize);
+    }
 
+    @Override
+    public int serialize(ByteBuffer buffer) {
         // 首先写入parent、左/右兄弟三个指针
-        dos.writeInt(this.parent);
-        dos.writeInt(this.leftSibling);
-        dos.writeInt(this.rightSibling);
+        buffer.putInt(0, this.parent);
+        buffer.putInt(BTreeConstants.INDEX_SIZE, this.leftSibling);
+        buffer.putInt(2 * BTreeConstants.INDEX_SIZE, this.rightSibling);
 
         // 写入头部位图
-        for (boolean b : this.bitMapHeaderArray) {
-            dos.writeBoolean(b);
-        }
+        this.slotFormatEnum.write(this.slotBitMap, buffer, 3 * BTreeConstants.INDEX_SIZE);
 
-        // 写入record
-        for (int i = 0; i < this.recordArray.length; i++) {
-            writeNextRecord(dos, i);
+        // 写入record，空的插槽用0填充一个record大小的空间
+        int recordStart = 3 * BTreeConstants.INDEX_SIZE + this.slotFormatEnum.headerLength(this.maxSlotNum);
+        int recordSize = this.tableDesc.getSize();
+        for (int i = 0; i < this.maxSlotNum; i++) {
+            int recordOffset = recordStart + i * recordSize;
+            if (this.slotBitMap.get(i)) {
+                // 没有修改过的记录直接拷贝页面中的原始数据(见RecordView)
+                getRecord(i).serialize(buffer, recordOffset);
+            } else {
+                PageCommonUtil.fillZero(buffer, recordOffset, recordOffset + recordSize);
+            }
         }
 
         // 如果实际不足一页，用0填充页内剩余的空间(实际数据无法和页大小恰好对齐)
-        // 字节为单位 (页大小 - (位图大小bit + record长度 * record数量）)
-        int needPaddingLength = Database.getBufferPool().getPageSize() -
-                ((this.bitMapHeaderArray.length) + this.tableDesc.getSize() * this.recordArray.length);
-        if (needPaddingLength > 0) {
-            byte[] zeroes = new byte[needPaddingLength];
-            // 后续空余的空间，用0补齐
-            dos.write(zeroes, 0, needPaddingLength);
-        }
-
-        // 强制刷新
-        dos.flush();
-
-        return byteArrayOutputStream.toByteArray();
+        PageCommonUtil.fillZero(buffer, recordStart + this.maxSlotNum * recordSize, this.pageSize);
+        return this.pageSize;
     }
 
     public void insertRecord(Record newRecord) {
@@ -147,7 +133,7 @@ public class BTreeLeafPage extends BTreePage {
         }
 
         // 找到一个空插槽
-        int emptySlotIndex = PageCommonUtil.getFirstEmptySlotIndex(this.bitMapHeaderArray,true);
+        int emptySlotIndex = PageCommonUtil.getFirstEmptySlotIndex(this.slotBitMap,true);
         // 由于B+树是有序的，找到当前页中小于或等于新增节点的最右下标
         int targetIndex = findMostRightIndexLessThanTarget(newRecord);
 
@@ -172,7 +158,7 @@ public class BTreeLeafPage extends BTreePage {
             finallySlotIndex = targetIndex + 1;
         }
 
-        this.bitMapHeaderArray[finallySlotIndex] = true;
+        this.slotBitMap.set(finallySlotIndex);
         newRecord.setRecordId(new RecordId(pageId, finallySlotIndex));
         this.recordArray[finallySlotIndex] = newRecord;
     }
@@ -186,12 +172,12 @@ public class BTreeLeafPage extends BTreePage {
                 || (recordNeedDelete.getTableDesc() != this.tableDesc)) {
             throw new DBException("tried to delete tuple on invalid page or table");
         }
-        if (!this.bitMapHeaderArray[recordId.getPageInnerNo()]) {
+        if (!this.slotBitMap.get(recordId.getPageInnerNo())) {
             throw new DBException("tried to delete null tuple.");
         }
 
         // 删除tuple时，将header对应位置空
-        this.bitMapHeaderArray[recordId.getPageInnerNo()] = false;
+        this.slotBitMap.clear(recordId.getPageInnerNo());
         this.recordArray[recordId.getPageInnerNo()] = null;
         // recordId置空
         recordNeedDelete.setRecordId(null);
@@ -199,18 +185,40 @@ public class BTreeLeafPage extends BTreePage {
 
     @Override
     public int getNotEmptySlotsNum() {
-        return PageCommonUtil.getNotEmptySlotsNum(this.bitMapHeaderArray);
+        return PageCommonUtil.getNotEmptySlotsNum(this.slotBitMap);
     }
 
     @Override
     public int getMaxSlotNum() {
-        // td.getSize() * 8 = 每一个tuple的bit位(Byte数 * 8) + 1Byte的header位图 => 每一个Tuple占用的空间
-        int bitsPerTupleIncludingHeader = this.tableDesc.getSize() * 8 + 8;
+        // td.getSize() * 8 = 每一个tuple的bit位(Byte数 * 8) + header位图中的位数 => 每一个Tuple占用的空间
+        int bitsPerTupleIncludingHeader = this.tableDesc.getSize() * 8 + this.slotFormatEnum.bitsPerSlot();
         // extraBits are: left sibling pointer, right sibling pointer, parent pointer
         // 3 * INDEX_SIZE * 8 = 三个指针(左、右兄弟以及双亲节点指针)占据的bit数(Byte数 * 8)
         int extraBits = 3 * BTreeConstants.INDEX_SIZE * 8;
         // BTreeLeafPage页面可以容纳的最大插槽数 = 缓冲页面大小 - 额外的extraBits/每一个Tuple占用的空间
-        return (Database.getBufferPool().getPageSize() * 8 - extraBits) / bitsPerTupleIncludingHeader;
+        return (this.pageSize * 8 - extraBits) / bitsPerTupleIncludingHeader;
+    }
+
+    public SlotFormatEnum getSlotFormatEnum() {
+        return slotFormatEnum;
+    }
+
+    /**
+     * 以另一种插槽格式保存同样的记录和兄弟、双亲指针，记录所在的插槽下标不变(用于文件格式的升级)
+     */
+    public BTreeLeafPage convertSlotFormat(SlotFormatEnum newSlotFormatEnum) {
+        BTreeLeafPage newPage = new BTreeLeafPage(this.tableDesc, this.pageId, new byte[this.pageSize], this.keyFieldIndex, newSlotFormatEnum);
+        if (newPage.maxSlotNum < this.maxSlotNum && this.slotBitMap.nextSet(newPage.maxSlotNum) >= 0) {
+            throw new DBException("slot num not enough for new slot format pageId=" + this.pageId);
+        }
+        newPage.parent = this.parent;
+        newPage.leftSibling = this.leftSibling;
+        newPage.rightSibling = this.rightSibling;
+        for (int i = slotBitMap.nextSet(0); i >= 0; i = slotBitMap.nextSet(i + 1)) {
+            newPage.slotBitMap.set(i);
+            newPage.recordArray[i] = getRecord(i);
+        }
+        return newPage;
     }
 
     @Override
@@ -247,7 +255,7 @@ public class BTreeLeafPage extends BTreePage {
             if(id.getPageCategory() != BTreePageCategoryEnum.LEAF.getValue()) {
                 throw new DBException("leftSibling must be a leaf node");
             }
-            leftSibling = id.getPageCategory();
+            leftSibling = id.getPageNo();
         }
     }
 
@@ -273,49 +281,18 @@ public class BTreeLeafPage extends BTreePage {
         }
     }
 
-    private Record readNextRecord(DataInputStream dis, int slotIndex) {
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 位图显示记录不存在，文件指针直接跳过一个record的长度
-            for (int i = 0; i < this.tableDesc.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty btree record");
-                }
-            }
-            return null;
-        } else {
-            // 位图显示记录存在
-            Record record = new Record(this.tableDesc);
-            record.setRecordId(new RecordId(this.pageId, slotIndex));
-
-            List<ColumnTypeEnum> columnTypeEnumList = this.tableDesc.getColumnTypeEnumList();
-            // 按照表结构定义，读取出每一个字段的数据
-            List<Field> fieldList = columnTypeEnumList.stream()
-                    .map(item -> item.parse(dis))
-                    .collect(Collectors.toList());
-
-            record.setFieldList(fieldList);
-
-            return record;
-        }
-    }
-
-    private void writeNextRecord(DataOutputStream dos, int slotIndex) throws IOException {
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 空的插槽，用0填充一个record大小的空间
-            for (int j = 0; j < this.tableDesc.getSize(); j++) {
-                dos.writeByte(0);
-            }
-        } else {
-            // 非空插槽，写入数据
-
-            Record recordItem = this.recordArray[slotIndex];
-            // 按照表结构定义，向dos流按照顺序写出每一个字段的数据
-            recordItem.getFieldList().forEach(
-                    item -> item.serialize(dos)
-            );
+    /**
+     * 获取插槽中的记录(插槽必须已使用)，第一次访问时创建引用页面数据的记录视图
+     */
+    private Record getRecord(int slotIndex) {
+        Record record = this.recordArray[slotIndex];
+        if (record == null) {
+            int recordOffset = 3 * BTreeConstants.INDEX_SIZE + this.slotFormatEnum.headerLength(this.maxSlotNum)
+                    + slotIndex * this.tableDesc.getSize();
+            record = new RecordView(this.tableDesc, new RecordId(this.pageId, slotIndex), this.pageData, recordOffset);
+            this.recordArray[slotIndex] = record;
         }
+        return record;
     }
 
     /**
@@ -327,8 +304,8 @@ public class BTreeLeafPage extends BTreePage {
         int mostRightIndexLessThanTarget = -1;
         // 找到小于或等于参数target的最右下标
         for (int i = 0; i < this.maxSlotNum; i++) {
-            if (this.bitMapHeaderArray[i]) {
-                Field fieldItem = this.recordArray[i].getField(this.keyFieldIndex);
+            if (this.slotBitMap.get(i)) {
+                Field fieldItem = getRecord(i).getField(this.keyFieldIndex);
                 if (fieldItem.compare(OperatorEnum.LESS_THAN_OR_EQ, keyField)) {
                     mostRightIndexLessThanTarget = i;
                 } else {
@@ -345,11 +322,11 @@ public class BTreeLeafPage extends BTreePage {
      */
     private void moveRecord(int from, int to) {
         // 必须from不为空有数据且to为空无数据
-        if (!this.bitMapHeaderArray[to] && this.bitMapHeaderArray[from]) {
-            this.bitMapHeaderArray[to] = true;
-            this.bitMapHeaderArray[from] = false;
+        if (!this.slotBitMap.get(to) && this.slotBitMap.get(from)) {
+            this.slotBitMap.set(to);
+            this.slotBitMap.clear(from);
 
-            Record fromRecord = this.recordArray[from];
+            Record fromRecord = getRecord(from);
             fromRecord.setRecordId(new RecordId(this.pageId, to));
             this.recordArray[to] = fromRecord;
             this.recordArray[from] = null;
@@ -361,11 +338,10 @@ public class BTreeLeafPage extends BTreePage {
 
         public BTreeLeafPageItr(boolean isReverse) {
             ArrayList<Record> noEmptyRecordArrayList = new ArrayList<>();
-            for (int i = 0; i < BTreeLeafPage.this.maxSlotNum; i++) {
-                if (BTreeLeafPage.this.bitMapHeaderArray[i]) {
-                    // 过滤掉为recordList为空的插槽
-                    noEmptyRecordArrayList.add(BTreeLeafPage.this.recordArray[i]);
-                }
+            SlotBitMap slotBitMap = BTreeLeafPage.this.slotBitMap;
+            // 只遍历位图中已使用的插槽
+            for (int i = slotBitMap.nextSet(0); i >= 0; i = slotBitMap.nextSet(i + 1)) {
+                noEmptyRecordArrayList.add(getRecord(i));
             }
 
             if(isReverse){
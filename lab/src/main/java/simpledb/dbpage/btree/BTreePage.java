@@ -13,10 +13,15 @@ public abstract class BTreePage implements DBPage {
     protected final TableDesc tableDesc;
     protected final BTreePageId pageId;
     protected int parent; // parent is always internal node or 0 for root node
+    /**
+     * 页大小(字节)，由所属文件决定
+     * */
+    protected final int pageSize;
 
-    public BTreePage(TableDesc tableDesc,BTreePageId pageId) {
+    public BTreePage(TableDesc tableDesc,BTreePageId pageId,int pageSize) {
         this.tableDesc = tableDesc;
         this.pageId = pageId;
+        this.pageSize = pageSize;
     }
 
     public BTreePageId getParentId() {
@@ -1,12 +1,12 @@
 package simpledb.dbpage.btree;
 
 import simpledb.dbpage.DBPage;
+import simpledb.dbpage.PageCommonUtil;
 import simpledb.dbpage.PageId;
 import simpledb.dbrecord.Record;
 import simpledb.exception.DBException;
-import simpledb.exception.ParseException;
 
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 /**
@@ -26,34 +26,28 @@ public class BTreeRootPtrPage implements DBPage {
 
     public BTreeRootPtrPage(BTreePageId bTreePageId, byte[] data) {
         this.bTreePageId = bTreePageId;
-
-        try {
-            deSerialize(data);
-        } catch (IOException e) {
-            throw new ParseException("deSerialize BTreeRootPtrPage error", e);
-        }
+        deSerialize(data);
     }
 
-    private void deSerialize(byte[] data) throws IOException{
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+    private void deSerialize(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
 
-        root = dis.readInt();
-        rootCategory = dis.readByte();
-        header = dis.readInt();
+        root = buffer.getInt(0);
+        rootCategory = buffer.get(4);
+        header = buffer.getInt(5);
     }
 
     @Override
-    public byte[] serialize() throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(ROOT_PTR_PAGE_SIZE);
-        DataOutputStream dos = new DataOutputStream(byteArrayOutputStream);
-
-        dos.writeInt(root);
-        dos.writeByte((byte) rootCategory);
-        dos.writeInt(header);
-
-        dos.flush();
+    public byte[] serialize() {
+        return PageCommonUtil.serializeToArray(this, ROOT_PTR_PAGE_SIZE);
+    }
 
-        return byteArrayOutputStream.toByteArray();
+    @Override
+    public int serialize(ByteBuffer buffer) {
+        buffer.putInt(0, root);
+        buffer.put(4, (byte) rootCategory);
+        buffer.putInt(5, header);
+        return ROOT_PTR_PAGE_SIZE;
     }
 
     @Override
@@ -1,148 +1,120 @@
 package simpledb.dbpage.normal;
 
-import simpledb.Database;
-import simpledb.dbpage.DBPage;
 import simpledb.dbpage.PageCommonUtil;
+import simpledb.dbpage.SlotBitMap;
+import simpledb.dbpage.SlotFormatEnum;
 import simpledb.dbrecord.Record;
 import simpledb.dbrecord.RecordId;
+import simpledb.dbrecord.RecordView;
 import simpledb.exception.DBException;
-import simpledb.exception.ParseException;
-import simpledb.matadata.fields.Field;
 import simpledb.matadata.table.TableDesc;
-import simpledb.matadata.types.ColumnTypeEnum;
 import simpledb.util.CommonUtil;
 
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * @author xiongyx
  * @date 2021/2/2
  */
-public class DBHeapPage implements DBPage {
+public class DBHeapPage implements HeapPage {
 
     private final TableDesc tableDesc;
     private final HeapPageId pageId;
     private final int maxSlotNum;
+    /**
+     * 页大小(字节)，由所属文件决定
+     * */
+    private final int pageSize;
 
     /**
-     * header位图 true表示存在，false表示不存在 (注意：目前的设计里一个boolean在磁盘中占1字节)
+     * 插槽位图的磁盘格式，由所属文件的版本决定
+     * */
+    private final SlotFormatEnum slotFormatEnum;
+
+    /**
+     * header位图 1表示存在，0表示不存在
+     * */
+    private SlotBitMap slotBitMap;
+
+    /**
+     * 页面的原始二进制数据，解析后不再修改
+     * */
+    private byte[] pageData;
+
+    /**
+     * 已经访问过或者新插入的记录，为null的已使用插槽在第一次访问时才从pageData中创建记录视图
      * */
-    private boolean[] bitMapHeaderArray;
     private Record[] recordArray;
 
     public DBHeapPage(TableDesc tableDesc, HeapPageId pageId, byte[] data) {
-        try {
-            this.tableDesc = tableDesc;
-            this.pageId = pageId;
-            this.maxSlotNum = getMaxSlotNum();
-            deSerialize(data);
-        } catch (IOException e) {
-            throw new ParseException("deSerialize DBHeapPage error",e);
-        }
+        this(tableDesc, pageId, data, SlotFormatEnum.BIT_PACKED);
+    }
+
+    public DBHeapPage(TableDesc tableDesc, HeapPageId pageId, byte[] data, SlotFormatEnum slotFormatEnum) {
+        this.tableDesc = tableDesc;
+        this.pageId = pageId;
+        this.pageSize = data.length;
+        this.slotFormatEnum = slotFormatEnum;
+        this.maxSlotNum = getMaxSlotNum();
+        deSerialize(data);
     }
 
     /**
      * 反序列化 磁盘二进制数据->内存结构化数据
      * */
-    private void deSerialize(byte[] data) throws IOException {
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // 读取文件流，构造header位图
-        this.bitMapHeaderArray = new boolean[this.getMaxSlotNum()];
-        for (int i=0; i<bitMapHeaderArray.length; i++) {
-            this.bitMapHeaderArray[i] = dis.readBoolean();
-        }
+    private void deSerialize(byte[] data) {
+        // 读取header位图
+        this.slotBitMap = new SlotBitMap(this.maxSlotNum);
+        this.slotFormatEnum.read(this.slotBitMap, ByteBuffer.wrap(data), 0);
 
-        // 读取文件流，根据读取出相应的数据记录
+        // 记录不在这里解析，访问时才按需从页面数据中解码(见RecordView)
+        this.pageData = data;
         this.recordArray = new Record[this.maxSlotNum];
-        for (int i=0; i<this.recordArray.length; i++){
-            this.recordArray[i] = readNextRecord(dis,i);
-        }
-
-        dis.close();
     }
 
     /**
      * 序列化 内存结构化数据->磁盘二进制数据
      * */
     @Override
-    public byte[] serialize() throws IOException {
-        int len = Database.getBufferPool().getPageSize();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(byteArrayOutputStream);
+    public byte[] serialize() {
+        return PageCommonUtil.serializeToArray(this, this.pageSize);
+    }
 
+    @Override
+    public int serialize(ByteBuffer buffer) {
         // 写入位图
-        for (boolean b : this.bitMapHeaderArray) {
-            dos.writeBoolean(b);
-        }
-
-        // 写入record
-        for (int i=0; i<this.recordArray.length; i++) {
-            writeNextRecord(dos,i);
+        this.slotFormatEnum.write(this.slotBitMap, buffer, 0);
+
+        // 写入record，空的插槽用0填充一个record大小的空间
+        int headerLength = this.slotFormatEnum.headerLength(this.maxSlotNum);
+        int recordSize = this.tableDesc.getSize();
+        for (int i = 0; i < this.maxSlotNum; i++) {
+            int recordOffset = headerLength + i * recordSize;
+            if (this.slotBitMap.get(i)) {
+                // 没有修改过的记录直接拷贝页面中的原始数据(见RecordView)
+                getRecord(i).serialize(buffer, recordOffset);
+            } else {
+                PageCommonUtil.fillZero(buffer, recordOffset, recordOffset + recordSize);
+            }
         }
 
         // 如果实际不足一页，用0填充页内剩余的空间(实际数据无法和页大小恰好对齐)
-        // 字节为单位 (页大小 - （位图大小 + record长度 * record数量）)
-        int needPaddingLength = Database.getBufferPool().getPageSize() - (this.bitMapHeaderArray.length + this.tableDesc.getSize() * this.recordArray.length); //- numSlots * td.getSize();
-        if(needPaddingLength > 0){
-            byte[] zeroes = new byte[needPaddingLength];
-            // 后续空余的空间，用0补齐
-            dos.write(zeroes, 0, needPaddingLength);
-        }
-
-        // 强制刷新
-        dos.flush();
-
-        return byteArrayOutputStream.toByteArray();
-    }
-
-    private Record readNextRecord(DataInputStream dis, int slotIndex) {
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 位图显示记录不存在，文件指针直接跳过一个record的长度
-            for (int i=0; i<this.tableDesc.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty record");
-                }
-            }
-            return null;
-        }else{
-            // 位图显示记录存在
-            Record record = new Record();
-            RecordId recordId = new RecordId(this.pageId,slotIndex);
-            record.setRecordId(recordId);
-            record.setTableDesc(this.tableDesc);
-
-            List<ColumnTypeEnum> columnTypeEnumList = this.tableDesc.getColumnTypeEnumList();
-            // 按照表结构定义，读取出每一个字段的数据
-            List<Field> fieldList = columnTypeEnumList.stream()
-                    .map(item-> item.parse(dis))
-                    .collect(Collectors.toList());
-
-            record.setFieldList(fieldList);
-
-            return record;
-        }
+        PageCommonUtil.fillZero(buffer, headerLength + this.maxSlotNum * recordSize, this.pageSize);
+        return this.pageSize;
     }
 
-    private void writeNextRecord(DataOutputStream dos,int slotIndex) throws IOException {
-        if (!this.bitMapHeaderArray[slotIndex]) {
-            // 空的插槽，用0填充一个record大小的空间
-            for (int j=0; j<this.tableDesc.getSize(); j++) {
-                dos.writeByte(0);
-            }
-        }else{
-            // 非空插槽，写入数据
-
-            Record recordItem = this.recordArray[slotIndex];
-            // 按照表结构定义，向dos流按照顺序写出每一个字段的数据
-            recordItem.getFieldList().forEach(
-                    item->item.serialize(dos)
-            );
+    /**
+     * 获取插槽中的记录(插槽必须已使用)，第一次访问时创建引用页面数据的记录视图
+     * */
+    private Record getRecord(int slotIndex) {
+        Record record = this.recordArray[slotIndex];
+        if (record == null) {
+            int recordOffset = this.slotFormatEnum.headerLength(this.maxSlotNum) + slotIndex * this.tableDesc.getSize();
+            record = new RecordView(this.tableDesc, new RecordId(this.pageId, slotIndex), this.pageData, recordOffset);
+            this.recordArray[slotIndex] = record;
         }
+        return record;
     }
 
     // ==============================接口方法===========================
@@ -150,19 +122,21 @@ public class DBHeapPage implements DBPage {
     /**
      * 插入一条记录
      * */
+    @Override
     public void insertRecord(Record newRecord){
         if (!newRecord.getTableDesc().equals(tableDesc)){
             throw new DBException("table desc not match");
         }
 
-        int emptySlotIndex = PageCommonUtil.getFirstEmptySlotIndex(this.bitMapHeaderArray,true);
+        int emptySlotIndex = PageCommonUtil.getFirstEmptySlotIndex(this.slotBitMap,true);
         this.recordArray[emptySlotIndex] = newRecord;
-        this.bitMapHeaderArray[emptySlotIndex] = true;
+        this.slotBitMap.set(emptySlotIndex);
     }
 
     /**
      * 删除一条记录
      * */
+    @Override
     public void deleteRecord(Record recordNeedDelete){
         if (!recordNeedDelete.getTableDesc().equals(tableDesc)){
             throw new DBException("table desc not match");
@@ -171,27 +145,58 @@ public class DBHeapPage implements DBPage {
             throw new DBException("pageId not match");
         }
 
-        for(int i=0; i<recordArray.length; i++){
+        RecordId recordId = recordNeedDelete.getRecordId();
+        for(int i = slotBitMap.nextSet(0); i >= 0; i = slotBitMap.nextSet(i + 1)){
             Record recordItem = recordArray[i];
-            if(bitMapHeaderArray[i] && recordItem.getRecordId().equals(recordNeedDelete.getRecordId())){
-                bitMapHeaderArray[i] = false;
+            // 还没有访问过的插槽，其记录id就是(当前页, 插槽下标)，不需要为了比较而创建记录视图
+            boolean match = recordItem != null ? recordId.equals(recordItem.getRecordId()) : recordId.getPageInnerNo() == i;
+            if(match){
+                slotBitMap.clear(i);
                 recordArray[i] = null;
             }
         }
     }
 
+    @Override
+    public boolean canInsert(Record newRecord) {
+        return getMaxSlotNum() > getNotEmptySlotsNum();
+    }
+
     @Override
     public int getNotEmptySlotsNum() {
-        return PageCommonUtil.getNotEmptySlotsNum(this.bitMapHeaderArray);
+        return PageCommonUtil.getNotEmptySlotsNum(this.slotBitMap);
     }
 
     @Override
     public int getMaxSlotNum(){
-        // （每一个tuple的字节数+header 1字节）
-        int perRecordBit = tableDesc.getSize() + 1;
+        return getMaxSlotNum(this.pageSize, this.tableDesc.getSize(), this.slotFormatEnum);
+    }
+
+    /**
+     * HeapPage一页能容纳的tuple最大数量，向下取整（slot插槽数）
+     * 每一个tuple占用的位数 = tuple的字节数 * 8 + header位图中的位数
+     * */
+    public static int getMaxSlotNum(int pageSize, int recordSize, SlotFormatEnum slotFormatEnum) {
+        return pageSize * 8 / (recordSize * 8 + slotFormatEnum.bitsPerSlot());
+    }
 
-        // return返回值：HeapPage一页能容纳的tuple最大数量，向下取整（slot插槽数）
-        return Database.getBufferPool().getPageSize() / perRecordBit;
+    public SlotFormatEnum getSlotFormatEnum() {
+        return slotFormatEnum;
+    }
+
+    /**
+     * 以另一种插槽格式保存同样的记录，记录所在的插槽下标不变(用于文件格式的升级)
+     * */
+    public DBHeapPage convertSlotFormat(SlotFormatEnum newSlotFormatEnum) {
+        DBHeapPage newPage = new DBHeapPage(this.tableDesc, this.pageId, new byte[this.pageSize], newSlotFormatEnum);
+        if (newPage.maxSlotNum < this.slotBitMap.size() && this.slotBitMap.nextSet(newPage.maxSlotNum) >= 0) {
+            throw new DBException("slot num not enough for new slot format pageId=" + this.pageId);
+        }
+        for (int i = slotBitMap.nextSet(0); i >= 0; i = slotBitMap.nextSet(i + 1)) {
+            newPage.slotBitMap.set(i);
+            newPage.recordArray[i] = getRecord(i);
+        }
+        return newPage;
     }
 
     @Override
@@ -216,11 +221,10 @@ public class DBHeapPage implements DBPage {
 
         public HeapPageIterator(boolean isReverse) {
             ArrayList<Record> noEmptyRecordArrayList = new ArrayList<>();
-            for (int i = 0; i < DBHeapPage.this.maxSlotNum; i++) {
-                if (DBHeapPage.this.bitMapHeaderArray[i]) {
-                    // 过滤掉为recordList为空的插槽
-                    noEmptyRecordArrayList.add(DBHeapPage.this.recordArray[i]);
-                }
+            SlotBitMap slotBitMap = DBHeapPage.this.slotBitMap;
+            // 只遍历位图中已使用的插槽
+            for (int i = slotBitMap.nextSet(0); i >= 0; i = slotBitMap.nextSet(i + 1)) {
+                noEmptyRecordArrayList.add(getRecord(i));
             }
 
             if(isReverse){
@@ -0,0 +1,385 @@
+package simpledb.dbpage.normal;
+
+import simpledb.dbpage.PageCommonUtil;
+import simpledb.dbrecord.Record;
+import simpledb.dbrecord.RecordId;
+import simpledb.exception.DBException;
+import simpledb.exception.ParseException;
+import simpledb.matadata.fields.Field;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * slotted格式的堆文件数据页，记录按照变长格式存储(STRING字段只占用实际的长度)
+ *
+ * 页面布局：
+ * 插槽数(2字节) | 记录区起始位置(2字节) | 插槽目录(每个插槽：记录偏移量2字节 + 记录长度2字节) | 空闲空间 | 记录区
+ * 插槽目录从页头向后增长，记录从页尾向前增长；长度为0的插槽是空插槽
+ *
+ * 插槽号一旦分配就不会改变(记录id中的页内下标即为插槽号)，删除记录后插槽可以被复用；
+ * 删除记录会在记录区中留下空洞，连续的空闲空间不足而总的空闲空间足够时，先进行页内整理(将记录紧凑的移动到页尾)再插入
+ *
+ * 插入、删除直接修改页面数据，序列化时不需要逐条记录重新编码
+ */
+public class DBSlottedHeapPage implements HeapPage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_ENTRY_SIZE = 4;
+
+    private final TableDesc tableDesc;
+    private final HeapPageId pageId;
+
+    /**
+     * 页大小(字节)，由所属文件决定
+     * */
+    private final int pageSize;
+
+    /**
+     * 页面数据(属于当前页，插入、删除时直接修改)
+     * */
+    private final byte[] pageData;
+
+    /**
+     * 插槽目录中的插槽数(包括空插槽)
+     * */
+    private int slotNum;
+
+    /**
+     * 记录区的起始位置，插槽目录之后到这里为连续的空闲空间
+     * */
+    private int tupleStart;
+
+    /**
+     * 存活的记录所占用的字节数
+     * */
+    private int usedBytes;
+    private int notEmptySlotsNum;
+
+    /**
+     * 已经解码过的记录，下标为插槽号
+     * */
+    private Record[] recordArray;
+
+    public DBSlottedHeapPage(TableDesc tableDesc, HeapPageId pageId, byte[] data) {
+        this.tableDesc = tableDesc;
+        this.pageId = pageId;
+        this.pageSize = data.length;
+        // 插入、删除会直接修改页面数据，不能与调用方共享
+        this.pageData = Arrays.copyOf(data, data.length);
+        deSerialize();
+    }
+
+    private void deSerialize() {
+        this.slotNum = readUnsignedShort(0);
+        this.tupleStart = readUnsignedShort(2);
+        if (this.slotNum == 0 && this.tupleStart == 0) {
+            // 全0的新页
+            this.tupleStart = this.pageSize;
+        }
+        if (this.tupleStart > this.pageSize || directoryEnd() > this.tupleStart) {
+            throw new ParseException("deSerialize DBSlottedHeapPage error pageId=" + this.pageId
+                    + " slotNum=" + this.slotNum + " tupleStart=" + this.tupleStart);
+        }
+
+        for (int slot = 0; slot < this.slotNum; slot++) {
+            int length = getSlotLength(slot);
+            if (length > 0) {
+                this.usedBytes += length;
+                this.notEmptySlotsNum++;
+            }
+        }
+        this.recordArray = new Record[this.slotNum];
+    }
+
+    @Override
+    public byte[] serialize() {
+        return Arrays.copyOf(this.pageData, this.pageSize);
+    }
+
+    @Override
+    public int serialize(ByteBuffer buffer) {
+        PageCommonUtil.putBytes(buffer, 0, this.pageData, 0, this.pageSize);
+        return this.pageSize;
+    }
+
+    // ==============================接口方法===========================
+
+    @Override
+    public void insertRecord(Record newRecord) {
+        if (!newRecord.getTableDesc().equals(tableDesc)) {
+            throw new DBException("table desc not match");
+        }
+
+        int length = getRecordLength(newRecord);
+        int slot = findEmptySlot();
+        int needSpace = length + (slot < 0 ? SLOT_ENTRY_SIZE : 0);
+        if (needSpace > getFreeSpace()) {
+            throw new DBException("slotted page has no enough space pageId=" + this.pageId
+                    + " needSpace=" + needSpace + " freeSpace=" + getFreeSpace());
+        }
+        if (needSpace > this.tupleStart - directoryEnd()) {
+            // 空闲空间足够，但是被删除记录留下的空洞分隔开了
+            compact();
+        }
+
+        if (slot < 0) {
+            slot = this.slotNum++;
+            if (slot >= this.recordArray.length) {
+                this.recordArray = Arrays.copyOf(this.recordArray, Math.max(8, this.recordArray.length * 2));
+            }
+        }
+        this.tupleStart -= length;
+        int offset = this.tupleStart;
+        for (int i = 0; i < tableDesc.getColumnNum(); i++) {
+            offset = getColumnType(i).writeCompact(newRecord.getField(i), this.pageData, offset);
+        }
+        setSlot(slot, this.tupleStart, length);
+        writeHeader();
+        this.usedBytes += length;
+        this.notEmptySlotsNum++;
+
+        newRecord.setRecordId(new RecordId(this.pageId, slot));
+        // 读取时以页面数据为准重新解码
+        this.recordArray[slot] = null;
+    }
+
+    @Override
+    public void deleteRecord(Record recordNeedDelete) {
+        if (!recordNeedDelete.getTableDesc().equals(tableDesc)) {
+            throw new DBException("table desc not match");
+        }
+        RecordId recordId = recordNeedDelete.getRecordId();
+        if (recordId == null) {
+            throw new DBException("tried to delete tuple with null rid");
+        }
+        if (!recordId.getPageId().equals(this.pageId)) {
+            throw new DBException("pageId not match");
+        }
+        int slot = recordId.getPageInnerNo();
+        if (slot < 0 || slot >= this.slotNum || getSlotLength(slot) == 0) {
+            throw new DBException("tried to delete null tuple recordId=" + recordId);
+        }
+
+        int offset = getSlotOffset(slot);
+        int length = getSlotLength(slot);
+        Arrays.fill(this.pageData, offset, offset + length, (byte) 0);
+        if (offset == this.tupleStart) {
+            // 删除的是记录区最前面的记录，直接归还给连续的空闲空间
+            this.tupleStart += length;
+        }
+        setSlot(slot, 0, 0);
+        this.recordArray[slot] = null;
+        this.usedBytes -= length;
+        this.notEmptySlotsNum--;
+
+        // 末尾的空插槽不会再被任何记录id引用，从插槽目录中去掉
+        while (this.slotNum > 0 && getSlotLength(this.slotNum - 1) == 0) {
+            this.slotNum--;
+            setSlot(this.slotNum, 0, 0);
+        }
+        if (this.slotNum == 0) {
+            this.tupleStart = this.pageSize;
+        }
+        writeHeader();
+    }
+
+    @Override
+    public boolean canInsert(Record newRecord) {
+        int needSpace = getRecordLength(newRecord) + (findEmptySlot() < 0 ? SLOT_ENTRY_SIZE : 0);
+        return needSpace <= getFreeSpace();
+    }
+
+    @Override
+    public int getNotEmptySlotsNum() {
+        return this.notEmptySlotsNum;
+    }
+
+    /**
+     * 记录是变长的，最大插槽数为已有的记录数 + 按照页内记录的平均长度估算还能放下的记录数
+     * (用于空闲空间映射，只是一个提示，实际能否插入以canInsert为准)
+     * */
+    @Override
+    public int getMaxSlotNum() {
+        int estimateLength = this.notEmptySlotsNum > 0
+                ? (this.usedBytes + this.notEmptySlotsNum - 1) / this.notEmptySlotsNum
+                : getMinRecordLength();
+        return this.notEmptySlotsNum + getFreeSpace() / (estimateLength + SLOT_ENTRY_SIZE);
+    }
+
+    /**
+     * 页内总的空闲字节数(包括删除记录留下的空洞)
+     * */
+    public int getFreeSpace() {
+        return this.pageSize - directoryEnd() - this.usedBytes;
+    }
+
+    /**
+     * 页内整理：将所有的记录紧凑的移动到页尾，合并删除记录留下的空洞，插槽号不变
+     * */
+    public void compact() {
+        List<Integer> liveSlotList = new ArrayList<>(this.notEmptySlotsNum);
+        for (int slot = 0; slot < this.slotNum; slot++) {
+            if (getSlotLength(slot) > 0) {
+                liveSlotList.add(slot);
+            }
+        }
+        // 从偏移量最大的记录开始向页尾移动，移动的目标位置总是不小于原位置，不会覆盖还没有移动的记录
+        liveSlotList.sort((s1, s2) -> Integer.compare(getSlotOffset(s2), getSlotOffset(s1)));
+
+        int newTupleStart = this.pageSize;
+        for (int slot : liveSlotList) {
+            int length = getSlotLength(slot);
+            newTupleStart -= length;
+            System.arraycopy(this.pageData, getSlotOffset(slot), this.pageData, newTupleStart, length);
+            setSlot(slot, newTupleStart, length);
+        }
+        Arrays.fill(this.pageData, directoryEnd(), newTupleStart, (byte) 0);
+        this.tupleStart = newTupleStart;
+        writeHeader();
+    }
+
+    @Override
+    public HeapPageId getPageId() {
+        return pageId;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new SlottedPageIterator(false);
+    }
+
+    @Override
+    public Iterator<Record> reverseIterator() {
+        return new SlottedPageIterator(true);
+    }
+
+    // ==============================页面数据读写===========================
+
+    /**
+     * 获取插槽中的记录(插槽必须已使用)，第一次访问时从页面数据中解码
+     * */
+    private Record getRecord(int slot) {
+        Record record = this.recordArray[slot];
+        if (record == null) {
+            int offset = getSlotOffset(slot);
+            List<Field> fieldList = new ArrayList<>(tableDesc.getColumnNum());
+            for (int i = 0; i < tableDesc.getColumnNum(); i++) {
+                ColumnTypeEnum columnTypeEnum = getColumnType(i);
+                fieldList.add(columnTypeEnum.parseCompact(this.pageData, offset));
+                offset += columnTypeEnum.getCompactLength(this.pageData, offset);
+            }
+            record = new Record(tableDesc);
+            record.setRecordId(new RecordId(this.pageId, slot));
+            record.setFieldList(fieldList);
+            this.recordArray[slot] = record;
+        }
+        return record;
+    }
+
+    private int getRecordLength(Record record) {
+        int length = 0;
+        for (int i = 0; i < tableDesc.getColumnNum(); i++) {
+            length += getColumnType(i).getCompactLength(record.getField(i));
+        }
+        return length;
+    }
+
+    /**
+     * 所有STRING字段都为空串时记录的长度
+     * */
+    private int getMinRecordLength() {
+        int length = 0;
+        for (int i = 0; i < tableDesc.getColumnNum(); i++) {
+            length += getColumnType(i) == ColumnTypeEnum.STRING_TYPE ? 2 : getColumnType(i).getLength();
+        }
+        return length;
+    }
+
+    private ColumnTypeEnum getColumnType(int index) {
+        return tableDesc.getColumn(index).getColumnTypeEnum();
+    }
+
+    /**
+     * @return 第一个空插槽，-1表示没有
+     * */
+    private int findEmptySlot() {
+        if (this.notEmptySlotsNum == this.slotNum) {
+            return -1;
+        }
+        for (int slot = 0; slot < this.slotNum; slot++) {
+            if (getSlotLength(slot) == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + this.slotNum * SLOT_ENTRY_SIZE;
+    }
+
+    private int getSlotOffset(int slot) {
+        return readUnsignedShort(HEADER_SIZE + slot * SLOT_ENTRY_SIZE);
+    }
+
+    private int getSlotLength(int slot) {
+        return readUnsignedShort(HEADER_SIZE + slot * SLOT_ENTRY_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        writeShort(HEADER_SIZE + slot * SLOT_ENTRY_SIZE, offset);
+        writeShort(HEADER_SIZE + slot * SLOT_ENTRY_SIZE + 2, length);
+    }
+
+    private void writeHeader() {
+        writeShort(0, this.slotNum);
+        writeShort(2, this.tupleStart);
+    }
+
+    private int readUnsignedShort(int position) {
+        return ((this.pageData[position] & 0xFF) << 8) | (this.pageData[position + 1] & 0xFF);
+    }
+
+    private void writeShort(int position, int value) {
+        this.pageData[position] = (byte) (value >>> 8);
+        this.pageData[position + 1] = (byte) value;
+    }
+
+    // =============================== Page页迭代器 ====================================
+
+    private class SlottedPageIterator implements Iterator<Record> {
+        private final Iterator<Record> iter;
+
+        public SlottedPageIterator(boolean isReverse) {
+            ArrayList<Record> noEmptyRecordArrayList = new ArrayList<>(notEmptySlotsNum);
+            for (int slot = 0; slot < slotNum; slot++) {
+                if (getSlotLength(slot) > 0) {
+                    noEmptyRecordArrayList.add(getRecord(slot));
+                }
+            }
+
+            if (isReverse) {
+                Collections.reverse(noEmptyRecordArrayList);
+            }
+
+            iter = noEmptyRecordArrayList.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            return iter.next();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package simpledb.dbpage.normal;
+
+import simpledb.dbpage.DBPage;
+import simpledb.dbrecord.Record;
+
+/**
+ * 堆文件的数据页
+ */
+public interface HeapPage extends DBPage {
+
+    void insertRecord(Record newRecord);
+
+    void deleteRecord(Record recordNeedDelete);
+
+    /**
+     * 当前页是否还能放下这条记录
+     * */
+    boolean canInsert(Record newRecord);
+
+    @Override
+    HeapPageId getPageId();
+}
@@ -0,0 +1,48 @@
+package simpledb.dbpage.normal;
+
+import simpledb.exception.DBException;
+
+/**
+ * 堆文件中数据页的格式，每张表(每个堆文件)在创建时选定，记录在文件头中
+ */
+public enum HeapPageFormatEnum {
+
+    /**
+     * 插槽位图 + 定长记录(DBHeapPage)，STRING字段总是占用MAX_LENGTH的空间
+     * */
+    FIXED(0, "定长记录"),
+
+    /**
+     * 插槽目录 + 变长记录区(DBSlottedHeapPage)，记录只占用实际的数据长度
+     * */
+    SLOTTED(1, "变长记录"),
+    ;
+
+    HeapPageFormatEnum(int code, String message) {
+        this.code = code;
+        this.message = message;
+    }
+
+    /**
+     * 写入文件头中的编号
+     * */
+    private final int code;
+    private final String message;
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public static HeapPageFormatEnum getByCode(int code) {
+        for (HeapPageFormatEnum heapPageFormatEnum : values()) {
+            if (heapPageFormatEnum.code == code) {
+                return heapPageFormatEnum;
+            }
+        }
+        throw new DBException("un support heap page format code=" + code);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.dbrecord;
 import simpledb.matadata.fields.Field;
 import simpledb.matadata.table.TableDesc;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -49,8 +50,20 @@ public class Record {
         this.fieldList = fieldList;
     }
 
+    /**
+     * 按照表结构定义的顺序，以绝对位置将每一个字段写入buffer
+     * @return 记录之后的偏移量
+     * */
+    public int serialize(ByteBuffer buffer, int offset) {
+        List<Field> fieldList = getFieldList();
+        for (int i = 0; i < fieldList.size(); i++) {
+            offset = fieldList.get(i).serialize(buffer, offset);
+        }
+        return offset;
+    }
+
     @Override
     public String toString() {
-        return fieldList.toString();
+        return getFieldList().toString();
     }
 }
@@ -0,0 +1,97 @@
+package simpledb.dbrecord;
+
+import simpledb.dbpage.PageCommonUtil;
+import simpledb.matadata.fields.Field;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 直接引用页面二进制数据的记录视图
+ * 页面解析时不再为每个插槽反序列化出完整的字段列表，只记录数据所在的位置；
+ * 访问某个字段时按照表结构计算出字段的偏移量，只解析这一个字段(解析结果会被缓存)，
+ * 需要完整的字段列表时(getFieldList)才解析全部字段
+ *
+ * 引用的页面数据在页面解析后不会再被修改；setFieldList之后视图与页面数据脱离，以新的字段列表为准
+ */
+public class RecordView extends Record {
+
+    private final byte[] data;
+    private final int offset;
+
+    /**
+     * 已经解析出的字段，下标为字段下标
+     * */
+    private final Field[] fieldCache;
+
+    /**
+     * 字段列表被替换过，页面数据中的内容已经失效
+     * */
+    private boolean detached;
+
+    /**
+     * @param data 记录所在页面的二进制数据
+     * @param offset 记录在页面中的起始偏移量
+     * */
+    public RecordView(TableDesc tableDesc, RecordId recordId, byte[] data, int offset) {
+        super(tableDesc);
+        setRecordId(recordId);
+        this.data = data;
+        this.offset = offset;
+        this.fieldCache = new Field[tableDesc.getColumnNum()];
+    }
+
+    @Override
+    public Field getField(int index) {
+        List<Field> fieldList = super.getFieldList();
+        if (fieldList != null) {
+            return fieldList.get(index);
+        }
+
+        Field field = fieldCache[index];
+        if (field == null) {
+            TableDesc tableDesc = getTableDesc();
+            ColumnTypeEnum columnTypeEnum = tableDesc.getColumn(index).getColumnTypeEnum();
+            field = columnTypeEnum.parse(data, offset + tableDesc.getColumnOffset(index));
+            fieldCache[index] = field;
+        }
+        return field;
+    }
+
+    @Override
+    public List<Field> getFieldList() {
+        List<Field> fieldList = super.getFieldList();
+        if (fieldList == null) {
+            // 第一次需要完整的记录时，解析出剩余的字段
+            fieldList = new ArrayList<>(fieldCache.length);
+            for (int i = 0; i < fieldCache.length; i++) {
+                fieldList.add(getField(i));
+            }
+            super.setFieldList(fieldList);
+        }
+        return fieldList;
+    }
+
+    @Override
+    public void setFieldList(List<Field> fieldList) {
+        super.setFieldList(fieldList);
+        this.detached = true;
+    }
+
+    /**
+     * 记录的内容仍然与页面数据一致时，直接拷贝页面中的原始字节，不需要逐个字段序列化；
+     * 视图已经脱离页面数据时按照字段列表序列化
+     * */
+    @Override
+    public int serialize(ByteBuffer buffer, int offset) {
+        if (detached) {
+            return super.serialize(buffer, offset);
+        }
+        int size = getTableDesc().getSize();
+        PageCommonUtil.putBytes(buffer, offset, data, this.offset, size);
+        return offset + size;
+    }
+}
@@ -0,0 +1,28 @@
+package simpledb.iterator.enums;
+
+/**
+ * 顺序扫描对扫描期间新增页面的处理方式
+ */
+public enum ScanModeEnum {
+
+    /**
+     * 只扫描open时已经存在的页，扫描期间新追加的页不可见
+     * */
+    SNAPSHOT("快照"),
+
+    /**
+     * 扫描到末尾时重新读取文件当前的页数，扫描期间新追加的页也会被扫描
+     * */
+    FOLLOW_GROWTH("跟随增长"),
+    ;
+
+    ScanModeEnum(String message) {
+        this.message = message;
+    }
+
+    private final String message;
+
+    public String getMessage() {
+        return message;
+    }
+}
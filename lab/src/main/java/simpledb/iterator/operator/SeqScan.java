@@ -3,6 +3,7 @@ package simpledb.iterator.operator;
 import simpledb.dbfile.DBFile;
 import simpledb.dbrecord.Record;
 import simpledb.iterator.DbFileIterator;
+import simpledb.iterator.enums.ScanModeEnum;
 import simpledb.matadata.table.TableDesc;
 
 /**
@@ -19,6 +20,11 @@ public class SeqScan implements DbIterator {
         this.dbFileIterator = dbFile.getIterator();
     }
 
+    public SeqScan(DBFile dbFile, ScanModeEnum scanModeEnum) {
+        this.dbFile = dbFile;
+        this.dbFileIterator = dbFile.getIterator(scanModeEnum);
+    }
+
     @Override
     public TableDesc getTupleDesc() {
         return dbFile.getTableDesc();
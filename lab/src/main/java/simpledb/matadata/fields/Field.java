@@ -5,6 +5,7 @@ import simpledb.iterator.enums.OperatorEnum;
 import simpledb.matadata.types.ColumnTypeEnum;
 
 import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author xiongyx
@@ -14,6 +15,12 @@ public interface Field {
 
     void serialize(DataOutputStream dos);
 
+    /**
+     * 以绝对位置写入到buffer中(格式与serialize(DataOutputStream)一致)，不改变buffer的position
+     * @return 字段之后的偏移量
+     * */
+    int serialize(ByteBuffer buffer, int offset);
+
     boolean compare(OperatorEnum operatorEnum, Field value);
 
     ColumnTypeEnum getType();
@@ -8,6 +8,7 @@ import simpledb.matadata.types.ColumnTypeEnum;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author xiongyx
@@ -39,6 +40,12 @@ public class IntField implements Field {
         }
     }
 
+    @Override
+    public int serialize(ByteBuffer buffer, int offset) {
+        buffer.putInt(offset, value);
+        return offset + 4;
+    }
+
     @Override
     public boolean compare(OperatorEnum operatorEnum, Field value) {
         IntField iVal = (IntField) value;
@@ -46,10 +53,10 @@ public class IntField implements Field {
         switch (operatorEnum) {
             case EQUALS:
             case LIKE:
-                return this.value == iVal.value;
+                return this.value.equals(iVal.value);
 
             case NOT_EQUALS:
-                return this.value != iVal.value;
+                return !this.value.equals(iVal.value);
 
             case GREATER_THAN:
                 return this.value > iVal.value;
@@ -8,6 +8,7 @@ import simpledb.matadata.types.ColumnTypeEnum;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author xiongyx
@@ -20,6 +21,11 @@ public class StringField implements Field {
      * */
     public static final int MAX_LENGTH = 128;
 
+    /**
+     * 序列化时填充剩余空间用的0
+     * */
+    private static final byte[] ZERO_PADDING = new byte[MAX_LENGTH];
+
     private String value;
     private final ColumnTypeEnum columnTypeEnum = ColumnTypeEnum.STRING_TYPE;
 
@@ -61,15 +67,39 @@ public class StringField implements Field {
             dos.writeInt(value.length());
             dos.writeBytes(value);
 
-            while (overflow-- > 0){
+            if (overflow > 0) {
                 // 磁盘中存储的string字段长度是定长的，剩余的空间用0填充
-                dos.write((byte) 0);
+                dos.write(ZERO_PADDING, 0, overflow);
             }
         } catch (IOException e) {
             throw new ParseException("StringField serialize error");
         }
     }
 
+    @Override
+    public int serialize(ByteBuffer buffer, int offset) {
+        if (value.length() > MAX_LENGTH) {
+            value = value.substring(0, MAX_LENGTH);
+        }
+        int length = value.length();
+        buffer.putInt(offset, length);
+        int position = offset + 4;
+        for (int i = 0; i < length; i++) {
+            // 与DataOutputStream.writeBytes一致，只保留每个字符的低8位
+            buffer.put(position + i, (byte) value.charAt(i));
+        }
+        // 剩余的空间用0填充(buffer可能是复用的，不能假设原本就是0)
+        int end = offset + 4 + MAX_LENGTH;
+        int i = position + length;
+        for (; i + 8 <= end; i += 8) {
+            buffer.putLong(i, 0L);
+        }
+        for (; i < end; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        return end;
+    }
+
     @Override
     public boolean compare(OperatorEnum operatorEnum, Field recordFieldValue) {
         StringField itemValue = (StringField) recordFieldValue;
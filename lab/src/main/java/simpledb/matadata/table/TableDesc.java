@@ -18,6 +18,11 @@ public class TableDesc {
     private String tableId;
     private final List<TableDescItem> tableDescItemList;
 
+    /**
+     * 每个字段在记录中的起始偏移量，最后一项为记录的总长度(第一次使用时计算)
+     * */
+    private volatile int[] columnOffsets;
+
     public TableDesc(ColumnTypeEnum[] columnTypeEnumList) {
         this.tableId = UUID.randomUUID().toString();
         this.tableDescItemList = new ArrayList<>();
@@ -55,10 +60,27 @@ public class TableDesc {
     }
 
     public int getSize() {
-        return tableDescItemList.stream()
-                .map(TableDescItem::getColumnTypeEnum)
-                .mapToInt(ColumnType::getLength)
-                .sum();
+        return getColumnOffsets()[tableDescItemList.size()];
+    }
+
+    /**
+     * 第index个字段在记录中的起始偏移量(字节)
+     * */
+    public int getColumnOffset(int index) {
+        return getColumnOffsets()[index];
+    }
+
+    private int[] getColumnOffsets() {
+        int[] offsets = this.columnOffsets;
+        if (offsets == null) {
+            offsets = new int[tableDescItemList.size() + 1];
+            for (int i = 0; i < tableDescItemList.size(); i++) {
+                ColumnType columnType = tableDescItemList.get(i).getColumnTypeEnum();
+                offsets[i + 1] = offsets[i] + columnType.getLength();
+            }
+            this.columnOffsets = offsets;
+        }
+        return offsets;
     }
 
     public int getColumnNum() {
@@ -3,6 +3,7 @@ package simpledb.matadata.types;
 import simpledb.matadata.fields.Field;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author xiongyx
@@ -13,5 +14,36 @@ public interface ColumnType {
     int getLength();
     Field parse(DataInputStream dataInputStream);
 
+    /**
+     * 从字节数组的指定位置解析出一个字段(与parse(DataInputStream)的格式一致)
+     * */
+    Field parse(byte[] data, int offset);
+
+    /**
+     * 以绝对位置从buffer中解析出一个字段(与parse(DataInputStream)的格式一致)，不改变buffer的position
+     * */
+    Field parse(ByteBuffer buffer, int offset);
+
+    /**
+     * 变长格式(slotted页)中字段占用的字节数，STRING字段只占用实际的长度
+     * */
+    int getCompactLength(Field field);
+
+    /**
+     * 字节数组指定位置上变长格式的字段占用的字节数
+     * */
+    int getCompactLength(byte[] data, int offset);
+
+    /**
+     * 以变长格式将字段写入字节数组的指定位置
+     * @return 写入后的位置
+     * */
+    int writeCompact(Field field, byte[] data, int offset);
+
+    /**
+     * 从字节数组的指定位置解析出一个变长格式的字段
+     * */
+    Field parseCompact(byte[] data, int offset);
+
     Class javaType();
 }
@@ -5,6 +5,7 @@ import simpledb.matadata.fields.IntField;
 import simpledb.matadata.fields.StringField;
 
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author xiongyx
@@ -22,6 +23,41 @@ public enum ColumnTypeEnum implements ColumnType{
             return new IntField(dataInputStream);
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public Field parse(ByteBuffer buffer, int offset) {
+            return new IntField(buffer.getInt(offset));
+        }
+
+        @Override
+        public int getCompactLength(Field field) {
+            return 4;
+        }
+
+        @Override
+        public int getCompactLength(byte[] data, int offset) {
+            return 4;
+        }
+
+        @Override
+        public int writeCompact(Field field, byte[] data, int offset) {
+            int value = ((IntField) field).getValue();
+            data[offset] = (byte) (value >>> 24);
+            data[offset + 1] = (byte) (value >>> 16);
+            data[offset + 2] = (byte) (value >>> 8);
+            data[offset + 3] = (byte) value;
+            return offset + 4;
+        }
+
+        @Override
+        public Field parseCompact(byte[] data, int offset) {
+            return parse(data, offset);
+        }
+
         @Override
         public Class<Integer> javaType() {
             return Integer.class;
@@ -38,6 +74,58 @@ public enum ColumnTypeEnum implements ColumnType{
             return new StringField(dataInputStream);
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            // 前4个字节为实际长度，超过MAX_LENGTH的部分截断
+            int realSize = Math.max(0, Math.min(readInt(data, offset), StringField.MAX_LENGTH));
+            return new StringField(new String(data, offset + 4, realSize));
+        }
+
+        @Override
+        public Field parse(ByteBuffer buffer, int offset) {
+            int realSize = Math.max(0, Math.min(buffer.getInt(offset), StringField.MAX_LENGTH));
+            if (buffer.hasArray()) {
+                return new StringField(new String(buffer.array(), buffer.arrayOffset() + offset + 4, realSize));
+            }
+            byte[] bs = new byte[realSize];
+            for (int i = 0; i < realSize; i++) {
+                bs[i] = buffer.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs));
+        }
+
+        /**
+         * 变长格式：2字节的实际长度 + 实际的数据，没有补齐到MAX_LENGTH的填充
+         * */
+        @Override
+        public int getCompactLength(Field field) {
+            return 2 + Math.min(((StringField) field).getValue().length(), StringField.MAX_LENGTH);
+        }
+
+        @Override
+        public int getCompactLength(byte[] data, int offset) {
+            return 2 + readUnsignedShort(data, offset);
+        }
+
+        @Override
+        public int writeCompact(Field field, byte[] data, int offset) {
+            String value = ((StringField) field).getValue();
+            int realSize = Math.min(value.length(), StringField.MAX_LENGTH);
+            data[offset] = (byte) (realSize >>> 8);
+            data[offset + 1] = (byte) realSize;
+            // 与DataOutputStream.writeBytes一致，每个字符只写入低8位
+            for (int i = 0; i < realSize; i++) {
+                data[offset + 2 + i] = (byte) value.charAt(i);
+            }
+            return offset + 2 + realSize;
+        }
+
+        @Override
+        public Field parseCompact(byte[] data, int offset) {
+            int realSize = Math.min(readUnsignedShort(data, offset), StringField.MAX_LENGTH);
+            return new StringField(new String(data, offset + 2, realSize));
+        }
+
         @Override
         public Class<String> javaType() {
             return String.class;
@@ -45,5 +133,17 @@ public enum ColumnTypeEnum implements ColumnType{
     },
     ;
 
+    /**
+     * 按照DataOutputStream.writeInt的格式(大端)读取一个int
+     * */
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24)
+                | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
 
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
 }
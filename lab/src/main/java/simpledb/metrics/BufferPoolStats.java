@@ -0,0 +1,73 @@
+package simpledb.metrics;
+
+import simpledb.BufferPool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓冲池统计，计数器由缓冲池自己维护，这里只负责读取
+ */
+public class BufferPoolStats implements BufferPoolStatsMBean {
+
+    private final BufferPool bufferPool;
+
+    public BufferPoolStats(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public int getMaxPageNum() {
+        return bufferPool.getMaxPageSize();
+    }
+
+    @Override
+    public int getCachedPageNum() {
+        return bufferPool.getCachedPageNum();
+    }
+
+    @Override
+    public int getDirtyPageNum() {
+        return bufferPool.getDirtyPageNum();
+    }
+
+    @Override
+    public long getHitCount() {
+        return bufferPool.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return bufferPool.getMissCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return bufferPool.getHitRatio();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return bufferPool.getEvictionCount();
+    }
+
+    @Override
+    public double getMissMeanMicros() {
+        return bufferPool.getMissLatency().getMeanNanos() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getMissP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(bufferPool.getMissLatency().getQuantileNanos(0.99));
+    }
+
+    @Override
+    public long getBackgroundFlushFailureCount() {
+        return bufferPool.getBackgroundFlushFailureNum();
+    }
+
+    @Override
+    public String getBackgroundFlushLastFailure() {
+        RuntimeException lastFailure = bufferPool.getBackgroundFlushLastFailure();
+        return lastFailure == null ? null : lastFailure.toString();
+    }
+}
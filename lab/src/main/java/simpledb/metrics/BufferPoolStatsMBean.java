@@ -0,0 +1,29 @@
+package simpledb.metrics;
+
+/**
+ * 缓冲池统计(JMX)
+ */
+public interface BufferPoolStatsMBean {
+
+    int getMaxPageNum();
+
+    int getCachedPageNum();
+
+    int getDirtyPageNum();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+
+    long getEvictionCount();
+
+    double getMissMeanMicros();
+
+    long getMissP99Micros();
+
+    long getBackgroundFlushFailureCount();
+
+    String getBackgroundFlushLastFailure();
+}
@@ -0,0 +1,85 @@
+package simpledb.metrics;
+
+import simpledb.BufferPool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 监控指标的注册中心
+ * 缓冲池注册为simpledb:type=BufferPool,name=xxx，每张表注册为simpledb:type=Table,table=xxx
+ * JMX注册失败(例如运行环境禁用了JMX)不影响统计本身，只是无法通过JMX查看
+ */
+public class DBMetrics {
+
+    private static final String DOMAIN = "simpledb";
+
+    private static final ConcurrentHashMap<String, TableStats> TABLE_STATS_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 获取表的统计，第一次获取时创建并注册
+     * */
+    public static TableStats getTableStats(String tableId) {
+        TableStats tableStats = TABLE_STATS_MAP.get(tableId);
+        if (tableStats != null) {
+            return tableStats;
+        }
+        return TABLE_STATS_MAP.computeIfAbsent(tableId, id -> {
+            TableStats newTableStats = new TableStats(id);
+            register(objectName("type=Table,table=" + ObjectName.quote(id)), newTableStats);
+            return newTableStats;
+        });
+    }
+
+    /**
+     * 注册缓冲池的统计，同名的缓冲池会被替换
+     * */
+    public static void registerBufferPool(String bufferPoolName, BufferPool bufferPool) {
+        register(bufferPoolObjectName(bufferPoolName), new BufferPoolStats(bufferPool));
+    }
+
+    public static void unregisterBufferPool(String bufferPoolName) {
+        ObjectName objectName = bufferPoolObjectName(bufferPoolName);
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException | SecurityException e) {
+            // 注销失败只影响JMX的查看
+        }
+    }
+
+    private static ObjectName bufferPoolObjectName(String bufferPoolName) {
+        return objectName("type=BufferPool,name=" + ObjectName.quote(bufferPoolName));
+    }
+
+    private static void register(ObjectName objectName, Object mBean) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(mBean, objectName);
+        } catch (JMException | SecurityException e) {
+            // 注册失败只影响JMX的查看
+        }
+    }
+
+    private static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            return null;
+        }
+    }
+}
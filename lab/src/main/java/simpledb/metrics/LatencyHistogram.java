@@ -0,0 +1,80 @@
+package simpledb.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 延迟直方图
+ * 按照2的幂次划分桶(第i个桶记录[2^i, 2^(i+1))纳秒的样本)，记录时只有LongAdder的累加，没有锁
+ * 分位数按照桶的上界估算，误差在2倍以内，足够用来判断延迟的量级
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_NUM = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_NUM];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketIndex(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public double getMeanNanos() {
+        long sampleCount = count.sum();
+        return sampleCount == 0 ? 0 : (double) totalNanos.sum() / sampleCount;
+    }
+
+    /**
+     * 估算分位数
+     * @param quantile 0~1之间，例如0.99
+     * @return 分位数所在桶的上界(纳秒)，没有样本时返回0
+     * */
+    public long getQuantileNanos(double quantile) {
+        long[] bucketCounts = new long[BUCKET_NUM];
+        long sampleCount = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            bucketCounts[i] = buckets[i].sum();
+            sampleCount += bucketCounts[i];
+        }
+        if (sampleCount == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * sampleCount);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            accumulated += bucketCounts[i];
+            if (accumulated >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(BUCKET_NUM - 1);
+    }
+
+    private static int bucketIndex(long nanos) {
+        return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    private static long bucketUpperBound(int index) {
+        return index >= 62 ? Long.MAX_VALUE : (1L << (index + 1)) - 1;
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单张表的缓冲池命中与页面读写统计
+ */
+public class TableStats implements TableStatsMBean {
+
+    private final String tableId;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder readPageCount = new LongAdder();
+    private final LongAdder readBytes = new LongAdder();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+
+    private final LongAdder writePageCount = new LongAdder();
+    private final LongAdder writeBytes = new LongAdder();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    public TableStats(String tableId) {
+        this.tableId = tableId;
+    }
+
+    public void recordHit() {
+        hitCount.increment();
+    }
+
+    public void recordMiss() {
+        missCount.increment();
+    }
+
+    public void recordRead(int bytes, long nanos) {
+        readPageCount.increment();
+        readBytes.add(bytes);
+        readLatency.record(nanos);
+    }
+
+    public void recordWrite(int bytes, long nanos) {
+        writePageCount.increment();
+        writeBytes.add(bytes);
+        writeLatency.record(nanos);
+    }
+
+    /**
+     * 一次批量写入了多个页面，延迟按照一次写入记录
+     * */
+    public void recordBatchWrite(int pageNum, long bytes, long nanos) {
+        writePageCount.add(pageNum);
+        writeBytes.add(bytes);
+        writeLatency.record(nanos);
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    @Override
+    public String getTableId() {
+        return tableId;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hit = hitCount.sum();
+        long total = hit + missCount.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public long getReadPageCount() {
+        return readPageCount.sum();
+    }
+
+    @Override
+    public long getReadBytes() {
+        return readBytes.sum();
+    }
+
+    @Override
+    public double getReadMeanMicros() {
+        return readLatency.getMeanNanos() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getReadP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(readLatency.getQuantileNanos(0.99));
+    }
+
+    @Override
+    public long getWritePageCount() {
+        return writePageCount.sum();
+    }
+
+    @Override
+    public long getWriteBytes() {
+        return writeBytes.sum();
+    }
+
+    @Override
+    public double getWriteMeanMicros() {
+        return writeLatency.getMeanNanos() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getWriteP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(writeLatency.getQuantileNanos(0.99));
+    }
+}
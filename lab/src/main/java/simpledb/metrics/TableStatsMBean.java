@@ -0,0 +1,31 @@
+package simpledb.metrics;
+
+/**
+ * 单张表的缓冲池命中与页面读写统计(JMX)
+ */
+public interface TableStatsMBean {
+
+    String getTableId();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+
+    long getReadPageCount();
+
+    long getReadBytes();
+
+    double getReadMeanMicros();
+
+    long getReadP99Micros();
+
+    long getWritePageCount();
+
+    long getWriteBytes();
+
+    double getWriteMeanMicros();
+
+    long getWriteP99Micros();
+}
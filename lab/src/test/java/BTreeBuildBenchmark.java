@@ -0,0 +1,77 @@
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbfile.BulkLoadResult;
+import simpledb.dbrecord.Record;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 对比逐条insertTuple与自底向上批量构建B+树的耗时以及最终的页数
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes BTreeBuildBenchmark
+ */
+public class BTreeBuildBenchmark {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int RECORD_NUM = 50000;
+
+    public static void main(String[] args) throws IOException {
+        // 逐条插入时内部页拆分需要同时pin住所有的孩子页，使用较大的缓冲池
+        Database.reset(new DBConfig(PAGE_SIZE, DBConfig.DEFAULT_PAGE_CAPACITY));
+
+        BTreeFile insertBTreeFile = createBTreeFile();
+        long start = System.nanoTime();
+        for (Record record : randomRecords(insertBTreeFile.getTableDesc())) {
+            Database.getBufferPool().insertTuple(insertBTreeFile.getTableId(), record);
+        }
+        Database.getBufferPool().flushAllPages();
+        long insertCost = System.nanoTime() - start;
+
+        System.out.printf("pageSize=%d, records=%d%n", PAGE_SIZE, RECORD_NUM);
+        System.out.printf("%-20s %-12s %-12s%n", "mode", "build(ms)", "pages");
+        System.out.printf("%-20s %-12d %-12d%n", "insertTuple", insertCost / 1_000_000, insertBTreeFile.numPages());
+
+        for (double fillFactor : new double[]{1.0, 0.9, 0.7}) {
+            BTreeFile bulkBTreeFile = createBTreeFile();
+            BulkLoadResult result = bulkBTreeFile.bulkBuild(randomRecords(bulkBTreeFile.getTableDesc()).iterator(),
+                    fillFactor, BTreeFile.DEFAULT_BULK_BUILD_SORT_RECORD_NUM);
+            System.out.printf("%-20s %-12d %-12d%n", "bulkBuild(ff=" + fillFactor + ")",
+                    result.getElapsedNanos() / 1_000_000, bulkBTreeFile.numPages());
+        }
+        Database.reset(new DBConfig());
+    }
+
+    private static BTreeFile createBTreeFile() throws IOException {
+        File file = File.createTempFile("bTreeBuildBenchmark", ".idx");
+        file.deleteOnExit();
+        TableDesc tableDesc = new TableDesc(
+                file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE}
+        );
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+        return bTreeFile;
+    }
+
+    private static List<Record> randomRecords(TableDesc tableDesc) {
+        Random random = new Random(1);
+        List<Record> recordList = new ArrayList<>(RECORD_NUM);
+        for (int i = 0; i < RECORD_NUM; i++) {
+            int id = random.nextInt(RECORD_NUM);
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(id), new StringField("record" + id)));
+            recordList.add(record);
+        }
+        return recordList;
+    }
+}
@@ -0,0 +1,121 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbfile.BulkLoadResult;
+import simpledb.dbrecord.Record;
+import simpledb.exception.DBException;
+import simpledb.iterator.DbFileIterator;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class BTreeBulkBuildTest {
+
+    @After
+    public void tearDown() {
+        Database.reset(new DBConfig());
+    }
+
+    @Test
+    public void testBulkBuildFromUnsortedInput() throws IOException {
+        Database.reset(new DBConfig(4096, 1000));
+        BTreeFile bTreeFile = newBTreeFile(TestUtil.newTempFile("bTreeBulkBuildTest"));
+        TableDesc tableDesc = bTreeFile.getTableDesc();
+
+        // 每个key重复两次，打乱顺序
+        int keyNum = 3000;
+        List<Record> recordList = new ArrayList<>();
+        for (int i = 0; i < keyNum * 2; i++) {
+            recordList.add(TestUtil.newRecord(tableDesc, i % keyNum));
+        }
+        Collections.shuffle(recordList, new Random(1));
+
+        // 内存中只缓存1000条记录，排序需要溢出到临时文件
+        BulkLoadResult result = bTreeFile.bulkBuild(recordList.iterator(), 0.8, 1000);
+        Assert.assertEquals(keyNum * 2, result.getRowNum());
+
+        DbFileIterator<Record> iterator = bTreeFile.getIterator();
+        iterator.open();
+        int count = 0;
+        int prevKey = Integer.MIN_VALUE;
+        while (iterator.hasNext()) {
+            int key = (Integer) iterator.next().getField(0).getValue();
+            Assert.assertTrue(key >= prevKey);
+            prevKey = key;
+            count++;
+        }
+        iterator.close();
+        Assert.assertEquals(keyNum * 2, count);
+
+        for (int key : new int[]{0, 1, 1234, keyNum - 1}) {
+            Assert.assertEquals(2, bTreeFile.findRecords(new IntField(key)).size());
+        }
+        Assert.assertEquals(0, bTreeFile.findRecords(new IntField(keyNum)).size());
+
+        // 构建完成后仍然可以正常的插入、删除
+        for (int i = 0; i < 500; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, keyNum + i));
+        }
+        Assert.assertEquals(1, bTreeFile.findRecords(new IntField(keyNum + 100)).size());
+        for (Record record : bTreeFile.findRecords(new IntField(1234))) {
+            Database.getBufferPool().deleteTuple(record);
+        }
+        Assert.assertEquals(0, bTreeFile.findRecords(new IntField(1234)).size());
+        Assert.assertEquals(2, bTreeFile.findRecords(new IntField(1235)).size());
+    }
+
+    @Test
+    public void testBulkBuildUsesFewerPages() throws IOException {
+        Database.reset(new DBConfig(4096, 1000));
+        int recordNum = 5000;
+
+        BTreeFile insertBTreeFile = newBTreeFile(TestUtil.newTempFile("bTreeBulkBuildTest"));
+        TableDesc insertTableDesc = insertBTreeFile.getTableDesc();
+        Random random = new Random(2);
+        for (int i = 0; i < recordNum; i++) {
+            Database.getBufferPool().insertTuple(insertTableDesc.getTableId(), TestUtil.newRecord(insertTableDesc, random.nextInt(recordNum)));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        BTreeFile bulkBTreeFile = newBTreeFile(TestUtil.newTempFile("bTreeBulkBuildTest"));
+        TableDesc bulkTableDesc = bulkBTreeFile.getTableDesc();
+        List<Record> recordList = new ArrayList<>();
+        random = new Random(2);
+        for (int i = 0; i < recordNum; i++) {
+            recordList.add(TestUtil.newRecord(bulkTableDesc, random.nextInt(recordNum)));
+        }
+        bulkBTreeFile.bulkBuild(recordList.iterator(), 1.0, recordNum);
+
+        Assert.assertTrue(bulkBTreeFile.numPages() < insertBTreeFile.numPages());
+    }
+
+    @Test
+    public void testBulkBuildRequiresEmptyTree() throws IOException {
+        BTreeFile bTreeFile = newBTreeFile(TestUtil.newTempFile("bTreeBulkBuildTest"));
+        TableDesc tableDesc = bTreeFile.getTableDesc();
+        Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, 1));
+
+        try {
+            bTreeFile.bulkBuild(Collections.singletonList(TestUtil.newRecord(tableDesc, 2)).iterator());
+            Assert.fail();
+        } catch (DBException e) {
+            // 非空的树不能批量构建
+        }
+    }
+
+    private static BTreeFile newBTreeFile(File file) {
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+        return bTreeFile;
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbrecord.Record;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class BTreeFileTest {
+
+    @After
+    public void tearDown() {
+        Database.reset(new DBConfig());
+    }
+
+    @Test
+    public void testReuseFreedPageAsOtherCategory() throws IOException {
+        Database.reset(new DBConfig(1024, 10000));
+        File file = TestUtil.newTempFile("bTreeFileTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+
+        int keyNum = 3000;
+        for (int i = 0; i < keyNum; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+
+        // 删除前一半的记录，叶子页合并后被释放，被释放的页仍然以脏页的形式留在缓冲池中
+        for (int i = 0; i < keyNum / 2; i++) {
+            for (Record record : bTreeFile.findRecords(new IntField(i))) {
+                Database.getBufferPool().deleteTuple(record);
+            }
+        }
+        int pageNum = bTreeFile.numPages();
+
+        // 继续插入，拆分出的叶子页和内部节点页会复用被释放的页号
+        for (int i = keyNum; i < keyNum * 2; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        Assert.assertTrue(bTreeFile.numPages() < pageNum * 2);
+
+        // 写回并清空缓冲池后，从磁盘重新读取
+        Database.reset(Database.getConfig());
+        BTreeFile reopened = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopened);
+
+        List<Record> recordList = TestUtil.readAll(reopened.getIterator());
+        Assert.assertEquals(keyNum * 3 / 2, recordList.size());
+        for (int i = 0; i < recordList.size(); i++) {
+            Assert.assertEquals(keyNum / 2 + i, recordList.get(i).getField(0).getValue());
+        }
+        Assert.assertEquals(1, reopened.findRecords(new IntField(keyNum * 2 - 1)).size());
+        reopened.close();
+    }
+}
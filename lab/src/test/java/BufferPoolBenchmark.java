@@ -0,0 +1,80 @@
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.bufferpool.ReplacementPolicyEnum;
+import simpledb.dbfile.DBFile;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 对比不同置换策略在扫描为主/点查为主两种负载下的命中率
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes BufferPoolBenchmark
+ */
+public class BufferPoolBenchmark {
+
+    private static final String TABLE_ID = "buffer-pool-benchmark";
+    private static final int TABLE_PAGE_NUM = 400;
+    private static final int POOL_CAPACITY = 100;
+    private static final int HOT_PAGE_NUM = 40;
+
+    public static void main(String[] args) throws IOException {
+        TableDesc tableDesc = new TableDesc(TABLE_ID, new ColumnTypeEnum[]{ColumnTypeEnum.INT_TYPE});
+        File file = File.createTempFile("bufferPoolBenchmark", ".dat");
+        file.deleteOnExit();
+        DBFile dbFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(TABLE_ID, tableDesc, dbFile);
+
+        for (int i = 0; i < TABLE_PAGE_NUM; i++) {
+            HeapPageId pageId = new HeapPageId(TABLE_ID, i);
+            dbFile.writePage(new DBHeapPage(tableDesc, pageId, new byte[Database.getBufferPool().getPageSize()]));
+        }
+
+        System.out.printf("table pages=%d, pool capacity=%d%n", TABLE_PAGE_NUM, POOL_CAPACITY);
+        System.out.printf("%-8s %-14s %-14s%n", "policy", "scan-heavy", "lookup-heavy");
+        for (ReplacementPolicyEnum policyEnum : ReplacementPolicyEnum.values()) {
+            double scanHeavy = runScanHeavy(new BufferPool(POOL_CAPACITY, policyEnum));
+            double lookupHeavy = runLookupHeavy(new BufferPool(POOL_CAPACITY, policyEnum));
+            System.out.printf("%-8s %-14.4f %-14.4f%n", policyEnum, scanHeavy, lookupHeavy);
+        }
+    }
+
+    /**
+     * 全表顺序扫描与少量热点点查交替进行
+     * */
+    private static double runScanHeavy(BufferPool bufferPool) {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < TABLE_PAGE_NUM; i++) {
+                access(bufferPool, i);
+            }
+            for (int i = 0; i < 200; i++) {
+                access(bufferPool, random.nextInt(HOT_PAGE_NUM));
+            }
+        }
+        return bufferPool.getHitRatio();
+    }
+
+    /**
+     * 80%的访问落在热点页上，其余均匀分布在整张表
+     * */
+    private static double runLookupHeavy(BufferPool bufferPool) {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            int pageNo = random.nextInt(10) < 8 ? random.nextInt(HOT_PAGE_NUM) : random.nextInt(TABLE_PAGE_NUM);
+            access(bufferPool, pageNo);
+        }
+        return bufferPool.getHitRatio();
+    }
+
+    private static void access(BufferPool bufferPool, int pageNo) {
+        HeapPageId pageId = new HeapPageId(TABLE_ID, pageNo);
+        bufferPool.getPage(pageId);
+        bufferPool.unpinPage(pageId);
+    }
+}
@@ -0,0 +1,662 @@
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.bufferpool.BufferAccessStrategy;
+import simpledb.bufferpool.ClockReplacementPolicy;
+import simpledb.bufferpool.FrameArena;
+import simpledb.bufferpool.LRUKReplacementPolicy;
+import simpledb.bufferpool.LRUReplacementPolicy;
+import simpledb.bufferpool.ReplacementPolicy;
+import simpledb.bufferpool.ReplacementPolicyEnum;
+import simpledb.dbfile.DBFile;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbpage.DBPage;
+import simpledb.dbpage.PageId;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.exception.DBException;
+import simpledb.iterator.DbFileIterator;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPoolTest {
+
+    private static final int PAGE_NUM = 5;
+
+    private String tableId;
+    private TableDesc tableDesc;
+    private DBFile dbFile;
+
+    @Before
+    public void setUp() throws IOException {
+        File file = File.createTempFile("bufferPoolTest", ".dat");
+        file.deleteOnExit();
+
+        // 全局的BufferPool在用例之间共享，每个用例使用不同的表，避免读到上一个用例缓存的页
+        tableId = file.getName();
+        tableDesc = new TableDesc(
+                tableId,
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE}
+        );
+        dbFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableId, tableDesc, dbFile);
+
+        for (int j = 0; j < PAGE_NUM; j++) {
+            HeapPageId pageId = new HeapPageId(tableId, j);
+            DBHeapPage dbHeapPage = new DBHeapPage(tableDesc, pageId, new byte[Database.getBufferPool().getPageSize()]);
+            dbHeapPage.insertRecord(newRecord(j));
+            dbFile.writePage(dbHeapPage);
+        }
+    }
+
+    @Test
+    public void testEvictWhenFull() {
+        for (ReplacementPolicyEnum policyEnum : ReplacementPolicyEnum.values()) {
+            BufferPool bufferPool = new BufferPool(2, policyEnum);
+            for (int round = 0; round < 3; round++) {
+                for (int j = 0; j < PAGE_NUM; j++) {
+                    DBHeapPage page = (DBHeapPage) bufferPool.getPage(new HeapPageId(tableId, j));
+                    Assert.assertEquals(1, page.getNotEmptySlotsNum());
+                    bufferPool.unpinPage(page.getPageId());
+                }
+            }
+            Assert.assertEquals(3 * PAGE_NUM, bufferPool.getHitCount() + bufferPool.getMissCount());
+        }
+    }
+
+    @Test
+    public void testDirtyPageWriteBackWhenEvict() {
+        BufferPool bufferPool = new BufferPool(2, ReplacementPolicyEnum.LRU);
+
+        HeapPageId pageId = new HeapPageId(tableId, 0);
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(pageId);
+        page.insertRecord(newRecord(100));
+        bufferPool.markDirty(page);
+        bufferPool.unpinPage(pageId);
+
+        // 访问其它页面，将page 0挤出缓冲池
+        bufferPool.getPage(new HeapPageId(tableId, 1));
+        bufferPool.unpinPage(new HeapPageId(tableId, 1));
+        bufferPool.getPage(new HeapPageId(tableId, 2));
+        bufferPool.unpinPage(new HeapPageId(tableId, 2));
+
+        DBHeapPage pageCopy = (DBHeapPage) bufferPool.getPage(pageId);
+        Assert.assertNotSame(page, pageCopy);
+        Assert.assertEquals(2, pageCopy.getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testMarkDirtyStalePage() {
+        BufferPool bufferPool = new BufferPool(2, ReplacementPolicyEnum.LRU);
+        HeapPageId pageId = new HeapPageId(tableId, 0);
+        DBHeapPage stalePage = (DBHeapPage) bufferPool.getPage(pageId);
+        bufferPool.unpinPage(pageId);
+
+        // 释放pin之后page 0被挤出缓冲池，重新加载后被修改
+        for (int j = 1; j < 3; j++) {
+            bufferPool.getPage(new HeapPageId(tableId, j));
+            bufferPool.unpinPage(new HeapPageId(tableId, j));
+        }
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(pageId);
+        page.insertRecord(newRecord(600));
+        bufferPool.markDirty(page);
+        bufferPool.unpinPage(pageId);
+
+        // 旧的页面实例不能覆盖缓冲池中的页面
+        stalePage.insertRecord(newRecord(601));
+        try {
+            bufferPool.markDirty(stalePage);
+            Assert.fail("stale page instance");
+        } catch (DBException e) {
+            // expected
+        }
+        bufferPool.flushPage(pageId);
+        List<Object> idList = new ArrayList<>();
+        ((DBHeapPage) dbFile.readPage(pageId)).iterator().forEachRemaining(record -> idList.add(record.getField(0).getValue()));
+        Assert.assertEquals(Arrays.asList(0, 600), idList);
+    }
+
+    @Test
+    public void testFlushPages() throws IOException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int dirtyPageNumBefore = bufferPool.getDirtyPageNum();
+
+        // 插入记录只修改缓冲池中的页，刷盘前磁盘上的数据不变
+        bufferPool.insertTuple(tableId, newRecord(200));
+        Assert.assertEquals(dirtyPageNumBefore + 1, bufferPool.getDirtyPageNum());
+        Assert.assertEquals(1, ((DBHeapPage) dbFile.readPage(new HeapPageId(tableId, 0))).getNotEmptySlotsNum());
+
+        bufferPool.flushPages(tableId);
+        Assert.assertEquals(dirtyPageNumBefore, bufferPool.getDirtyPageNum());
+        Assert.assertEquals(2, ((DBHeapPage) dbFile.readPage(new HeapPageId(tableId, 0))).getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testBackgroundFlusher() throws IOException, InterruptedException {
+        BufferPool bufferPool = new BufferPool(PAGE_NUM);
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(new HeapPageId(tableId, 1));
+        page.insertRecord(newRecord(300));
+        bufferPool.markDirty(page);
+        bufferPool.unpinPage(page.getPageId());
+
+        bufferPool.startBackgroundFlusher(10, 0);
+        for (int i = 0; i < 100 && bufferPool.getDirtyPageNum() > 0; i++) {
+            Thread.sleep(10);
+        }
+        bufferPool.stopBackgroundFlusher();
+
+        Assert.assertEquals(0, bufferPool.getDirtyPageNum());
+        Assert.assertEquals(2, ((DBHeapPage) dbFile.readPage(new HeapPageId(tableId, 1))).getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testBackgroundFlusherFailure() throws IOException, InterruptedException {
+        File file = File.createTempFile("bufferPoolTest", ".dat");
+        file.deleteOnExit();
+        String failingTableId = file.getName();
+        TableDesc failingTableDesc = new TableDesc(failingTableId,
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        // 第一次批量写回失败
+        AtomicInteger failNum = new AtomicInteger(1);
+        DBHeapFile failingFile = new DBHeapFile(failingTableDesc, file) {
+            @Override
+            public void writePagesData(Map<PageId, byte[]> pageDataMap) {
+                if (failNum.getAndDecrement() > 0) {
+                    throw new DBException("injected write failure");
+                }
+                super.writePagesData(pageDataMap);
+            }
+        };
+        Database.getCatalog().addTable(failingTableId, failingTableDesc, failingFile);
+        failingFile.writePage(new DBHeapPage(failingTableDesc, new HeapPageId(failingTableId, 0),
+                new byte[Database.getBufferPool().getPageSize()]));
+
+        BufferPool bufferPool = new BufferPool(PAGE_NUM);
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(new HeapPageId(failingTableId, 0));
+        Record record = newRecord(400);
+        record.setTableDesc(failingTableDesc);
+        page.insertRecord(record);
+        bufferPool.markDirty(page);
+        bufferPool.unpinPage(page.getPageId());
+
+        bufferPool.startBackgroundFlusher(10, 0);
+        for (int i = 0; i < 100 && bufferPool.getDirtyPageNum() > 0; i++) {
+            Thread.sleep(10);
+        }
+        bufferPool.stopBackgroundFlusher();
+
+        // 失败的一轮被记录下来，脏页在下一轮写回
+        Assert.assertEquals(0, bufferPool.getDirtyPageNum());
+        Assert.assertEquals(1, bufferPool.getBackgroundFlushFailureNum());
+        Assert.assertEquals("injected write failure", bufferPool.getBackgroundFlushLastFailure().getMessage());
+        Assert.assertEquals(1, ((DBHeapPage) failingFile.readPage(new HeapPageId(failingTableId, 0))).getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testPinnedPageNotEvicted() {
+        BufferPool bufferPool = new BufferPool(2, ReplacementPolicyEnum.CLOCK);
+        DBHeapPage pinnedPage = (DBHeapPage) bufferPool.getPage(new HeapPageId(tableId, 0));
+
+        for (int j = 1; j < PAGE_NUM; j++) {
+            bufferPool.getPage(new HeapPageId(tableId, j));
+            bufferPool.unpinPage(new HeapPageId(tableId, j));
+        }
+        // page 0一直被pin住，不会被淘汰
+        Assert.assertSame(pinnedPage, bufferPool.getPage(new HeapPageId(tableId, 0)));
+        bufferPool.unpinPage(pinnedPage.getPageId());
+
+        // 缓冲池中的页全部被pin住时无法再加载新的页
+        bufferPool.getPage(new HeapPageId(tableId, 1));
+        try {
+            bufferPool.getPage(new HeapPageId(tableId, 2));
+            Assert.fail("all pages are pinned");
+        } catch (DBException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOffHeapFrame() {
+        BufferPool bufferPool = new BufferPool(Database.getBufferPool().getPageSize(), 2,
+                new LRUReplacementPolicy(), true);
+        HeapPageId pageId = new HeapPageId(tableId, 0);
+
+        // 被pin住期间共享同一个页面对象
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(pageId);
+        Assert.assertSame(page, bufferPool.getPage(pageId));
+        page.insertRecord(newRecord(400));
+        bufferPool.markDirty(page);
+        bufferPool.unpinPage(pageId);
+        bufferPool.unpinPage(pageId);
+
+        // 引用释放后只保留页帧中的数据，再次获取时重新解析出页面对象
+        DBHeapPage pageCopy = (DBHeapPage) bufferPool.getPage(pageId);
+        Assert.assertNotSame(page, pageCopy);
+        Assert.assertEquals(2, pageCopy.getNotEmptySlotsNum());
+        Assert.assertEquals(1, ((DBHeapPage) dbFile.readPage(pageId)).getNotEmptySlotsNum());
+        bufferPool.unpinPage(pageId);
+
+        // 淘汰时将页帧中的脏数据写回磁盘
+        for (int j = 1; j < PAGE_NUM; j++) {
+            bufferPool.getPage(new HeapPageId(tableId, j));
+            bufferPool.unpinPage(new HeapPageId(tableId, j));
+        }
+        Assert.assertEquals(2, ((DBHeapPage) dbFile.readPage(pageId)).getNotEmptySlotsNum());
+        Assert.assertEquals(2, ((DBHeapPage) bufferPool.getPage(pageId)).getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testSingleFlightLoad() throws Exception {
+        BufferPool bufferPool = new BufferPool(PAGE_NUM);
+        HeapPageId pageId = new HeapPageId(tableId, 0);
+        int threadNum = 8;
+        CyclicBarrier barrier = new CyclicBarrier(threadNum);
+        ExecutorService executorService = Executors.newFixedThreadPool(threadNum);
+        List<Future<DBPage>> futureList = new ArrayList<>();
+        for (int i = 0; i < threadNum; i++) {
+            futureList.add(executorService.submit(() -> {
+                barrier.await();
+                return bufferPool.getPage(pageId);
+            }));
+        }
+
+        // 并发未命中同一个页面时只读取一次磁盘，所有线程拿到同一个页面对象
+        DBPage page = futureList.get(0).get();
+        for (Future<DBPage> future : futureList) {
+            Assert.assertSame(page, future.get());
+        }
+        executorService.shutdown();
+        Assert.assertEquals(1, bufferPool.getMissCount());
+        Assert.assertEquals(threadNum - 1, bufferPool.getHitCount());
+    }
+
+    @Test
+    public void testConcurrentAccessNotExceedCapacity() throws Exception {
+        int capacity = 3;
+        int threadNum = 3;
+        BufferPool bufferPool = new BufferPool(capacity, ReplacementPolicyEnum.CLOCK);
+        ExecutorService executorService = Executors.newFixedThreadPool(threadNum);
+        AtomicInteger maxCachedPageNum = new AtomicInteger();
+        List<Future<?>> futureList = new ArrayList<>();
+        for (int i = 0; i < threadNum; i++) {
+            int seed = i;
+            futureList.add(executorService.submit(() -> {
+                Random random = new Random(seed);
+                for (int j = 0; j < 2000; j++) {
+                    HeapPageId pageId = new HeapPageId(tableId, random.nextInt(PAGE_NUM));
+                    DBHeapPage page = (DBHeapPage) bufferPool.getPage(pageId);
+                    maxCachedPageNum.accumulateAndGet(bufferPool.getCachedPageNum(), Math::max);
+                    Assert.assertEquals(1, page.getNotEmptySlotsNum());
+                    bufferPool.unpinPage(pageId);
+                }
+            }));
+        }
+        for (Future<?> future : futureList) {
+            future.get();
+        }
+        executorService.shutdown();
+        Assert.assertTrue(maxCachedPageNum.get() <= capacity);
+    }
+
+    @Test
+    public void testRingBufferScanKeepHotPages() {
+        int tablePageNum = 40;
+        for (int j = PAGE_NUM; j < tablePageNum; j++) {
+            HeapPageId pageId = new HeapPageId(tableId, j);
+            dbFile.writePage(new DBHeapPage(tableDesc, pageId, new byte[Database.getBufferPool().getPageSize()]));
+        }
+
+        BufferPool bufferPool = new BufferPool(8, ReplacementPolicyEnum.LRU);
+        int hotPageNum = 3;
+        for (int j = 0; j < hotPageNum; j++) {
+            bufferPool.getPage(pageId(j));
+            bufferPool.unpinPage(pageId(j));
+        }
+
+        // 使用环形缓冲区扫描整张表，扫描只会占用环形缓冲区大小的页帧
+        BufferAccessStrategy strategy = new BufferAccessStrategy(2);
+        for (int j = hotPageNum; j < tablePageNum; j++) {
+            bufferPool.getPage(pageId(j), strategy);
+            bufferPool.unpinPage(pageId(j));
+        }
+        long missCount = bufferPool.getMissCount();
+        for (int j = 0; j < hotPageNum; j++) {
+            bufferPool.getPage(pageId(j));
+            bufferPool.unpinPage(pageId(j));
+        }
+        Assert.assertEquals(missCount, bufferPool.getMissCount());
+
+        // 普通的扫描会把热点页面全部挤出去
+        for (int j = hotPageNum; j < tablePageNum; j++) {
+            bufferPool.getPage(pageId(j));
+            bufferPool.unpinPage(pageId(j));
+        }
+        missCount = bufferPool.getMissCount();
+        for (int j = 0; j < hotPageNum; j++) {
+            bufferPool.getPage(pageId(j));
+            bufferPool.unpinPage(pageId(j));
+        }
+        Assert.assertEquals(missCount + hotPageNum, bufferPool.getMissCount());
+    }
+
+    @Test
+    public void testNamedResidentBufferPool() throws IOException {
+        String bufferPoolName = "hot_" + tableId;
+        BufferPool hotBufferPool = Database.createBufferPool(bufferPoolName, PAGE_NUM, ReplacementPolicyEnum.LRU, true);
+        try {
+            // 将表绑定到常驻内存的缓冲池并预热
+            Database.getCatalog().addTable(tableId, tableDesc, dbFile, bufferPoolName);
+            Assert.assertSame(hotBufferPool, Database.getBufferPool(tableId));
+            hotBufferPool.preloadTable(tableId);
+            Assert.assertEquals(PAGE_NUM, hotBufferPool.getCachedPageNum());
+            long missCount = hotBufferPool.getMissCount();
+
+            // 另一张大表的扫描只占用默认缓冲池
+            File factFile = File.createTempFile("bufferPoolTestFact", ".dat");
+            factFile.deleteOnExit();
+            TableDesc factTableDesc = new TableDesc(factFile.getName(),
+                    new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+            DBHeapFile factDbFile = new DBHeapFile(factTableDesc, factFile);
+            Database.getCatalog().addTable(factFile.getName(), factTableDesc, factDbFile);
+            int factPageNum = Database.getBufferPool().getMaxPageSize() + 10;
+            for (int j = 0; j < factPageNum; j++) {
+                HeapPageId pageId = new HeapPageId(factFile.getName(), j);
+                factDbFile.writePage(new DBHeapPage(factTableDesc, pageId, new byte[Database.getBufferPool().getPageSize()]));
+            }
+            for (int j = 0; j < factPageNum; j++) {
+                HeapPageId pageId = new HeapPageId(factFile.getName(), j);
+                Database.getBufferPool(factFile.getName()).getPage(pageId);
+                Database.getBufferPool(factFile.getName()).unpinPage(pageId);
+            }
+
+            // 热点表的页面仍然全部命中
+            DbFileIterator<Record> iterator = dbFile.getIterator();
+            iterator.open();
+            int count = 0;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            iterator.close();
+            Assert.assertEquals(PAGE_NUM, count);
+            Assert.assertEquals(missCount, hotBufferPool.getMissCount());
+
+            // 常驻内存的缓冲池满了之后不会淘汰页面
+            dbFile.writePage(new DBHeapPage(tableDesc, (HeapPageId) pageId(PAGE_NUM), new byte[Database.getBufferPool().getPageSize()]));
+            try {
+                hotBufferPool.getPage(pageId(PAGE_NUM));
+                Assert.fail("resident bufferPool should not evict pages");
+            } catch (DBException expected) {
+                Assert.assertEquals(PAGE_NUM, hotBufferPool.getCachedPageNum());
+            }
+        } finally {
+            Database.getCatalog().addTable(tableId, tableDesc, dbFile);
+            Database.dropBufferPool(bufferPoolName);
+        }
+    }
+
+    @Test
+    public void testFrameArena() {
+        FrameArena frameArena = new FrameArena(16, 2);
+        int frameNo1 = frameArena.allocate();
+        int frameNo2 = frameArena.allocate();
+        Assert.assertEquals(-1, frameArena.allocate());
+
+        frameArena.write(frameNo1, new byte[]{1, 2, 3});
+        frameArena.write(frameNo2, new byte[]{4, 5});
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, frameArena.read(frameNo1, 3));
+        Assert.assertArrayEquals(new byte[]{4, 5}, frameArena.read(frameNo2, 2));
+
+        frameArena.release(frameNo1);
+        Assert.assertEquals(frameNo1, frameArena.allocate());
+    }
+
+    @Test
+    public void testLRUPickVictim() {
+        ReplacementPolicy policy = new LRUReplacementPolicy();
+        policy.recordAccess(pageId(0));
+        policy.recordAccess(pageId(1));
+        policy.recordAccess(pageId(2));
+        policy.recordAccess(pageId(0));
+
+        Assert.assertEquals(pageId(1), policy.pickVictim(id -> true));
+        Assert.assertEquals(pageId(2), policy.pickVictim(id -> !id.equals(pageId(1))));
+        policy.remove(pageId(1));
+        policy.remove(pageId(2));
+        Assert.assertEquals(pageId(0), policy.pickVictim(id -> true));
+    }
+
+    @Test
+    public void testClockPickVictim() {
+        ReplacementPolicy policy = new ClockReplacementPolicy();
+        policy.recordAccess(pageId(0));
+        policy.recordAccess(pageId(1));
+        policy.recordAccess(pageId(2));
+
+        // 全部引用位都为true，转一圈后淘汰第一个
+        Assert.assertEquals(pageId(0), policy.pickVictim(id -> true));
+        policy.remove(pageId(0));
+
+        // page 1再次被访问，获得第二次机会
+        policy.recordAccess(pageId(1));
+        Assert.assertEquals(pageId(2), policy.pickVictim(id -> true));
+        Assert.assertNull(policy.pickVictim(id -> false));
+
+        // 引用位每次被清除后都被并发的命中重新设置，仍然要选出可淘汰的页面
+        ReplacementPolicy hotPolicy = new ClockReplacementPolicy();
+        hotPolicy.recordAccess(pageId(0));
+        hotPolicy.recordAccess(pageId(1));
+        Assert.assertNotNull(hotPolicy.pickVictim(id -> {
+            hotPolicy.recordHit(id);
+            return true;
+        }));
+    }
+
+    @Test
+    public void testLRUKPickVictim() {
+        ReplacementPolicy policy = new LRUKReplacementPolicy(2);
+        policy.recordAccess(pageId(0));
+        policy.recordAccess(pageId(0));
+        policy.recordAccess(pageId(2));
+        policy.recordAccess(pageId(2));
+        policy.recordAccess(pageId(1));
+
+        // page 1虽然是最近访问的，但只访问过一次，k-distance无穷大，优先淘汰(LRU会淘汰page 0)
+        Assert.assertEquals(pageId(1), policy.pickVictim(id -> true));
+        Assert.assertEquals(pageId(0), policy.pickVictim(id -> !id.equals(pageId(1))));
+    }
+
+    @Test
+    public void testRecordHit() {
+        for (ReplacementPolicyEnum policyEnum : new ReplacementPolicyEnum[]{ReplacementPolicyEnum.LRU, ReplacementPolicyEnum.LRU_K}) {
+            ReplacementPolicy policy = policyEnum.create();
+            policy.recordAccess(pageId(0));
+            policy.recordAccess(pageId(1));
+            policy.recordAccess(pageId(2));
+            // 缓冲的命中在选择淘汰的页面之前生效
+            policy.recordHit(pageId(0));
+            Assert.assertEquals(policyEnum.name(), pageId(1), policy.pickVictim(id -> true));
+
+            // 已经被移除的页面命中后不会被重新加入
+            policy.remove(pageId(1));
+            policy.recordHit(pageId(1));
+            Assert.assertNotEquals(policyEnum.name(), pageId(1), policy.pickVictim(id -> true));
+        }
+
+        // CLOCK命中只设置引用位
+        ReplacementPolicy clockPolicy = new ClockReplacementPolicy();
+        clockPolicy.recordAccess(pageId(0));
+        clockPolicy.recordAccess(pageId(1));
+        clockPolicy.recordAccess(pageId(2));
+        // 转一圈清除所有的引用位，选中page 0，指针停在page 1
+        Assert.assertEquals(pageId(0), clockPolicy.pickVictim(id -> true));
+        clockPolicy.recordHit(pageId(1));
+        Assert.assertEquals(pageId(2), clockPolicy.pickVictim(id -> true));
+    }
+
+    @Test
+    public void testPinDuringFlush() throws Exception {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch writeReleased = new CountDownLatch(1);
+        DBHeapFile blockingFile = newBlockingFile(writeStarted, writeReleased);
+        String blockingTableId = blockingFile.getTableDesc().getTableId();
+        TableDesc blockingTableDesc = blockingFile.getTableDesc();
+
+        BufferPool bufferPool = new BufferPool(PAGE_NUM);
+        HeapPageId pageId = new HeapPageId(blockingTableId, 0);
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(pageId);
+        Record record = newRecord(500);
+        record.setTableDesc(blockingTableDesc);
+        page.insertRecord(record);
+        bufferPool.markDirty(page);
+        bufferPool.unpinPage(pageId);
+
+        Thread flushThread = new Thread(() -> bufferPool.flushPage(pageId));
+        flushThread.start();
+        Assert.assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+
+        // 写盘期间不持有页帧的锁，其它线程仍然可以pin住这个页面
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<DBPage> future = executor.submit(() -> bufferPool.getPage(pageId));
+            Assert.assertSame(page, future.get(5, TimeUnit.SECONDS));
+            bufferPool.unpinPage(pageId);
+        } finally {
+            writeReleased.countDown();
+            executor.shutdown();
+        }
+        flushThread.join();
+        Assert.assertEquals(0, bufferPool.getDirtyPageNum());
+        Assert.assertEquals(1, ((DBHeapPage) blockingFile.readPage(pageId)).getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testWriteBackVictimOutsideLock() throws Exception {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch writeReleased = new CountDownLatch(1);
+        DBHeapFile blockingFile = newBlockingFile(writeStarted, writeReleased);
+        String blockingTableId = blockingFile.getTableDesc().getTableId();
+
+        BufferPool bufferPool = new BufferPool(1);
+        HeapPageId pageId = new HeapPageId(blockingTableId, 0);
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(pageId);
+        Record record = newRecord(500);
+        record.setTableDesc(blockingFile.getTableDesc());
+        page.insertRecord(record);
+        bufferPool.markDirty(page);
+        bufferPool.unpinPage(pageId);
+
+        // 缓冲池已满，加载新页面时淘汰脏页，写盘被阻塞
+        Thread evictThread = new Thread(() -> bufferPool.unpinPage(bufferPool.getPage(pageId(1)).getPageId()));
+        evictThread.start();
+        Assert.assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+
+        // 淘汰的写盘期间不持有缓冲池的锁，其它线程仍然可以进入缓冲池的同步方法
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = executor.submit(() -> bufferPool.discardPage(pageId(2)));
+            future.get(5, TimeUnit.SECONDS);
+        } finally {
+            writeReleased.countDown();
+            executor.shutdown();
+        }
+        evictThread.join();
+        Assert.assertEquals(1, bufferPool.getCachedPageNum());
+        Assert.assertEquals(1, bufferPool.getEvictionCount());
+        Assert.assertEquals(1, ((DBHeapPage) blockingFile.readPage(pageId)).getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testDiscardPinnedPage() throws Exception {
+        BufferPool bufferPool = new BufferPool(PAGE_NUM);
+        HeapPageId pageId = new HeapPageId(tableId, 0);
+        DBHeapPage page = (DBHeapPage) bufferPool.getPage(pageId);
+
+        // 页面被pin住时丢弃会等待pin被释放
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = executor.submit(() -> bufferPool.discardPage(pageId));
+            Thread.sleep(100);
+            Assert.assertFalse(future.isDone());
+
+            // 释放的是之前pin住的页帧，之后丢弃完成
+            bufferPool.unpinPage(pageId);
+            future.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertFalse(bufferPool.isCached(pageId));
+        Assert.assertEquals(0, bufferPool.getCachedPageNum());
+
+        // 重新加载的页帧的pin不受之前的页帧影响
+        DBHeapPage reloadedPage = (DBHeapPage) bufferPool.getPage(pageId);
+        Assert.assertNotSame(page, reloadedPage);
+        bufferPool.unpinPage(pageId);
+        try {
+            bufferPool.unpinPage(pageId);
+            Assert.fail("page is not pinned");
+        } catch (DBException e) {
+            // expected
+        }
+    }
+
+    /**
+     * 写盘时阻塞的表文件，writeReleased之后才真正写入
+     * */
+    private DBHeapFile newBlockingFile(CountDownLatch writeStarted, CountDownLatch writeReleased) throws IOException {
+        File file = File.createTempFile("bufferPoolTest", ".dat");
+        file.deleteOnExit();
+        String blockingTableId = file.getName();
+        TableDesc blockingTableDesc = new TableDesc(blockingTableId,
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        DBHeapFile blockingFile = new DBHeapFile(blockingTableDesc, file) {
+            @Override
+            public void writePageData(PageId pageId, byte[] pgData) {
+                writeStarted.countDown();
+                try {
+                    writeReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.writePageData(pageId, pgData);
+            }
+        };
+        Database.getCatalog().addTable(blockingTableId, blockingTableDesc, blockingFile);
+        return blockingFile;
+    }
+
+    private PageId pageId(int pageNo) {
+        return new HeapPageId(tableId, pageNo);
+    }
+
+    private Record newRecord(int i) {
+        Record record = new Record();
+        record.setTableDesc(tableDesc);
+        record.setFieldList(Arrays.asList(
+                new IntField(i),
+                new StringField("bufferPool a" + i))
+        );
+        return record;
+    }
+}
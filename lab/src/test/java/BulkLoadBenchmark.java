@@ -0,0 +1,66 @@
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BulkLoadResult;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbrecord.Record;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * 对比逐条insertTuple与批量导入的吞吐(行/秒)
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes BulkLoadBenchmark
+ */
+public class BulkLoadBenchmark {
+
+    private static final int INSERT_RECORD_NUM = 20000;
+    private static final int BULK_LOAD_RECORD_NUM = 2000000;
+
+    public static void main(String[] args) throws IOException {
+        Database.reset(new DBConfig());
+
+        DBHeapFile insertHeapFile = createHeapFile();
+        long start = System.nanoTime();
+        for (int i = 0; i < INSERT_RECORD_NUM; i++) {
+            Database.getBufferPool().insertTuple(insertHeapFile.getTableDesc().getTableId(),
+                    TestUtil.newRecord(insertHeapFile.getTableDesc(), i));
+        }
+        Database.getBufferPool().flushAllPages();
+        BulkLoadResult insertResult = new BulkLoadResult(INSERT_RECORD_NUM,
+                insertHeapFile.getCurrentPageNum(), System.nanoTime() - start);
+        System.out.printf("%-12s %s%n", "insertTuple", insertResult);
+
+        DBHeapFile bulkLoadHeapFile = createHeapFile();
+        BulkLoadResult bulkLoadResult = bulkLoadHeapFile.bulkLoad(new Iterator<Record>() {
+            private int id;
+
+            @Override
+            public boolean hasNext() {
+                return id < BULK_LOAD_RECORD_NUM;
+            }
+
+            @Override
+            public Record next() {
+                return TestUtil.newRecord(bulkLoadHeapFile.getTableDesc(), id++);
+            }
+        });
+        System.out.printf("%-12s %s%n", "bulkLoad", bulkLoadResult);
+    }
+
+    private static DBHeapFile createHeapFile() throws IOException {
+        File file = File.createTempFile("bulkLoadBenchmark", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".fsm").deleteOnExit();
+        TableDesc tableDesc = new TableDesc(
+                file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE}
+        );
+        DBHeapFile heapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, heapFile);
+        return heapFile;
+    }
+}
@@ -0,0 +1,387 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbfile.DBFileHeader;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbfile.PageFileChannel;
+import simpledb.dbpage.SlotFormatEnum;
+import simpledb.dbpage.btree.*;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.iterator.DbFileIterator;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+public class DBFileHeaderTest {
+
+    @After
+    public void tearDown() {
+        Database.reset(new DBConfig());
+    }
+
+    @Test
+    public void testNewFileUseConfigPageSize() throws IOException {
+        Database.reset(new DBConfig(4096, 100));
+
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+
+        Assert.assertFalse(dbHeapFile.getFileHeader().isLegacy());
+        Assert.assertEquals(4096, dbHeapFile.getPageSize());
+
+        for (int i = 0; i < 200; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        Database.getBufferPool().flushPages(tableDesc.getTableId());
+
+        // 以不同的页大小重新打开，仍然以文件头中的页大小为准
+        Database.reset(new DBConfig(8192, 100));
+        DBHeapFile reopenFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopenFile);
+
+        Assert.assertEquals(4096, reopenFile.getPageSize());
+        Assert.assertEquals(200, count(reopenFile.getIterator()));
+    }
+
+    @Test
+    public void testOpenLegacyFile() throws IOException {
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+
+        // 老版本的文件没有文件头，数据页从文件起始处开始存放
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int pgNo = 0; pgNo < 3; pgNo++) {
+                HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), pgNo);
+                DBHeapPage dbHeapPage = new DBHeapPage(tableDesc, pageId, new byte[DBFileHeader.LEGACY_PAGE_SIZE], SlotFormatEnum.BYTE_PER_SLOT);
+                dbHeapPage.insertRecord(TestUtil.newRecord(tableDesc, pgNo));
+                out.write(dbHeapPage.serialize());
+            }
+        }
+
+        Database.reset(new DBConfig(16384, 100));
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+
+        Assert.assertTrue(dbHeapFile.getFileHeader().isLegacy());
+        Assert.assertEquals(DBFileHeader.LEGACY_PAGE_SIZE, dbHeapFile.getPageSize());
+        // 没有文件头的老版本文件不升级插槽位图的格式
+        Assert.assertEquals(SlotFormatEnum.BYTE_PER_SLOT, dbHeapFile.getSlotFormat());
+        Assert.assertEquals(3, count(dbHeapFile.getIterator()));
+    }
+
+    @Test
+    public void testBTreeFileLookupWithLargePage() throws IOException {
+        Database.reset(new DBConfig(8192, 100));
+
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+
+        Assert.assertEquals(8192, bTreeFile.getPageSize());
+        List<Record> recordList = bTreeFile.findRecords(new IntField(500));
+        Assert.assertEquals(1, recordList.size());
+        Assert.assertEquals(500, recordList.get(0).getField(0).getValue());
+        Assert.assertTrue(bTreeFile.findRecords(new IntField(5000)).isEmpty());
+    }
+
+    @Test
+    public void testExtentPreallocation() throws IOException {
+        DBConfig config = new DBConfig(4096, 100);
+        config.setExtentSize(16 * 4096);
+        Database.reset(config);
+
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+
+        int maxSlotNum = new DBHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), 0), new byte[4096]).getMaxSlotNum();
+        int recordNum = maxSlotNum * 2 + 1;
+        for (int i = 0; i < recordNum; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        Database.getBufferPool().flushPages(tableDesc.getTableId());
+
+        // 逻辑上只有3页，物理上预分配了一整个区
+        Assert.assertEquals(3, dbHeapFile.getCurrentPageNum());
+        Assert.assertEquals(4096 + 16 * 4096, file.length());
+        // 文件头只在扩展区时写入一次，记录的是区边界
+        Assert.assertEquals(16, DBFileHeader.readOrCreate(file, 4096).getPageNum());
+
+        // 没有正常关闭，重新打开时去掉末尾没有记录的页
+        Database.reset(config);
+        DBHeapFile reopenFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopenFile);
+        Assert.assertEquals(3, reopenFile.getCurrentPageNum());
+        Assert.assertEquals(recordNum, count(reopenFile.getIterator()));
+
+        // 关闭时写入精确的逻辑页数
+        reopenFile.close();
+        Assert.assertEquals(3, DBFileHeader.readOrCreate(file, 4096).getPageNum());
+    }
+
+    @Test
+    public void testUpgradeVersion1Header() throws IOException {
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+
+        // 版本1的文件头没有记录逻辑页数
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new DBFileHeader(DBFileHeader.NO_PAGE_NUM_VERSION, 1024).serialize());
+            for (int pgNo = 0; pgNo < 2; pgNo++) {
+                HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), pgNo);
+                DBHeapPage dbHeapPage = new DBHeapPage(tableDesc, pageId, new byte[1024], SlotFormatEnum.BYTE_PER_SLOT);
+                dbHeapPage.insertRecord(TestUtil.newRecord(tableDesc, pgNo));
+                out.write(dbHeapPage.serialize());
+            }
+        }
+
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        Assert.assertEquals(2, dbHeapFile.getCurrentPageNum());
+        Assert.assertEquals(2, count(dbHeapFile.getIterator()));
+
+        DBFileHeader upgradedHeader = DBFileHeader.readOrCreate(file, 1024);
+        Assert.assertEquals(DBFileHeader.CURRENT_VERSION, upgradedHeader.getVersion());
+        Assert.assertEquals(2, upgradedHeader.getPageNum());
+        Assert.assertEquals(SlotFormatEnum.BIT_PACKED, upgradedHeader.getSlotFormat());
+    }
+
+    @Test
+    public void testMigrateByteSlotHeapFile() throws IOException {
+        Database.reset(new DBConfig(4096, 100));
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+
+        // 版本2的文件：页内的插槽位图每个插槽占用1字节，每页都插满
+        int oldMaxSlotNum = DBHeapPage.getMaxSlotNum(4096, tableDesc.getSize(), SlotFormatEnum.BYTE_PER_SLOT);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new DBFileHeader(DBFileHeader.PAGE_NUM_VERSION, 4096, 3).serialize());
+            for (int pgNo = 0; pgNo < 3; pgNo++) {
+                HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), pgNo);
+                DBHeapPage dbHeapPage = new DBHeapPage(tableDesc, pageId, new byte[4096], SlotFormatEnum.BYTE_PER_SLOT);
+                for (int i = 0; i < oldMaxSlotNum; i++) {
+                    dbHeapPage.insertRecord(TestUtil.newRecord(tableDesc, pgNo * oldMaxSlotNum + i));
+                }
+                out.write(dbHeapPage.serialize());
+            }
+        }
+
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        Assert.assertEquals(DBFileHeader.CURRENT_VERSION, dbHeapFile.getFileHeader().getVersion());
+        Assert.assertEquals(SlotFormatEnum.BIT_PACKED, dbHeapFile.getSlotFormat());
+        Assert.assertEquals(3, dbHeapFile.getCurrentPageNum());
+        Assert.assertEquals(3 * oldMaxSlotNum, count(dbHeapFile.getIterator()));
+        Assert.assertFalse(new File(file.getPath() + ".migrate").exists());
+
+        // 升级后每页能容纳更多的记录，新插入的记录优先填充已有的页
+        int newMaxSlotNum = DBHeapPage.getMaxSlotNum(4096, tableDesc.getSize(), SlotFormatEnum.BIT_PACKED);
+        Assert.assertTrue(newMaxSlotNum > oldMaxSlotNum);
+        for (int i = 0; i < 3 * (newMaxSlotNum - oldMaxSlotNum); i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, 10000 + i));
+        }
+        Database.getBufferPool().flushPages(tableDesc.getTableId());
+        Assert.assertEquals(3, dbHeapFile.getCurrentPageNum());
+        Assert.assertEquals(3 * newMaxSlotNum, count(dbHeapFile.getIterator()));
+    }
+
+    @Test
+    public void testMigrateByteSlotBTreeFile() throws IOException {
+        Database.reset(new DBConfig(4096, 1000));
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        String tableId = tableDesc.getTableId();
+        int pageSize = 4096;
+
+        // 版本2的B+树：页1为根(内部页)，页2、3为叶子页，页4为header页，页5为空页
+        BTreePageId rootId = new BTreePageId(tableId, 1, BTreePageCategoryEnum.INTERNAL.getValue());
+        BTreePageId leftLeafId = new BTreePageId(tableId, 2, BTreePageCategoryEnum.LEAF.getValue());
+        BTreePageId rightLeafId = new BTreePageId(tableId, 3, BTreePageCategoryEnum.LEAF.getValue());
+        BTreePageId headerId = new BTreePageId(tableId, 4, BTreePageCategoryEnum.HEADER.getValue());
+
+        BTreeLeafPage leftLeaf = new BTreeLeafPage(tableDesc, leftLeafId, new byte[pageSize], 0, SlotFormatEnum.BYTE_PER_SLOT);
+        BTreeLeafPage rightLeaf = new BTreeLeafPage(tableDesc, rightLeafId, new byte[pageSize], 0, SlotFormatEnum.BYTE_PER_SLOT);
+        for (int i = 0; i < 20; i++) {
+            leftLeaf.insertRecord(TestUtil.newRecord(tableDesc, i));
+            rightLeaf.insertRecord(TestUtil.newRecord(tableDesc, 20 + i));
+        }
+        leftLeaf.setParentId(rootId);
+        leftLeaf.setRightSiblingId(rightLeafId);
+        rightLeaf.setParentId(rootId);
+        rightLeaf.setLeftSiblingId(leftLeafId);
+        BTreeInternalPage root = new BTreeInternalPage(tableDesc, rootId, new byte[pageSize], 0, SlotFormatEnum.BYTE_PER_SLOT);
+        root.insertEntry(new BTreeEntry(new IntField(20), leftLeafId, rightLeafId));
+        BTreeHeaderPage headerPage = new BTreeHeaderPage(headerId, new byte[pageSize], SlotFormatEnum.BYTE_PER_SLOT);
+        headerPage.init();
+        headerPage.markSlotNotUsed(5);
+        BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableId), BTreeRootPtrPage.createEmptyPageData());
+        rootPtr.setRootId(rootId);
+        rootPtr.setHeaderId(headerId);
+
+        byte[] headerData = new DBFileHeader(DBFileHeader.PAGE_NUM_VERSION, pageSize, 5).serialize();
+        System.arraycopy(rootPtr.serialize(), 0, headerData, DBFileHeader.HEADER_FIELD_SIZE, BTreeRootPtrPage.ROOT_PTR_PAGE_SIZE);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(headerData);
+            out.write(root.serialize());
+            out.write(leftLeaf.serialize());
+            out.write(rightLeaf.serialize());
+            out.write(headerPage.serialize());
+            out.write(new byte[pageSize]);
+        }
+
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableId, 0);
+        Database.getCatalog().addTable(tableId, tableDesc, bTreeFile);
+        Assert.assertEquals(SlotFormatEnum.BIT_PACKED, bTreeFile.getSlotFormat());
+        Assert.assertEquals(5, bTreeFile.numPages());
+        Assert.assertEquals(40, count(bTreeFile.getIterator()));
+        Assert.assertEquals(1, bTreeFile.findRecords(new IntField(25)).size());
+
+        // header页按照新的容量重新记录，空页5仍然是空闲的
+        BTreeHeaderPage migratedHeaderPage = (BTreeHeaderPage) bTreeFile.readPage(headerId);
+        Assert.assertEquals(SlotFormatEnum.BIT_PACKED, migratedHeaderPage.getSlotFormatEnum());
+        Assert.assertTrue(migratedHeaderPage.isSlotUsed(4));
+        Assert.assertFalse(migratedHeaderPage.isSlotUsed(5));
+
+        // 升级后的树可以继续插入，叶子页正常拆分
+        for (int i = 40; i < 200; i++) {
+            Database.getBufferPool().insertTuple(tableId, TestUtil.newRecord(tableDesc, i));
+        }
+        Assert.assertEquals(200, count(bTreeFile.getIterator()));
+        Assert.assertEquals(1, bTreeFile.findRecords(new IntField(150)).size());
+    }
+
+    @Test
+    public void testRecoverInterruptedMigration() throws IOException {
+        DBConfig config = new DBConfig(4096, 100);
+        config.setSegmentSize(DBConfig.MAX_PAGE_SIZE);
+        Database.reset(config);
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        int oldMaxSlotNum = DBHeapPage.getMaxSlotNum(4096, tableDesc.getSize(), SlotFormatEnum.BYTE_PER_SLOT);
+        // 20页数据加上文件头共3段
+        writeByteSlotHeapFile(file, tableDesc, 20, oldMaxSlotNum);
+        File[] oldSegments = copySegments(file, 3, ".old");
+        new DBHeapFile(tableDesc, file).close();
+        File[] newSegments = copySegments(file, 3, ".new");
+
+        // 模拟替换到一半时中断：第2段已经替换，第0、1段仍然是老版本，临时文件中还剩第0、1段
+        copyFile(oldSegments[0], file);
+        copyFile(oldSegments[1], segmentFile(file, 1));
+        File tempFile = new File(file.getPath() + ".migrate");
+        copyFile(newSegments[0], tempFile);
+        copyFile(newSegments[1], segmentFile(tempFile, 1));
+
+        Database.reset(config);
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        Assert.assertEquals(DBFileHeader.CURRENT_VERSION, dbHeapFile.getFileHeader().getVersion());
+        Assert.assertEquals(20, dbHeapFile.getCurrentPageNum());
+        Assert.assertEquals(20 * oldMaxSlotNum, count(dbHeapFile.getIterator()));
+        Assert.assertFalse(tempFile.exists());
+        Assert.assertFalse(segmentFile(tempFile, 1).exists());
+
+        // 空闲空间映射按照升级后的插槽数重建，新插入的记录优先填充已有的页
+        int newMaxSlotNum = DBHeapPage.getMaxSlotNum(4096, tableDesc.getSize(), SlotFormatEnum.BIT_PACKED);
+        for (int i = 0; i < 20 * (newMaxSlotNum - oldMaxSlotNum); i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, 10000 + i));
+        }
+        Database.getBufferPool().flushPages(tableDesc.getTableId());
+        Assert.assertEquals(20, dbHeapFile.getCurrentPageNum());
+    }
+
+    @Test
+    public void testRollbackIncompleteMigration() throws IOException {
+        DBConfig config = new DBConfig(4096, 100);
+        config.setSegmentSize(DBConfig.MAX_PAGE_SIZE);
+        Database.reset(config);
+        File file = TestUtil.newTempFile("dbFileHeaderTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        int oldMaxSlotNum = DBHeapPage.getMaxSlotNum(4096, tableDesc.getSize(), SlotFormatEnum.BYTE_PER_SLOT);
+        writeByteSlotHeapFile(file, tableDesc, 20, oldMaxSlotNum);
+
+        // 模拟写临时文件时中断：文件头还没有写入
+        File tempFile = new File(file.getPath() + ".migrate");
+        tempFile.deleteOnExit();
+        segmentFile(tempFile, 1).deleteOnExit();
+        Files.write(tempFile.toPath(), new byte[DBConfig.MAX_PAGE_SIZE]);
+        Files.write(segmentFile(tempFile, 1).toPath(), new byte[4096]);
+
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        Assert.assertEquals(DBFileHeader.CURRENT_VERSION, dbHeapFile.getFileHeader().getVersion());
+        Assert.assertEquals(20 * oldMaxSlotNum, count(dbHeapFile.getIterator()));
+        Assert.assertFalse(tempFile.exists());
+        Assert.assertFalse(segmentFile(tempFile, 1).exists());
+    }
+
+    /**
+     * 按照当前配置的段大小写入一个版本2的堆文件，每页都插满
+     * */
+    private static void writeByteSlotHeapFile(File file, TableDesc tableDesc, int pageNum, int maxSlotNum) throws IOException {
+        try (PageFileChannel channel = new PageFileChannel(file, Database.getConfig().getSegmentSize())) {
+            channel.write(0, new DBFileHeader(DBFileHeader.PAGE_NUM_VERSION, 4096, pageNum).serialize());
+            for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+                HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), pgNo);
+                DBHeapPage dbHeapPage = new DBHeapPage(tableDesc, pageId, new byte[4096], SlotFormatEnum.BYTE_PER_SLOT);
+                for (int i = 0; i < maxSlotNum; i++) {
+                    dbHeapPage.insertRecord(TestUtil.newRecord(tableDesc, pgNo * maxSlotNum + i));
+                }
+                channel.write((long) (pgNo + 1) * 4096, dbHeapPage.serialize());
+            }
+        }
+        for (int segmentNo = 1; segmentFile(file, segmentNo).exists(); segmentNo++) {
+            segmentFile(file, segmentNo).deleteOnExit();
+        }
+        new File(file.getPath() + ".fsm").deleteOnExit();
+    }
+
+    private static File[] copySegments(File file, int segmentNum, String suffix) throws IOException {
+        File[] copies = new File[segmentNum];
+        for (int segmentNo = 0; segmentNo < segmentNum; segmentNo++) {
+            Assert.assertTrue(segmentFile(file, segmentNo).exists());
+            copies[segmentNo] = new File(segmentFile(file, segmentNo).getPath() + suffix);
+            copies[segmentNo].deleteOnExit();
+            copyFile(segmentFile(file, segmentNo), copies[segmentNo]);
+        }
+        return copies;
+    }
+
+    private static void copyFile(File source, File target) throws IOException {
+        target.deleteOnExit();
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static File segmentFile(File file, int segmentNo) {
+        return segmentNo == 0 ? file : new File(file.getPath() + "." + segmentNo);
+    }
+
+    private static int count(DbFileIterator<Record> iterator) {
+        iterator.open();
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        iterator.close();
+        return count;
+    }
+}
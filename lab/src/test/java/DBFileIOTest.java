@@ -1,21 +1,43 @@
 import org.junit.Assert;
 import org.junit.Test;
+import simpledb.DBConfig;
 import simpledb.Database;
 import simpledb.dbfile.DBFile;
+import simpledb.dbfile.BulkLoadResult;
 import simpledb.dbfile.DBHeapFile;
+import simpledb.dbfile.FreeSpaceMap;
+import simpledb.dbfile.PageFileChannel;
+import simpledb.dbfile.SyncPolicyEnum;
+import simpledb.dbfile.SyncWriter;
+import simpledb.dbpage.btree.BTreeHeaderPage;
+import simpledb.dbpage.btree.BTreeLeafPage;
+import simpledb.dbpage.btree.BTreePageCategoryEnum;
+import simpledb.dbpage.btree.BTreePageId;
 import simpledb.dbpage.normal.DBHeapPage;
 import simpledb.dbpage.DBPage;
 import simpledb.dbpage.normal.HeapPageId;
 import simpledb.dbrecord.Record;
 import simpledb.dbrecord.RecordId;
+import simpledb.dbrecord.RecordView;
+import simpledb.exception.DBException;
+import simpledb.iterator.DbFileIterator;
+import simpledb.iterator.enums.ScanModeEnum;
 import simpledb.matadata.fields.IntField;
 import simpledb.matadata.fields.StringField;
 import simpledb.matadata.table.TableDesc;
 import simpledb.matadata.types.ColumnTypeEnum;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author xiongyx
@@ -124,6 +146,117 @@ public class DBFileIOTest {
         Assert.assertEquals(dbHeapPageCopy.getNotEmptySlotsNum(),maxSlot-1);
     }
 
+    @Test
+    public void testLazyRecordView() throws IOException {
+        TableDesc tableDesc = new TableDesc(
+                "lazyRecord",
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE,
+                        ColumnTypeEnum.INT_TYPE}
+        );
+        Assert.assertEquals(4 + 4 + StringField.MAX_LENGTH, tableDesc.getColumnOffset(2));
+
+        HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), 0);
+        DBHeapPage dbHeapPage = new DBHeapPage(tableDesc, pageId, new byte[1024]);
+        for (int i = 0; i < 5; i++) {
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(i), new StringField("name" + i), new IntField(100 + i)));
+            dbHeapPage.insertRecord(record);
+        }
+        byte[] bytes = dbHeapPage.serialize();
+
+        // 解析后的记录是引用页面数据的视图，字段按需解码
+        DBHeapPage dbHeapPageCopy = new DBHeapPage(tableDesc, pageId, bytes);
+        List<Record> recordList = new ArrayList<>();
+        dbHeapPageCopy.iterator().forEachRemaining(recordList::add);
+        Assert.assertEquals(5, recordList.size());
+        Assert.assertTrue(recordList.get(0) instanceof RecordView);
+        Assert.assertEquals(new RecordId(pageId, 3), recordList.get(3).getRecordId());
+        Assert.assertEquals(103, recordList.get(3).getField(2).getValue());
+        Assert.assertEquals("name3", recordList.get(3).getField(1).getValue());
+        Assert.assertEquals(Arrays.asList(4, "name4", 104), Arrays.asList(
+                recordList.get(4).getFieldList().get(0).getValue(),
+                recordList.get(4).getFieldList().get(1).getValue(),
+                recordList.get(4).getFieldList().get(2).getValue()));
+
+        // 没有修改过的页面序列化结果与原始数据一致
+        Assert.assertArrayEquals(bytes, dbHeapPageCopy.serialize());
+
+        // 替换了字段列表的记录按照新的字段序列化
+        recordList.get(1).setFieldList(Arrays.asList(new IntField(1), new StringField("changed"), new IntField(-1)));
+        DBHeapPage changedPage = new DBHeapPage(tableDesc, pageId, dbHeapPageCopy.serialize());
+        List<Record> changedRecordList = new ArrayList<>();
+        changedPage.iterator().forEachRemaining(changedRecordList::add);
+        Assert.assertEquals("changed", changedRecordList.get(1).getField(1).getValue());
+        Assert.assertEquals(-1, changedRecordList.get(1).getField(2).getValue());
+        Assert.assertEquals("name2", changedRecordList.get(2).getField(1).getValue());
+    }
+
+    @Test
+    public void testSerializeToByteBuffer() throws IOException {
+        TableDesc tableDesc = new TableDesc(
+                "serializeToByteBuffer",
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE}
+        );
+        int pageSize = 1024;
+        // 模拟复用的页帧，原有的数据必须被完全覆盖
+        ByteBuffer frame = ByteBuffer.allocateDirect(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            frame.put(i, (byte) 0x5A);
+        }
+
+        HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), 0);
+        DBHeapPage heapPage = new DBHeapPage(tableDesc, pageId, new byte[pageSize]);
+        for (int i = 0; i < 5; i++) {
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(i), new StringField("name" + i)));
+            heapPage.insertRecord(record);
+        }
+        DBHeapPage parsedPage = new DBHeapPage(tableDesc, pageId, heapPage.serialize());
+        List<Record> recordList = new ArrayList<>();
+        parsedPage.iterator().forEachRemaining(recordList::add);
+        parsedPage.deleteRecord(recordList.get(2));
+        recordList.get(0).setFieldList(Arrays.asList(new IntField(-1), new StringField("changed")));
+
+        Assert.assertEquals(pageSize, parsedPage.serialize(frame));
+        Assert.assertEquals(0, frame.position());
+        byte[] frameData = new byte[pageSize];
+        frame.get(frameData);
+        Assert.assertArrayEquals(parsedPage.serialize(), frameData);
+
+        // 与DataOutputStream的格式一致
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        new StringField("changed").serialize(new DataOutputStream(byteArrayOutputStream));
+        Assert.assertArrayEquals(byteArrayOutputStream.toByteArray(),
+                Arrays.copyOfRange(frameData, 1 + 4, 1 + 4 + 4 + StringField.MAX_LENGTH));
+        DBHeapPage framePage = new DBHeapPage(tableDesc, pageId, frameData);
+        Assert.assertEquals(4, framePage.getNotEmptySlotsNum());
+        Assert.assertEquals("changed", framePage.iterator().next().getField(1).getValue());
+
+        BTreeLeafPage leafPage = new BTreeLeafPage(tableDesc,
+                new BTreePageId(tableDesc.getTableId(), 1, BTreePageCategoryEnum.LEAF.getValue()), new byte[pageSize], 0);
+        for (int i = 0; i < 3; i++) {
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(i), new StringField("leaf" + i)));
+            leafPage.insertRecord(record);
+        }
+        frame.clear();
+        Assert.assertEquals(pageSize, leafPage.serialize(frame));
+        frame.get(frameData);
+        Assert.assertArrayEquals(leafPage.serialize(), frameData);
+
+        BTreeHeaderPage headerPage = new BTreeHeaderPage(
+                new BTreePageId(tableDesc.getTableId(), 2, BTreePageCategoryEnum.HEADER.getValue()), new byte[pageSize]);
+        headerPage.init();
+        headerPage.markSlotNotUsed(10);
+        frame.clear();
+        Assert.assertEquals(pageSize, headerPage.serialize(frame));
+        frame.get(frameData);
+        Assert.assertArrayEquals(headerPage.serialize(), frameData);
+        Assert.assertEquals(10, new BTreeHeaderPage(headerPage.getPageId(), frameData).getFirstEmptySlotIndex());
+    }
+
     @Test
     public void testFileWrite(){
         String tableId = "people";
@@ -162,4 +295,490 @@ public class DBFileIOTest {
 
         Assert.assertEquals(dbHeapPageCopy.getNotEmptySlotsNum(),maxSlot);
     }
+
+    @Test
+    public void testPageFileChannelPositionalIO() throws IOException {
+        File file = File.createTempFile("pageFileChannel", ".dat");
+        file.deleteOnExit();
+
+        try (PageFileChannel fileChannel = new PageFileChannel(file)) {
+            Assert.assertEquals(0, fileChannel.append(new byte[]{1, 2, 3, 4}));
+            Assert.assertEquals(4, fileChannel.append(new byte[]{5, 6}));
+            fileChannel.write(1, new byte[]{9, 9});
+            Assert.assertEquals(6, fileChannel.size());
+
+            byte[] data = new byte[6];
+            fileChannel.readFully(0, data, data.length);
+            Assert.assertArrayEquals(new byte[]{1, 9, 9, 4, 5, 6}, data);
+
+            // 读到文件末尾时提前结束
+            byte[] tail = new byte[4];
+            Assert.assertEquals(2, fileChannel.read(4, tail, tail.length));
+            Assert.assertArrayEquals(new byte[]{5, 6, 0, 0}, tail);
+            try {
+                fileChannel.readFully(4, tail, tail.length);
+                Assert.fail("read past end of file");
+            } catch (DBException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testPageFileChannelMmapRead() throws IOException {
+        File file = File.createTempFile("pageFileChannelMmap", ".dat");
+        file.deleteOnExit();
+
+        try (PageFileChannel fileChannel = new PageFileChannel(file)) {
+            fileChannel.setMmapRead(true);
+            fileChannel.append(new byte[]{1, 2, 3, 4});
+
+            byte[] data = new byte[4];
+            fileChannel.readFully(0, data, data.length);
+            Assert.assertArrayEquals(new byte[]{1, 2, 3, 4}, data);
+
+            // 写入的数据通过映射区可见，文件增长后重新映射
+            fileChannel.write(0, new byte[]{7});
+            fileChannel.append(new byte[]{5, 6});
+            byte[] grown = new byte[6];
+            fileChannel.readFully(0, grown, grown.length);
+            Assert.assertArrayEquals(new byte[]{7, 2, 3, 4, 5, 6}, grown);
+
+            // 超出文件末尾的部分退化为pread
+            byte[] tail = new byte[4];
+            Assert.assertEquals(2, fileChannel.read(4, tail, tail.length));
+        }
+    }
+
+    @Test
+    public void testPageFileChannelWriteBatch() throws IOException {
+        File file = File.createTempFile("pageFileChannelBatch", ".dat");
+        file.deleteOnExit();
+
+        try (PageFileChannel fileChannel = new PageFileChannel(file)) {
+            TreeMap<Long, byte[]> positionDataMap = new TreeMap<>();
+            positionDataMap.put(4L, new byte[]{3, 4});
+            positionDataMap.put(0L, new byte[]{1, 1, 2, 2});
+            positionDataMap.put(8L, new byte[]{5});
+            // [0,4)与[4,6)首尾相接合并为一次写入
+            Assert.assertEquals(2, fileChannel.writeBatch(positionDataMap));
+
+            byte[] data = new byte[9];
+            fileChannel.readFully(0, data, data.length);
+            Assert.assertArrayEquals(new byte[]{1, 1, 2, 2, 3, 4, 0, 0, 5}, data);
+        }
+    }
+
+    @Test
+    public void testPageFileChannelSegments() throws IOException {
+        File file = File.createTempFile("pageFileChannelSegment", ".dat");
+        file.deleteOnExit();
+        for (int segmentNo = 1; segmentNo <= 3; segmentNo++) {
+            new File(file.getPath() + "." + segmentNo).deleteOnExit();
+        }
+
+        try (PageFileChannel fileChannel = new PageFileChannel(file, 8)) {
+            fileChannel.setMmapRead(true);
+            // 跨越段边界的写入被拆分到两个段文件中
+            fileChannel.write(6, new byte[]{1, 2, 3, 4});
+            Assert.assertEquals(2, fileChannel.getSegmentNum());
+            Assert.assertEquals(8, file.length());
+            Assert.assertEquals(2, fileChannel.segmentFile(1).length());
+
+            TreeMap<Long, byte[]> positionDataMap = new TreeMap<>();
+            positionDataMap.put(12L, new byte[]{5, 6, 7, 8});
+            positionDataMap.put(16L, new byte[]{9});
+            positionDataMap.put(24L, new byte[]{10});
+            // [12,16)与[16,17)首尾相接，但位于不同的段，不能合并
+            Assert.assertEquals(3, fileChannel.writeBatch(positionDataMap));
+            Assert.assertEquals(25, fileChannel.size());
+            // 新建段之前前面的段被补齐
+            Assert.assertEquals(8, fileChannel.segmentFile(1).length());
+            Assert.assertEquals(8, fileChannel.segmentFile(2).length());
+
+            byte[] data = new byte[12];
+            fileChannel.readFully(6, data, data.length);
+            Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 0, 0, 5, 6, 7, 8, 9, 0}, data);
+            fileChannel.force(true);
+        }
+
+        // 重新打开时段的大小以第0段的长度为准
+        try (PageFileChannel fileChannel = new PageFileChannel(file, 1024)) {
+            Assert.assertEquals(8, fileChannel.getSegmentSize());
+            Assert.assertEquals(4, fileChannel.getSegmentNum());
+            byte[] data = new byte[2];
+            fileChannel.readFully(15, data, data.length);
+            Assert.assertArrayEquals(new byte[]{8, 9}, data);
+
+            fileChannel.truncate(10);
+            Assert.assertEquals(10, fileChannel.size());
+            Assert.assertEquals(2, fileChannel.getSegmentNum());
+            Assert.assertFalse(fileChannel.segmentFile(2).exists());
+            Assert.assertFalse(fileChannel.segmentFile(3).exists());
+        }
+    }
+
+    @Test
+    public void testSegmentedHeapFile() throws IOException {
+        DBConfig config = new DBConfig();
+        config.setSegmentSize(DBConfig.MAX_PAGE_SIZE);
+        config.setExtentSize(0);
+        Database.reset(config);
+        File file = File.createTempFile("segmentedHeapFile", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX).deleteOnExit();
+        for (int segmentNo = 1; segmentNo <= 4; segmentNo++) {
+            new File(file.getPath() + "." + segmentNo).deleteOnExit();
+        }
+        try {
+            TableDesc tableDesc = new TableDesc(file.getName(),
+                    new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+            DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+            Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+            int pageSize = dbHeapFile.getPageSize();
+            int maxSlotNum = new DBHeapPage(tableDesc, new HeapPageId(file.getName(), 0), new byte[pageSize]).getMaxSlotNum();
+
+            // 第0段中有一页是文件头
+            int pagesPerSegment = DBConfig.MAX_PAGE_SIZE / pageSize;
+            int pageNum = pagesPerSegment * 3;
+            dbHeapFile.bulkLoad(newRecordList(tableDesc, 0, maxSlotNum * pageNum).iterator());
+            Assert.assertEquals(pageNum, dbHeapFile.getCurrentPageNum());
+            Assert.assertEquals(4, dbHeapFile.getSegmentNum());
+            Assert.assertTrue(new File(file.getPath() + ".3").exists());
+            Assert.assertEquals(DBConfig.MAX_PAGE_SIZE, file.length());
+
+            int total = 0;
+            int prevId = -1;
+            for (int segmentNo = 0; segmentNo < dbHeapFile.getSegmentNum(); segmentNo++) {
+                DbFileIterator<Record> iterator = dbHeapFile.getSegmentIterator(segmentNo);
+                iterator.open();
+                int count = 0;
+                while (iterator.hasNext()) {
+                    int id = (Integer) iterator.next().getField(0).getValue();
+                    Assert.assertEquals(prevId + 1, id);
+                    prevId = id;
+                    count++;
+                }
+                iterator.close();
+                int expectPageNum = segmentNo == 0 ? pagesPerSegment - 1 : (segmentNo == 3 ? 1 : pagesPerSegment);
+                Assert.assertEquals(expectPageNum * maxSlotNum, count);
+                total += count;
+            }
+            Assert.assertEquals(maxSlotNum * pageNum, total);
+
+            // 重新打开后按照页号读取跨段的页面
+            dbHeapFile.close();
+            DBHeapFile reopened = new DBHeapFile(tableDesc, file);
+            Record record = (Record) reopened.readPage(new HeapPageId(file.getName(), pageNum - 1)).iterator().next();
+            Assert.assertEquals(maxSlotNum * (pageNum - 1), record.getField(0).getValue());
+            reopened.close();
+        } finally {
+            Database.reset(new DBConfig());
+        }
+    }
+
+    @Test
+    public void testSyncWriterPolicy() throws IOException {
+        File file = File.createTempFile("syncWriter", ".dat");
+        file.deleteOnExit();
+
+        try (PageFileChannel fileChannel = new PageFileChannel(file)) {
+            SyncWriter alwaysWriter = new SyncWriter(SyncPolicyEnum.ALWAYS, 1000, 0);
+            alwaysWriter.write(fileChannel, 0, new byte[]{1});
+            alwaysWriter.write(fileChannel, 1, new byte[]{2});
+            Assert.assertEquals(2, alwaysWriter.getSyncNum());
+            Assert.assertEquals(0, alwaysWriter.getPendingChannelNum());
+
+            // 累计写入3页之后刷盘一次
+            SyncWriter groupWriter = new SyncWriter(SyncPolicyEnum.GROUP, 60000, 3);
+            groupWriter.write(fileChannel, 0, new byte[]{1});
+            TreeMap<Long, byte[]> positionDataMap = new TreeMap<>();
+            positionDataMap.put(1L, new byte[]{2});
+            groupWriter.writeBatch(fileChannel, positionDataMap);
+            Assert.assertEquals(0, groupWriter.getSyncNum());
+            Assert.assertEquals(1, groupWriter.getPendingChannelNum());
+            groupWriter.write(fileChannel, 2, new byte[]{3});
+            Assert.assertEquals(1, groupWriter.getSyncNum());
+            Assert.assertEquals(0, groupWriter.getPendingChannelNum());
+
+            // 只在关闭文件或者停止时刷盘
+            SyncWriter osWriter = new SyncWriter(SyncPolicyEnum.OS, 1000, 1);
+            for (int i = 0; i < 10; i++) {
+                osWriter.write(fileChannel, i, new byte[]{(byte) i});
+            }
+            Assert.assertEquals(0, osWriter.getSyncNum());
+            osWriter.sync(fileChannel);
+            Assert.assertEquals(1, osWriter.getSyncNum());
+            Assert.assertEquals(0, osWriter.getPendingChannelNum());
+        }
+    }
+
+    @Test
+    public void testSyncWriterBackgroundFailure() throws IOException, InterruptedException {
+        File file = File.createTempFile("syncWriter", ".dat");
+        file.deleteOnExit();
+
+        // 第一次刷盘失败
+        AtomicInteger failNum = new AtomicInteger(1);
+        try (PageFileChannel fileChannel = new PageFileChannel(file) {
+            @Override
+            public void force(boolean metaData) {
+                if (failNum.getAndDecrement() > 0) {
+                    throw new DBException("injected force failure");
+                }
+                super.force(metaData);
+            }
+        }) {
+            SyncWriter groupWriter = new SyncWriter(SyncPolicyEnum.GROUP, 10, 0);
+            groupWriter.start();
+            groupWriter.write(fileChannel, 0, new byte[]{1});
+            for (int i = 0; i < 100 && groupWriter.getSyncNum() == 0; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, groupWriter.getBackgroundFailureNum());
+            Assert.assertEquals(1, groupWriter.getSyncNum());
+
+            // 后台的重试已经成功，失败仍然在下一次sync时抛出，且只抛出一次
+            try {
+                groupWriter.sync();
+                Assert.fail("background sync failure should be rethrown");
+            } catch (DBException e) {
+                Assert.assertEquals("injected force failure", e.getCause().getMessage());
+            }
+            groupWriter.sync();
+            groupWriter.stop();
+        }
+    }
+
+    @Test
+    public void testDatabaseSyncPolicy() throws IOException {
+        DBConfig config = new DBConfig();
+        config.setSyncPolicyEnum(SyncPolicyEnum.GROUP);
+        config.setSyncIntervalMillis(60000);
+        config.setSyncPageNum(0);
+        Database.reset(config);
+        File file = File.createTempFile("databaseSyncPolicy", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX).deleteOnExit();
+        try {
+            TableDesc tableDesc = new TableDesc(file.getName(),
+                    new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+            DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+            SyncWriter syncWriter = Database.getSyncWriter();
+            Assert.assertEquals(SyncPolicyEnum.GROUP, syncWriter.getSyncPolicyEnum());
+
+            for (int pgNo = 0; pgNo < 5; pgNo++) {
+                DBHeapPage page = new DBHeapPage(tableDesc, new HeapPageId(file.getName(), pgNo), new byte[dbHeapFile.getPageSize()]);
+                page.insertRecord(newRecordList(tableDesc, pgNo, 1).get(0));
+                dbHeapFile.writePage(page);
+            }
+            Assert.assertEquals(0, syncWriter.getSyncNum());
+            Assert.assertEquals(1, syncWriter.getPendingChannelNum());
+
+            // 重置数据库时待刷盘的文件被统一刷盘
+            Database.reset(new DBConfig());
+            Assert.assertEquals(1, syncWriter.getSyncNum());
+            Assert.assertEquals(0, syncWriter.getPendingChannelNum());
+            Assert.assertEquals(5, dbHeapFile.getCurrentPageNum());
+            dbHeapFile.close();
+        } finally {
+            Database.reset(new DBConfig());
+        }
+    }
+
+    @Test
+    public void testHeapFileWritePages() throws IOException {
+        File file = File.createTempFile("heapFileWritePages", ".dat");
+        file.deleteOnExit();
+        TableDesc tableDesc = new TableDesc(file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+
+        List<DBPage> pages = new ArrayList<>();
+        for (int pgNo : new int[]{3, 0, 1, 2, 5}) {
+            DBHeapPage page = new DBHeapPage(tableDesc, new HeapPageId(file.getName(), pgNo), new byte[dbHeapFile.getPageSize()]);
+            Record record = new Record();
+            record.setTableDesc(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(pgNo), new StringField("page" + pgNo)));
+            page.insertRecord(record);
+            pages.add(page);
+        }
+        dbHeapFile.writePages(pages);
+
+        Assert.assertEquals(6, dbHeapFile.getCurrentPageNum());
+        for (int pgNo : new int[]{0, 1, 2, 3, 5}) {
+            DBPage page = dbHeapFile.readPage(new HeapPageId(file.getName(), pgNo));
+            Assert.assertEquals(pgNo, ((Record) page.iterator().next()).getField(0).getValue());
+        }
+        Assert.assertEquals(0, dbHeapFile.readPage(new HeapPageId(file.getName(), 4)).getNotEmptySlotsNum());
+    }
+
+    @Test
+    public void testHeapFileBulkLoad() throws IOException {
+        File file = File.createTempFile("heapFileBulkLoad", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX).deleteOnExit();
+        TableDesc tableDesc = new TableDesc(file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        int maxSlotNum = new DBHeapPage(tableDesc, new HeapPageId(file.getName(), 0),
+                new byte[dbHeapFile.getPageSize()]).getMaxSlotNum();
+
+        int recordNum = maxSlotNum * 2 + 3;
+        List<Record> recordList = new ArrayList<>();
+        for (int i = 0; i < recordNum; i++) {
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(i), new StringField("record" + i)));
+            recordList.add(record);
+        }
+        BulkLoadResult result = dbHeapFile.bulkLoad(recordList.iterator());
+        Assert.assertEquals(recordNum, result.getRowNum());
+        Assert.assertEquals(3, result.getPageNum());
+        Assert.assertEquals(3, dbHeapFile.getCurrentPageNum());
+        Assert.assertEquals(0, dbHeapFile.getFreeSpaceMap().getFreeSlotNum(1));
+        Assert.assertEquals(maxSlotNum - 3, dbHeapFile.getFreeSpaceMap().getFreeSlotNum(2));
+
+        // CSV追加在新的页中，空行被忽略
+        result = dbHeapFile.bulkLoadCsv(new StringReader("-1,csv a\n\n-2,csv b\n"));
+        Assert.assertEquals(2, result.getRowNum());
+        Assert.assertEquals(4, dbHeapFile.getCurrentPageNum());
+
+        DBPage lastPage = dbHeapFile.readPage(new HeapPageId(file.getName(), 3));
+        Assert.assertEquals(2, lastPage.getNotEmptySlotsNum());
+        Record csvRecord = (Record) lastPage.iterator().next();
+        Assert.assertEquals(-1, csvRecord.getField(0).getValue());
+        Assert.assertEquals("csv a", csvRecord.getField(1).getValue());
+
+        DbFileIterator<Record> iterator = dbHeapFile.getIterator();
+        iterator.open();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            if (count < recordNum) {
+                Assert.assertEquals(count, record.getField(0).getValue());
+            }
+            count++;
+        }
+        iterator.close();
+        Assert.assertEquals(recordNum + 2, count);
+
+        try {
+            dbHeapFile.bulkLoadCsv(new StringReader("1,a,extra\n"));
+            Assert.fail();
+        } catch (DBException e) {
+            // 列数不匹配
+        }
+    }
+
+    @Test
+    public void testHeapFileBulkLoadAfterScan() throws IOException {
+        File file = File.createTempFile("heapFileBulkLoadAfterScan", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX).deleteOnExit();
+        TableDesc tableDesc = new TableDesc(file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+
+        // 扫描空表会把空的第0页读入缓冲池
+        DbFileIterator<Record> iterator = dbHeapFile.getIterator();
+        iterator.open();
+        Assert.assertFalse(iterator.hasNext());
+        iterator.close();
+
+        dbHeapFile.bulkLoad(newRecordList(tableDesc, 0, 10).iterator());
+
+        // 导入之后缓冲池中不能再使用过期的空页
+        List<Record> recordList = new ArrayList<>();
+        iterator = dbHeapFile.getIterator();
+        iterator.open();
+        while (iterator.hasNext()) {
+            recordList.add(iterator.next());
+        }
+        iterator.close();
+        Assert.assertEquals(10, recordList.size());
+
+        Database.getBufferPool().deleteTuple(recordList.get(3));
+        iterator.reset();
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        iterator.close();
+        Assert.assertEquals(9, count);
+    }
+
+    @Test
+    public void testHeapFileScanMode() throws IOException {
+        File file = File.createTempFile("heapFileScanMode", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX).deleteOnExit();
+        TableDesc tableDesc = new TableDesc(file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        int maxSlotNum = new DBHeapPage(tableDesc, new HeapPageId(file.getName(), 0),
+                new byte[dbHeapFile.getPageSize()]).getMaxSlotNum();
+
+        dbHeapFile.bulkLoad(newRecordList(tableDesc, 0, maxSlotNum).iterator());
+
+        DbFileIterator<Record> snapshotIterator = dbHeapFile.getIterator(ScanModeEnum.SNAPSHOT);
+        DbFileIterator<Record> followIterator = dbHeapFile.getIterator(ScanModeEnum.FOLLOW_GROWTH);
+        snapshotIterator.open();
+        followIterator.open();
+        snapshotIterator.next();
+        followIterator.next();
+
+        // 扫描期间文件增长了一页
+        dbHeapFile.bulkLoad(newRecordList(tableDesc, maxSlotNum, 2).iterator());
+        Assert.assertEquals(2, dbHeapFile.getCurrentPageNum());
+
+        int snapshotCount = 1;
+        while (snapshotIterator.hasNext()) {
+            snapshotIterator.next();
+            snapshotCount++;
+        }
+        snapshotIterator.close();
+        Assert.assertEquals(maxSlotNum, snapshotCount);
+
+        int followCount = 1;
+        while (followIterator.hasNext()) {
+            followIterator.next();
+            followCount++;
+        }
+        followIterator.close();
+        Assert.assertEquals(maxSlotNum + 2, followCount);
+    }
+
+    @Test
+    public void testCloseWritesBackBufferedPages() throws IOException {
+        File file = TestUtil.newTempFile("closeWriteBack");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, 1));
+        HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), 0);
+        Assert.assertTrue(Database.getBufferPool().isCached(pageId));
+
+        // 关闭时写回缓冲池中的脏页并丢弃表的页面，之后写回所有脏页不会写入已经关闭的文件
+        dbHeapFile.close();
+        Assert.assertFalse(Database.getBufferPool().isCached(pageId));
+        Database.getBufferPool().flushAllPages();
+
+        DBHeapFile reopened = new DBHeapFile(tableDesc, file);
+        Assert.assertFalse(reopened.getFreeSpaceMap().needRebuild());
+        Assert.assertEquals(1, ((DBHeapPage) reopened.readPage(pageId)).getNotEmptySlotsNum());
+        reopened.close();
+    }
+
+    private static List<Record> newRecordList(TableDesc tableDesc, int start, int num) {
+        List<Record> recordList = new ArrayList<>();
+        for (int i = start; i < start + num; i++) {
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(i), new StringField("record" + i)));
+            recordList.add(record);
+        }
+        return recordList;
+    }
 }
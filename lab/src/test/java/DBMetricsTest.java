@@ -0,0 +1,76 @@
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.Database;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+import simpledb.metrics.DBMetrics;
+import simpledb.metrics.LatencyHistogram;
+import simpledb.metrics.TableStats;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+public class DBMetricsTest {
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getQuantileNanos(0.99));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1_000_000);
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals((99 * 100 + 1_000_000) / 100.0, histogram.getMeanNanos(), 0.001);
+        // 100纳秒落在[64, 128)的桶中
+        Assert.assertEquals(127, histogram.getQuantileNanos(0.5));
+        Assert.assertEquals(127, histogram.getQuantileNanos(0.99));
+        Assert.assertTrue(histogram.getQuantileNanos(1) >= 1_000_000);
+    }
+
+    @Test
+    public void testTableStatsExposedByJmx() throws Exception {
+        File file = File.createTempFile("dbMetricsTest", ".dat");
+        file.deleteOnExit();
+        String tableId = file.getName();
+        TableDesc tableDesc = new TableDesc(tableId,
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableId, tableDesc, dbHeapFile);
+
+        int pageNum = 3;
+        for (int j = 0; j < pageNum; j++) {
+            HeapPageId pageId = new HeapPageId(tableId, j);
+            dbHeapFile.writePage(new DBHeapPage(tableDesc, pageId, new byte[dbHeapFile.getPageSize()]));
+        }
+        // 每页第一次访问未命中，第二次命中
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < pageNum; j++) {
+                HeapPageId pageId = new HeapPageId(tableId, j);
+                Database.getBufferPool().getPage(pageId);
+                Database.getBufferPool().unpinPage(pageId);
+            }
+        }
+
+        TableStats tableStats = DBMetrics.getTableStats(tableId);
+        Assert.assertEquals(pageNum, tableStats.getWritePageCount());
+        Assert.assertEquals(pageNum * dbHeapFile.getPageSize(), tableStats.getWriteBytes());
+        Assert.assertEquals(pageNum, tableStats.getReadPageCount());
+        Assert.assertEquals(pageNum * dbHeapFile.getPageSize(), tableStats.getReadBytes());
+        Assert.assertEquals(0.5, tableStats.getHitRatio(), 0.0001);
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName tableObjectName = new ObjectName("simpledb:type=Table,table=" + ObjectName.quote(tableId));
+        Assert.assertEquals((long) pageNum, mBeanServer.getAttribute(tableObjectName, "ReadPageCount"));
+        ObjectName bufferPoolObjectName = new ObjectName("simpledb:type=BufferPool,name=" + ObjectName.quote(Database.DEFAULT_BUFFER_POOL_NAME));
+        Assert.assertEquals(Database.getBufferPool().getMissCount(), mBeanServer.getAttribute(bufferPoolObjectName, "MissCount"));
+    }
+}
@@ -0,0 +1,128 @@
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.Database;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbfile.FreeSpaceMap;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.iterator.DbFileIterator;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class FreeSpaceMapTest {
+
+    @Test
+    public void testInsertReuseFreeSlot() throws IOException {
+        File file = TestUtil.newTempFile("freeSpaceMapTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+
+        int maxSlotNum = new DBHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), 0),
+                new byte[dbHeapFile.getPageSize()]).getMaxSlotNum();
+        int recordNum = maxSlotNum * 3;
+        for (int i = 0; i < recordNum; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        Assert.assertEquals(3, dbHeapFile.getCurrentPageNum());
+        FreeSpaceMap freeSpaceMap = dbHeapFile.getFreeSpaceMap();
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            Assert.assertEquals(0, freeSpaceMap.getFreeSlotNum(pgNo));
+        }
+
+        // 刷盘后重新读取，使记录带上RecordId
+        Database.reset(Database.getConfig());
+        // 删除第0页的一条记录后，下一次插入直接复用该插槽，而不是追加新页
+        DbFileIterator<Record> iterator = dbHeapFile.getIterator();
+        iterator.open();
+        Record first = iterator.next();
+        iterator.close();
+        Database.getBufferPool().deleteTuple(first);
+        Assert.assertEquals(1, freeSpaceMap.getFreeSlotNum(0));
+
+        Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, recordNum));
+        Assert.assertEquals(3, dbHeapFile.getCurrentPageNum());
+        Assert.assertEquals(0, freeSpaceMap.getFreeSlotNum(0));
+    }
+
+    @Test
+    public void testPersistAndReload() throws IOException {
+        File file = TestUtil.newTempFile("freeSpaceMapTest");
+        File mapFile = new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX);
+        mapFile.deleteOnExit();
+
+        FreeSpaceMap freeSpaceMap = new FreeSpaceMap(mapFile, 1024, true);
+        freeSpaceMap.update(0, 0);
+        freeSpaceMap.update(1, 0);
+        freeSpaceMap.update(2, 7);
+        freeSpaceMap.update(3, 1000);
+        Assert.assertEquals(2, freeSpaceMap.findPage(4));
+        freeSpaceMap.close();
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(mapFile, 1024, false);
+        Assert.assertEquals(0, reloaded.getFreeSlotNum(1));
+        Assert.assertEquals(7, reloaded.getFreeSlotNum(2));
+        // 超过一个字节的空闲插槽数按上限记录
+        Assert.assertEquals(254, reloaded.getFreeSlotNum(3));
+        // 没有记录过的页作为候选页
+        Assert.assertEquals(-1, reloaded.getFreeSlotNum(4));
+        reloaded.update(2, 0);
+        reloaded.update(3, 0);
+        Assert.assertEquals(4, reloaded.findPage(5));
+        Assert.assertEquals(-1, reloaded.findPage(4));
+        reloaded.close();
+
+        // 数据文件是新创建的，残留的映射文件被清空
+        FreeSpaceMap reset = new FreeSpaceMap(mapFile, 1024, true);
+        Assert.assertEquals(-1, reset.getFreeSlotNum(1));
+        reset.close();
+
+        // 没有正常关闭的映射文件不被信任
+        FreeSpaceMap cleanClosed = new FreeSpaceMap(mapFile, 1024, false);
+        Assert.assertFalse(cleanClosed.needRebuild());
+        FreeSpaceMap uncleanClosed = new FreeSpaceMap(mapFile, 1024, false);
+        Assert.assertTrue(uncleanClosed.needRebuild());
+        Assert.assertEquals(-1, uncleanClosed.getFreeSlotNum(1));
+        uncleanClosed.close();
+        cleanClosed.close();
+    }
+
+    @Test
+    public void testRebuildAfterUncleanShutdown() throws IOException {
+        File file = TestUtil.newTempFile("freeSpaceMapTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+        int maxSlotNum = new DBHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), 0),
+                new byte[dbHeapFile.getPageSize()]).getMaxSlotNum();
+        for (int i = 0; i < maxSlotNum * 2; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        Database.reset(Database.getConfig());
+
+        // 删除第0页的一条记录并写回
+        DbFileIterator<Record> iterator = dbHeapFile.getIterator();
+        iterator.open();
+        Record first = iterator.next();
+        iterator.close();
+        Database.getBufferPool().deleteTuple(first);
+        Database.reset(Database.getConfig());
+
+        // 模拟映射先于数据页写回后异常退出：映射中第0页没有空闲插槽，实际的页有一个
+        File mapFile = new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(mapFile, "rw")) {
+            randomAccessFile.write(0);
+        }
+
+        DBHeapFile reopened = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopened);
+        Assert.assertEquals(1, reopened.getFreeSpaceMap().getFreeSlotNum(0));
+        Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, maxSlotNum * 2));
+        Assert.assertEquals(2, reopened.getCurrentPageNum());
+        Assert.assertEquals(0, reopened.getFreeSpaceMap().getFreeSlotNum(0));
+    }
+}
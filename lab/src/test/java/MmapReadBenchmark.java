@@ -0,0 +1,115 @@
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.iterator.operator.SeqScan;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 对比mmap与pread两种读取方式下顺序扫描和B+树点查的耗时
+ * 缓冲池容量远小于表的页数，保证大部分页面访问都会未命中、走到文件读取
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes MmapReadBenchmark
+ */
+public class MmapReadBenchmark {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int POOL_CAPACITY = 64;
+
+    private static final int HEAP_RECORD_NUM = 200000;
+    private static final int BTREE_RECORD_NUM = 20000;
+    private static final int LOOKUP_NUM = 50000;
+    private static final int ROUND_NUM = 3;
+
+    public static void main(String[] args) throws IOException {
+        // 构建B+树时内部页拆分需要同时pin住所有的孩子页，使用较大的缓冲池构建
+        Database.reset(new DBConfig(PAGE_SIZE, DBConfig.DEFAULT_PAGE_CAPACITY));
+        DBHeapFile heapFile = createHeapFile();
+        BTreeFile bTreeFile = createBTreeFile();
+
+        System.out.printf("pageSize=%d, capacity=%d, heap records=%d, btree records=%d, lookups=%d%n",
+                PAGE_SIZE, POOL_CAPACITY, HEAP_RECORD_NUM, BTREE_RECORD_NUM, LOOKUP_NUM);
+        System.out.printf("%-8s %-8s %-12s %-12s%n", "mode", "round", "scan(ms)", "lookup(ms)");
+        for (int round = 0; round < ROUND_NUM; round++) {
+            for (boolean mmap : new boolean[]{false, true}) {
+                heapFile.setMmapRead(mmap);
+                bTreeFile.setMmapRead(mmap);
+                // 每一轮都从冷的缓冲池开始(文件内容已经在操作系统的页缓存中)
+                Database.reset(new DBConfig(PAGE_SIZE, POOL_CAPACITY));
+                long scanCost = runSeqScan(heapFile);
+                long lookupCost = runLookup(bTreeFile);
+                System.out.printf("%-8s %-8d %-12d %-12d%n", mmap ? "mmap" : "pread", round, scanCost, lookupCost);
+            }
+        }
+        Database.reset(new DBConfig());
+    }
+
+    private static DBHeapFile createHeapFile() throws IOException {
+        File file = File.createTempFile("mmapReadBenchmark", ".dat");
+        file.deleteOnExit();
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile heapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, heapFile);
+
+        int pgNo = 0;
+        DBHeapPage page = null;
+        for (int i = 0; i < HEAP_RECORD_NUM; i++) {
+            if (page == null || page.getNotEmptySlotsNum() == page.getMaxSlotNum()) {
+                if (page != null) {
+                    heapFile.writePage(page);
+                }
+                page = new DBHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), pgNo++),
+                        new byte[heapFile.getPageSize()]);
+            }
+            page.insertRecord(TestUtil.newRecord(tableDesc, i));
+        }
+        heapFile.writePage(page);
+        return heapFile;
+    }
+
+    private static BTreeFile createBTreeFile() throws IOException {
+        File file = File.createTempFile("mmapReadBenchmark", ".idx");
+        file.deleteOnExit();
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+
+        Random random = new Random(1);
+        for (int i = 0; i < BTREE_RECORD_NUM; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, random.nextInt(BTREE_RECORD_NUM)));
+        }
+        Database.getBufferPool().flushAllPages();
+        return bTreeFile;
+    }
+
+    private static long runSeqScan(DBHeapFile heapFile) {
+        long start = System.currentTimeMillis();
+        SeqScan seqScan = new SeqScan(heapFile);
+        seqScan.open();
+        int count = 0;
+        while (seqScan.hasNext()) {
+            seqScan.next();
+            count++;
+        }
+        seqScan.close();
+        if (count != HEAP_RECORD_NUM) {
+            throw new IllegalStateException("scan count=" + count);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long runLookup(BTreeFile bTreeFile) throws IOException {
+        Random random = new Random(2);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < LOOKUP_NUM; i++) {
+            bTreeFile.findRecords(new IntField(random.nextInt(BTREE_RECORD_NUM)));
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
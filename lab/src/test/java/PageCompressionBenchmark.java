@@ -0,0 +1,104 @@
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BulkLoadResult;
+import simpledb.dbfile.CompressedPageStore;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbfile.PageCompressionEnum;
+import simpledb.dbpage.normal.HeapPageFormatEnum;
+import simpledb.dbrecord.Record;
+import simpledb.iterator.DbFileIterator;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+import simpledb.metrics.DBMetrics;
+import simpledb.metrics.TableStats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 对比数据页不压缩与LZ压缩时的磁盘占用、批量导入耗时，以及全表扫描读取的字节数和耗时
+ * 每次扫描前重置缓冲池，保证所有页都从文件中读取
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes PageCompressionBenchmark
+ */
+public class PageCompressionBenchmark {
+
+    private static final int RECORD_NUM = 1000000;
+    private static final int SCAN_ROUND_NUM = 3;
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("records=%d%n", RECORD_NUM);
+        System.out.printf("%-8s %-14s %-14s %-14s %-14s%n", "mode", "disk bytes", "load(ms)", "scan(ms)", "scan read bytes");
+        for (PageCompressionEnum pageCompressionEnum : PageCompressionEnum.values()) {
+            run(pageCompressionEnum);
+        }
+    }
+
+    private static void run(PageCompressionEnum pageCompressionEnum) throws IOException {
+        Database.reset(new DBConfig());
+        File file = File.createTempFile("pageCompressionBenchmark", ".dat");
+        File mapFile = new File(file.getPath() + CompressedPageStore.FILE_SUFFIX);
+        file.deleteOnExit();
+        new File(file.getPath() + ".fsm").deleteOnExit();
+        mapFile.deleteOnExit();
+        TableDesc tableDesc = new TableDesc(
+                file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE}
+        );
+
+        DBHeapFile heapFile = new DBHeapFile(tableDesc, file, HeapPageFormatEnum.FIXED, pageCompressionEnum);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, heapFile);
+        BulkLoadResult loadResult = heapFile.bulkLoad(new Iterator<Record>() {
+            private int id;
+
+            @Override
+            public boolean hasNext() {
+                return id < RECORD_NUM;
+            }
+
+            @Override
+            public Record next() {
+                return newRecord(tableDesc, id++);
+            }
+        });
+        long diskBytes = file.length() + (mapFile.exists() ? mapFile.length() : 0);
+
+        long scanNanos = 0;
+        long readBytes = 0;
+        for (int round = 0; round < SCAN_ROUND_NUM; round++) {
+            Database.reset(new DBConfig());
+            Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, heapFile);
+            TableStats tableStats = DBMetrics.getTableStats(tableDesc.getTableId());
+            long readBytesBefore = tableStats.getReadBytes();
+            long start = System.nanoTime();
+            DbFileIterator<Record> iterator = heapFile.getIterator();
+            iterator.open();
+            long count = 0;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            iterator.close();
+            if (count != RECORD_NUM) {
+                throw new IllegalStateException("scan count=" + count);
+            }
+            scanNanos += System.nanoTime() - start;
+            readBytes += tableStats.getReadBytes() - readBytesBefore;
+        }
+        heapFile.close();
+
+        System.out.printf("%-8s %-14d %-14d %-14d %-14d%n", pageCompressionEnum.name(), diskBytes,
+                loadResult.getElapsedNanos() / 1000_000, scanNanos / SCAN_ROUND_NUM / 1000_000, readBytes / SCAN_ROUND_NUM);
+    }
+
+    private static Record newRecord(TableDesc tableDesc, int id) {
+        Record record = new Record(tableDesc);
+        record.setFieldList(Arrays.asList(new IntField(id), new IntField(id % 100), new StringField("record" + id)));
+        return record;
+    }
+}
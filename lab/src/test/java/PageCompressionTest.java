@@ -0,0 +1,390 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbfile.CompressedPageStore;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbfile.LZPageCodec;
+import simpledb.dbfile.PageCompressionEnum;
+import simpledb.dbfile.PageFileChannel;
+import simpledb.dbfile.SyncPolicyEnum;
+import simpledb.dbpage.normal.HeapPageFormatEnum;
+import simpledb.dbrecord.Record;
+import simpledb.exception.DBException;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PageCompressionTest {
+
+    @After
+    public void tearDown() {
+        Database.reset(new DBConfig());
+    }
+
+    @Test
+    public void testCodecRoundTrip() {
+        Random random = new Random(1);
+        List<byte[]> dataList = new ArrayList<>();
+        // 全0、不可压缩的随机数据、重复的短模式、很短的数据
+        dataList.add(new byte[4096]);
+        byte[] randomData = new byte[4096];
+        random.nextBytes(randomData);
+        dataList.add(randomData);
+        byte[] repeatData = new byte[8192];
+        for (int i = 0; i < repeatData.length; i++) {
+            repeatData[i] = (byte) "record".charAt(i % 6);
+        }
+        dataList.add(repeatData);
+        for (int length = 0; length < 20; length++) {
+            byte[] shortData = new byte[length];
+            random.nextBytes(shortData);
+            dataList.add(shortData);
+        }
+        // 随机数据与长串的0交替出现(类似定长字符串字段的填充)
+        byte[] mixedData = new byte[4096];
+        for (int i = 0; i < mixedData.length; i += 64) {
+            for (int j = 0; j < 10; j++) {
+                mixedData[i + j] = (byte) random.nextInt(256);
+            }
+        }
+        dataList.add(mixedData);
+
+        LZPageCodec codec = new LZPageCodec();
+        for (byte[] data : dataList) {
+            byte[] compressed = new byte[LZPageCodec.maxCompressedLength(data.length)];
+            int compressedLength = codec.compress(data, 0, data.length, compressed);
+            byte[] decompressed = new byte[data.length];
+            LZPageCodec.decompress(compressed, 0, compressedLength, decompressed, data.length);
+            Assert.assertArrayEquals(data, decompressed);
+        }
+
+        byte[] compressed = new byte[LZPageCodec.maxCompressedLength(4096)];
+        Assert.assertTrue(codec.compress(new byte[4096], 0, 4096, compressed) < 64);
+        Assert.assertTrue(codec.compress(mixedData, 0, 4096, compressed) < 4096 / 3);
+
+        // 解压后的长度不一致或者数据被截断时报错
+        int compressedLength = codec.compress(repeatData, 0, repeatData.length, compressed = new byte[LZPageCodec.maxCompressedLength(8192)]);
+        try {
+            LZPageCodec.decompress(compressed, 0, compressedLength, new byte[4096], 4096);
+            Assert.fail();
+        } catch (DBException e) {
+            // 超出了目标长度
+        }
+        try {
+            LZPageCodec.decompress(compressed, 0, compressedLength - 1, new byte[8192], 8192);
+            Assert.fail();
+        } catch (DBException e) {
+            // 数据被截断
+        }
+    }
+
+    @Test
+    public void testCompressedPageStore() throws IOException {
+        int pageSize = 4096;
+        File file = TestUtil.newTempFile("pageCompressionTest");
+        File mapFile = new File(file.getPath() + CompressedPageStore.FILE_SUFFIX);
+        byte[] zeroPage = new byte[pageSize];
+        byte[] randomPage = new byte[pageSize];
+        new Random(2).nextBytes(randomPage);
+
+        PageFileChannel channel = new PageFileChannel(file);
+        CompressedPageStore store = new CompressedPageStore(channel, pageSize, pageSize, mapFile, true);
+        Assert.assertArrayEquals(zeroPage, store.readPage(3));
+
+        TreeMap<Integer, byte[]> pgNoDataMap = new TreeMap<>();
+        pgNoDataMap.put(0, zeroPage);
+        pgNoDataMap.put(1, zeroPage);
+        pgNoDataMap.put(2, zeroPage);
+        store.writePages(pgNoDataMap, true);
+        int zeroLength = store.getStoredLength(0);
+        Assert.assertTrue(zeroLength > 0 && zeroLength <= CompressedPageStore.UNIT_SIZE);
+        Assert.assertEquals(3 * CompressedPageStore.UNIT_SIZE, store.getDataLength());
+
+        // 不可压缩的页按原样存储，原来的空间放不下，重新分配到末尾
+        Assert.assertEquals(pageSize, store.writePage(1, randomPage));
+        Assert.assertEquals(3 * CompressedPageStore.UNIT_SIZE + pageSize, store.getDataLength());
+        Assert.assertArrayEquals(randomPage, store.readPage(1));
+        Assert.assertArrayEquals(zeroPage, store.readPage(2));
+
+        // 释放的空间被后写入的页复用
+        store.writePage(5, zeroPage);
+        Assert.assertEquals(3 * CompressedPageStore.UNIT_SIZE + pageSize, store.getDataLength());
+
+        // 重新打开时根据映射重建空闲空间
+        store.close();
+        channel.close();
+        channel = new PageFileChannel(file);
+        store = new CompressedPageStore(channel, pageSize, pageSize, mapFile, false);
+        Assert.assertArrayEquals(randomPage, store.readPage(1));
+        Assert.assertArrayEquals(zeroPage, store.readPage(5));
+        Assert.assertEquals(3 * zeroLength + pageSize, store.getStoredBytes());
+
+        // 页变小后也不原地覆盖：新镜像写入新的空间，原来的空间在映射刷盘之后释放
+        int rawUnitNum = pageSize / CompressedPageStore.UNIT_SIZE;
+        store.writePage(1, zeroPage);
+        Assert.assertArrayEquals(zeroPage, store.readPage(1));
+        Assert.assertEquals((3 + rawUnitNum + 1) * CompressedPageStore.UNIT_SIZE, store.getDataLength());
+        // 释放的空间与末尾相邻时合并，数据区缩回
+        store.clearPage(1);
+        Assert.assertEquals(0, store.getStoredLength(1));
+        Assert.assertEquals(3 * CompressedPageStore.UNIT_SIZE, store.getDataLength());
+        store.close();
+        channel.close();
+    }
+
+    @Test
+    public void testRewriteSurvivesLostMapWrite() throws IOException {
+        int pageSize = 4096;
+        File file = TestUtil.newTempFile("pageCompressionTest");
+        File mapFile = new File(file.getPath() + CompressedPageStore.FILE_SUFFIX);
+        byte[] oldPage = new byte[pageSize];
+        byte[] newPage = new byte[pageSize];
+        for (int i = 0; i < pageSize; i += 16) {
+            oldPage[i] = (byte) i;
+            newPage[i] = (byte) (i + 1);
+        }
+
+        PageFileChannel channel = new PageFileChannel(file);
+        CompressedPageStore store = new CompressedPageStore(channel, pageSize, pageSize, mapFile, true);
+        store.writePage(0, oldPage);
+        store.close();
+        byte[] oldMapData = Files.readAllBytes(mapFile.toPath());
+
+        store = new CompressedPageStore(channel, pageSize, pageSize, mapFile, false);
+        store.writePage(0, newPage);
+        store.close();
+        channel.close();
+
+        // 模拟镜像写入之后、映射写入之前崩溃：旧的映射仍然指向一份完整的旧镜像
+        Files.write(mapFile.toPath(), oldMapData);
+        channel = new PageFileChannel(file);
+        store = new CompressedPageStore(channel, pageSize, pageSize, mapFile, false);
+        Assert.assertArrayEquals(oldPage, store.readPage(0));
+        store.close();
+        channel.close();
+    }
+
+    @Test
+    public void testReleaseAfterMapForced() throws IOException {
+        // 写入后不立即刷盘
+        DBConfig config = new DBConfig();
+        config.setSyncPolicyEnum(SyncPolicyEnum.OS);
+        Database.reset(config);
+
+        int pageSize = 4096;
+        File file = TestUtil.newTempFile("pageCompressionTest");
+        byte[] zeroPage = new byte[pageSize];
+        byte[] randomPage = new byte[pageSize];
+        new Random(3).nextBytes(randomPage);
+        PageFileChannel channel = new PageFileChannel(file);
+        File mapFile = new File(file.getPath() + CompressedPageStore.FILE_SUFFIX);
+        CompressedPageStore store = new CompressedPageStore(channel, pageSize, pageSize, mapFile, true);
+        store.writePage(0, zeroPage);
+        store.writePage(1, zeroPage);
+        // 映射在镜像刷盘之后才写入映射文件
+        Assert.assertEquals(0, mapFile.length());
+        store.force();
+        Assert.assertEquals(2 * 8, mapFile.length());
+
+        // 第0页改写后原来的单元还不能复用：磁盘上的映射可能仍然指向它
+        store.writePage(0, randomPage);
+        long dataLength = 2 * CompressedPageStore.UNIT_SIZE + pageSize;
+        Assert.assertEquals(dataLength, store.getDataLength());
+        store.writePage(2, zeroPage);
+        dataLength += CompressedPageStore.UNIT_SIZE;
+        Assert.assertEquals(dataLength, store.getDataLength());
+
+        // 映射刷盘之后才被复用
+        store.force();
+        store.writePage(3, zeroPage);
+        Assert.assertEquals(dataLength, store.getDataLength());
+        Assert.assertArrayEquals(randomPage, store.readPage(0));
+        store.close();
+        channel.close();
+    }
+
+    @Test
+    public void testConcurrentReadWrite() throws Exception {
+        int pageSize = 4096;
+        int pageNum = 8;
+        File file = TestUtil.newTempFile("pageCompressionTest");
+        PageFileChannel channel = new PageFileChannel(file);
+        CompressedPageStore store = new CompressedPageStore(channel, pageSize, pageSize,
+                new File(file.getPath() + CompressedPageStore.FILE_SUFFIX), true);
+        for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+            store.writePage(pgNo, versionPage(pageSize, pgNo, 0));
+        }
+
+        // 每个写线程反复改写自己的页(镜像的长度随版本变化，每次都会重新分配空间)，读线程读到的必须是某一个完整的版本
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threadList = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            int writerNo = t;
+            threadList.add(new Thread(() -> {
+                try {
+                    for (int version = 1; version <= 200; version++) {
+                        for (int pgNo = writerNo; pgNo < pageNum; pgNo += 2) {
+                            store.writePage(pgNo, versionPage(pageSize, pgNo, version));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (int t = 0; t < 2; t++) {
+            threadList.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 2000; round++) {
+                        int pgNo = round % pageNum;
+                        byte[] pageData = store.readPage(pgNo);
+                        Assert.assertArrayEquals(versionPage(pageSize, pgNo, pageData[1] & 0xFF), pageData);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threadList) {
+            thread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        for (int pgNo = 0; pgNo < pageNum; pgNo++) {
+            Assert.assertArrayEquals(versionPage(pageSize, pgNo, 200), store.readPage(pgNo));
+        }
+        store.close();
+        channel.close();
+    }
+
+    /**
+     * 页号为pgNo的页的第version个版本，版本越大可压缩的部分越少
+     * */
+    private static byte[] versionPage(int pageSize, int pgNo, int version) {
+        byte[] pageData = new byte[pageSize];
+        pageData[0] = (byte) pgNo;
+        pageData[1] = (byte) version;
+        Random random = new Random(pgNo * 1000L + version);
+        for (int i = 2; i < 2 + version * 8 && i < pageSize; i++) {
+            pageData[i] = (byte) random.nextInt(256);
+        }
+        return pageData;
+    }
+
+    @Test
+    public void testCompressedHeapFile() throws IOException {
+        Database.reset(new DBConfig(4096, 100));
+        TableDesc tableDesc = TestUtil.newTableDesc("compressedHeapFile");
+
+        File plainFile = TestUtil.newTempFile("pageCompressionTest");
+        DBHeapFile plainHeapFile = new DBHeapFile(tableDesc, plainFile);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, plainHeapFile);
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        Database.getBufferPool().flushAllPages();
+        long plainFileLength = plainFile.length();
+
+        Database.reset(new DBConfig(4096, 100));
+        File compressedFile = TestUtil.newTempFile("pageCompressionTest");
+        DBHeapFile compressedHeapFile = new DBHeapFile(tableDesc, compressedFile, HeapPageFormatEnum.FIXED, PageCompressionEnum.LZ);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, compressedHeapFile);
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        // 逻辑页数不变，定长字符串的填充被压缩掉，磁盘占用远小于不压缩的文件
+        Assert.assertEquals(plainHeapFile.getCurrentPageNum(), compressedHeapFile.getCurrentPageNum());
+        CompressedPageStore store = compressedHeapFile.getCompressedPageStore();
+        Assert.assertTrue(store.getStoredBytes() * 4 < (long) compressedHeapFile.getCurrentPageNum() * 4096);
+        Assert.assertTrue(compressedFile.length() * 2 < plainFileLength);
+
+        // 重新打开时以文件头中记录的压缩方式为准
+        compressedHeapFile.close();
+        Database.reset(new DBConfig(4096, 100));
+        DBHeapFile reopenFile = new DBHeapFile(tableDesc, compressedFile);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopenFile);
+        Assert.assertEquals(PageCompressionEnum.LZ, reopenFile.getPageCompression());
+        List<Record> recordList = TestUtil.readAll(reopenFile.getIterator());
+        Assert.assertEquals(2000, recordList.size());
+        Assert.assertEquals(1500, recordList.get(1500).getField(0).getValue());
+
+        for (int i = 0; i < 100; i++) {
+            Database.getBufferPool().deleteTuple(recordList.get(i));
+        }
+        Database.getBufferPool().flushAllPages();
+        Assert.assertEquals(1900, TestUtil.readAll(reopenFile.getIterator()).size());
+
+        List<Record> loadRecordList = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            loadRecordList.add(TestUtil.newRecord(tableDesc, 2000 + i));
+        }
+        reopenFile.bulkLoad(loadRecordList.iterator());
+        reopenFile.close();
+
+        Database.reset(new DBConfig(4096, 100));
+        reopenFile = new DBHeapFile(tableDesc, compressedFile);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopenFile);
+        recordList = TestUtil.readAll(reopenFile.getIterator());
+        Assert.assertEquals(2400, recordList.size());
+        Assert.assertEquals("record2499", recordList.get(2399).getField(1).getValue());
+        reopenFile.close();
+    }
+
+    @Test
+    public void testCompressedBTreeFile() throws IOException {
+        Database.reset(new DBConfig(4096, 1000));
+        TableDesc tableDesc = TestUtil.newTableDesc("compressedBTreeFile");
+        File file = TestUtil.newTempFile("pageCompressionTest");
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0, PageCompressionEnum.LZ);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+
+        int keyNum = 3000;
+        List<Record> recordList = new ArrayList<>();
+        for (int i = 0; i < keyNum; i++) {
+            recordList.add(TestUtil.newRecord(tableDesc, i));
+        }
+        Collections.shuffle(recordList, new Random(3));
+        bTreeFile.bulkBuild(recordList.iterator(), 0.8, 1000);
+        Assert.assertTrue(bTreeFile.getCompressedPageStore().getStoredBytes() * 2 < (long) bTreeFile.numPages() * 4096);
+
+        // 插入导致页分裂，新页的镜像重新分配空间
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, keyNum + i));
+        }
+        for (int key = 0; key < 1000; key += 10) {
+            for (Record record : bTreeFile.findRecords(new IntField(key))) {
+                Database.getBufferPool().deleteTuple(record);
+            }
+        }
+        Database.getBufferPool().flushAllPages();
+        bTreeFile.close();
+
+        Database.reset(new DBConfig(4096, 1000));
+        BTreeFile reopenFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopenFile);
+        Assert.assertEquals(PageCompressionEnum.LZ, reopenFile.getPageCompression());
+        List<Record> resultList = TestUtil.readAll(reopenFile.getIterator());
+        Assert.assertEquals(keyNum + 900, resultList.size());
+        Assert.assertEquals(1, resultList.get(0).getField(0).getValue());
+        Assert.assertEquals(0, reopenFile.findRecords(new IntField(990)).size());
+        Assert.assertEquals(1, reopenFile.findRecords(new IntField(991)).size());
+        Assert.assertEquals(1, reopenFile.findRecords(new IntField(keyNum + 500)).size());
+        reopenFile.close();
+    }
+}
@@ -0,0 +1,126 @@
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.matadata.fields.Field;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对比页面序列化的三种方式(每条记录都需要按字段编码，相当于刷盘时的脏页)：
+ * stream     ByteArrayOutputStream + DataOutputStream，最后toByteArray拷贝一次(之前的实现方式)
+ * byteArray  serialize()，按绝对位置直接写入新的字节数组
+ * frame      serialize(ByteBuffer)，按绝对位置写入复用的堆外页帧(缓冲池中脏页写回页帧的方式)
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes PageSerializeBenchmark
+ */
+public class PageSerializeBenchmark {
+
+    private static final int PAGE_SIZE = 8192;
+    private static final int ROUND_NUM = 50000;
+
+    public static void main(String[] args) throws IOException {
+        TableDesc tableDesc = new TableDesc("pageSerializeBenchmark", new ColumnTypeEnum[]{
+                ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), 0);
+        DBHeapPage page = new DBHeapPage(tableDesc, pageId, new byte[PAGE_SIZE]);
+        List<Record> recordList = new ArrayList<>();
+        for (int i = 0; i < page.getMaxSlotNum(); i++) {
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(i), new IntField(i % 100), new StringField("record" + i)));
+            page.insertRecord(record);
+            recordList.add(record);
+        }
+        int headerLength = (page.getMaxSlotNum() + 7) / 8;
+        byte[] bitMapData = Arrays.copyOf(page.serialize(), headerLength);
+        ByteBuffer frame = ByteBuffer.allocateDirect(PAGE_SIZE);
+
+        System.out.printf("pageSize=%d, records per page=%d, rounds=%d%n", PAGE_SIZE, page.getMaxSlotNum(), ROUND_NUM);
+        System.out.printf("%-12s %-12s %-12s %-16s%n", "mode", "cost(ms)", "pages/s", "alloc bytes/page");
+        for (int warmUp = 0; warmUp < 2; warmUp++) {
+            boolean print = warmUp == 1;
+            run("stream", print, () -> {
+                long checksum = 0;
+                for (int round = 0; round < ROUND_NUM; round++) {
+                    checksum += serializeByStream(tableDesc, bitMapData, recordList)[round % PAGE_SIZE];
+                }
+                return checksum;
+            });
+            run("byteArray", print, () -> {
+                long checksum = 0;
+                for (int round = 0; round < ROUND_NUM; round++) {
+                    checksum += page.serialize()[round % PAGE_SIZE];
+                }
+                return checksum;
+            });
+            run("frame", print, () -> {
+                long checksum = 0;
+                for (int round = 0; round < ROUND_NUM; round++) {
+                    page.serialize(frame);
+                    checksum += frame.get(round % PAGE_SIZE);
+                }
+                return checksum;
+            });
+        }
+    }
+
+    /**
+     * 之前的序列化方式：经过DataOutputStream逐个字段写出，再从ByteArrayOutputStream中拷贝出结果
+     * */
+    private static byte[] serializeByStream(TableDesc tableDesc, byte[] bitMapData, List<Record> recordList) {
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(PAGE_SIZE);
+            DataOutputStream dos = new DataOutputStream(byteArrayOutputStream);
+            for (byte b : bitMapData) {
+                dos.writeByte(b);
+            }
+            for (Record record : recordList) {
+                for (Field field : record.getFieldList()) {
+                    field.serialize(dos);
+                }
+            }
+            int needPaddingLength = PAGE_SIZE - bitMapData.length - tableDesc.getSize() * recordList.size();
+            dos.write(new byte[needPaddingLength], 0, needPaddingLength);
+            dos.flush();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void run(String mode, boolean print, Task task) {
+        long allocatedBefore = allocatedBytes();
+        long startNanos = System.nanoTime();
+        long checksum = task.run();
+        long costMillis = Math.max(1, (System.nanoTime() - startNanos) / 1000_000);
+        long allocatedBytes = allocatedBytes() - allocatedBefore;
+        if (print) {
+            System.out.printf("%-12s %-12d %-12d %-16d (checksum=%d)%n",
+                    mode, costMillis, ROUND_NUM * 1000L / costMillis, allocatedBytes / ROUND_NUM, checksum);
+        }
+    }
+
+    /**
+     * 当前线程累计分配的堆内存(HotSpot支持)，不支持时返回0
+     * */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private interface Task {
+        long run();
+    }
+}
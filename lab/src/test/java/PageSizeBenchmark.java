@@ -0,0 +1,122 @@
+import simpledb.BufferPool;
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.iterator.operator.SeqScan;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 在缓冲池内存总量固定的前提下，对比不同页大小对顺序扫描和B+树点查的影响
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes PageSizeBenchmark
+ */
+public class PageSizeBenchmark {
+
+    private static final int[] PAGE_SIZES = {1024, 4096, 8192, 16384, 32768};
+
+    /**
+     * 缓冲池内存总量(字节)，页越大缓冲池能容纳的页数越少
+     * */
+    private static final int POOL_BYTES = 2 * 1024 * 1024;
+
+    private static final int HEAP_RECORD_NUM = 100000;
+    private static final int BTREE_RECORD_NUM = 20000;
+    private static final int LOOKUP_NUM = 50000;
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("pool bytes=%d, heap records=%d, btree records=%d, lookups=%d%n",
+                POOL_BYTES, HEAP_RECORD_NUM, BTREE_RECORD_NUM, LOOKUP_NUM);
+        System.out.printf("%-10s %-10s %-12s %-12s %-12s %-14s %-12s%n",
+                "pageSize", "capacity", "heapPages", "scan(ms)", "btreePages", "lookup(ms)", "lookupHit");
+
+        for (int pageSize : PAGE_SIZES) {
+            int capacity = POOL_BYTES / pageSize;
+            Database.reset(new DBConfig(pageSize, capacity));
+
+            DBHeapFile heapFile = createHeapFile();
+            long scanCost = runSeqScan(heapFile);
+
+            BTreeFile bTreeFile = createBTreeFile();
+            // 重建缓冲池，点查从冷缓存开始
+            Database.reset(new DBConfig(pageSize, capacity));
+            BufferPool bufferPool = Database.getBufferPool();
+            long lookupCost = runLookup(bTreeFile);
+
+            System.out.printf("%-10d %-10d %-12d %-12d %-12d %-14d %-12.4f%n",
+                    pageSize, capacity, heapFile.getCurrentPageNum(), scanCost,
+                    bTreeFile.numPages(), lookupCost, bufferPool.getHitRatio());
+        }
+        Database.reset(new DBConfig());
+    }
+
+    private static DBHeapFile createHeapFile() throws IOException {
+        File file = File.createTempFile("pageSizeBenchmark", ".dat");
+        file.deleteOnExit();
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile heapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, heapFile);
+
+        // 直接按页写入，避免逐条插入时反复查找空闲插槽
+        int pgNo = 0;
+        DBHeapPage page = null;
+        for (int i = 0; i < HEAP_RECORD_NUM; i++) {
+            if (page == null || page.getNotEmptySlotsNum() == page.getMaxSlotNum()) {
+                if (page != null) {
+                    heapFile.writePage(page);
+                }
+                page = new DBHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), pgNo++),
+                        new byte[heapFile.getPageSize()]);
+            }
+            page.insertRecord(TestUtil.newRecord(tableDesc, i));
+        }
+        heapFile.writePage(page);
+        return heapFile;
+    }
+
+    private static BTreeFile createBTreeFile() throws IOException {
+        File file = File.createTempFile("pageSizeBenchmark", ".idx");
+        file.deleteOnExit();
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+
+        Random random = new Random(1);
+        for (int i = 0; i < BTREE_RECORD_NUM; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, random.nextInt(BTREE_RECORD_NUM)));
+        }
+        Database.getBufferPool().flushAllPages();
+        return bTreeFile;
+    }
+
+    private static long runSeqScan(DBHeapFile heapFile) {
+        long start = System.currentTimeMillis();
+        SeqScan seqScan = new SeqScan(heapFile);
+        seqScan.open();
+        int count = 0;
+        while (seqScan.hasNext()) {
+            seqScan.next();
+            count++;
+        }
+        seqScan.close();
+        if (count != HEAP_RECORD_NUM) {
+            throw new IllegalStateException("scan count=" + count);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long runLookup(BTreeFile bTreeFile) throws IOException {
+        Random random = new Random(2);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < LOOKUP_NUM; i++) {
+            bTreeFile.findRecords(new IntField(random.nextInt(BTREE_RECORD_NUM)));
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
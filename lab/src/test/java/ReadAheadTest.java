@@ -0,0 +1,104 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.bufferpool.ReadAheadEngine;
+import simpledb.dbfile.BTreeFile;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.iterator.DbFileIterator;
+import simpledb.matadata.table.TableDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+public class ReadAheadTest {
+
+    @After
+    public void tearDown() {
+        Database.reset(new DBConfig());
+    }
+
+    @Test
+    public void testHeapFileScanReadAhead() throws IOException {
+        DBConfig config = new DBConfig();
+        config.setReadAheadWindow(4);
+        Database.reset(config);
+
+        File file = TestUtil.newTempFile("readAheadTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        DBHeapFile dbHeapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, dbHeapFile);
+
+        int pageNum = 40;
+        for (int j = 0; j < pageNum; j++) {
+            HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), j);
+            DBHeapPage dbHeapPage = new DBHeapPage(tableDesc, pageId, new byte[dbHeapFile.getPageSize()]);
+            dbHeapPage.insertRecord(TestUtil.newRecord(tableDesc, j));
+            dbHeapFile.writePage(dbHeapPage);
+        }
+
+        DbFileIterator<Record> iterator = dbHeapFile.getIterator();
+        iterator.open();
+        // 游标还停留在第一页，窗口内之后的页面被后台线程加载进缓冲池
+        for (int j = 1; j <= 4; j++) {
+            HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), j);
+            Assert.assertTrue(awaitTrue(() -> Database.getBufferPool().isCached(pageId)));
+        }
+        Assert.assertFalse(Database.getBufferPool().isCached(new HeapPageId(tableDesc.getTableId(), 5)));
+
+        for (int j = 0; j < pageNum; j++) {
+            Assert.assertTrue(iterator.hasNext());
+            Assert.assertEquals(j, iterator.next().getField(0).getValue());
+        }
+        Assert.assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testBTreeLeafChainReadAhead() throws IOException {
+        DBConfig config = new DBConfig();
+        config.setReadAheadWindow(4);
+        Database.reset(config);
+
+        File file = TestUtil.newTempFile("readAheadTest");
+        TableDesc tableDesc = TestUtil.newTableDesc(file.getName());
+        BTreeFile bTreeFile = new BTreeFile(file, tableDesc, tableDesc.getTableId(), 0);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, bTreeFile);
+
+        int recordNum = 1000;
+        for (int i = recordNum - 1; i >= 0; i--) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), TestUtil.newRecord(tableDesc, i));
+        }
+        // 清空缓冲池，使叶子页需要重新从磁盘读取
+        Database.reset(config);
+
+        // 叶子页按照索引字段的顺序链接
+        DbFileIterator<Record> iterator = bTreeFile.getIterator();
+        iterator.open();
+        ReadAheadEngine readAheadEngine = Database.getBufferPool().getReadAheadEngine();
+        Assert.assertTrue(awaitTrue(() -> readAheadEngine.getPrefetchPageCount() >= 4));
+
+        for (int i = 0; i < recordNum; i++) {
+            Assert.assertTrue(iterator.hasNext());
+            Assert.assertEquals(i, iterator.next().getField(0).getValue());
+        }
+        Assert.assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    private static boolean awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.iterator.Predicate;
+import simpledb.iterator.enums.OperatorEnum;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 对比解析页面后只按一个字段过滤(字段按需解码)与每条记录都取出完整字段列表(相当于之前解析页面时的全量解码)的耗时
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes RecordDecodeBenchmark
+ */
+public class RecordDecodeBenchmark {
+
+    private static final int PAGE_SIZE = 8192;
+    private static final int ROUND_NUM = 20000;
+
+    public static void main(String[] args) throws IOException {
+        TableDesc tableDesc = new TableDesc("recordDecodeBenchmark", new ColumnTypeEnum[]{
+                ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), 0);
+        DBHeapPage page = new DBHeapPage(tableDesc, pageId, new byte[PAGE_SIZE]);
+        for (int i = 0; i < page.getMaxSlotNum(); i++) {
+            Record record = new Record(tableDesc);
+            record.setFieldList(Arrays.asList(new IntField(i), new IntField(i % 100), new StringField("record" + i)));
+            page.insertRecord(record);
+        }
+        byte[] pageData = page.serialize();
+        // 选择率1%
+        Predicate predicate = new Predicate(OperatorEnum.EQUALS, new IntField(7), 1);
+
+        System.out.printf("pageSize=%d, records per page=%d, rounds=%d%n", PAGE_SIZE, page.getMaxSlotNum(), ROUND_NUM);
+        System.out.printf("%-16s %-12s %-12s%n", "mode", "cost(ms)", "pages/s");
+        for (int warmUp = 0; warmUp < 2; warmUp++) {
+            boolean print = warmUp == 1;
+            run("filterOneField", print, () -> {
+                long matched = 0;
+                for (int round = 0; round < ROUND_NUM; round++) {
+                    Iterator<Record> iterator = new DBHeapPage(tableDesc, pageId, pageData).iterator();
+                    while (iterator.hasNext()) {
+                        if (predicate.filter(iterator.next())) {
+                            matched++;
+                        }
+                    }
+                }
+                return matched;
+            });
+            run("decodeAll", print, () -> {
+                long matched = 0;
+                for (int round = 0; round < ROUND_NUM; round++) {
+                    Iterator<Record> iterator = new DBHeapPage(tableDesc, pageId, pageData).iterator();
+                    while (iterator.hasNext()) {
+                        Record record = iterator.next();
+                        record.getFieldList();
+                        if (predicate.filter(record)) {
+                            matched++;
+                        }
+                    }
+                }
+                return matched;
+            });
+        }
+    }
+
+    private static void run(String mode, boolean print, Task task) {
+        long startNanos = System.nanoTime();
+        long matched = task.run();
+        long costMillis = Math.max(1, (System.nanoTime() - startNanos) / 1000_000);
+        if (print) {
+            System.out.printf("%-16s %-12d %-12d (matched=%d)%n", mode, costMillis, ROUND_NUM * 1000L / costMillis, matched);
+        }
+    }
+
+    private interface Task {
+        long run();
+    }
+}
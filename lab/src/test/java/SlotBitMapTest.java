@@ -0,0 +1,67 @@
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.dbpage.SlotBitMap;
+import simpledb.dbpage.SlotFormatEnum;
+
+import java.nio.ByteBuffer;
+
+public class SlotBitMapTest {
+
+    @Test
+    public void testSetAndSearch() {
+        SlotBitMap slotBitMap = new SlotBitMap(130);
+        Assert.assertEquals(0, slotBitMap.cardinality());
+        Assert.assertEquals(0, slotBitMap.firstClear());
+        Assert.assertEquals(-1, slotBitMap.nextSet(0));
+
+        slotBitMap.set(0);
+        slotBitMap.set(63);
+        slotBitMap.set(64);
+        slotBitMap.set(129);
+        Assert.assertEquals(4, slotBitMap.cardinality());
+        Assert.assertEquals(1, slotBitMap.firstClear());
+        Assert.assertEquals(63, slotBitMap.nextSet(1));
+        Assert.assertEquals(64, slotBitMap.nextSet(64));
+        Assert.assertEquals(129, slotBitMap.nextSet(65));
+        Assert.assertEquals(-1, slotBitMap.nextSet(130));
+
+        slotBitMap.setAll();
+        Assert.assertEquals(130, slotBitMap.cardinality());
+        Assert.assertEquals(-1, slotBitMap.firstClear());
+        slotBitMap.clear(100);
+        Assert.assertEquals(129, slotBitMap.cardinality());
+        Assert.assertEquals(100, slotBitMap.firstClear());
+        Assert.assertFalse(slotBitMap.get(100));
+    }
+
+    @Test
+    public void testSerializeFormat() {
+        SlotBitMap slotBitMap = new SlotBitMap(21);
+        for (int slot : new int[]{0, 3, 8, 20}) {
+            slotBitMap.set(slot);
+        }
+
+        for (SlotFormatEnum slotFormatEnum : SlotFormatEnum.values()) {
+            // 从偏移量2开始按绝对位置写入，前后的数据不受影响
+            int headerLength = slotFormatEnum.headerLength(21);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(headerLength + 4);
+            buffer.put(0, (byte) 7);
+            buffer.put(headerLength + 3, (byte) 7);
+            slotFormatEnum.write(slotBitMap, buffer, 2);
+            Assert.assertEquals(0, buffer.position());
+            Assert.assertEquals(7, buffer.get(0));
+            Assert.assertEquals(7, buffer.get(headerLength + 3));
+
+            SlotBitMap readBitMap = new SlotBitMap(21);
+            slotFormatEnum.read(readBitMap, buffer, 2);
+            for (int slot = 0; slot < 21; slot++) {
+                Assert.assertEquals(slotBitMap.get(slot), readBitMap.get(slot));
+            }
+        }
+
+        // 按位存储时，第i个插槽对应第i/8个字节的第i%8位(低位在前)
+        byte[] data = new byte[3];
+        SlotFormatEnum.BIT_PACKED.write(slotBitMap, ByteBuffer.wrap(data), 0);
+        Assert.assertArrayEquals(new byte[]{0x09, 0x01, 0x10}, data);
+    }
+}
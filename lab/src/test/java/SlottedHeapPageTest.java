@@ -0,0 +1,147 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbpage.normal.DBSlottedHeapPage;
+import simpledb.dbpage.normal.HeapPageFormatEnum;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.dbrecord.Record;
+import simpledb.dbrecord.RecordId;
+import simpledb.exception.DBException;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+public class SlottedHeapPageTest {
+
+    @After
+    public void tearDown() {
+        Database.reset(new DBConfig());
+    }
+
+    @Test
+    public void testInsertDeleteAndCompact() {
+        TableDesc tableDesc = newTableDesc("slottedPage");
+        HeapPageId pageId = new HeapPageId(tableDesc.getTableId(), 0);
+        DBSlottedHeapPage page = new DBSlottedHeapPage(tableDesc, pageId, new byte[1024]);
+        Assert.assertEquals(0, page.getNotEmptySlotsNum());
+
+        // 每条记录：4 + (2 + 5) + (2 + 3) = 16字节，加上4字节的插槽
+        List<Record> recordList = new ArrayList<>();
+        for (int i = 0; page.canInsert(newRecord(tableDesc, i)); i++) {
+            Record record = newRecord(tableDesc, i);
+            page.insertRecord(record);
+            Assert.assertEquals(new RecordId(pageId, i), record.getRecordId());
+            recordList.add(record);
+        }
+        Assert.assertEquals((1024 - 4) / 20, recordList.size());
+        Assert.assertEquals(recordList.size(), page.getMaxSlotNum());
+
+        // 删除中间的记录，留下不连续的空洞
+        for (int i = 0; i < 10; i += 2) {
+            page.deleteRecord(recordList.get(i));
+        }
+        Assert.assertEquals(recordList.size() - 5, page.getNotEmptySlotsNum());
+
+        // 一条更长的记录需要整理页面后才能放下，并复用空出来的插槽
+        Record longRecord = new Record(tableDesc);
+        longRecord.setFieldList(Arrays.asList(new IntField(-1), new StringField("a longer name"), new StringField("xyz")));
+        Assert.assertTrue(page.canInsert(longRecord));
+        page.insertRecord(longRecord);
+        Assert.assertEquals(new RecordId(pageId, 0), longRecord.getRecordId());
+
+        DBSlottedHeapPage pageCopy = new DBSlottedHeapPage(tableDesc, pageId, page.serialize());
+        Assert.assertEquals(page.getNotEmptySlotsNum(), pageCopy.getNotEmptySlotsNum());
+        Assert.assertEquals(page.getFreeSpace(), pageCopy.getFreeSpace());
+        Iterator<Record> iterator = pageCopy.iterator();
+        Record first = iterator.next();
+        Assert.assertEquals(-1, first.getField(0).getValue());
+        Assert.assertEquals("a longer name", first.getField(1).getValue());
+        Assert.assertEquals(new RecordId(pageId, 1), iterator.next().getRecordId());
+        Record third = iterator.next();
+        Assert.assertEquals(new RecordId(pageId, 3), third.getRecordId());
+        Assert.assertEquals("n0003", third.getField(1).getValue());
+
+        try {
+            page.deleteRecord(recordList.get(2));
+            Assert.fail();
+        } catch (DBException e) {
+            // 已经删除的记录
+        }
+    }
+
+    @Test
+    public void testSlottedHeapFile() throws IOException {
+        Database.reset(new DBConfig(4096, 100));
+        TableDesc tableDesc = newTableDesc("slottedHeapFile");
+
+        File fixedFile = TestUtil.newTempFile("slottedHeapPageTest");
+        DBHeapFile fixedHeapFile = new DBHeapFile(tableDesc, fixedFile);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, fixedHeapFile);
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), newRecord(tableDesc, i));
+        }
+        Database.getBufferPool().flushAllPages();
+        int fixedPageNum = fixedHeapFile.getCurrentPageNum();
+
+        Database.reset(new DBConfig(4096, 100));
+        File slottedFile = TestUtil.newTempFile("slottedHeapPageTest");
+        DBHeapFile slottedHeapFile = new DBHeapFile(tableDesc, slottedFile, HeapPageFormatEnum.SLOTTED);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, slottedHeapFile);
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tableDesc.getTableId(), newRecord(tableDesc, i));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        // 短字符串只占用实际的长度，需要的页数远少于定长格式
+        int slottedPageNum = slottedHeapFile.getCurrentPageNum();
+        Assert.assertTrue(slottedPageNum * 5 < fixedPageNum);
+
+        // 重新打开时以文件头中记录的格式为准
+        Database.reset(new DBConfig(4096, 100));
+        DBHeapFile reopenFile = new DBHeapFile(tableDesc, slottedFile);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, reopenFile);
+        Assert.assertEquals(HeapPageFormatEnum.SLOTTED, reopenFile.getHeapPageFormat());
+        List<Record> recordList = TestUtil.readAll(reopenFile.getIterator());
+        Assert.assertEquals(1000, recordList.size());
+        Assert.assertEquals("n0500", recordList.get(500).getField(1).getValue());
+
+        for (int i = 0; i < 100; i++) {
+            Database.getBufferPool().deleteTuple(recordList.get(i));
+        }
+        Assert.assertEquals(900, TestUtil.readAll(reopenFile.getIterator()).size());
+
+        // 批量导入同样按照slotted格式组织页面
+        List<Record> loadRecordList = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            loadRecordList.add(newRecord(tableDesc, 1000 + i));
+        }
+        reopenFile.bulkLoad(loadRecordList.iterator());
+        Assert.assertEquals(1400, TestUtil.readAll(reopenFile.getIterator()).size());
+    }
+
+    private static TableDesc newTableDesc(String tableId) {
+        return new TableDesc(
+                tableId,
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE,
+                        ColumnTypeEnum.STRING_TYPE}
+        );
+    }
+
+    private static Record newRecord(TableDesc tableDesc, int id) {
+        Record record = new Record(tableDesc);
+        record.setFieldList(Arrays.asList(new IntField(id), new StringField(String.format("n%04d", id)), new StringField("abc")));
+        return record;
+    }
+}
@@ -0,0 +1,84 @@
+import simpledb.DBConfig;
+import simpledb.Database;
+import simpledb.dbfile.DBHeapFile;
+import simpledb.dbfile.SyncPolicyEnum;
+import simpledb.dbpage.normal.DBHeapPage;
+import simpledb.dbpage.normal.HeapPageId;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对比不同刷盘策略下逐页写入的吞吐(页/秒)以及实际发起的force次数
+ * 多线程时所有线程写同一张表的不同页，ALWAYS策略下并发的写入可以共享同一次刷盘
+ * 运行方式：mvn test-compile 后执行 java -cp target/classes:target/test-classes SyncPolicyBenchmark
+ */
+public class SyncPolicyBenchmark {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGE_NUM_PER_THREAD = 2000;
+    private static final int[] THREAD_NUMS = {1, 4};
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("pageSize=%d, pages per thread=%d%n", PAGE_SIZE, PAGE_NUM_PER_THREAD);
+        System.out.printf("%-8s %-8s %-12s %-12s %-8s%n", "policy", "threads", "cost(ms)", "pages/s", "syncs");
+        for (SyncPolicyEnum syncPolicyEnum : SyncPolicyEnum.values()) {
+            for (int threadNum : THREAD_NUMS) {
+                DBConfig config = new DBConfig(PAGE_SIZE, DBConfig.DEFAULT_PAGE_CAPACITY);
+                config.setSyncPolicyEnum(syncPolicyEnum);
+                Database.reset(config);
+                runRound(syncPolicyEnum, threadNum);
+            }
+        }
+        Database.reset(new DBConfig());
+    }
+
+    private static void runRound(SyncPolicyEnum syncPolicyEnum, int threadNum) throws Exception {
+        DBHeapFile heapFile = createHeapFile();
+        List<Thread> threadList = new ArrayList<>();
+        for (int i = 0; i < threadNum; i++) {
+            int firstPgNo = i * PAGE_NUM_PER_THREAD;
+            threadList.add(new Thread(() -> writePages(heapFile, firstPgNo)));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threadList) {
+            thread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        // 剩余未刷盘的数据也计入耗时
+        Database.getSyncWriter().sync();
+        long costNanos = System.nanoTime() - start;
+
+        long pageNum = (long) PAGE_NUM_PER_THREAD * threadNum;
+        System.out.printf("%-8s %-8d %-12d %-12d %-8d%n", syncPolicyEnum, threadNum, costNanos / 1000000,
+                pageNum * 1000000000L / Math.max(costNanos, 1), Database.getSyncWriter().getSyncNum());
+        heapFile.close();
+    }
+
+    private static void writePages(DBHeapFile heapFile, int firstPgNo) {
+        TableDesc tableDesc = heapFile.getTableDesc();
+        for (int pgNo = firstPgNo; pgNo < firstPgNo + PAGE_NUM_PER_THREAD; pgNo++) {
+            DBHeapPage page = new DBHeapPage(tableDesc, new HeapPageId(tableDesc.getTableId(), pgNo),
+                    new byte[heapFile.getPageSize()]);
+            page.insertRecord(TestUtil.newRecord(tableDesc, pgNo));
+            heapFile.writePage(page);
+        }
+    }
+
+    private static DBHeapFile createHeapFile() throws IOException {
+        File file = File.createTempFile("syncPolicyBenchmark", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".fsm").deleteOnExit();
+        TableDesc tableDesc = new TableDesc(file.getName(),
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE, ColumnTypeEnum.STRING_TYPE});
+        DBHeapFile heapFile = new DBHeapFile(tableDesc, file);
+        Database.getCatalog().addTable(tableDesc.getTableId(), tableDesc, heapFile);
+        return heapFile;
+    }
+}
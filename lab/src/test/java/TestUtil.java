@@ -0,0 +1,59 @@
+import simpledb.dbfile.CompressedPageStore;
+import simpledb.dbfile.FreeSpaceMap;
+import simpledb.dbrecord.Record;
+import simpledb.iterator.DbFileIterator;
+import simpledb.matadata.fields.IntField;
+import simpledb.matadata.fields.StringField;
+import simpledb.matadata.table.TableDesc;
+import simpledb.matadata.types.ColumnTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单测公用的建表、造数据方法
+ */
+public class TestUtil {
+
+    /**
+     * 创建临时的表文件，表文件附带的空闲空间映射、页映射等文件也会在退出时删除
+     * */
+    public static File newTempFile(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX).deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.FILE_SUFFIX + FreeSpaceMap.CLEAN_FILE_SUFFIX).deleteOnExit();
+        new File(file.getPath() + CompressedPageStore.FILE_SUFFIX).deleteOnExit();
+        return file;
+    }
+
+    /**
+     * (int id, string name)两列的表
+     * */
+    public static TableDesc newTableDesc(String tableId) {
+        return new TableDesc(
+                tableId,
+                new ColumnTypeEnum[]{ ColumnTypeEnum.INT_TYPE,
+                        ColumnTypeEnum.STRING_TYPE}
+        );
+    }
+
+    public static Record newRecord(TableDesc tableDesc, int id) {
+        Record record = new Record(tableDesc);
+        record.setFieldList(Arrays.asList(new IntField(id), new StringField("record" + id)));
+        return record;
+    }
+
+    public static List<Record> readAll(DbFileIterator<Record> iterator) {
+        List<Record> recordList = new ArrayList<>();
+        iterator.open();
+        while (iterator.hasNext()) {
+            recordList.add(iterator.next());
+        }
+        iterator.close();
+        return recordList;
+    }
+}